@@ -0,0 +1,6 @@
+#!/bin/bash
+
+# Usage: ./scripts/run-benchmarks.sh [benchmark-regex] [thread-counts, e.g. 1,4,8]
+
+./gradlew jmh ${1:+-PjmhInclude=$1} ${2:+-PjmhThreads=$2}
+
@@ -0,0 +1,150 @@
+package com.softwareverde.security.dukpt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Each <code>encrypt*</code>/<code>decrypt*</code> variant with a derived 16-byte key and no padding, by data length
+ * in bytes; the direct-buffer variants use the <code>ByteBuffer</code> overloads.
+ *
+ * <p>Buffers are per-thread, so the benchmarks may be run with any number of threads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CipherBenchmark {
+    @Param({ "16", "64", "1024" })
+    public int dataLength;
+
+    private byte[] _key;
+    private byte[] _plaintext;
+    private byte[] _desCiphertext;
+    private byte[] _tripleDesCiphertext;
+    private byte[] _aesCiphertext;
+    private byte[] _aes192Ciphertext;
+    private byte[] _aes256Ciphertext;
+
+    private ByteBuffer _directPlaintext;
+    private ByteBuffer _directTripleDesCiphertext;
+    private ByteBuffer _directAesCiphertext;
+    private ByteBuffer _directOutput;
+
+    private static ByteBuffer _toDirectBuffer(final byte[] bytes) {
+        final ByteBuffer byteBuffer = ByteBuffer.allocateDirect(bytes.length);
+        byteBuffer.put(bytes);
+        byteBuffer.flip();
+        return byteBuffer;
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        _key = Dukpt.computeKey(Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"), Dukpt.toByteArray("FFFF9876543210E00008"));
+        _plaintext = new byte[dataLength];
+        new Random(1L).nextBytes(_plaintext);
+
+        _desCiphertext = Dukpt.encryptDes(_key, _plaintext);
+        _tripleDesCiphertext = Dukpt.encryptTripleDes(_key, _plaintext);
+        _aesCiphertext = Dukpt.encryptAes(_key, _plaintext);
+        _aes192Ciphertext = Dukpt.encryptAes192(_key, _plaintext);
+        _aes256Ciphertext = Dukpt.encryptAes256(_key, _plaintext);
+
+        _directPlaintext = _toDirectBuffer(_plaintext);
+        _directTripleDesCiphertext = _toDirectBuffer(_tripleDesCiphertext);
+        _directAesCiphertext = _toDirectBuffer(_aesCiphertext);
+        _directOutput = ByteBuffer.allocateDirect(dataLength);
+    }
+
+    @Benchmark
+    public byte[] encryptDes() throws Exception {
+        return Dukpt.encryptDes(_key, _plaintext);
+    }
+
+    @Benchmark
+    public byte[] decryptDes() throws Exception {
+        return Dukpt.decryptDes(_key, _desCiphertext);
+    }
+
+    @Benchmark
+    public byte[] encryptTripleDes() throws Exception {
+        return Dukpt.encryptTripleDes(_key, _plaintext);
+    }
+
+    @Benchmark
+    public byte[] decryptTripleDes() throws Exception {
+        return Dukpt.decryptTripleDes(_key, _tripleDesCiphertext);
+    }
+
+    @Benchmark
+    public byte[] encryptAes() throws Exception {
+        return Dukpt.encryptAes(_key, _plaintext);
+    }
+
+    @Benchmark
+    public byte[] decryptAes() throws Exception {
+        return Dukpt.decryptAes(_key, _aesCiphertext);
+    }
+
+    @Benchmark
+    public byte[] encryptAes192() throws Exception {
+        return Dukpt.encryptAes192(_key, _plaintext);
+    }
+
+    @Benchmark
+    public byte[] decryptAes192() throws Exception {
+        return Dukpt.decryptAes192(_key, _aes192Ciphertext);
+    }
+
+    @Benchmark
+    public byte[] encryptAes256() throws Exception {
+        return Dukpt.encryptAes256(_key, _plaintext);
+    }
+
+    @Benchmark
+    public byte[] decryptAes256() throws Exception {
+        return Dukpt.decryptAes256(_key, _aes256Ciphertext);
+    }
+
+    @Benchmark
+    public int encryptTripleDesDirectBuffer() throws Exception {
+        _directPlaintext.rewind();
+        _directOutput.clear();
+        return Dukpt.encryptTripleDes(_key, _directPlaintext, _directOutput);
+    }
+
+    @Benchmark
+    public int decryptTripleDesDirectBuffer() throws Exception {
+        _directTripleDesCiphertext.rewind();
+        _directOutput.clear();
+        return Dukpt.decryptTripleDes(_key, _directTripleDesCiphertext, _directOutput);
+    }
+
+    @Benchmark
+    public int encryptAesDirectBuffer() throws Exception {
+        _directPlaintext.rewind();
+        _directOutput.clear();
+        return Dukpt.encryptAes(_key, _directPlaintext, _directOutput);
+    }
+
+    @Benchmark
+    public int decryptAesDirectBuffer() throws Exception {
+        _directAesCiphertext.rewind();
+        _directOutput.clear();
+        return Dukpt.decryptAes(_key, _directAesCiphertext, _directOutput);
+    }
+}
@@ -0,0 +1,77 @@
+package com.softwareverde.security.dukpt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>The hex, BitSet and register conversion helpers, by input length in bytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConversionBenchmark {
+    @Param({ "10", "16", "64" })
+    public int length;
+
+    private byte[] _bytes;
+    private BitSet _bitSet;
+    private String _hexString;
+
+    @Setup
+    public void setup() {
+        _bytes = new byte[length];
+        new Random(1L).nextBytes(_bytes);
+        _bitSet = Dukpt.toBitSet(_bytes);
+        _hexString = Dukpt.toHex(_bytes);
+    }
+
+    @Benchmark
+    public BitSet toBitSet() {
+        return Dukpt.toBitSet(_bytes);
+    }
+
+    @Benchmark
+    public byte[] bitSetToByteArray() {
+        return Dukpt.toByteArray(_bitSet);
+    }
+
+    @Benchmark
+    public byte[] hexToByteArray() {
+        return Dukpt.toByteArray(_hexString);
+    }
+
+    @Benchmark
+    public String toHex() {
+        return Dukpt.toHex(_bytes);
+    }
+
+    /**
+     * <p>Reads each whole 8-byte block as a register and writes it back, as the cipher and derivation paths do; the
+     * Java 17 version of {@link Bytes} is only picked up when benchmarking the multi-release jar on Java 17+.
+     */
+    @Benchmark
+    public long registerRoundTrip() {
+        long checksum = 0L;
+        for (int offset = 0; offset <= (length - 8); offset += 8) {
+            final long register = Bytes.toLong(_bytes, offset);
+            Bytes.putLong(register, _bytes, offset);
+            checksum ^= register;
+        }
+        return checksum;
+    }
+}
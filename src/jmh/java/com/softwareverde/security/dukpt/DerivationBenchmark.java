@@ -0,0 +1,96 @@
+package com.softwareverde.security.dukpt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Key derivation, by the number of set bits in the KSN's transaction counter (i.e. the number of non-reversible key
+ * generation steps).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DerivationBenchmark {
+    @Param({ "1", "2", "3", "4", "5", "6", "7", "8", "9", "10" })
+    public int counterHammingWeight;
+
+    private byte[] _baseDerivationKey;
+    private byte[] _initialPinEncryptionKey;
+    private byte[] _keySerialNumber;
+    private byte[] _derivedKey;
+    private BaseDerivationKey _preparedBaseDerivationKey;
+    private BitSet _baseDerivationKeyBits;
+    private BitSet _keySerialNumberBits;
+    private DukptVariant _dataVariant;
+
+    @Setup
+    public void setup() throws Exception {
+        _baseDerivationKey = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"); // ANSI Test Key
+        _initialPinEncryptionKey = Dukpt.toByteArray("6AC292FAA1315B4D858AB3A3D7D5933A");
+
+        // Spread the set bits across the 21-bit counter, e.g. 0x100000, 0x108000, ...
+        long counter = 0L;
+        for (int i = 0; i < counterHammingWeight; i++) {
+            counter |= (1L << (20 - (2 * i)));
+        }
+        _keySerialNumber = Dukpt.toByteArray("FFFF9876543210E00000");
+        _keySerialNumber[7] |= (byte) (counter >>> 16);
+        _keySerialNumber[8] = (byte) (counter >>> 8);
+        _keySerialNumber[9] = (byte) counter;
+
+        _derivedKey = Dukpt.computeKey(_baseDerivationKey, _keySerialNumber);
+        _preparedBaseDerivationKey = new BaseDerivationKey(_baseDerivationKey);
+        _baseDerivationKeyBits = Dukpt.toBitSet(_baseDerivationKey);
+        _keySerialNumberBits = Dukpt.toBitSet(_keySerialNumber);
+        _dataVariant = new DukptVariant(Dukpt.KEY_REGISTER_BITMASK, Dukpt.DATA_VARIANT_BITMASK);
+    }
+
+    @Benchmark
+    public byte[] computeKey() throws Exception {
+        return Dukpt.computeKey(_baseDerivationKey, _keySerialNumber);
+    }
+
+    @Benchmark
+    public byte[] computeKeyFromPreparedBdk() throws Exception {
+        return Dukpt.computeKey(_preparedBaseDerivationKey, _keySerialNumber);
+    }
+
+    @Benchmark
+    public byte[] computeKeyFromIpek() throws Exception {
+        return Dukpt.computeKeyFromIpek(_initialPinEncryptionKey, _keySerialNumber);
+    }
+
+    @Benchmark
+    public byte[] computeDataVariantKey() throws Exception {
+        return _dataVariant.computeKey(_baseDerivationKey, _keySerialNumber);
+    }
+
+    @Benchmark
+    public BitSet getIpek() throws Exception {
+        return Dukpt.getIpek(_baseDerivationKeyBits, _keySerialNumberBits);
+    }
+
+    @Benchmark
+    public byte[] getIpekFromPreparedBdk() throws Exception {
+        return Dukpt.getIpek(_preparedBaseDerivationKey, _keySerialNumber);
+    }
+
+    @Benchmark
+    public byte[] toDataKey() throws Exception {
+        return Dukpt.toDataKey(_derivedKey);
+    }
+}
@@ -0,0 +1,45 @@
+package com.softwareverde.security.dukpt;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * <p>Runs the benchmarks once per requested thread count, with the GC profiler attached so that the allocation rate
+ * (<code>gc.alloc.rate.norm</code>, bytes per operation) is reported next to each score.
+ *
+ * <p>System properties:
+ * <ul>
+ *     <li><code>jmh.include</code>: a regular expression selecting the benchmarks (default: all).</li>
+ *     <li><code>jmh.threads</code>: a comma-separated list of thread counts (default: 1 and the number of processors).</li>
+ *     <li><code>jmh.resultDirectory</code>: where the JSON results are written, one file per thread count.</li>
+ * </ul>
+ */
+public class DukptBenchmarks {
+    public static void main(final String[] arguments) throws Exception {
+        final String include = System.getProperty("jmh.include", ".*Benchmark.*");
+        final String threadCounts = System.getProperty("jmh.threads", "1," + Runtime.getRuntime().availableProcessors());
+        final File resultDirectory = new File(System.getProperty("jmh.resultDirectory", "build/reports/jmh"));
+        if ( (! resultDirectory.isDirectory()) && (! resultDirectory.mkdirs()) ) {
+            throw new IllegalArgumentException("Invalid result directory provided: " + resultDirectory);
+        }
+
+        for (final String threadCountString : threadCounts.split(",")) {
+            final int threadCount = Integer.parseInt(threadCountString.trim());
+
+            final Options options = new OptionsBuilder()
+                .include(include)
+                .threads(threadCount)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(new File(resultDirectory, "results-" + threadCount + "-threads.json").getPath())
+                .build();
+
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.softwareverde.security.dukpt;
+
+/**
+ * <p>AES DUKPT (Derived Unique Key-Per-Transaction) as described in ANSI X9.24-3-2017, for devices with 12-byte Key
+ * Serial Numbers and a 32-bit transaction counter.
+ *
+ * <p>Each instance derives working keys of one usage and type, the way a {@link DukptVariant} derives keys of one TDES
+ * variant.  The Base Derivation Key may be an AES-128, AES-192 or AES-256 key; the Initial Key and the intermediate
+ * derivation keys have the same length.
+ *
+ * <p>The derivation runs on the JCE's AES implementation (and thus on the CPU's AES instructions where the JVM
+ * supports them).  For many transactions from one device, use {@link #createDeviceContext(byte[], byte[])}, which
+ * keeps the intermediate keys shared by consecutive transaction counters.
+ *
+ * @see AesDukptDeviceContext
+ */
+public class AesDukpt {
+    public static final int KEY_SERIAL_NUMBER_LENGTH = AesDukptEngine.KEY_SERIAL_NUMBER_LENGTH;
+
+    private final AesDukptEngine _engine;
+
+    /**
+     * <p>Derives AES-128 PIN encryption keys.
+     */
+    public AesDukpt() {
+        this(AesDukptKeyUsage.PIN_ENCRYPTION, AesDukptKeyType.AES_128);
+    }
+
+    /**
+     * <p>Derives working keys of <code>workingKeyUsage</code> and <code>workingKeyType</code>.
+     */
+    public AesDukpt(final AesDukptKeyUsage workingKeyUsage, final AesDukptKeyType workingKeyType) {
+        _engine = new AesDukptEngine(workingKeyUsage, workingKeyType);
+    }
+
+    public AesDukptKeyUsage getWorkingKeyUsage() {
+        return _engine.getKeyUsage();
+    }
+
+    public AesDukptKeyType getWorkingKeyType() {
+        return _engine.getKeyType();
+    }
+
+    /**
+     * <p>Returns "AES-" followed by the variant name of the working key usage (e.g. "AES-PIN"), as reported to
+     * {@link DukptMetrics}.
+     */
+    public String getVariantName() {
+        return _engine.getVariantName();
+    }
+
+    /**
+     * <p>Computes the Initial Key of the device that sent the provided Key Serial Number.
+     *
+     * @param baseDerivationKey The 16, 24 or 32 byte AES Base Derivation Key.
+     * @param keySerialNumber The 12-byte Key Serial Number; only its Initial Key ID (the first 8 bytes) is used.
+     * @return The Initial Key, of the same length as the BDK.
+     * @throws Exception
+     */
+    public byte[] getInitialKey(final byte[] baseDerivationKey, final byte[] keySerialNumber) throws Exception {
+        return _engine.getInitialKey(baseDerivationKey, keySerialNumber);
+    }
+
+    /**
+     * <p>Computes the working key for the provided Key Serial Number.
+     *
+     * @param baseDerivationKey The 16, 24 or 32 byte AES Base Derivation Key.
+     * @param keySerialNumber The 12-byte Key Serial Number.
+     * @return The working key for this transaction.
+     * @throws Exception
+     */
+    public byte[] computeKey(final byte[] baseDerivationKey, final byte[] keySerialNumber) throws Exception {
+        return _engine.computeKey(baseDerivationKey, keySerialNumber);
+    }
+
+    /**
+     * <p>Computes the working key for the provided Key Serial Number from the device's Initial Key.
+     *
+     * @see #getInitialKey(byte[], byte[])
+     * @param initialKey The device's Initial Key.
+     * @param keySerialNumber The 12-byte Key Serial Number.
+     * @return The working key for this transaction.
+     * @throws Exception
+     */
+    public byte[] computeKeyFromInitialKey(final byte[] initialKey, final byte[] keySerialNumber) throws Exception {
+        return _engine.computeKeyFromInitialKey(initialKey, keySerialNumber);
+    }
+
+    /**
+     * <p>Creates a receiver-side context for the device that sent the provided Key Serial Number.
+     *
+     * @param baseDerivationKey The 16, 24 or 32 byte AES Base Derivation Key.
+     * @param keySerialNumber Any Key Serial Number from the device.
+     * @return A context for the device.
+     * @throws Exception
+     */
+    public AesDukptDeviceContext createDeviceContext(final byte[] baseDerivationKey, final byte[] keySerialNumber) throws Exception {
+        return _engine.createDeviceContext(baseDerivationKey, keySerialNumber);
+    }
+
+    /**
+     * <p>Creates a receiver-side context for the device with the provided Initial Key.
+     *
+     * @param initialKey The device's Initial Key.
+     * @param keySerialNumber Any Key Serial Number from the device.
+     * @return A context for the device.
+     * @throws Exception
+     */
+    public AesDukptDeviceContext createDeviceContextFromInitialKey(final byte[] initialKey, final byte[] keySerialNumber) throws Exception {
+        return _engine.createDeviceContextFromInitialKey(initialKey, keySerialNumber);
+    }
+}
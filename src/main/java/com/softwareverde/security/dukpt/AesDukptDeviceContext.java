@@ -0,0 +1,133 @@
+package com.softwareverde.security.dukpt;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * <p>Receiver-side AES DUKPT derivation state for a single device (i.e. a single Initial Key ID).
+ *
+ * <p>The working key for a transaction counter is derived from the intermediate derivation key of that counter, which
+ * is reached from the Initial Key by one derivation per set counter bit, taken from the most significant bit down.
+ * The context remembers every intermediate key on the path of the last derivation; the next derivation restarts from
+ * the deepest intermediate key whose counter prefix it shares, so consecutive transactions usually cost one
+ * intermediate derivation and the working key derivation.
+ *
+ * <p>Contexts are created with {@link AesDukpt#createDeviceContext(byte[], byte[])} and
+ * {@link AesDukpt#createDeviceContextFromInitialKey(byte[], byte[])}, and only accept Key Serial Numbers from the
+ * device they were created for.  The methods are synchronized, so a context may be shared by the threads handling one
+ * device; call {@link #clear()} to zero the retained keys once it is no longer needed.
+ *
+ * @see DukptDeviceContext
+ */
+public class AesDukptDeviceContext {
+    private final AesDukptEngine _engine;
+    private final AesDukptKeyType _derivationKeyType;
+    private final long _initialKeyId;
+
+    /**
+     * <p>The keys on the current path; level 0 is the Initial Key.
+     */
+    private final byte[][] _keys = new byte[AesDukptEngine.MAX_DEPTH + 1][];
+
+    /**
+     * <p>The counter used to derive each level; <code>_counters[n]</code> produced level <code>n + 1</code>.
+     */
+    private final int[] _counters = new int[AesDukptEngine.MAX_DEPTH];
+    private int _depth = 0;
+    private boolean _isCleared = false;
+
+    private long _derivationCount = 0L;
+
+    AesDukptDeviceContext(final AesDukptEngine engine, final byte[] initialKey, final byte[] keySerialNumber) {
+        DukptEngine.checkLength("key serial number", keySerialNumber, AesDukptEngine.KEY_SERIAL_NUMBER_LENGTH);
+        if (initialKey == null) {
+            throw new IllegalArgumentException("Invalid initial key provided: null");
+        }
+
+        _engine = engine;
+        _derivationKeyType = AesDukptKeyType.forDerivationKeyLength(initialKey.length);
+        _initialKeyId = AesDukptEngine.getInitialKeyId(keySerialNumber);
+        for (int i = 0; i < _keys.length; i++) {
+            _keys[i] = new byte[initialKey.length];
+        }
+        System.arraycopy(initialKey, 0, _keys[0], 0, initialKey.length);
+    }
+
+    /**
+     * <p>Computes the working key for <code>keySerialNumber</code>, reusing the intermediate keys shared with the
+     * previous derivation.
+     *
+     * @see AesDukpt#computeKey(byte[], byte[])
+     * @param keySerialNumber A 12-byte Key Serial Number from this context's device.
+     * @return The working key for this transaction.
+     * @throws IllegalArgumentException If the KSN belongs to a different device.
+     * @throws IllegalStateException If the context has been cleared.
+     */
+    public synchronized byte[] computeKey(final byte[] keySerialNumber) throws GeneralSecurityException {
+        if (_isCleared) {
+            throw new IllegalStateException("Device context has been cleared.");
+        }
+        if (! isSameDevice(keySerialNumber)) {
+            throw new IllegalArgumentException("Key serial number belongs to a different device.");
+        }
+
+        final int transactionCounter = AesDukptEngine.getTransactionCounter(keySerialNumber);
+
+        // Find the deepest level of the current path that is a prefix of the new counter.
+        int level = 0;
+        int counter = 0;
+        int bit = (1 << 31);
+        while (bit != 0) {
+            if ((transactionCounter & bit) != 0) {
+                if ( (level >= _depth) || (_counters[level] != (counter | bit)) ) { break; }
+                counter |= bit;
+                level += 1;
+            }
+            bit >>>= 1;
+        }
+
+        // Derive the remaining levels, replacing the old path below the shared prefix.
+        while (bit != 0) {
+            if ((transactionCounter & bit) != 0) {
+                counter |= bit;
+                _counters[level] = counter;
+                _depth = level; // the path is only valid up to here until the derivation succeeds
+                AesDukptEngine.deriveIntermediateKey(_keys[level], _derivationKeyType, _initialKeyId, counter, _keys[level + 1]);
+                _derivationCount += 1L;
+                level += 1;
+            }
+            bit >>>= 1;
+        }
+        _depth = level;
+
+        final byte[] key = _engine.deriveWorkingKey(_keys[level], _initialKeyId, transactionCounter);
+        _derivationCount += 1L;
+        return key;
+    }
+
+    /**
+     * <p>Returns true if <code>keySerialNumber</code> belongs to this context's device.
+     */
+    public boolean isSameDevice(final byte[] keySerialNumber) {
+        DukptEngine.checkLength("key serial number", keySerialNumber, AesDukptEngine.KEY_SERIAL_NUMBER_LENGTH);
+        return (AesDukptEngine.getInitialKeyId(keySerialNumber) == _initialKeyId);
+    }
+
+    /**
+     * <p>Zeroes the Initial Key and every retained intermediate key; the context can no longer be used.
+     */
+    public synchronized void clear() {
+        for (final byte[] key : _keys) {
+            Dukpt.obliviate(key);
+        }
+        Dukpt.getObliviationPolicy().obliviate(_counters);
+        _depth = 0;
+        _isCleared = true;
+    }
+
+    /**
+     * <p>Returns the number of AES key derivations (intermediate and working) this context has run.
+     */
+    synchronized long getDerivationCount() {
+        return _derivationCount;
+    }
+}
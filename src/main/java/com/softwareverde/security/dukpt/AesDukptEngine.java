@@ -0,0 +1,260 @@
+package com.softwareverde.security.dukpt;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+
+/**
+ * <p>Implementation of the AES DUKPT derivation described in ANSI X9.24-3-2017.
+ *
+ * <p>The 12-byte Key Serial Number is an 8-byte Initial Key ID (a 4-byte BDK ID and a 4-byte derivation ID) followed
+ * by a 32-bit transaction counter.  Every key is derived by encrypting 16 bytes of derivation data under its parent
+ * key with AES-ECB, once per 128 bits of the derived key; the derivation data carries the key usage, the key type and
+ * either the Initial Key ID or the derivation ID and a transaction counter.  The key for a counter is reached from the
+ * Initial Key by one intermediate derivation per set counter bit, taken from the most significant bit down, followed
+ * by one working key derivation.
+ *
+ * <p>The block encryptions go through the JCE's <code>AES/ECB/NoPadding</code>, which HotSpot compiles to the AES
+ * instructions of the CPU where available, using the per-thread instances of {@link Ciphers}.
+ *
+ * @see AesDukpt
+ */
+final class AesDukptEngine {
+    static final int KEY_SERIAL_NUMBER_LENGTH = 12;
+
+    /**
+     * <p>The transaction counter is 32 bits wide; a valid counter has at most 16 bits set, but every bit is supported.
+     */
+    static final int MAX_DEPTH = 32;
+
+    private static final int BLOCK_LENGTH = 16;
+    private static final String TRANSFORMATION = "AES/ECB/NoPadding";
+
+    private static final ThreadLocal<byte[]> BLOCKS = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[2 * BLOCK_LENGTH];
+        }
+    };
+
+    private final AesDukptKeyUsage _keyUsage;
+    private final AesDukptKeyType _keyType;
+    private final String _variantName;
+
+    AesDukptEngine(final AesDukptKeyUsage keyUsage, final AesDukptKeyType keyType) {
+        if (keyUsage == null) {
+            throw new IllegalArgumentException("Invalid key usage provided: null");
+        }
+        if (keyType == null) {
+            throw new IllegalArgumentException("Invalid key type provided: null");
+        }
+
+        _keyUsage = keyUsage;
+        _keyType = keyType;
+        _variantName = ("AES-" + keyUsage.getVariantName());
+    }
+
+    AesDukptKeyUsage getKeyUsage() {
+        return _keyUsage;
+    }
+
+    AesDukptKeyType getKeyType() {
+        return _keyType;
+    }
+
+    /**
+     * <p>Returns "AES-" followed by the variant name of the working key usage, e.g. "AES-PIN".
+     */
+    String getVariantName() {
+        return _variantName;
+    }
+
+    /**
+     * @see AesDukpt#getInitialKey(byte[], byte[])
+     */
+    byte[] getInitialKey(final byte[] baseDerivationKey, final byte[] keySerialNumber) throws GeneralSecurityException {
+        DukptEngine.checkLength("key serial number", keySerialNumber, KEY_SERIAL_NUMBER_LENGTH);
+
+        final DukptMetrics metrics = Dukpt.getMetrics();
+        final long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+
+        final byte[] initialKey = computeInitialKey(baseDerivationKey, getInitialKeyId(keySerialNumber));
+
+        if (metrics != DukptMetrics.NONE) {
+            metrics.onOperation(DukptOperation.GET_IPEK, _variantName, (System.nanoTime() - startTime));
+        }
+
+        return initialKey;
+    }
+
+    /**
+     * @see AesDukpt#computeKey(byte[], byte[])
+     */
+    byte[] computeKey(final byte[] baseDerivationKey, final byte[] keySerialNumber) throws GeneralSecurityException {
+        DukptEngine.checkLength("key serial number", keySerialNumber, KEY_SERIAL_NUMBER_LENGTH);
+
+        final DukptMetrics metrics = Dukpt.getMetrics();
+        final long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+
+        final byte[] initialKey = computeInitialKey(baseDerivationKey, getInitialKeyId(keySerialNumber));
+        try {
+            final byte[] key = _computeKeyFromInitialKey(initialKey, keySerialNumber);
+
+            if (metrics != DukptMetrics.NONE) {
+                metrics.onOperation(DukptOperation.COMPUTE_KEY, _variantName, (System.nanoTime() - startTime));
+                metrics.onKeyDerived(_variantName, keySerialNumber, Integer.bitCount(getTransactionCounter(keySerialNumber)));
+            }
+
+            return key;
+        }
+        finally {
+            // secure memory
+            Dukpt.obliviate(initialKey);
+        }
+    }
+
+    /**
+     * @see AesDukpt#computeKeyFromInitialKey(byte[], byte[])
+     */
+    byte[] computeKeyFromInitialKey(final byte[] initialKey, final byte[] keySerialNumber) throws GeneralSecurityException {
+        DukptEngine.checkLength("key serial number", keySerialNumber, KEY_SERIAL_NUMBER_LENGTH);
+
+        final DukptMetrics metrics = Dukpt.getMetrics();
+        final long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+
+        final byte[] key = _computeKeyFromInitialKey(initialKey, keySerialNumber);
+
+        if (metrics != DukptMetrics.NONE) {
+            metrics.onOperation(DukptOperation.COMPUTE_KEY_FROM_IPEK, _variantName, (System.nanoTime() - startTime));
+            metrics.onKeyDerived(_variantName, keySerialNumber, Integer.bitCount(getTransactionCounter(keySerialNumber)));
+        }
+
+        return key;
+    }
+
+    private byte[] _computeKeyFromInitialKey(final byte[] initialKey, final byte[] keySerialNumber) throws GeneralSecurityException {
+        final AesDukptKeyType derivationKeyType = AesDukptKeyType.forDerivationKeyLength(initialKey.length);
+        final long initialKeyId = getInitialKeyId(keySerialNumber);
+        final int transactionCounter = getTransactionCounter(keySerialNumber);
+
+        final byte[] derivationKey = initialKey.clone();
+        try {
+            int counter = 0;
+            for (int bit = (1 << 31); bit != 0; bit >>>= 1) {
+                if ((transactionCounter & bit) != 0) {
+                    counter |= bit;
+                    deriveIntermediateKey(derivationKey, derivationKeyType, initialKeyId, counter, derivationKey);
+                }
+            }
+            return deriveWorkingKey(derivationKey, initialKeyId, transactionCounter);
+        }
+        finally {
+            // secure memory
+            Dukpt.obliviate(derivationKey);
+        }
+    }
+
+    /**
+     * @see AesDukpt#createDeviceContext(byte[], byte[])
+     */
+    AesDukptDeviceContext createDeviceContext(final byte[] baseDerivationKey, final byte[] keySerialNumber) throws GeneralSecurityException {
+        DukptEngine.checkLength("key serial number", keySerialNumber, KEY_SERIAL_NUMBER_LENGTH);
+
+        final byte[] initialKey = computeInitialKey(baseDerivationKey, getInitialKeyId(keySerialNumber));
+        try {
+            return new AesDukptDeviceContext(this, initialKey, keySerialNumber);
+        }
+        finally {
+            // secure memory
+            Dukpt.obliviate(initialKey);
+        }
+    }
+
+    /**
+     * @see AesDukpt#createDeviceContextFromInitialKey(byte[], byte[])
+     */
+    AesDukptDeviceContext createDeviceContextFromInitialKey(final byte[] initialKey, final byte[] keySerialNumber) {
+        return new AesDukptDeviceContext(this, initialKey, keySerialNumber);
+    }
+
+    /**
+     * <p>Derives the Initial Key for the device with <code>initialKeyId</code> from the BDK.  The Initial Key has the
+     * same length as the BDK.
+     */
+    static byte[] computeInitialKey(final byte[] baseDerivationKey, final long initialKeyId) throws GeneralSecurityException {
+        if (baseDerivationKey == null) {
+            throw new IllegalArgumentException("Invalid base derivation key provided: null");
+        }
+
+        final AesDukptKeyType keyType = AesDukptKeyType.forDerivationKeyLength(baseDerivationKey.length);
+        final byte[] initialKey = new byte[keyType.getKeyLength()];
+        deriveKey(baseDerivationKey, AesDukptKeyUsage.KEY_DERIVATION_INITIAL_KEY, keyType, initialKeyId, initialKey);
+        return initialKey;
+    }
+
+    /**
+     * <p>Derives the intermediate derivation key for <code>counter</code> from its parent into <code>output</code>,
+     * which may be the parent itself.
+     */
+    static void deriveIntermediateKey(final byte[] derivationKey, final AesDukptKeyType derivationKeyType, final long initialKeyId, final int counter, final byte[] output) throws GeneralSecurityException {
+        deriveKey(derivationKey, AesDukptKeyUsage.KEY_DERIVATION, derivationKeyType, _toDerivationId(initialKeyId, counter), output);
+    }
+
+    /**
+     * <p>Derives this engine's working key for <code>transactionCounter</code> from the intermediate derivation key of
+     * the same counter.
+     */
+    byte[] deriveWorkingKey(final byte[] derivationKey, final long initialKeyId, final int transactionCounter) throws GeneralSecurityException {
+        final byte[] key = new byte[_keyType.getKeyLength()];
+        deriveKey(derivationKey, _keyUsage, _keyType, _toDerivationId(initialKeyId, transactionCounter), key);
+        return key;
+    }
+
+    /**
+     * <p>The last 8 bytes of the derivation data of a non-initial key: the derivation ID (the right half of the Initial
+     * Key ID) and the transaction counter.
+     */
+    private static long _toDerivationId(final long initialKeyId, final int counter) {
+        return ((initialKeyId << 32) | (counter & 0xFFFFFFFFL));
+    }
+
+    /**
+     * <p>Derives a key of <code>keyType</code> from <code>derivationKey</code> into the first
+     * <code>keyType.getKeyLength()</code> bytes of <code>output</code>, which may be <code>derivationKey</code> itself.
+     *
+     * @param derivationData The last 8 bytes of the derivation data.
+     */
+    static void deriveKey(final byte[] derivationKey, final AesDukptKeyUsage keyUsage, final AesDukptKeyType keyType, final long derivationData, final byte[] output) throws GeneralSecurityException {
+        final Cipher cipher = Ciphers.getCipher(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(derivationKey, "AES"));
+
+        // version 01, key block counter, key usage indicator, algorithm indicator, key length in bits
+        final long header = ( (0x01L << 56) | (((long) keyUsage.getUsageIndicator()) << 32) | (((long) keyType.getAlgorithmIndicator()) << 16) | (keyType.getKeyLength() * 8L) );
+
+        final int keyLength = keyType.getKeyLength();
+        final byte[] block = BLOCKS.get();
+        try {
+            for (int offset = 0, blockCounter = 1; offset < keyLength; offset += BLOCK_LENGTH, blockCounter += 1) {
+                Bytes.putLong((header | (((long) blockCounter) << 48)), block, 0);
+                Bytes.putLong(derivationData, block, 8);
+                cipher.doFinal(block, 0, BLOCK_LENGTH, block, BLOCK_LENGTH);
+                System.arraycopy(block, BLOCK_LENGTH, output, offset, Math.min(BLOCK_LENGTH, (keyLength - offset)));
+            }
+        }
+        finally {
+            // secure memory
+            Dukpt.getObliviationPolicy().obliviate(block);
+        }
+    }
+
+    /**
+     * <p>Returns the Initial Key ID: the left-most 8 bytes of the Key Serial Number.
+     */
+    static long getInitialKeyId(final byte[] keySerialNumber) {
+        return Bytes.toLong(keySerialNumber, 0);
+    }
+
+    static int getTransactionCounter(final byte[] keySerialNumber) {
+        return (int) Bytes.toLong(keySerialNumber, 4);
+    }
+}
@@ -0,0 +1,47 @@
+package com.softwareverde.security.dukpt;
+
+/**
+ * <p>The key types of ANSI X9.24-3 AES DUKPT, with the algorithm indicator and key length they contribute to the
+ * derivation data.
+ *
+ * <p>The Base Derivation Key, the Initial Key and every intermediate derivation key are AES keys of the same length;
+ * working keys may be of any type.
+ */
+public enum AesDukptKeyType {
+    TDEA_2KEY(0x0000, 16),
+    TDEA_3KEY(0x0001, 24),
+    AES_128(0x0002, 16),
+    AES_192(0x0003, 24),
+    AES_256(0x0004, 32);
+
+    /**
+     * <p>Returns the AES key type of a derivation key of <code>keyLength</code> bytes.
+     */
+    static AesDukptKeyType forDerivationKeyLength(final int keyLength) {
+        switch (keyLength) {
+            case 16: { return AES_128; }
+            case 24: { return AES_192; }
+            case 32: { return AES_256; }
+            default: { throw new IllegalArgumentException("Invalid derivation key provided: length " + keyLength); }
+        }
+    }
+
+    private final int _algorithmIndicator;
+    private final int _keyLength;
+
+    AesDukptKeyType(final int algorithmIndicator, final int keyLength) {
+        _algorithmIndicator = algorithmIndicator;
+        _keyLength = keyLength;
+    }
+
+    public int getAlgorithmIndicator() {
+        return _algorithmIndicator;
+    }
+
+    /**
+     * <p>Returns the length of a key of this type, in bytes.
+     */
+    public int getKeyLength() {
+        return _keyLength;
+    }
+}
@@ -0,0 +1,38 @@
+package com.softwareverde.security.dukpt;
+
+/**
+ * <p>The key usage indicators of ANSI X9.24-3 AES DUKPT.  AES DUKPT derives a separate working key per usage, where
+ * TDES DUKPT XORs a variant bitmask into the transaction key; {@link #getVariantName()} maps each usage onto the
+ * variant names used by {@link DukptVariant#getVariantName()}.
+ */
+public enum AesDukptKeyUsage {
+    KEY_ENCRYPTION_KEY(0x0002, "KEK"),
+    PIN_ENCRYPTION(0x1000, "PIN"),
+    MAC_GENERATION(0x2000, "MAC"),
+    MAC_VERIFICATION(0x2001, "MAC"),
+    MAC_BOTH(0x2002, "MAC"),
+    DATA_ENCRYPTION_ENCRYPT(0x3000, "DATA"),
+    DATA_ENCRYPTION_DECRYPT(0x3001, "DATA"),
+    DATA_ENCRYPTION_BOTH(0x3002, "DATA"),
+    KEY_DERIVATION(0x8000, "DERIVATION"),
+    KEY_DERIVATION_INITIAL_KEY(0x8001, "INITIAL_KEY");
+
+    private final int _usageIndicator;
+    private final String _variantName;
+
+    AesDukptKeyUsage(final int usageIndicator, final String variantName) {
+        _usageIndicator = usageIndicator;
+        _variantName = variantName;
+    }
+
+    public int getUsageIndicator() {
+        return _usageIndicator;
+    }
+
+    /**
+     * <p>Returns "PIN", "DATA" or "MAC" for the working key usages that correspond to the TDES DUKPT variants.
+     */
+    public String getVariantName() {
+        return _variantName;
+    }
+}
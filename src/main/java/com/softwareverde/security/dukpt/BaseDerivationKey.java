@@ -0,0 +1,148 @@
+package com.softwareverde.security.dukpt;
+
+import java.security.InvalidParameterException;
+
+/**
+ * <p>A Base Derivation Key prepared for repeated IPEK generation.
+ *
+ * <p>Each IPEK is two Triple DES encryptions of the initial KSN: one under the BDK and one under the BDK XORed with the
+ * key register bitmask.  This handle expands the DES key schedules of both keys once, at construction, so that IPEK
+ * generation through {@link Dukpt#getIpek(BaseDerivationKey, byte[])},
+ * {@link Dukpt#computeKey(BaseDerivationKey, byte[])} and their {@link DukptVariant} equivalents only runs the block
+ * encryptions.
+ *
+ * <p>The schedules are prepared for one key register bitmask (by default {@link Dukpt#KEY_REGISTER_BITMASK}); a
+ * variant with a different key register bitmask still accepts the handle, but expands its keys per call.
+ *
+ * <p>Handles may be shared between threads; the key material is only ever modified by {@link #clear()}, which zeroes
+ * it once the handle is no longer needed.  The handle cannot be used afterwards: an IPEK computation that overlaps
+ * <code>clear()</code> re-checks the handle once it is done and fails rather than return a key computed from partly
+ * zeroed material.
+ */
+public class BaseDerivationKey {
+    private static final int TRIPLE_DES_SCHEDULE_LENGTH = (3 * Des.SCHEDULE_LENGTH);
+    private static final byte[] KEY_REGISTER_BITMASK = HexCodec.decode(Dukpt.KEY_REGISTER_BITMASK);
+
+    private final byte[] _baseDerivationKey;
+    private final long _keyRegisterBitmaskLeft;
+    private final long _keyRegisterBitmaskRight;
+
+    /**
+     * <p>The encryption schedules of the BDK's three keys, then of the masked BDK's three keys; the middle schedule of
+     * each triple is a decryption schedule (EDE).
+     */
+    private final int[] _schedules = new int[2 * TRIPLE_DES_SCHEDULE_LENGTH];
+
+    private volatile boolean _isCleared = false;
+
+    private static void _expandTripleDesKey(final long key1, final long key2, final long key3, final int[] schedules, final int offset) {
+        Des.expandKey(key1, true, schedules, offset);
+        Des.expandKey(key2, false, schedules, (offset + Des.SCHEDULE_LENGTH));
+        Des.expandKey(key3, true, schedules, (offset + (2 * Des.SCHEDULE_LENGTH)));
+    }
+
+    private static long _encryptTripleDes(final int[] schedules, final int offset, final long block) {
+        return Des.cipher(schedules, (offset + (2 * Des.SCHEDULE_LENGTH)), Des.cipher(schedules, (offset + Des.SCHEDULE_LENGTH), Des.cipher(schedules, offset, block)));
+    }
+
+    protected BaseDerivationKey(final byte[] baseDerivationKey, final long keyRegisterBitmaskLeft, final long keyRegisterBitmaskRight) {
+        if (baseDerivationKey == null) {
+            throw new IllegalArgumentException("Invalid base derivation key provided: null");
+        }
+
+        final int length = baseDerivationKey.length;
+        if ( (length != 8) && (length != 16) && (length != 24) ) {
+            throw new InvalidParameterException("Key is not 8/16/24 bytes long.");
+        }
+
+        _baseDerivationKey = baseDerivationKey.clone();
+        _keyRegisterBitmaskLeft = keyRegisterBitmaskLeft;
+        _keyRegisterBitmaskRight = keyRegisterBitmaskRight;
+
+        // The same key layout and masking as DukptEngine.computeIpek.
+        final long key1 = Bytes.toLong(baseDerivationKey, 0);
+        final long key2 = (length > 8 ? Bytes.toLong(baseDerivationKey, 8) : key1);
+        final long key3 = (length > 16 ? Bytes.toLong(baseDerivationKey, 16) : key1);
+        _expandTripleDesKey(key1, key2, key3, _schedules, 0);
+
+        final long maskedKey1 = (key1 ^ _keyRegisterBitmaskLeft);
+        final long maskedKey2 = (length == 8 ? maskedKey1 : (key2 ^ _keyRegisterBitmaskRight));
+        final long maskedKey3 = (length == 24 ? key3 : maskedKey1);
+        _expandTripleDesKey(maskedKey1, maskedKey2, maskedKey3, _schedules, TRIPLE_DES_SCHEDULE_LENGTH);
+    }
+
+    /**
+     * <p>Prepares <code>baseDerivationKey</code> (8, 16 or 24 bytes) for the standard key register bitmask.  The key is
+     * copied; the caller may obliviate its own copy afterwards.
+     */
+    public BaseDerivationKey(final byte[] baseDerivationKey) {
+        this(baseDerivationKey, Bytes.toLong(KEY_REGISTER_BITMASK, 0), Bytes.toLong(KEY_REGISTER_BITMASK, 8));
+    }
+
+    /**
+     * <p>Prepares <code>baseDerivationKey</code> (8, 16 or 24 bytes) for the key register bitmask of
+     * <code>dukptVariant</code>.  The key is copied; the caller may obliviate its own copy afterwards.
+     */
+    public BaseDerivationKey(final byte[] baseDerivationKey, final DukptVariant dukptVariant) {
+        this(baseDerivationKey, dukptVariant.getEngine().getKeyRegisterBitmaskLeft(), dukptVariant.getEngine().getKeyRegisterBitmaskRight());
+    }
+
+    private void _checkNotCleared() {
+        if (_isCleared) {
+            throw new IllegalStateException("Base derivation key has been cleared.");
+        }
+    }
+
+    /**
+     * <p>Called once an IPEK has been computed into <code>register</code>: if the handle was cleared in the meantime,
+     * the IPEK may come from partly zeroed material, so it is wiped and the computation fails.
+     */
+    private void _recheckNotCleared(final long[] register) {
+        if (_isCleared) {
+            // secure memory
+            DukptEngine.wipe(register);
+            throw new IllegalStateException("Base derivation key has been cleared.");
+        }
+    }
+
+    /**
+     * <p>Returns true if the schedules were prepared for the provided key register bitmask.
+     */
+    boolean isExpandedFor(final long keyRegisterBitmaskLeft, final long keyRegisterBitmaskRight) {
+        return ( (_keyRegisterBitmaskLeft == keyRegisterBitmaskLeft) && (_keyRegisterBitmaskRight == keyRegisterBitmaskRight) );
+    }
+
+    /**
+     * <p>Computes the IPEK for <code>initialKeySerialNumber</code> (the left-most 64 bits of the KSN, with the counter
+     * bits cleared) into <code>register</code> with the prepared schedules.
+     */
+    void computeIpek(final long initialKeySerialNumber, final long[] register) {
+        _checkNotCleared();
+        register[0] = _encryptTripleDes(_schedules, 0, initialKeySerialNumber);
+        register[1] = _encryptTripleDes(_schedules, TRIPLE_DES_SCHEDULE_LENGTH, initialKeySerialNumber);
+        _recheckNotCleared(register);
+    }
+
+    /**
+     * <p>Computes the IPEK with <code>engine</code> from this handle's copy of the BDK, for engines with a different
+     * key register bitmask.
+     */
+    void computeIpek(final DukptEngine engine, final long keySerialNumberLeft, final long[] register) {
+        _checkNotCleared();
+        engine.computeIpek(_baseDerivationKey, keySerialNumberLeft, register);
+        _recheckNotCleared(register);
+    }
+
+    /**
+     * <p>Zeroes the BDK and its key schedules; the handle can no longer be used.  The flag is raised before anything
+     * is zeroed, so an IPEK computation that read zeroed material always sees it when it re-checks.
+     */
+    public void clear() {
+        _isCleared = true;
+
+        // secure memory
+        Dukpt.obliviate(_baseDerivationKey);
+        Dukpt.getObliviationPolicy().obliviate(_schedules);
+        Dukpt.getMetrics().onObliviation(_schedules.length);
+    }
+}
@@ -0,0 +1,39 @@
+package com.softwareverde.security.dukpt;
+
+/**
+ * <p>Package-private helpers for moving 64-bit registers in and out of big-endian byte arrays.
+ *
+ * <p>Bit 0 of a register in the ANSI X9.24 sense (and of {@link BitSet} as used by {@link Dukpt}) is the most
+ * significant bit of the first byte, so a big-endian read lines the two representations up exactly.
+ */
+final class Bytes {
+    private Bytes() { }
+
+    /**
+     * <p>Reads 8 bytes starting at <code>offset</code> as a big-endian long.
+     */
+    static long toLong(final byte[] bytes, final int offset) {
+        return ((bytes[offset    ] & 0xFFL) << 56)
+             | ((bytes[offset + 1] & 0xFFL) << 48)
+             | ((bytes[offset + 2] & 0xFFL) << 40)
+             | ((bytes[offset + 3] & 0xFFL) << 32)
+             | ((bytes[offset + 4] & 0xFFL) << 24)
+             | ((bytes[offset + 5] & 0xFFL) << 16)
+             | ((bytes[offset + 6] & 0xFFL) <<  8)
+             |  (bytes[offset + 7] & 0xFFL);
+    }
+
+    /**
+     * <p>Writes <code>value</code> into 8 bytes starting at <code>offset</code>, big-endian.
+     */
+    static void putLong(final long value, final byte[] bytes, final int offset) {
+        bytes[offset    ] = (byte) (value >>> 56);
+        bytes[offset + 1] = (byte) (value >>> 48);
+        bytes[offset + 2] = (byte) (value >>> 40);
+        bytes[offset + 3] = (byte) (value >>> 32);
+        bytes[offset + 4] = (byte) (value >>> 24);
+        bytes[offset + 5] = (byte) (value >>> 16);
+        bytes[offset + 6] = (byte) (value >>>  8);
+        bytes[offset + 7] = (byte)  value;
+    }
+}
@@ -0,0 +1,83 @@
+package com.softwareverde.security.dukpt;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
+import java.security.GeneralSecurityException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>Per-thread caches of JCE <code>Cipher</code> and <code>SecretKeyFactory</code> instances, so that the
+ * <code>encrypt*</code>/<code>decrypt*</code> methods on {@link Dukpt} only pay for <code>init</code> on each call
+ * rather than for a provider lookup as well.
+ *
+ * <p>Instances are keyed by transformation (or algorithm) name and never leave the thread that created them.  Callers
+ * must finish with a returned instance (i.e. call <code>doFinal</code>) before requesting the same transformation again
+ * on the same thread.
+ *
+ * <p>Each thread also has a key buffer in which {@link Dukpt} assembles the bytes of a JCE key, so that padding a
+ * Triple DES key or reading an off-heap {@link DukptKey} does not allocate a copy on every call.
+ */
+final class Ciphers {
+    static final IvParameterSpec DES_ZERO_IV = new IvParameterSpec(new byte[8]);
+    static final IvParameterSpec AES_ZERO_IV = new IvParameterSpec(new byte[16]);
+
+    private static final ThreadLocal<Map<String, Cipher>> CIPHERS = new ThreadLocal<Map<String, Cipher>>() {
+        @Override
+        protected Map<String, Cipher> initialValue() {
+            return new HashMap<String, Cipher>();
+        }
+    };
+
+    private static final ThreadLocal<Map<String, SecretKeyFactory>> SECRET_KEY_FACTORIES = new ThreadLocal<Map<String, SecretKeyFactory>>() {
+        @Override
+        protected Map<String, SecretKeyFactory> initialValue() {
+            return new HashMap<String, SecretKeyFactory>();
+        }
+    };
+
+    private static final ThreadLocal<byte[]> KEY_BUFFERS = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[DukptKey.MAX_LENGTH];
+        }
+    };
+
+    private Ciphers() { }
+
+    /**
+     * <p>Returns this thread's <code>Cipher</code> for <code>transformation</code>, creating it on first use.  The
+     * returned instance must be (re-)initialized by the caller.
+     */
+    static Cipher getCipher(final String transformation) throws GeneralSecurityException {
+        final Map<String, Cipher> ciphers = CIPHERS.get();
+        Cipher cipher = ciphers.get(transformation);
+        if (cipher == null) {
+            cipher = Cipher.getInstance(transformation);
+            ciphers.put(transformation, cipher);
+        }
+        return cipher;
+    }
+
+    /**
+     * <p>Returns this thread's <code>SecretKeyFactory</code> for <code>algorithm</code>, creating it on first use.
+     */
+    static SecretKeyFactory getSecretKeyFactory(final String algorithm) throws GeneralSecurityException {
+        final Map<String, SecretKeyFactory> secretKeyFactories = SECRET_KEY_FACTORIES.get();
+        SecretKeyFactory secretKeyFactory = secretKeyFactories.get(algorithm);
+        if (secretKeyFactory == null) {
+            secretKeyFactory = SecretKeyFactory.getInstance(algorithm);
+            secretKeyFactories.put(algorithm, secretKeyFactory);
+        }
+        return secretKeyFactory;
+    }
+
+    /**
+     * <p>Returns this thread's key buffer, {@link DukptKey#MAX_LENGTH} bytes long.  The caller must obliviate it before
+     * returning.
+     */
+    static byte[] getKeyBuffer() {
+        return KEY_BUFFERS.get();
+    }
+}
@@ -0,0 +1,22 @@
+package com.softwareverde.security.dukpt;
+
+/**
+ * <p>A Key Serial Number and the plaintext of the data its device encrypted.
+ */
+public class DecryptedRecord {
+    private final byte[] _keySerialNumber;
+    private final byte[] _plaintext;
+
+    public DecryptedRecord(final byte[] keySerialNumber, final byte[] plaintext) {
+        _keySerialNumber = keySerialNumber;
+        _plaintext = plaintext;
+    }
+
+    public byte[] getKeySerialNumber() {
+        return _keySerialNumber;
+    }
+
+    public byte[] getPlaintext() {
+        return _plaintext;
+    }
+}
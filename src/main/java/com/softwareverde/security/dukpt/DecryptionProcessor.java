@@ -0,0 +1,393 @@
+package com.softwareverde.security.dukpt;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>Decrypts a reactive stream of {@link EncryptedRecord}s into a stream of {@link DecryptedRecord}s, with
+ * backpressure in both directions.
+ *
+ * <p>Records are routed by device to one of <code>parallelism</code> lanes.  Each lane decrypts its records in order,
+ * at most <code>batchSize</code> at a time per task on the executor, with a {@link DeviceDecryptor} that keeps the
+ * derivation state of its most recent device, so consecutive transactions of a device reuse each other's
+ * intermediate keys.  Results are emitted in the order they complete: the records of one device keep their relative
+ * order, but records of different devices may be reordered.
+ *
+ * <p>No more than <code>2 * parallelism * batchSize</code> records are ever requested from upstream without having
+ * been emitted downstream; demand is replenished in batches as the subscriber consumes results.  The first failure
+ * (an invalid record, a decryption error or an upstream error) cancels upstream and is delivered to the subscriber
+ * with <code>onError</code>; undelivered results are dropped.
+ *
+ * <p>A processor is single use: it accepts one upstream subscription and one subscriber.
+ *
+ * @see DukptFlow
+ */
+public class DecryptionProcessor implements DukptFlow.Processor<EncryptedRecord, DecryptedRecord> {
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    /**
+     * <p>Decrypts the records of the devices routed to it, one batch per executor task.
+     */
+    private final class Lane implements Runnable {
+        private final ConcurrentLinkedQueue<EncryptedRecord> _records = new ConcurrentLinkedQueue<EncryptedRecord>();
+        private final AtomicBoolean _isScheduled = new AtomicBoolean(false);
+        private final DeviceDecryptor _deviceDecryptor = new DeviceDecryptor(_engine, _baseDerivationKey, _ipekSource, _shouldConvertToDataKey);
+        private volatile boolean _isCleared = false;
+
+        void offer(final EncryptedRecord record) {
+            _records.offer(record);
+            schedule();
+        }
+
+        void schedule() {
+            if (_isScheduled.compareAndSet(false, true)) {
+                try {
+                    _executor.execute(this);
+                }
+                catch (final RejectedExecutionException exception) {
+                    _isScheduled.set(false);
+                    _fail(exception);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int i = 0; (i < _batchSize) && (! _isTerminated); i++) {
+                    final EncryptedRecord record = _records.poll();
+                    if (record == null) { break; }
+
+                    final byte[] plaintext;
+                    try {
+                        plaintext = _deviceDecryptor.decrypt(record.getKeySerialNumber(), record.getCiphertext());
+                    }
+                    catch (final Exception exception) {
+                        _fail(exception);
+                        break;
+                    }
+                    _results.offer(new DecryptedRecord(record.getKeySerialNumber(), plaintext));
+                }
+
+                if (_isTerminated && (! _isCleared)) {
+                    // secure memory
+                    _records.clear();
+                    _deviceDecryptor.clear();
+                    _isCleared = true;
+                }
+            }
+            finally {
+                _isScheduled.set(false);
+            }
+
+            _drain();
+
+            // Reschedule rather than loop, so that lanes share the executor fairly between batches.
+            if ( (_isTerminated ? (! _isCleared) : (! _records.isEmpty())) ) {
+                schedule();
+            }
+        }
+    }
+
+    private final DukptEngine _engine;
+    private final BaseDerivationKey _baseDerivationKey;
+    private final IpekSource _ipekSource;
+    private final boolean _shouldConvertToDataKey;
+    private final Executor _executor;
+    private final int _batchSize;
+    private final int _capacity;
+    private final Lane[] _lanes;
+
+    private final ConcurrentLinkedQueue<DecryptedRecord> _results = new ConcurrentLinkedQueue<DecryptedRecord>();
+    private final AtomicInteger _pendingCount = new AtomicInteger(0); // received but not yet emitted
+    private final AtomicLong _requested = new AtomicLong(0L);
+    private final AtomicInteger _workInProgress = new AtomicInteger(0);
+    private final AtomicReference<Throwable> _error = new AtomicReference<Throwable>();
+
+    private volatile DukptFlow.Subscription _upstream;
+    private volatile DukptFlow.Subscriber<? super DecryptedRecord> _downstream;
+    private volatile boolean _isDownstreamReady = false;
+    private volatile boolean _isUpstreamComplete = false;
+    private volatile boolean _isCancelled = false;
+    private volatile boolean _isTerminated = false;
+    private boolean _isStarted = false;
+
+    // Confined to the drain loop.
+    private boolean _isDone = false;
+    private int _freedCount = 0;
+
+    protected DecryptionProcessor(final byte[] baseDerivationKey, final IpekSource ipekSource, final DukptVariant dukptVariant, final boolean shouldConvertToDataKey, final Executor executor, final int parallelism, final int batchSize) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Invalid parallelism provided: " + parallelism);
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Invalid batch size provided: " + batchSize);
+        }
+
+        _engine = dukptVariant.getEngine();
+        _baseDerivationKey = (baseDerivationKey != null ? new BaseDerivationKey(baseDerivationKey, dukptVariant) : null);
+        _ipekSource = ipekSource;
+        _shouldConvertToDataKey = shouldConvertToDataKey;
+        _executor = executor;
+        _batchSize = batchSize;
+        _capacity = (2 * parallelism * batchSize);
+
+        _lanes = new Lane[parallelism];
+        for (int i = 0; i < parallelism; i++) {
+            _lanes[i] = new Lane();
+        }
+    }
+
+    /**
+     * <p>Creates a processor deriving keys from <code>baseDerivationKey</code> with the data variant, converted to
+     * data keys, as is typical for P2PE card data, with one lane per processor.
+     */
+    public DecryptionProcessor(final byte[] baseDerivationKey, final Executor executor) {
+        this(baseDerivationKey, null, new DukptVariant(Dukpt.KEY_REGISTER_BITMASK, Dukpt.DATA_VARIANT_BITMASK), true, executor, Runtime.getRuntime().availableProcessors(), DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * <p>Creates a processor deriving keys from <code>baseDerivationKey</code> with <code>dukptVariant</code>.
+     *
+     * @param shouldConvertToDataKey When true, each derived key is passed through {@link Dukpt#toDataKey(byte[])}.
+     * @param parallelism The number of lanes, i.e. the maximum number of records decrypted at once.
+     * @param batchSize The maximum number of records a lane decrypts per executor task.
+     */
+    public DecryptionProcessor(final byte[] baseDerivationKey, final DukptVariant dukptVariant, final boolean shouldConvertToDataKey, final Executor executor, final int parallelism, final int batchSize) {
+        this(baseDerivationKey, null, dukptVariant, shouldConvertToDataKey, executor, parallelism, batchSize);
+    }
+
+    /**
+     * <p>Creates a processor deriving keys from the per-device IPEKs supplied by <code>ipekSource</code> with
+     * <code>dukptVariant</code>.  The source is called whenever a lane moves to a different device, possibly
+     * concurrently.
+     *
+     * @param shouldConvertToDataKey When true, each derived key is passed through {@link Dukpt#toDataKey(byte[])}.
+     * @param parallelism The number of lanes, i.e. the maximum number of records decrypted at once.
+     * @param batchSize The maximum number of records a lane decrypts per executor task.
+     */
+    public DecryptionProcessor(final IpekSource ipekSource, final DukptVariant dukptVariant, final boolean shouldConvertToDataKey, final Executor executor, final int parallelism, final int batchSize) {
+        this(null, ipekSource, dukptVariant, shouldConvertToDataKey, executor, parallelism, batchSize);
+    }
+
+    @Override
+    public void onSubscribe(final DukptFlow.Subscription subscription) {
+        synchronized (this) {
+            if (_upstream != null) {
+                subscription.cancel();
+                return;
+            }
+            _upstream = subscription;
+        }
+        _start();
+    }
+
+    @Override
+    public void onNext(final EncryptedRecord record) {
+        if (_isTerminated) { return; }
+
+        final byte[] keySerialNumber = record.getKeySerialNumber();
+        try {
+            DukptEngine.checkLength("key serial number", keySerialNumber, DukptEngine.KEY_SERIAL_NUMBER_LENGTH);
+        }
+        catch (final IllegalArgumentException exception) {
+            _fail(exception);
+            return;
+        }
+
+        _pendingCount.incrementAndGet();
+
+        // Every record of a device goes to the same lane, so its derivation state stays with that lane.
+        final long device = (Bytes.toLong(keySerialNumber, 0) & ~DukptEngine.INITIAL_KSN_BITMASK);
+        final int laneIndex = (int) (((device * 0x9E3779B97F4A7C15L) >>> 32) % _lanes.length);
+        _lanes[laneIndex].offer(record);
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+        if (_error.compareAndSet(null, throwable)) {
+            _terminate();
+        }
+        _drain();
+    }
+
+    @Override
+    public void onComplete() {
+        _isUpstreamComplete = true;
+        _drain();
+    }
+
+    @Override
+    public void subscribe(final DukptFlow.Subscriber<? super DecryptedRecord> subscriber) {
+        final boolean isAccepted;
+        synchronized (this) {
+            isAccepted = (_downstream == null);
+            if (isAccepted) {
+                _downstream = subscriber;
+            }
+        }
+
+        if (! isAccepted) {
+            subscriber.onSubscribe(new DukptFlow.Subscription() {
+                @Override
+                public void request(final long n) { }
+
+                @Override
+                public void cancel() { }
+            });
+            subscriber.onError(new IllegalStateException("Processor already has a subscriber."));
+            return;
+        }
+
+        subscriber.onSubscribe(new DukptFlow.Subscription() {
+            @Override
+            public void request(final long n) {
+                if (n <= 0L) {
+                    _fail(new IllegalArgumentException("Invalid request count provided: " + n));
+                    return;
+                }
+
+                while (true) {
+                    final long requested = _requested.get();
+                    final long newRequested = ((requested + n) < 0L ? Long.MAX_VALUE : (requested + n));
+                    if (_requested.compareAndSet(requested, newRequested)) { break; }
+                }
+                _drain();
+            }
+
+            @Override
+            public void cancel() {
+                _isCancelled = true;
+                final DukptFlow.Subscription upstream = _upstream;
+                if (upstream != null) {
+                    upstream.cancel();
+                }
+                _terminate();
+                _drain();
+            }
+        });
+
+        _isDownstreamReady = true;
+        _start();
+    }
+
+    /**
+     * <p>Requests the first records once both the upstream subscription and the subscriber are in place.
+     */
+    private void _start() {
+        final DukptFlow.Subscription upstream;
+        synchronized (this) {
+            if ( _isStarted || (_upstream == null) || (! _isDownstreamReady) ) { return; }
+            _isStarted = true;
+            upstream = _upstream;
+        }
+
+        if (! _isTerminated) {
+            upstream.request(_capacity);
+        }
+        _drain();
+    }
+
+    private void _fail(final Throwable throwable) {
+        if (_error.compareAndSet(null, throwable)) {
+            final DukptFlow.Subscription upstream = _upstream;
+            if (upstream != null) {
+                upstream.cancel();
+            }
+            _terminate();
+        }
+        _drain();
+    }
+
+    /**
+     * <p>Stops all processing; each lane zeroes its derivation state.
+     */
+    private void _terminate() {
+        _isTerminated = true;
+        for (final Lane lane : _lanes) {
+            lane.schedule();
+        }
+    }
+
+    /**
+     * <p>Emits results to the subscriber, from one thread at a time.
+     */
+    private void _drain() {
+        if (_workInProgress.getAndIncrement() != 0) { return; }
+
+        int missed = 1;
+        while (true) {
+            if ( (! _isDone) && _isDownstreamReady ) {
+                _isDone = _emit();
+            }
+            if (_isDone) {
+                _results.clear();
+            }
+
+            missed = _workInProgress.addAndGet(-missed);
+            if (missed == 0) { return; }
+        }
+    }
+
+    /**
+     * <p>Emits as many results as the subscriber has requested, replenishing upstream demand as results leave.
+     *
+     * @return True once the stream has ended (a terminal signal has been sent, or the subscriber cancelled).
+     */
+    private boolean _emit() {
+        if (_isCancelled) { return true; }
+
+        final DukptFlow.Subscriber<? super DecryptedRecord> downstream = _downstream;
+        final Throwable error = _error.get();
+        if (error != null) {
+            downstream.onError(error);
+            return true;
+        }
+
+        final long requested = _requested.get();
+        long emittedCount = 0L;
+        while (emittedCount < requested) {
+            final DecryptedRecord record = _results.poll();
+            if (record == null) { break; }
+
+            downstream.onNext(record);
+            emittedCount += 1L;
+            if (_isCancelled) { return true; }
+        }
+
+        if (emittedCount > 0L) {
+            if (requested != Long.MAX_VALUE) {
+                _requested.addAndGet(-emittedCount);
+            }
+            _pendingCount.addAndGet((int) -emittedCount);
+
+            _freedCount += (int) emittedCount;
+            if ( (_freedCount >= _batchSize) && (! _isUpstreamComplete) ) {
+                _upstream.request(_freedCount);
+                _freedCount = 0;
+            }
+        }
+
+        if (_isUpstreamComplete && (_pendingCount.get() == 0)) {
+            downstream.onComplete();
+            _terminate();
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * <p>Zeroes this processor's copy of the BDK.  The processor cannot be used afterwards.
+     */
+    public void clear() {
+        if (_baseDerivationKey != null) {
+            _baseDerivationKey.clear();
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.softwareverde.security.dukpt;
+
+/**
+ * <p>A single-block DES (FIPS 46-3) primitive operating on 64-bit registers, used on the derivation hot path in
+ * place of a JCE <code>Cipher</code> setup per block.
+ *
+ * <p>The round function uses combined S-box/permutation tables (the S-box output already passed through P) and the
+ * initial and final permutations are performed with the usual sequence of masked bit swaps.  Keys are expanded either
+ * into a 32-int schedule (for keys that are used for more than one block) or round-by-round on the fly (for the
+ * one-block-per-key pattern of the non-reversible key generation process), so neither path allocates.
+ *
+ * <p>Parity bits are ignored, as they are by the JCE.  The tables are built from the standard FIPS tables when the
+ * class is initialized.
+ *
+ * <p>This is not a general purpose cipher: it provides raw ECB block operations only, for key derivation and the
+ * MAC and PIN block internals.  The general purpose <code>encrypt*</code>/<code>decrypt*</code> methods on
+ * {@link Dukpt} use the JCE.
+ */
+final class Des {
+    /**
+     * <p>The number of ints in an expanded key schedule.
+     */
+    static final int SCHEDULE_LENGTH = 32;
+
+    private static final byte[] PC1 = {
+        56, 48, 40, 32, 24, 16,  8,  0, 57, 49, 41, 33, 25, 17,
+         9,  1, 58, 50, 42, 34, 26, 18, 10,  2, 59, 51, 43, 35,
+        62, 54, 46, 38, 30, 22, 14,  6, 61, 53, 45, 37, 29, 21,
+        13,  5, 60, 52, 44, 36, 28, 20, 12,  4, 27, 19, 11,  3
+    };
+
+    private static final byte[] PC2 = {
+        13, 16, 10, 23,  0,  4,  2, 27, 14,  5, 20,  9,
+        22, 18, 11,  3, 25,  7, 15,  6, 26, 19, 12,  1,
+        40, 51, 30, 36, 46, 54, 29, 39, 50, 44, 32, 47,
+        43, 48, 38, 55, 33, 52, 45, 41, 49, 35, 28, 31
+    };
+
+    /**
+     * <p>The cumulative left rotation of the C and D registers for each of the 16 rounds.
+     */
+    private static final byte[] TOTAL_ROTATIONS = { 1, 2, 4, 6, 8, 10, 12, 14, 15, 17, 19, 21, 23, 25, 27, 28 };
+
+    private static final byte[] P = {
+        16,  7, 20, 21, 29, 12, 28, 17,  1, 15, 23, 26,  5, 18, 31, 10,
+         2,  8, 24, 14, 32, 27,  3,  9, 19, 13, 30,  6, 22, 11,  4, 25
+    };
+
+    private static final byte[][] S = {
+        {
+            14,  4, 13,  1,  2, 15, 11,  8,  3, 10,  6, 12,  5,  9,  0,  7,
+             0, 15,  7,  4, 14,  2, 13,  1, 10,  6, 12, 11,  9,  5,  3,  8,
+             4,  1, 14,  8, 13,  6,  2, 11, 15, 12,  9,  7,  3, 10,  5,  0,
+            15, 12,  8,  2,  4,  9,  1,  7,  5, 11,  3, 14, 10,  0,  6, 13
+        },
+        {
+            15,  1,  8, 14,  6, 11,  3,  4,  9,  7,  2, 13, 12,  0,  5, 10,
+             3, 13,  4,  7, 15,  2,  8, 14, 12,  0,  1, 10,  6,  9, 11,  5,
+             0, 14,  7, 11, 10,  4, 13,  1,  5,  8, 12,  6,  9,  3,  2, 15,
+            13,  8, 10,  1,  3, 15,  4,  2, 11,  6,  7, 12,  0,  5, 14,  9
+        },
+        {
+            10,  0,  9, 14,  6,  3, 15,  5,  1, 13, 12,  7, 11,  4,  2,  8,
+            13,  7,  0,  9,  3,  4,  6, 10,  2,  8,  5, 14, 12, 11, 15,  1,
+            13,  6,  4,  9,  8, 15,  3,  0, 11,  1,  2, 12,  5, 10, 14,  7,
+             1, 10, 13,  0,  6,  9,  8,  7,  4, 15, 14,  3, 11,  5,  2, 12
+        },
+        {
+             7, 13, 14,  3,  0,  6,  9, 10,  1,  2,  8,  5, 11, 12,  4, 15,
+            13,  8, 11,  5,  6, 15,  0,  3,  4,  7,  2, 12,  1, 10, 14,  9,
+            10,  6,  9,  0, 12, 11,  7, 13, 15,  1,  3, 14,  5,  2,  8,  4,
+             3, 15,  0,  6, 10,  1, 13,  8,  9,  4,  5, 11, 12,  7,  2, 14
+        },
+        {
+             2, 12,  4,  1,  7, 10, 11,  6,  8,  5,  3, 15, 13,  0, 14,  9,
+            14, 11,  2, 12,  4,  7, 13,  1,  5,  0, 15, 10,  3,  9,  8,  6,
+             4,  2,  1, 11, 10, 13,  7,  8, 15,  9, 12,  5,  6,  3,  0, 14,
+            11,  8, 12,  7,  1, 14,  2, 13,  6, 15,  0,  9, 10,  4,  5,  3
+        },
+        {
+            12,  1, 10, 15,  9,  2,  6,  8,  0, 13,  3,  4, 14,  7,  5, 11,
+            10, 15,  4,  2,  7, 12,  9,  5,  6,  1, 13, 14,  0, 11,  3,  8,
+             9, 14, 15,  5,  2,  8, 12,  3,  7,  0,  4, 10,  1, 13, 11,  6,
+             4,  3,  2, 12,  9,  5, 15, 10, 11, 14,  1,  7,  6,  0,  8, 13
+        },
+        {
+             4, 11,  2, 14, 15,  0,  8, 13,  3, 12,  9,  7,  5, 10,  6,  1,
+            13,  0, 11,  7,  4,  9,  1, 10, 14,  3,  5, 12,  2, 15,  8,  6,
+             1,  4, 11, 13, 12,  3,  7, 14, 10, 15,  6,  8,  0,  5,  9,  2,
+             6, 11, 13,  8,  1,  4, 10,  7,  9,  5,  0, 15, 14,  2,  3, 12
+        },
+        {
+            13,  2,  8,  4,  6, 15, 11,  1, 10,  9,  3, 14,  5,  0, 12,  7,
+             1, 15, 13,  8, 10,  3,  7,  4, 12,  5,  6, 11,  0, 14,  9,  2,
+             7, 11,  4,  1,  9, 12, 14,  2,  0,  6, 10, 13, 15,  3,  5,  8,
+             2,  1, 14,  7,  4, 10,  8, 13, 15, 12,  9,  0,  3,  5,  6, 11
+        }
+    };
+
+    private static final int[] SP1 = new int[64], SP2 = new int[64], SP3 = new int[64], SP4 = new int[64];
+    private static final int[] SP5 = new int[64], SP6 = new int[64], SP7 = new int[64], SP8 = new int[64];
+
+    /**
+     * <p>PC1 contributions, indexed by key byte (0-7) and byte value; the result is the 56-bit C||D register.
+     */
+    private static final long[][] PC1_TABLE = new long[8][256];
+
+    /**
+     * <p>PC2 contributions, indexed by 7-bit chunk (0-7) of the 56-bit C||D register and chunk value; the result is
+     * the pair of packed subkey ints for one round, as <code>(even &lt;&lt; 32) | odd</code>.
+     */
+    private static final long[][] PC2_TABLE = new long[8][128];
+
+    static {
+        final int[][] sp = { SP1, SP2, SP3, SP4, SP5, SP6, SP7, SP8 };
+        for (int box = 0; box < 8; box++) {
+            for (int input = 0; input < 64; input++) {
+                final int row = ((input >>> 4) & 0x02) | (input & 0x01);
+                final int column = (input >>> 1) & 0x0F;
+                final int substituted = (S[box][(row * 16) + column] << (28 - (4 * box)));
+
+                int permuted = 0;
+                for (int i = 0; i < 32; i++) {
+                    if ((substituted & (1 << (32 - P[i]))) != 0) {
+                        permuted |= (1 << (31 - i));
+                    }
+                }
+                // The round function works on registers rotated left by one bit.
+                sp[box][input] = (permuted << 1) | (permuted >>> 31);
+            }
+        }
+
+        for (int keyByte = 0; keyByte < 8; keyByte++) {
+            for (int value = 0; value < 256; value++) {
+                long cd = 0L;
+                for (int i = 0; i < 56; i++) {
+                    final int bit = PC1[i];
+                    if ((bit >>> 3) == keyByte && (value & (0x80 >>> (bit & 0x07))) != 0) {
+                        cd |= (1L << (55 - i));
+                    }
+                }
+                PC1_TABLE[keyByte][value] = cd;
+            }
+        }
+
+        final long[] pc2Bits = new long[56];
+        for (int bit = 0; bit < 56; bit++) {
+            int even = 0;
+            int odd = 0;
+            for (int i = 0; i < 24; i++) {
+                if (PC2[i] == bit) {
+                    even |= (0x800000 >>> i);
+                }
+                if (PC2[i + 24] == bit) {
+                    odd |= (0x800000 >>> i);
+                }
+            }
+            pc2Bits[bit] = _pack(even, odd);
+        }
+        for (int chunk = 0; chunk < 8; chunk++) {
+            for (int value = 0; value < 128; value++) {
+                long packed = 0L;
+                for (int i = 0; i < 7; i++) {
+                    if ((value & (0x40 >>> i)) != 0) {
+                        packed |= pc2Bits[(chunk * 7) + i];
+                    }
+                }
+                PC2_TABLE[chunk][value] = packed;
+            }
+        }
+    }
+
+    private Des() { }
+
+    /**
+     * <p>Regroups a pair of 24-bit PC2 outputs into the 6-bit-per-byte layout consumed by the round function.
+     */
+    private static long _pack(final int even, final int odd) {
+        final int packedEven = ((even & 0x00FC0000) << 6) | ((even & 0x00000FC0) << 10) | ((odd & 0x00FC0000) >>> 10) | ((odd & 0x00000FC0) >>> 6);
+        final int packedOdd = ((even & 0x0003F000) << 12) | ((even & 0x0000003F) << 16) | ((odd & 0x0003F000) >>> 4) | (odd & 0x0000003F);
+        return (((long) packedEven) << 32) | (packedOdd & 0xFFFFFFFFL);
+    }
+
+    /**
+     * <p>Applies PC1 to a 64-bit key, returning the 56-bit C||D register.
+     */
+    private static long _permutedChoice1(final long key) {
+        return PC1_TABLE[0][(int) (key >>> 56) & 0xFF]
+             | PC1_TABLE[1][(int) (key >>> 48) & 0xFF]
+             | PC1_TABLE[2][(int) (key >>> 40) & 0xFF]
+             | PC1_TABLE[3][(int) (key >>> 32) & 0xFF]
+             | PC1_TABLE[4][(int) (key >>> 24) & 0xFF]
+             | PC1_TABLE[5][(int) (key >>> 16) & 0xFF]
+             | PC1_TABLE[6][(int) (key >>>  8) & 0xFF]
+             | PC1_TABLE[7][(int)  key         & 0xFF];
+    }
+
+    /**
+     * <p>Returns the packed subkey pair for round <code>round</code> (0-15) of the key whose PC1 output is
+     * <code>cd</code>.
+     */
+    private static long _subkey(final long cd, final int round) {
+        final int rotation = TOTAL_ROTATIONS[round];
+        final int c = (int) (cd >>> 28);
+        final int d = (int) cd & 0x0FFFFFFF;
+        final long rotated = ((long) (((c << rotation) | (c >>> (28 - rotation))) & 0x0FFFFFFF) << 28)
+                           | (((d << rotation) | (d >>> (28 - rotation))) & 0x0FFFFFFF);
+
+        return PC2_TABLE[0][(int) (rotated >>> 49) & 0x7F]
+             | PC2_TABLE[1][(int) (rotated >>> 42) & 0x7F]
+             | PC2_TABLE[2][(int) (rotated >>> 35) & 0x7F]
+             | PC2_TABLE[3][(int) (rotated >>> 28) & 0x7F]
+             | PC2_TABLE[4][(int) (rotated >>> 21) & 0x7F]
+             | PC2_TABLE[5][(int) (rotated >>> 14) & 0x7F]
+             | PC2_TABLE[6][(int) (rotated >>>  7) & 0x7F]
+             | PC2_TABLE[7][(int)  rotated         & 0x7F];
+    }
+
+    /**
+     * <p>Expands <code>key</code> into <code>schedule[offset]</code> through <code>schedule[offset + 31]</code>.
+     *
+     * @param key The 64-bit DES key; parity bits are ignored.
+     * @param encrypting True for an encryption schedule, false for a decryption schedule.
+     */
+    static void expandKey(final long key, final boolean encrypting, final int[] schedule, final int offset) {
+        final long cd = _permutedChoice1(key);
+        for (int round = 0; round < 16; round++) {
+            final long subkey = _subkey(cd, round);
+            final int index = offset + ((encrypting ? round : (15 - round)) << 1);
+            schedule[index] = (int) (subkey >>> 32);
+            schedule[index + 1] = (int) subkey;
+        }
+    }
+
+    /**
+     * <p>Encrypts or decrypts one block using a schedule produced by {@link #expandKey}.
+     */
+    static long cipher(final int[] schedule, final int offset, final long block) {
+        int left = (int) (block >>> 32);
+        int right = (int) block;
+
+        // initial permutation
+        int work = ((left >>> 4) ^ right) & 0x0F0F0F0F; right ^= work; left ^= (work << 4);
+        work = ((left >>> 16) ^ right) & 0x0000FFFF; right ^= work; left ^= (work << 16);
+        work = ((right >>> 2) ^ left) & 0x33333333; left ^= work; right ^= (work << 2);
+        work = ((right >>> 8) ^ left) & 0x00FF00FF; left ^= work; right ^= (work << 8);
+        right = (right << 1) | (right >>> 31);
+        work = (left ^ right) & 0xAAAAAAAA; left ^= work; right ^= work;
+        left = (left << 1) | (left >>> 31);
+
+        for (int round = 0; round < 8; round++) {
+            final int index = offset + (round << 2);
+            left ^= _f(right, schedule[index], schedule[index + 1]);
+            right ^= _f(left, schedule[index + 2], schedule[index + 3]);
+        }
+
+        return _finalPermutation(left, right);
+    }
+
+    /**
+     * <p>Encrypts or decrypts one block, deriving each round's subkey as it is needed.  Cheaper than
+     * {@link #expandKey} followed by {@link #cipher(int[], int, long)} when the key is only used once.
+     */
+    static long cipher(final long key, final boolean encrypting, final long block) {
+        final long cd = _permutedChoice1(key);
+
+        int left = (int) (block >>> 32);
+        int right = (int) block;
+
+        // initial permutation
+        int work = ((left >>> 4) ^ right) & 0x0F0F0F0F; right ^= work; left ^= (work << 4);
+        work = ((left >>> 16) ^ right) & 0x0000FFFF; right ^= work; left ^= (work << 16);
+        work = ((right >>> 2) ^ left) & 0x33333333; left ^= work; right ^= (work << 2);
+        work = ((right >>> 8) ^ left) & 0x00FF00FF; left ^= work; right ^= (work << 8);
+        right = (right << 1) | (right >>> 31);
+        work = (left ^ right) & 0xAAAAAAAA; left ^= work; right ^= work;
+        left = (left << 1) | (left >>> 31);
+
+        for (int round = 0; round < 16; round += 2) {
+            final long firstSubkey = _subkey(cd, (encrypting ? round : (15 - round)));
+            final long secondSubkey = _subkey(cd, (encrypting ? (round + 1) : (14 - round)));
+            left ^= _f(right, (int) (firstSubkey >>> 32), (int) firstSubkey);
+            right ^= _f(left, (int) (secondSubkey >>> 32), (int) secondSubkey);
+        }
+
+        return _finalPermutation(left, right);
+    }
+
+    /**
+     * <p>Performs a single DES encryption of one block.
+     */
+    static long encrypt(final long key, final long block) {
+        return cipher(key, true, block);
+    }
+
+    /**
+     * <p>Performs a single DES decryption of one block.
+     */
+    static long decrypt(final long key, final long block) {
+        return cipher(key, false, block);
+    }
+
+    /**
+     * <p>Performs a Triple DES (EDE) encryption of one block.  For a double-length key, <code>key3</code> is
+     * <code>key1</code>.
+     */
+    static long encryptTripleDes(final long key1, final long key2, final long key3, final long block) {
+        return cipher(key3, true, cipher(key2, false, cipher(key1, true, block)));
+    }
+
+    /**
+     * <p>Performs a Triple DES (EDE) decryption of one block.  For a double-length key, <code>key3</code> is
+     * <code>key1</code>.
+     */
+    static long decryptTripleDes(final long key1, final long key2, final long key3, final long block) {
+        return cipher(key1, false, cipher(key2, true, cipher(key3, false, block)));
+    }
+
+    private static int _f(final int register, final int evenSubkey, final int oddSubkey) {
+        int work = ((register << 28) | (register >>> 4)) ^ evenSubkey;
+        int value = SP7[work & 0x3F] | SP5[(work >>> 8) & 0x3F] | SP3[(work >>> 16) & 0x3F] | SP1[(work >>> 24) & 0x3F];
+        work = register ^ oddSubkey;
+        value |= SP8[work & 0x3F] | SP6[(work >>> 8) & 0x3F] | SP4[(work >>> 16) & 0x3F] | SP2[(work >>> 24) & 0x3F];
+        return value;
+    }
+
+    private static long _finalPermutation(int left, int right) {
+        right = (right << 31) | (right >>> 1);
+        int work = (left ^ right) & 0xAAAAAAAA; left ^= work; right ^= work;
+        left = (left << 31) | (left >>> 1);
+        work = ((left >>> 8) ^ right) & 0x00FF00FF; right ^= work; left ^= (work << 8);
+        work = ((left >>> 2) ^ right) & 0x33333333; right ^= work; left ^= (work << 2);
+        work = ((right >>> 16) ^ left) & 0x0000FFFF; left ^= work; right ^= (work << 16);
+        work = ((right >>> 4) ^ left) & 0x0F0F0F0F; left ^= work; right ^= (work << 4);
+
+        return (((long) right) << 32) | (left & 0xFFFFFFFFL);
+    }
+}
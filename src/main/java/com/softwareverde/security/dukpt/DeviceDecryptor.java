@@ -0,0 +1,115 @@
+package com.softwareverde.security.dukpt;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Decrypts records one at a time, holding a {@link DukptDeviceContext} for the device of the most recent record so
+ * that consecutive records from one device reuse each other's intermediate keys.
+ *
+ * <p>Each record is decrypted by deriving the key with the configured variant, optionally converting it with
+ * {@link Dukpt#toDataKey(byte[])}, and calling {@link Dukpt#decryptTripleDes(byte[], byte[])}.  Records are best
+ * supplied grouped by device and ordered by transaction counter.
+ *
+ * <p>Not thread-safe; intended to be confined to one worker.
+ */
+final class DeviceDecryptor {
+    private final DukptEngine _engine;
+    private final BaseDerivationKey _baseDerivationKey;
+    private final IpekSource _ipekSource;
+    private final boolean _shouldConvertToDataKey;
+    private final long[] _register = new long[2];
+
+    private DukptDeviceContext _deviceContext;
+
+    /**
+     * @param baseDerivationKey The BDK, or null if <code>ipekSource</code> is provided.
+     * @param ipekSource The source of per-device IPEKs, or null if <code>baseDerivationKey</code> is provided.
+     */
+    DeviceDecryptor(final DukptEngine engine, final BaseDerivationKey baseDerivationKey, final IpekSource ipekSource, final boolean shouldConvertToDataKey) {
+        _engine = engine;
+        _baseDerivationKey = baseDerivationKey;
+        _ipekSource = ipekSource;
+        _shouldConvertToDataKey = shouldConvertToDataKey;
+    }
+
+    /**
+     * <p>Returns the key the record with <code>keySerialNumber</code> was encrypted under.  The caller should
+     * obliviate it once it has been used.
+     */
+    byte[] computeKey(final byte[] keySerialNumber) throws Exception {
+        loadKey(keySerialNumber, _register);
+        final byte[] key = DukptEngine.toByteArray(_register);
+        DukptEngine.wipe(_register);
+        return key;
+    }
+
+    /**
+     * <p>Loads the key the record with <code>keySerialNumber</code> was encrypted under into <code>register</code>,
+     * which the caller should wipe once the key has been used.
+     */
+    void loadKey(final byte[] keySerialNumber, final long[] register) throws Exception {
+        if ( (_deviceContext == null) || (! _deviceContext.isSameDevice(keySerialNumber)) ) {
+            clear();
+
+            if (_baseDerivationKey != null) {
+                _deviceContext = _engine.createDeviceContext(_baseDerivationKey, keySerialNumber);
+            }
+            else {
+                final byte[] initialPinEncryptionKey = _ipekSource.getIpek(keySerialNumber);
+                try {
+                    _deviceContext = _engine.createDeviceContextFromIpek(initialPinEncryptionKey, keySerialNumber);
+                }
+                finally {
+                    Dukpt.obliviate(initialPinEncryptionKey);
+                }
+            }
+        }
+
+        _deviceContext.loadKey(keySerialNumber, register);
+        _engine.applyVariant(register);
+        if (_shouldConvertToDataKey) {
+            DukptEngine.toDataKey(register);
+        }
+    }
+
+    /**
+     * <p>Decrypts <code>ciphertext</code>, which was encrypted under the key for <code>keySerialNumber</code>.
+     */
+    byte[] decrypt(final byte[] keySerialNumber, final byte[] ciphertext) throws Exception {
+        final byte[] key = computeKey(keySerialNumber);
+        try {
+            return Dukpt.decryptTripleDes(key, ciphertext);
+        }
+        finally {
+            // secure memory
+            Dukpt.obliviate(key);
+        }
+    }
+
+    /**
+     * <p>Decrypts the remaining bytes of <code>ciphertext</code>, which were encrypted under the key for
+     * <code>keySerialNumber</code>, into <code>plaintext</code>.
+     *
+     * @return The number of bytes written to <code>plaintext</code>.
+     */
+    int decrypt(final byte[] keySerialNumber, final ByteBuffer ciphertext, final ByteBuffer plaintext) throws Exception {
+        final byte[] key = computeKey(keySerialNumber);
+        try {
+            return Dukpt.decryptTripleDes(key, ciphertext, plaintext);
+        }
+        finally {
+            // secure memory
+            Dukpt.obliviate(key);
+        }
+    }
+
+    /**
+     * <p>Zeroes the keys retained for the current device.
+     */
+    void clear() {
+        if (_deviceContext != null) {
+            _deviceContext.clear();
+            _deviceContext = null;
+        }
+    }
+}
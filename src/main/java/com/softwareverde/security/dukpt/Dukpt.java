@@ -1,15 +1,17 @@
 package com.softwareverde.security.dukpt;
 
+import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
-import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.DESKeySpec;
 import javax.crypto.spec.DESedeKeySpec;
-import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
-import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
 import java.security.InvalidParameterException;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 
 /**
  * <p>The Dukpt class acts a name-space for the Derived
@@ -30,11 +32,13 @@ import java.util.Arrays;
  *
  * <p>To further augment to the security of Dukpt, two "oblivate()" methods are
  * included, one for the extended BitSet and one for byte arrays.  These
- * overwrite their respective arguments with random data as supplied by
- * java.secruty.SecureRandom to ensure that their randomness is
- * cryptographically strong.  The default number of overwrites is specified by
- * the static constant NUM_OVERWRITES but the user can supply a different number
- * should they desire the option.
+ * overwrite their entire arguments as directed by the current
+ * {@link ObliviationPolicy} (zero-fill by default; see
+ * {@link #setObliviationPolicy(ObliviationPolicy)}), which is also used for every
+ * internal wipe of key material.  The overloads taking a number of overwrites
+ * always use random data as supplied by java.security.SecureRandom; the number
+ * used by {@link StandardObliviationPolicy#MULTI_PASS_RANDOM} is specified by the
+ * static constant NUM_OVERWRITES.
  *
  * @author Software Verde: Andrew Groot
  * @author Software Verde: Josh Green
@@ -43,12 +47,15 @@ public final class Dukpt {
 	public static final int NUM_OVERWRITES = 3;
 
 	public static final String KEY_REGISTER_BITMASK = "C0C0C0C000000000C0C0C0C000000000";
-	private static final BitSet DEFAULT_KEY_REGISTER_BITMASK = toBitSet(toByteArray(KEY_REGISTER_BITMASK));
 
 	public static final String DATA_VARIANT_BITMASK = "0000000000FF00000000000000FF0000";
 	public static final String MAC_VARIANT_BITMASK  = "000000000000FF00000000000000FF00";
 	public static final String PIN_VARIANT_BITMASK  = "00000000000000FF00000000000000FF";
-	private static final BitSet DEFAULT_VARIANT_BITMASK = toBitSet(toByteArray(PIN_VARIANT_BITMASK));
+	private static final DukptEngine DEFAULT_ENGINE = new DukptEngine(HexCodec.decode(KEY_REGISTER_BITMASK), HexCodec.decode(PIN_VARIANT_BITMASK));
+	private static final DukptEngine DATA_ENGINE = new DukptEngine(HexCodec.decode(KEY_REGISTER_BITMASK), HexCodec.decode(DATA_VARIANT_BITMASK));
+	private static final DukptEngine MAC_ENGINE = new DukptEngine(HexCodec.decode(KEY_REGISTER_BITMASK), HexCodec.decode(MAC_VARIANT_BITMASK));
+	private static volatile ObliviationPolicy obliviationPolicy = StandardObliviationPolicy.ZERO_FILL;
+	private static volatile DukptMetrics metrics = DukptMetrics.NONE;
 
 	/**
 	 * <p>Computes a DUKPT (Derived Unique Key-Per-Transaction).
@@ -66,37 +73,55 @@ public final class Dukpt {
 	 * @throws Exception
 	 */
 	public static byte[] computeKey(byte[] baseDerivationKey, byte[] keySerialNumber) throws Exception {
-		return computeKey(baseDerivationKey, keySerialNumber, DEFAULT_KEY_REGISTER_BITMASK, DEFAULT_VARIANT_BITMASK);
+		return computeKey(baseDerivationKey, keySerialNumber, DEFAULT_ENGINE);
 	}
 
 	/**
-	 * <p>Computes a DUKPT (Derived Unique Key-Per-Transaction) using the provided key register bitmask and data variant
-	 * bitmask.</p>
+	 * <p>Computes a DUKPT (Derived Unique Key-Per-Transaction), loading the
+	 * IPEK through the provided cache instead of recomputing it from the
+	 * Base Derivation Key for every transaction.
+	 *
+	 * @see #computeKey(byte[], byte[])
+	 * @see IpekCache
+	 * @param baseDerivationKey The Base Derivation Key
+	 * @param keySerialNumber The Key Serial Number
+	 * @param ipekCache The cache the IPEK is loaded through.
+	 * @return A unique key for this set of data.
+	 * @throws Exception
+	 */
+	public static byte[] computeKey(byte[] baseDerivationKey, byte[] keySerialNumber, IpekCache ipekCache) throws Exception {
+		return DEFAULT_ENGINE.computeKey(baseDerivationKey, keySerialNumber, ipekCache);
+	}
+
+	/**
+	 * <p>Computes a DUKPT (Derived Unique Key-Per-Transaction) using the key register bitmask and data variant
+	 * bitmask of the provided engine.</p>
 	 *
 	 * @see #computeKey(byte[], byte[])
 	 * @param baseDerivationKey
 	 * @param keySerialNumber
-	 * @param keyRegisterBitmask
-	 * @param dataVariantBitmask
+	 * @param engine
 	 * @return
 	 * @throws Exception
 	 */
-	protected static byte[] computeKey(byte[] baseDerivationKey, byte[] keySerialNumber, BitSet keyRegisterBitmask, BitSet dataVariantBitmask) throws Exception {
-		BitSet bdk = toBitSet(baseDerivationKey);
-		BitSet ksn = toBitSet(keySerialNumber);
-		BitSet ipek = getIpek(bdk, ksn, keyRegisterBitmask);
-
-		// convert key for returning
-		BitSet key = _getCurrentKey(ipek, ksn, keyRegisterBitmask, dataVariantBitmask);
-		byte[] rkey = toByteArray(key);
-
-		// secure memory
-		obliviate(ksn);
-		obliviate(bdk);
-		obliviate(ipek);
-		obliviate(key);
+	protected static byte[] computeKey(byte[] baseDerivationKey, byte[] keySerialNumber, DukptEngine engine) throws Exception {
+		return engine.computeKey(baseDerivationKey, keySerialNumber);
+	}
 
-		return rkey;
+	/**
+	 * <p>Computes a DUKPT (Derived Unique Key-Per-Transaction) from a
+	 * prepared Base Derivation Key, whose key schedules are reused
+	 * rather than expanded for every call.
+	 *
+	 * @see #computeKey(byte[], byte[])
+	 * @see BaseDerivationKey
+	 * @param baseDerivationKey The prepared Base Derivation Key
+	 * @param keySerialNumber The Key Serial Number
+	 * @return A unique key for this set of data.
+	 * @throws Exception
+	 */
+	public static byte[] computeKey(BaseDerivationKey baseDerivationKey, byte[] keySerialNumber) throws Exception {
+		return DEFAULT_ENGINE.computeKey(baseDerivationKey, keySerialNumber);
 	}
 
 	/**
@@ -113,35 +138,288 @@ public final class Dukpt {
 	 * @throws Exception
 	 */
 	public static byte[] computeKeyFromIpek(byte[] initialPinEncryptionKey, byte[] keySerialNumber) throws Exception {
-		return computeKeyFromIpek(initialPinEncryptionKey, keySerialNumber, DEFAULT_KEY_REGISTER_BITMASK, DEFAULT_VARIANT_BITMASK);
+		return computeKeyFromIpek(initialPinEncryptionKey, keySerialNumber, DEFAULT_ENGINE);
 	}
 
 	/**
-	 * <p>Computes a DUKPT (Derived Unique Key-Per-Transaction) using the provided key register bitmask and data variant
-	 * bitmask.</p>
+	 * <p>Computes a DUKPT (Derived Unique Key-Per-Transaction) using the key register bitmask and data variant
+	 * bitmask of the provided engine.</p>
 	 *
 	 * @see #computeKeyFromIpek(byte[], byte[])
 	 * @param initialPinEncryptionKey
 	 * @param keySerialNumber
-	 * @param keyRegisterBitmask
-	 * @param dataVariantBitmask
+	 * @param engine
 	 * @return
 	 * @throws Exception
 	 */
-	protected static byte[] computeKeyFromIpek(byte[] initialPinEncryptionKey, byte[] keySerialNumber, BitSet keyRegisterBitmask, BitSet dataVariantBitmask) throws Exception {
-		BitSet ksn = toBitSet(keySerialNumber);
-		BitSet ipek = toBitSet(initialPinEncryptionKey);
+	protected static byte[] computeKeyFromIpek(byte[] initialPinEncryptionKey, byte[] keySerialNumber, DukptEngine engine) throws Exception {
+		return engine.computeKeyFromIpek(initialPinEncryptionKey, keySerialNumber);
+	}
 
-		// convert key for returning
-		BitSet key = _getCurrentKey(ipek, ksn, keyRegisterBitmask, dataVariantBitmask);
-		byte[] rkey = toByteArray(key);
+	/**
+	 * <p>Computes a DUKPT (Derived Unique Key-Per-Transaction) for each of
+	 * the provided Key Serial Numbers.
+	 *
+	 * <p>The KSNs may belong to any number of devices and be in any order.
+	 * Each device's IPEK, and each intermediate key shared by several of
+	 * its transaction counters, is computed only once, which makes this
+	 * considerably cheaper than calling {@link #computeKey(byte[], byte[])}
+	 * per KSN for large batches (e.g. settlement).
+	 *
+	 * @see #computeKey(byte[], byte[])
+	 * @param baseDerivationKey The Base Derivation Key
+	 * @param keySerialNumbers The Key Serial Numbers
+	 * @return The unique key for each KSN, in the iteration order of keySerialNumbers.
+	 * @throws Exception
+	 */
+	public static List<byte[]> computeKeys(byte[] baseDerivationKey, Collection<byte[]> keySerialNumbers) throws Exception {
+		return DEFAULT_ENGINE.computeKeys(baseDerivationKey, keySerialNumbers);
+	}
 
-		// secure memory
-		obliviate(ksn);
-		obliviate(ipek);
-		obliviate(key);
+	/**
+	 * <p>Computes the data key for the provided Key Serial Number: the
+	 * DUKPT (Derived Unique Key-Per-Transaction) with the data variant
+	 * applied, passed through {@link #toDataKey(byte[])}.
+	 *
+	 * <p>The result is the same as
+	 * <code>toDataKey(new DukptVariant(KEY_REGISTER_BITMASK, DATA_VARIANT_BITMASK).computeKey(bdk, ksn))</code>,
+	 * but the key never leaves the register between the two steps and
+	 * the Triple DES key schedule of the conversion is set up once for
+	 * both halves.
+	 *
+	 * @see DukptVariant#computeDataKey(byte[], byte[])
+	 * @param baseDerivationKey The Base Derivation Key
+	 * @param keySerialNumber The Key Serial Number
+	 * @return The 16-byte data key.
+	 * @throws Exception
+	 */
+	public static byte[] computeDataKey(byte[] baseDerivationKey, byte[] keySerialNumber) throws Exception {
+		return DATA_ENGINE.computeDataKey(baseDerivationKey, keySerialNumber);
+	}
+
+	/**
+	 * <p>Computes the data key for the provided Key Serial Number from a
+	 * prepared Base Derivation Key.
+	 *
+	 * @see #computeDataKey(byte[], byte[])
+	 * @param baseDerivationKey The prepared Base Derivation Key
+	 * @param keySerialNumber The Key Serial Number
+	 * @return The 16-byte data key.
+	 * @throws Exception
+	 */
+	public static byte[] computeDataKey(BaseDerivationKey baseDerivationKey, byte[] keySerialNumber) throws Exception {
+		return DATA_ENGINE.computeDataKey(baseDerivationKey, keySerialNumber);
+	}
+
+	/**
+	 * <p>Computes the data key for the provided Key Serial Number from
+	 * the Initial PIN Encryption Key.
+	 *
+	 * @see #computeDataKey(byte[], byte[])
+	 * @param initialPinEncryptionKey The Initial PIN Encryption Key
+	 * @param keySerialNumber The Key Serial Number
+	 * @return The 16-byte data key.
+	 * @throws Exception
+	 */
+	public static byte[] computeDataKeyFromIpek(byte[] initialPinEncryptionKey, byte[] keySerialNumber) throws Exception {
+		return DATA_ENGINE.computeDataKeyFromIpek(initialPinEncryptionKey, keySerialNumber);
+	}
+
+	/**
+	 * <p>Creates an ANSI X9.19 retail MAC keyed with the MAC variant of
+	 * the DUKPT (Derived Unique Key-Per-Transaction) for the provided Key
+	 * Serial Number.
+	 *
+	 * <p>The key schedules are set up once here; the message can then be
+	 * supplied in as many pieces as it arrives in.
+	 *
+	 * @see RetailMac
+	 * @param baseDerivationKey The Base Derivation Key
+	 * @param keySerialNumber The Key Serial Number
+	 * @return The MAC; the caller should clear it once it has been used.
+	 * @throws Exception
+	 */
+	public static RetailMac createMac(byte[] baseDerivationKey, byte[] keySerialNumber) throws Exception {
+		return toMac(MAC_ENGINE.computeKey(baseDerivationKey, keySerialNumber));
+	}
+
+	/**
+	 * <p>Creates an ANSI X9.19 retail MAC keyed with the MAC variant of
+	 * the DUKPT (Derived Unique Key-Per-Transaction) for the provided Key
+	 * Serial Number, from a prepared Base Derivation Key.
+	 *
+	 * @see #createMac(byte[], byte[])
+	 * @param baseDerivationKey The prepared Base Derivation Key
+	 * @param keySerialNumber The Key Serial Number
+	 * @return The MAC; the caller should clear it once it has been used.
+	 * @throws Exception
+	 */
+	public static RetailMac createMac(BaseDerivationKey baseDerivationKey, byte[] keySerialNumber) throws Exception {
+		return toMac(MAC_ENGINE.computeKey(baseDerivationKey, keySerialNumber));
+	}
+
+	/**
+	 * <p>Creates an ANSI X9.19 retail MAC keyed with the MAC variant of
+	 * the DUKPT (Derived Unique Key-Per-Transaction) for the provided Key
+	 * Serial Number, from the Initial PIN Encryption Key.
+	 *
+	 * @see #createMac(byte[], byte[])
+	 * @param initialPinEncryptionKey The Initial PIN Encryption Key
+	 * @param keySerialNumber The Key Serial Number
+	 * @return The MAC; the caller should clear it once it has been used.
+	 * @throws Exception
+	 */
+	public static RetailMac createMacFromIpek(byte[] initialPinEncryptionKey, byte[] keySerialNumber) throws Exception {
+		return toMac(MAC_ENGINE.computeKeyFromIpek(initialPinEncryptionKey, keySerialNumber));
+	}
+
+	/**
+	 * <p>Keys a MAC with the provided MAC key, obliviating the key afterwards.
+	 */
+	private static RetailMac toMac(byte[] macKey) {
+		try {
+			return new RetailMac(macKey);
+		}
+		finally {
+			Dukpt.obliviate(macKey);
+		}
+	}
+
+	/**
+	 * <p>Computes several variants (e.g. the PIN, MAC and data keys) of
+	 * the DUKPT (Derived Unique Key-Per-Transaction) for one Key Serial
+	 * Number.
+	 *
+	 * <p>The IPEK and the non-reversible key generation steps are run
+	 * once for the whole set, rather than once per variant as with
+	 * {@link DukptVariant#computeKey(byte[], byte[])}; each variant then
+	 * costs a single XOR, plus two Triple DES block encryptions for
+	 * {@link DukptKeyVariant#DATA_KEY}.
+	 *
+	 * @see DukptKeySet
+	 * @param baseDerivationKey The Base Derivation Key
+	 * @param keySerialNumber The Key Serial Number
+	 * @param keyVariants The variants to derive.
+	 * @return The requested keys; the caller should clear the set once they have been used.
+	 * @throws Exception
+	 */
+	public static DukptKeySet computeKeySet(byte[] baseDerivationKey, byte[] keySerialNumber, DukptKeyVariant... keyVariants) throws Exception {
+		return DEFAULT_ENGINE.computeKeySet(baseDerivationKey, keySerialNumber, keyVariants);
+	}
+
+	/**
+	 * <p>Computes several variants of the DUKPT (Derived Unique
+	 * Key-Per-Transaction) for one Key Serial Number from a prepared Base
+	 * Derivation Key.
+	 *
+	 * @see #computeKeySet(byte[], byte[], DukptKeyVariant...)
+	 * @param baseDerivationKey The prepared Base Derivation Key
+	 * @param keySerialNumber The Key Serial Number
+	 * @param keyVariants The variants to derive.
+	 * @return The requested keys; the caller should clear the set once they have been used.
+	 * @throws Exception
+	 */
+	public static DukptKeySet computeKeySet(BaseDerivationKey baseDerivationKey, byte[] keySerialNumber, DukptKeyVariant... keyVariants) throws Exception {
+		return DEFAULT_ENGINE.computeKeySet(baseDerivationKey, keySerialNumber, keyVariants);
+	}
+
+	/**
+	 * <p>Computes several variants of the DUKPT (Derived Unique
+	 * Key-Per-Transaction) for one Key Serial Number from the Initial PIN
+	 * Encryption Key.
+	 *
+	 * @see #computeKeySet(byte[], byte[], DukptKeyVariant...)
+	 * @param initialPinEncryptionKey The Initial PIN Encryption Key
+	 * @param keySerialNumber The Key Serial Number
+	 * @param keyVariants The variants to derive.
+	 * @return The requested keys; the caller should clear the set once they have been used.
+	 * @throws Exception
+	 */
+	public static DukptKeySet computeKeySetFromIpek(byte[] initialPinEncryptionKey, byte[] keySerialNumber, DukptKeyVariant... keyVariants) throws Exception {
+		return DEFAULT_ENGINE.computeKeySetFromIpek(initialPinEncryptionKey, keySerialNumber, keyVariants);
+	}
+
+	/**
+	 * <p>Creates a receiver-side context for the device that sent the
+	 * provided Key Serial Number, for computing the keys of that device's
+	 * subsequent transactions.
+	 *
+	 * <p>The context remembers the intermediate keys of its last
+	 * derivation, so consecutive transaction counters usually cost a
+	 * single non-reversible key generation step.
+	 *
+	 * @see DukptDeviceContext
+	 * @param baseDerivationKey The Base Derivation Key
+	 * @param keySerialNumber Any Key Serial Number from the device.
+	 * @return A context for the device.
+	 * @throws Exception
+	 */
+	public static DukptDeviceContext createDeviceContext(byte[] baseDerivationKey, byte[] keySerialNumber) throws Exception {
+		return DEFAULT_ENGINE.createDeviceContext(baseDerivationKey, keySerialNumber);
+	}
+
+	/**
+	 * <p>Creates a receiver-side context for the device that sent the
+	 * provided Key Serial Number, from a prepared Base Derivation Key.
+	 *
+	 * @see #createDeviceContext(byte[], byte[])
+	 * @param baseDerivationKey The prepared Base Derivation Key
+	 * @param keySerialNumber Any Key Serial Number from the device.
+	 * @return A context for the device.
+	 * @throws Exception
+	 */
+	public static DukptDeviceContext createDeviceContext(BaseDerivationKey baseDerivationKey, byte[] keySerialNumber) throws Exception {
+		return DEFAULT_ENGINE.createDeviceContext(baseDerivationKey, keySerialNumber);
+	}
+
+	/**
+	 * <p>Creates a receiver-side context for the device with the provided
+	 * Initial PIN Encryption Key.
+	 *
+	 * @see #createDeviceContext(byte[], byte[])
+	 * @param initialPinEncryptionKey The device's Initial PIN Encryption Key
+	 * @param keySerialNumber Any Key Serial Number from the device.
+	 * @return A context for the device.
+	 * @throws Exception
+	 */
+	public static DukptDeviceContext createDeviceContextFromIpek(byte[] initialPinEncryptionKey, byte[] keySerialNumber) throws Exception {
+		return DEFAULT_ENGINE.createDeviceContextFromIpek(initialPinEncryptionKey, keySerialNumber);
+	}
+
+	/**
+	 * <p>Enumerates the keys of the device that sent the provided Key
+	 * Serial Number, for every valid transaction counter from
+	 * firstCounter to lastCounter (inclusive), in ascending order.
+	 *
+	 * <p>Each key is derived from its already computed parent, so the
+	 * whole range costs one non-reversible key generation step per key.
+	 *
+	 * @see DukptKeyEnumerator
+	 * @param baseDerivationKey The Base Derivation Key
+	 * @param keySerialNumber Any Key Serial Number from the device.
+	 * @param firstCounter The first transaction counter of the range.
+	 * @param lastCounter The last transaction counter of the range, at most {@link DukptKeyEnumerator#MAX_COUNTER}.
+	 * @return An iterator over the keys of the range.
+	 * @throws Exception
+	 */
+	public static DukptKeyEnumerator enumerateKeys(byte[] baseDerivationKey, byte[] keySerialNumber, int firstCounter, int lastCounter) throws Exception {
+		return DEFAULT_ENGINE.enumerateKeys(baseDerivationKey, keySerialNumber, firstCounter, lastCounter);
+	}
 
-		return rkey;
+	/**
+	 * <p>Enumerates the keys of the device that sent the provided Key
+	 * Serial Number from a prepared Base Derivation Key.
+	 *
+	 * @see #enumerateKeys(byte[], byte[], int, int)
+	 * @param baseDerivationKey The prepared Base Derivation Key
+	 * @param keySerialNumber Any Key Serial Number from the device.
+	 * @param firstCounter The first transaction counter of the range.
+	 * @param lastCounter The last transaction counter of the range, at most {@link DukptKeyEnumerator#MAX_COUNTER}.
+	 * @return An iterator over the keys of the range.
+	 * @throws Exception
+	 */
+	public static DukptKeyEnumerator enumerateKeys(BaseDerivationKey baseDerivationKey, byte[] keySerialNumber, int firstCounter, int lastCounter) throws Exception {
+		return DEFAULT_ENGINE.enumerateKeys(baseDerivationKey, keySerialNumber, firstCounter, lastCounter);
 	}
 
 	/**
@@ -167,140 +445,97 @@ public final class Dukpt {
 	 * @throws Exception
 	 */
 	public static BitSet getIpek(BitSet key, BitSet ksn) throws Exception {
-		return getIpek(key, ksn, DEFAULT_KEY_REGISTER_BITMASK);
+		return getIpek(key, ksn, DEFAULT_ENGINE);
 	}
 
 	/**
-	 * <p>Computes the Initial PIN Encryption Key using the provided key register bitmask.
+	 * <p>Computes the Initial PIN Encryption Key from a prepared Base
+	 * Derivation Key, which only runs the two Triple DES block
+	 * encryptions; the key schedules were expanded when the
+	 * {@link BaseDerivationKey} was created.
 	 *
 	 * @see #getIpek(BitSet, BitSet)
-	 * @param key
-	 * @param ksn
-	 * @param keyRegisterBitmask
-	 * @return
+	 * @param baseDerivationKey The prepared Base Derivation Key.
+	 * @param keySerialNumber The Key Serial Number.
+	 * @return The Initial PIN Encryption Key
 	 * @throws Exception
 	 */
-	protected static BitSet getIpek(BitSet key, BitSet ksn, BitSet keyRegisterBitmask) throws Exception {
-		byte[][] ipek = new byte[2][];
-		BitSet keyRegister = key.get(0, key.length());
-		BitSet data = ksn.get(0, ksn.length());
-		data.clear(59, 80);
-
-		ipek[0] = encryptTripleDes(toByteArray(keyRegister), toByteArray(data.get(0, 64)));
-
-		keyRegister.xor(keyRegisterBitmask);
-		ipek[1] = encryptTripleDes(toByteArray(keyRegister), toByteArray(data.get(0, 64)));
-
-		byte[] bipek = concat(ipek[0], ipek[1]);
-		BitSet bsipek = toBitSet(bipek);
-
-		// secure memory
-		obliviate(ipek[0]);
-		obliviate(ipek[1]);
-		obliviate(bipek);
-		obliviate(keyRegister);
-		obliviate(data);
-
-		return bsipek;
+	public static byte[] getIpek(BaseDerivationKey baseDerivationKey, byte[] keySerialNumber) throws Exception {
+		return DEFAULT_ENGINE.getIpek(baseDerivationKey, keySerialNumber);
 	}
 
 	/**
-	 * <p>Computes a Dukpt (Derived Unique Key-Per-Transaction) given an IPEK
-	 * and Key Serial Number.
-	 *
-	 * <p>Here, a non-reversible operation is used to find one key from
-	 * another.  This is where the transaction counter comes in.  In order
-	 * to have the desired number of possible unique keys (over 1 million)
-	 * for a given device, a transaction counter size of 20 bits would
-	 * suffice.  However, by adding an extra bit and a constraint (that
-	 * keys must have AT MOST 9* bits set) the same number of values can be
-	 * achieved while allowing a user to calculate the key in at most 9
-	 * steps.
+	 * <p>Computes a DUKPT (Derived Unique Key-Per-Transaction) from a Base
+	 * Derivation Key held off-heap, returning the key off-heap as well.
 	 *
-	 * <p>We have reason to believe that is actually 10 bits (as the
-	 * sum of the 21 choose i for i from 0 to 9 is only around 700,000 while
-	 * taking i from 0 to 10 yields exactly 2^20 (just over 1,000,000) values)
-	 * but regardless of the truth, our algorithm is not dependent upon this
-	 * figure and will work no matter how it is implemented in the encrypting
-	 * device or application.
-	 *
-	 * <p>This algorithm was found in Annex A, section 3 on pages 50-54
-	 * of the ANSI X9.24-1:2009 document.
+	 * <p>The key material is read from and written to direct memory and
+	 * is never copied into a heap array; close both handles once they
+	 * are no longer needed.
 	 *
-	 * @param ipek The Initial PIN Encryption Key.
-	 * @param ksn The Key Serial Number.
-	 * @return The Dukpt that corresponds to this combination of values.
+	 * @see #computeKey(byte[], byte[])
+	 * @see DukptKey
+	 * @param baseDerivationKey The Base Derivation Key
+	 * @param keySerialNumber The Key Serial Number
+	 * @return A unique key for this set of data; the caller must close it.
 	 * @throws Exception
 	 */
-	private static BitSet _getCurrentKey(BitSet ipek, BitSet ksn, BitSet keyRegisterBitmask, BitSet dataVariantBitmask) throws Exception {
-		BitSet key = ipek.get(0, ipek.length());
-		BitSet counter = ksn.get(0, ksn.length());
-		counter.clear(59, ksn.length());
-
-		for (int i = 59; i < ksn.length(); i++) {
-			if (ksn.get(i)) {
-				counter.set(i);
-				BitSet tmp = _nonReversibleKeyGenerationProcess(key, counter.get(16, 80), keyRegisterBitmask);
-				// secure memory
-				obliviate(key);
-				key = tmp;
-			}
-		}
-		key.xor(dataVariantBitmask); // data encryption variant (e.g. To PIN)
-
-		// secure memory
-		obliviate(counter);
+	public static DukptKey computeKey(DukptKey baseDerivationKey, byte[] keySerialNumber) throws Exception {
+		return DEFAULT_ENGINE.computeKey(baseDerivationKey, keySerialNumber);
+	}
 
-		return key;
+	/**
+	 * <p>Computes a DUKPT (Derived Unique Key-Per-Transaction) from an
+	 * Initial PIN Encryption Key held off-heap, returning the key
+	 * off-heap as well.
+	 *
+	 * @see #computeKeyFromIpek(byte[], byte[])
+	 * @see DukptKey
+	 * @param initialPinEncryptionKey The Initial PIN Encryption Key
+	 * @param keySerialNumber The Key Serial Number
+	 * @return A unique key for this set of data; the caller must close it.
+	 * @throws Exception
+	 */
+	public static DukptKey computeKeyFromIpek(DukptKey initialPinEncryptionKey, byte[] keySerialNumber) throws Exception {
+		return DEFAULT_ENGINE.computeKeyFromIpek(initialPinEncryptionKey, keySerialNumber);
 	}
 
 	/**
-	 * <p>Creates a new key from a previous key and the right 64 bits of the
-	 * Key Serial Number for the desired transaction.
+	 * <p>Computes the Initial PIN Encryption Key from a Base Derivation
+	 * Key held off-heap, returning the IPEK off-heap as well.
 	 *
-	 * <p>This algorithm was found in Annex A, section 2 on page 50
-	 * of the ANSI X9.24-1:2009 document.
+	 * @see #getIpek(BitSet, BitSet)
+	 * @see DukptKey
+	 * @param baseDerivationKey The Base Derivation Key.
+	 * @param keySerialNumber The Key Serial Number.
+	 * @return The Initial PIN Encryption Key; the caller must close it.
+	 * @throws Exception
+	 */
+	public static DukptKey getIpek(DukptKey baseDerivationKey, byte[] keySerialNumber) throws Exception {
+		return DEFAULT_ENGINE.getIpek(baseDerivationKey, keySerialNumber);
+	}
+
+	/**
+	 * <p>Computes the Initial PIN Encryption Key using the key register bitmask of the provided engine.
 	 *
-	 * @param p_key The previous key to be used for derivation.
-	 * @param data The data to encrypt it with, usually the right 64 bits of the transaction counter.
-	 * @return A key that cannot be traced back to p_key.
-	 * @throws Exception
-	 */
-	private static BitSet _nonReversibleKeyGenerationProcess(BitSet p_key, BitSet data, BitSet keyRegisterBitmask) throws Exception {
-		BitSet keyreg = p_key.get(0, p_key.length());
-		BitSet reg1 = data.get(0, data.length());
-		// step 1: Crypto Register-1 XORed with the right half of the Key Register goes to Crypto Register-2.
-		BitSet reg2 = reg1.get(0, 64); // reg2 is being used like a temp here
-		reg2.xor(keyreg.get(64, 128));   // and here, too, kind of
-		// step 2: Crypto Register-2 DEA-encrypted using, as the key, the left half of the Key Register goes to Crypto Register-2
-		reg2 = toBitSet(encryptDes(toByteArray(keyreg.get(0, 64)), toByteArray(reg2)));
-		// step 3: Crypto Register-2 XORed with the right half of the Key Register goes to Crypto Register-2
-		reg2.xor(keyreg.get(64, 128));
-		// done messing with reg2
-
-		// step 4: XOR the Key Register with hexadecimal C0C0 C0C0 0000 0000 C0C0 C0C0 0000 0000
-		keyreg.xor(keyRegisterBitmask);
-		// step 5: Crypto Register-1 XORed with the right half of the Key Register goes to Crypto Register-1
-		reg1.xor(keyreg.get(64, 128));
-		// step 6: Crypto Register-1 DEA-encrypted using, as the key, the left half of the Key Register goes to Crypto Register-1
-		reg1 = toBitSet(encryptDes(toByteArray(keyreg.get(0, 64)), toByteArray(reg1)));
-		// step 7: Crypto Register-1 XORed with the right half of the Key Register goes to Crypto Register-1
-		reg1.xor(keyreg.get(64, 128));
-		// done
-
-		byte[] reg1b = toByteArray(reg1), reg2b = toByteArray(reg2);
-		byte[] key = concat(reg1b, reg2b);
-		BitSet rkey = toBitSet(key);
+	 * @see #getIpek(BitSet, BitSet)
+	 * @param key
+	 * @param ksn
+	 * @param engine
+	 * @return
+	 * @throws Exception
+	 */
+	protected static BitSet getIpek(BitSet key, BitSet ksn, DukptEngine engine) throws Exception {
+		byte[] bkey = toByteArray(key);
+		byte[] bksn = toByteArray(ksn);
+		byte[] bipek = engine.getIpek(bkey, bksn);
+		BitSet bsipek = toBitSet(bipek);
 
 		// secure memory
-		obliviate(reg1);
-		obliviate(reg2);
-		obliviate(reg1b);
-		obliviate(reg2b);
-		obliviate(key);
-		obliviate(keyreg);
+		obliviate(bkey);
+		obliviate(bksn);
+		obliviate(bipek);
 
-		return rkey;
+		return bsipek;
 	}
 
 	/**
@@ -313,16 +548,22 @@ public final class Dukpt {
 	 * @throws Exception
 	 */
 	public static byte[] encryptDes(byte[] key, byte[] data, boolean padding) throws Exception {
-		IvParameterSpec iv = new IvParameterSpec(new byte[8]);
-		SecretKey encryptKey = SecretKeyFactory.getInstance("DES").generateSecret(new DESKeySpec(key));
+		return encryptDes(toDesKey(key), data, padding);
+	}
+
+	private static byte[] encryptDes(SecretKey encryptKey, byte[] data, boolean padding) throws Exception {
 		Cipher encryptor;
 		if (padding) {
-			encryptor = Cipher.getInstance("DES/CBC/PKCS5Padding");
+			encryptor = Ciphers.getCipher("DES/CBC/PKCS5Padding");
 		} else {
-			encryptor = Cipher.getInstance("DES/CBC/NoPadding");
+			encryptor = Ciphers.getCipher("DES/CBC/NoPadding");
 		}
-		encryptor.init(Cipher.ENCRYPT_MODE, encryptKey, iv);
-		return encryptor.doFinal(data);
+		DukptMetrics metrics = Dukpt.metrics;
+		long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+		encryptor.init(Cipher.ENCRYPT_MODE, encryptKey, Ciphers.DES_ZERO_IV);
+		byte[] bytes = encryptor.doFinal(data);
+		recordOperation(metrics, DukptOperation.ENCRYPT_DES, startTime);
+		return bytes;
 	}
 
 	/**
@@ -387,18 +628,44 @@ public final class Dukpt {
 			throw new IllegalArgumentException("Invalid key provided: " + (derivedKey == null ? "null" : "length " + derivedKey.length));
 		}
 
-		byte[] left = Arrays.copyOfRange(derivedKey, 0, 8);
-		byte[] right = Arrays.copyOfRange(derivedKey, 8, 16);
+		DukptMetrics metrics = Dukpt.metrics;
+		long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+
+		long[] register = new long[] { Bytes.toLong(derivedKey, 0), Bytes.toLong(derivedKey, 8) };
+		DukptEngine.toDataKey(register);
+		byte[] dataKey = DukptEngine.toByteArray(register);
+
+		// secure memory
+		DukptEngine.wipe(register);
+
+		recordOperation(metrics, DukptOperation.TO_DATA_KEY, startTime);
+		return dataKey;
+	}
+
+	/**
+	 * <p>Creates a data key from a derived key held off-heap, returning
+	 * the data key off-heap as well.
+	 *
+	 * @see #toDataKey(byte[])
+	 * @see DukptKey
+	 * @param derivedKey The 16-byte derived key.
+	 * @return The data key; the caller must close it.
+	 * @throws Exception
+	 */
+	public static DukptKey toDataKey(DukptKey derivedKey) throws Exception {
+		DukptEngine.checkLength("key", derivedKey, 16);
+
+		DukptMetrics metrics = Dukpt.metrics;
+		long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
 
-		byte[] leftEncrypted = Dukpt.encryptTripleDes(derivedKey, left);
-		byte[] rightEncrypted = Dukpt.encryptTripleDes(derivedKey, right);
-		byte[] dataKey = Dukpt.concat(leftEncrypted, rightEncrypted);
+		long[] register = new long[] { derivedKey.getLong(0), derivedKey.getLong(8) };
+		DukptEngine.toDataKey(register);
+		DukptKey dataKey = DukptKey.fromRegister(register);
 
-		Dukpt.obliviate(left);
-		Dukpt.obliviate(right);
-		Dukpt.obliviate(leftEncrypted);
-		Dukpt.obliviate(rightEncrypted);
+		// secure memory
+		DukptEngine.wipe(register);
 
+		recordOperation(metrics, DukptOperation.TO_DATA_KEY, startTime);
 		return dataKey;
 	}
 
@@ -412,16 +679,22 @@ public final class Dukpt {
 	 * @throws Exception
 	 */
 	public static byte[] decryptDes(byte[] key, byte[] data, boolean padding) throws Exception {
-		IvParameterSpec iv = new IvParameterSpec(new byte[8]);
-		SecretKey decryptKey = SecretKeyFactory.getInstance("DES").generateSecret(new DESKeySpec(key));
+		return decryptDes(toDesKey(key), data, padding);
+	}
+
+	private static byte[] decryptDes(SecretKey decryptKey, byte[] data, boolean padding) throws Exception {
 		Cipher decryptor;
 		if (padding) {
-			decryptor = Cipher.getInstance("DES/CBC/PKCS5Padding");
+			decryptor = Ciphers.getCipher("DES/CBC/PKCS5Padding");
 		} else {
-			decryptor = Cipher.getInstance("DES/CBC/NoPadding");
+			decryptor = Ciphers.getCipher("DES/CBC/NoPadding");
 		}
-		decryptor.init(Cipher.DECRYPT_MODE, decryptKey, iv);
-		return decryptor.doFinal(data);
+		DukptMetrics metrics = Dukpt.metrics;
+		long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+		decryptor.init(Cipher.DECRYPT_MODE, decryptKey, Ciphers.DES_ZERO_IV);
+		byte[] bytes = decryptor.doFinal(data);
+		recordOperation(metrics, DukptOperation.DECRYPT_DES, startTime);
+		return bytes;
 	}
 
 	/**
@@ -458,53 +731,21 @@ public final class Dukpt {
 	 * @throws Exception
 	 */
 	public static byte[] encryptTripleDes(byte[] key, byte[] data, boolean padding) throws Exception {
-		BitSet bskey = toBitSet(key);
-		BitSet k1, k2, k3;
-		if (bskey.length() == 64) {
-			// single length
-			k1 = bskey.get(0, 64);
-			k2 = k1;
-			k3 = k1;
-		} else if (bskey.length() == 128) {
-			// double length
-			k1 = bskey.get(0, 64);
-			k2 = bskey.get(64, 128);
-			k3 = k1;
-		} else {
-			// triple length
-			if (bskey.length() != 192) {
-				throw new InvalidParameterException("Key is not 8/16/24 bytes long.");
-			}
-			k1 = bskey.get(0, 64);
-			k2 = bskey.get(64, 128);
-			k3 = bskey.get(128, 192);
-		}
-		byte[] kb1 = toByteArray(k1), kb2 = toByteArray(k2), kb3 = toByteArray(k3);
-		byte[] key16 = concat(kb1, kb2);
-		byte[] key24 = concat(key16, kb3);
+		return encryptTripleDes(toTripleDesKey(key), data, padding);
+	}
 
-		IvParameterSpec iv = new IvParameterSpec(new byte[8]);
-		SecretKey encryptKey = SecretKeyFactory.getInstance("DESede").generateSecret(new DESedeKeySpec(key24));
+	private static byte[] encryptTripleDes(SecretKey encryptKey, byte[] data, boolean padding) throws Exception {
 		Cipher encryptor;
 		if (padding) {
-			encryptor = Cipher.getInstance("DESede/CBC/PKCS5Padding");
+			encryptor = Ciphers.getCipher("DESede/CBC/PKCS5Padding");
 		} else {
-			encryptor = Cipher.getInstance("DESede/CBC/NoPadding");
+			encryptor = Ciphers.getCipher("DESede/CBC/NoPadding");
 		}
-		encryptor.init(Cipher.ENCRYPT_MODE, encryptKey, iv);
+		DukptMetrics metrics = Dukpt.metrics;
+		long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+		encryptor.init(Cipher.ENCRYPT_MODE, encryptKey, Ciphers.DES_ZERO_IV);
 		byte[] bytes = encryptor.doFinal(data);
-
-		// secure memory
-		obliviate(k1);
-		obliviate(k2);
-		obliviate(k3);
-		obliviate(kb1);
-		obliviate(kb2);
-		obliviate(kb3);
-		obliviate(key16);
-		obliviate(key24);
-		obliviate(bskey);
-
+		recordOperation(metrics, DukptOperation.ENCRYPT_TRIPLE_DES, startTime);
 		return bytes;
 	}
 
@@ -518,52 +759,21 @@ public final class Dukpt {
 	 * @throws Exception
 	 */
 	public static byte[] decryptTripleDes(byte[] key, byte[] data, boolean padding) throws Exception {
-		BitSet bskey = toBitSet(key);
-		BitSet k1, k2, k3;
-		if (bskey.length() == 64) {
-			// single length
-			k1 = bskey.get(0, 64);
-			k2 = k1;
-			k3 = k1;
-		} else if (bskey.length() == 128) {
-			// double length
-			k1 = bskey.get(0, 64);
-			k2 = bskey.get(64, 128);
-			k3 = k1;
-		} else {
-			// triple length
-			if (bskey.length() != 192) {
-				throw new InvalidParameterException("Key is not 8/16/24 bytes long.");
-			}
-			k1 = bskey.get(0, 64);
-			k2 = bskey.get(64, 128);
-			k3 = bskey.get(128, 192);
-		}
-		byte[] kb1 = toByteArray(k1), kb2 = toByteArray(k2), kb3 = toByteArray(k3);
-		byte[] key16 = concat(kb1, kb2);
-		byte[] key24 = concat(key16, kb3);
+		return decryptTripleDes(toTripleDesKey(key), data, padding);
+	}
 
-		IvParameterSpec iv = new IvParameterSpec(new byte[8]);
-		SecretKey encryptKey = SecretKeyFactory.getInstance("DESede").generateSecret(new DESedeKeySpec(key24));
+	private static byte[] decryptTripleDes(SecretKey decryptKey, byte[] data, boolean padding) throws Exception {
 		Cipher decryptor;
-		if (padding)
-			decryptor = Cipher.getInstance("DESede/CBC/PKCS5Padding");
-		else
-			decryptor = Cipher.getInstance("DESede/CBC/NoPadding");
-		decryptor.init(Cipher.DECRYPT_MODE, encryptKey, iv);
+		if (padding) {
+			decryptor = Ciphers.getCipher("DESede/CBC/PKCS5Padding");
+		} else {
+			decryptor = Ciphers.getCipher("DESede/CBC/NoPadding");
+		}
+		DukptMetrics metrics = Dukpt.metrics;
+		long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+		decryptor.init(Cipher.DECRYPT_MODE, decryptKey, Ciphers.DES_ZERO_IV);
 		byte[] bytes = decryptor.doFinal(data);
-
-		// secure memory
-		obliviate(k1);
-		obliviate(k2);
-		obliviate(k3);
-		obliviate(kb1);
-		obliviate(kb2);
-		obliviate(kb3);
-		obliviate(key16);
-		obliviate(key24);
-		obliviate(bskey);
-
+		recordOperation(metrics, DukptOperation.DECRYPT_TRIPLE_DES, startTime);
 		return bytes;
 	}
 
@@ -603,17 +813,22 @@ public final class Dukpt {
 	 * @throws Exception
 	 */
 	public static byte[] encryptAes(byte[] key, byte[] data, boolean padding) throws Exception {
-		IvParameterSpec iv = new IvParameterSpec(new byte[16]);
-		SecretKeySpec encryptKey = new SecretKeySpec(key, "AES");
+		return encryptAes(new SecretKeySpec(key, "AES"), data, padding);
+	}
 
+	private static byte[] encryptAes(SecretKey encryptKey, byte[] data, boolean padding) throws Exception {
 		Cipher encryptor;
 		if (padding) {
-			encryptor = Cipher.getInstance("AES/CBC/PKCS5Padding");
+			encryptor = Ciphers.getCipher("AES/CBC/PKCS5Padding");
 		} else {
-			encryptor = Cipher.getInstance("AES/CBC/NoPadding");
+			encryptor = Ciphers.getCipher("AES/CBC/NoPadding");
 		}
-		encryptor.init(Cipher.ENCRYPT_MODE, encryptKey, iv);
-		return encryptor.doFinal(data);
+		DukptMetrics metrics = Dukpt.metrics;
+		long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+		encryptor.init(Cipher.ENCRYPT_MODE, encryptKey, Ciphers.AES_ZERO_IV);
+		byte[] bytes = encryptor.doFinal(data);
+		recordOperation(metrics, DukptOperation.ENCRYPT_AES, startTime);
+		return bytes;
 	}
 
 	/**
@@ -628,17 +843,22 @@ public final class Dukpt {
 	 * @throws Exception
 	 */
 	public static byte[] decryptAes(byte[] key, byte[] data, boolean padding) throws Exception {
-		IvParameterSpec iv = new IvParameterSpec(new byte[16]);
-		SecretKeySpec decryptKey = new SecretKeySpec(key, "AES");
+		return decryptAes(new SecretKeySpec(key, "AES"), data, padding);
+	}
 
+	private static byte[] decryptAes(SecretKey decryptKey, byte[] data, boolean padding) throws Exception {
 		Cipher decryptor;
 		if (padding) {
-			decryptor = Cipher.getInstance("AES/CBC/PKCS5Padding");
+			decryptor = Ciphers.getCipher("AES/CBC/PKCS5Padding");
 		} else {
-			decryptor = Cipher.getInstance("AES/CBC/NoPadding");
+			decryptor = Ciphers.getCipher("AES/CBC/NoPadding");
 		}
-		decryptor.init(Cipher.DECRYPT_MODE, decryptKey, iv);
-		return decryptor.doFinal(data);
+		DukptMetrics metrics = Dukpt.metrics;
+		long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+		decryptor.init(Cipher.DECRYPT_MODE, decryptKey, Ciphers.AES_ZERO_IV);
+		byte[] bytes = decryptor.doFinal(data);
+		recordOperation(metrics, DukptOperation.DECRYPT_AES, startTime);
+		return bytes;
 	}
 
 	/**
@@ -790,35 +1010,587 @@ public final class Dukpt {
 	}
 
 	/**
-	 * <p>Converts a byte into an extended BitSet.
+	 * <p>Performs Single DES Encryption from <code>input</code> into <code>output</code>, either of which may be a heap or direct buffer.
+	 *
+	 * <p>The remaining bytes of <code>input</code> are consumed and the result is written at the position of <code>output</code>; both
+	 * positions are advanced.
+	 *
+	 * @param key The key for encryption.
+	 * @param input The data to encrypt.
+	 * @param output The buffer receiving the encrypted data.
+	 * @param padding When true, PKCS5 Padding will be used.  This is most likely not desirable.
+	 * @return The number of bytes written to <code>output</code>.
+	 * @throws Exception
 	 */
-	public static BitSet toBitSet(byte b) {
-		BitSet bs = new BitSet(8);
-		for (int i = 0; i < 8; i++) {
-			if ((b & (1L << i)) > 0) {
-				bs.set(7 - i);
-			}
-		}
-		return bs;
+	public static int encryptDes(byte[] key, ByteBuffer input, ByteBuffer output, boolean padding) throws Exception {
+		return encryptDes(toDesKey(key), input, output, padding);
 	}
 
-	/**
-	 * <p>Converts a byte array to an extended BitSet.
-	 */
-	public static BitSet toBitSet(byte[] b) {
-		BitSet bs = new BitSet(8 * b.length);
-		for (int i = 0; i < b.length; i++) {
-			for (int j = 0; j < 8; j++) {
-				if ((b[i] & (1L << j)) > 0) {
-					bs.set(8 * i + (7 - j));
-				}
-			}
-		}
-		return bs;
+	private static int encryptDes(SecretKey encryptKey, ByteBuffer input, ByteBuffer output, boolean padding) throws Exception {
+		Cipher encryptor = Ciphers.getCipher(padding ? "DES/CBC/PKCS5Padding" : "DES/CBC/NoPadding");
+		DukptMetrics metrics = Dukpt.metrics;
+		long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+		encryptor.init(Cipher.ENCRYPT_MODE, encryptKey, Ciphers.DES_ZERO_IV);
+		int length = encryptor.doFinal(input, output);
+		recordOperation(metrics, DukptOperation.ENCRYPT_DES, startTime);
+		return length;
 	}
 
 	/**
-	 * <p>Converts an extended BitSet into a byte.
+	 * <p>Performs Single DES Encryption from <code>input</code> into <code>output</code> without padding.
+	 *
+	 * @param key The key for encryption.
+	 * @param input The data to encrypt.
+	 * @param output The buffer receiving the encrypted data.
+	 * @return The number of bytes written to <code>output</code>.
+	 * @throws Exception
+	 */
+	public static int encryptDes(byte[] key, ByteBuffer input, ByteBuffer output) throws Exception {
+		return encryptDes(key, input, output, false);
+	}
+
+	/**
+	 * <p>Performs Single DES Decryption from <code>input</code> into <code>output</code>, either of which may be a heap or direct buffer.
+	 *
+	 * <p>The remaining bytes of <code>input</code> are consumed and the result is written at the position of <code>output</code>; both
+	 * positions are advanced.  If the padding is invalid, anything already
+	 * written to <code>output</code> is zeroed and neither position changes.
+	 *
+	 * @param key The key for decryption.
+	 * @param input The data to decrypt.
+	 * @param output The buffer receiving the decrypted data.
+	 * @param padding When true, PKCS5 Padding will be assumed.  This is most likely not desirable.
+	 * @return The number of bytes written to <code>output</code>.
+	 * @throws Exception
+	 */
+	public static int decryptDes(byte[] key, ByteBuffer input, ByteBuffer output, boolean padding) throws Exception {
+		return decryptDes(toDesKey(key), input, output, padding);
+	}
+
+	private static int decryptDes(SecretKey decryptKey, ByteBuffer input, ByteBuffer output, boolean padding) throws Exception {
+		Cipher decryptor = Ciphers.getCipher(padding ? "DES/CBC/PKCS5Padding" : "DES/CBC/NoPadding");
+		DukptMetrics metrics = Dukpt.metrics;
+		long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+		decryptor.init(Cipher.DECRYPT_MODE, decryptKey, Ciphers.DES_ZERO_IV);
+		int length = doFinal(decryptor, input, output);
+		recordOperation(metrics, DukptOperation.DECRYPT_DES, startTime);
+		return length;
+	}
+
+	/**
+	 * <p>Performs Single DES Decryption from <code>input</code> into <code>output</code> assuming no padding was used.
+	 *
+	 * @param key The key for decryption.
+	 * @param input The data to decrypt.
+	 * @param output The buffer receiving the decrypted data.
+	 * @return The number of bytes written to <code>output</code>.
+	 * @throws Exception
+	 */
+	public static int decryptDes(byte[] key, ByteBuffer input, ByteBuffer output) throws Exception {
+		return decryptDes(key, input, output, false);
+	}
+
+	/**
+	 * <p>Performs Triple DES Encryption from <code>input</code> into <code>output</code>, either of which may be a heap or direct buffer.
+	 *
+	 * <p>The remaining bytes of <code>input</code> are consumed and the result is written at the position of <code>output</code>; both
+	 * positions are advanced.
+	 *
+	 * @param key The key for encryption.
+	 * @param input The data to encrypt.
+	 * @param output The buffer receiving the encrypted data.
+	 * @param padding When true, PKCS5 Padding will be used.  This is most likely not desirable.
+	 * @return The number of bytes written to <code>output</code>.
+	 * @throws Exception
+	 */
+	public static int encryptTripleDes(byte[] key, ByteBuffer input, ByteBuffer output, boolean padding) throws Exception {
+		return encryptTripleDes(toTripleDesKey(key), input, output, padding);
+	}
+
+	private static int encryptTripleDes(SecretKey encryptKey, ByteBuffer input, ByteBuffer output, boolean padding) throws Exception {
+		Cipher encryptor = Ciphers.getCipher(padding ? "DESede/CBC/PKCS5Padding" : "DESede/CBC/NoPadding");
+		DukptMetrics metrics = Dukpt.metrics;
+		long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+		encryptor.init(Cipher.ENCRYPT_MODE, encryptKey, Ciphers.DES_ZERO_IV);
+		int length = encryptor.doFinal(input, output);
+		recordOperation(metrics, DukptOperation.ENCRYPT_TRIPLE_DES, startTime);
+		return length;
+	}
+
+	/**
+	 * <p>Performs Triple DES Encryption from <code>input</code> into <code>output</code> without padding.
+	 *
+	 * @param key The key for encryption.
+	 * @param input The data to encrypt.
+	 * @param output The buffer receiving the encrypted data.
+	 * @return The number of bytes written to <code>output</code>.
+	 * @throws Exception
+	 */
+	public static int encryptTripleDes(byte[] key, ByteBuffer input, ByteBuffer output) throws Exception {
+		return encryptTripleDes(key, input, output, false);
+	}
+
+	/**
+	 * <p>Performs Triple DES Decryption from <code>input</code> into <code>output</code>, either of which may be a heap or direct buffer.
+	 *
+	 * <p>The remaining bytes of <code>input</code> are consumed and the result is written at the position of <code>output</code>; both
+	 * positions are advanced.  If the padding is invalid, anything already
+	 * written to <code>output</code> is zeroed and neither position changes.
+	 *
+	 * @param key The key for decryption.
+	 * @param input The data to decrypt.
+	 * @param output The buffer receiving the decrypted data.
+	 * @param padding When true, PKCS5 Padding will be assumed.  This is most likely not desirable.
+	 * @return The number of bytes written to <code>output</code>.
+	 * @throws Exception
+	 */
+	public static int decryptTripleDes(byte[] key, ByteBuffer input, ByteBuffer output, boolean padding) throws Exception {
+		return decryptTripleDes(toTripleDesKey(key), input, output, padding);
+	}
+
+	private static int decryptTripleDes(SecretKey decryptKey, ByteBuffer input, ByteBuffer output, boolean padding) throws Exception {
+		Cipher decryptor = Ciphers.getCipher(padding ? "DESede/CBC/PKCS5Padding" : "DESede/CBC/NoPadding");
+		DukptMetrics metrics = Dukpt.metrics;
+		long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+		decryptor.init(Cipher.DECRYPT_MODE, decryptKey, Ciphers.DES_ZERO_IV);
+		int length = doFinal(decryptor, input, output);
+		recordOperation(metrics, DukptOperation.DECRYPT_TRIPLE_DES, startTime);
+		return length;
+	}
+
+	/**
+	 * <p>Performs Triple DES Decryption from <code>input</code> into <code>output</code> assuming no padding was used.
+	 *
+	 * @param key The key for decryption.
+	 * @param input The data to decrypt.
+	 * @param output The buffer receiving the decrypted data.
+	 * @return The number of bytes written to <code>output</code>.
+	 * @throws Exception
+	 */
+	public static int decryptTripleDes(byte[] key, ByteBuffer input, ByteBuffer output) throws Exception {
+		return decryptTripleDes(key, input, output, false);
+	}
+
+	/**
+	 * <p>Performs Single AES Encryption from <code>input</code> into <code>output</code>, either of which may be a heap or direct buffer.
+	 *
+	 * <p>The remaining bytes of <code>input</code> are consumed and the result is written at the position of <code>output</code>; both
+	 * positions are advanced.
+	 *
+	 * @param key The key for encryption.
+	 * @param input The data to encrypt.
+	 * @param output The buffer receiving the encrypted data.
+	 * @param padding When true, PKCS5 Padding will be used.  This is most likely not desirable.
+	 * @return The number of bytes written to <code>output</code>.
+	 * @throws Exception
+	 */
+	public static int encryptAes(byte[] key, ByteBuffer input, ByteBuffer output, boolean padding) throws Exception {
+		return encryptAes(new SecretKeySpec(key, "AES"), input, output, padding);
+	}
+
+	private static int encryptAes(SecretKey encryptKey, ByteBuffer input, ByteBuffer output, boolean padding) throws Exception {
+		Cipher encryptor = Ciphers.getCipher(padding ? "AES/CBC/PKCS5Padding" : "AES/CBC/NoPadding");
+		DukptMetrics metrics = Dukpt.metrics;
+		long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+		encryptor.init(Cipher.ENCRYPT_MODE, encryptKey, Ciphers.AES_ZERO_IV);
+		int length = encryptor.doFinal(input, output);
+		recordOperation(metrics, DukptOperation.ENCRYPT_AES, startTime);
+		return length;
+	}
+
+	/**
+	 * <p>Performs Single AES Encryption from <code>input</code> into <code>output</code> without padding.
+	 *
+	 * @param key The key for encryption.
+	 * @param input The data to encrypt.
+	 * @param output The buffer receiving the encrypted data.
+	 * @return The number of bytes written to <code>output</code>.
+	 * @throws Exception
+	 */
+	public static int encryptAes(byte[] key, ByteBuffer input, ByteBuffer output) throws Exception {
+		return encryptAes(key, input, output, false);
+	}
+
+	/**
+	 * <p>Performs Single AES Decryption from <code>input</code> into <code>output</code>, either of which may be a heap or direct buffer.
+	 *
+	 * <p>The remaining bytes of <code>input</code> are consumed and the result is written at the position of <code>output</code>; both
+	 * positions are advanced.  If the padding is invalid, anything already
+	 * written to <code>output</code> is zeroed and neither position changes.
+	 *
+	 * @param key The key for decryption.
+	 * @param input The data to decrypt.
+	 * @param output The buffer receiving the decrypted data.
+	 * @param padding When true, PKCS5 Padding will be assumed.  This is most likely not desirable.
+	 * @return The number of bytes written to <code>output</code>.
+	 * @throws Exception
+	 */
+	public static int decryptAes(byte[] key, ByteBuffer input, ByteBuffer output, boolean padding) throws Exception {
+		return decryptAes(new SecretKeySpec(key, "AES"), input, output, padding);
+	}
+
+	private static int decryptAes(SecretKey decryptKey, ByteBuffer input, ByteBuffer output, boolean padding) throws Exception {
+		Cipher decryptor = Ciphers.getCipher(padding ? "AES/CBC/PKCS5Padding" : "AES/CBC/NoPadding");
+		DukptMetrics metrics = Dukpt.metrics;
+		long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+		decryptor.init(Cipher.DECRYPT_MODE, decryptKey, Ciphers.AES_ZERO_IV);
+		int length = doFinal(decryptor, input, output);
+		recordOperation(metrics, DukptOperation.DECRYPT_AES, startTime);
+		return length;
+	}
+
+	/**
+	 * <p>Performs Single AES Decryption from <code>input</code> into <code>output</code> assuming no padding was used.
+	 *
+	 * @param key The key for decryption.
+	 * @param input The data to decrypt.
+	 * @param output The buffer receiving the decrypted data.
+	 * @return The number of bytes written to <code>output</code>.
+	 * @throws Exception
+	 */
+	public static int decryptAes(byte[] key, ByteBuffer input, ByteBuffer output) throws Exception {
+		return decryptAes(key, input, output, false);
+	}
+
+	/**
+	 * <p>Performs Single AES Encryption with a 192 bit key (24 bytes) from <code>input</code> into <code>output</code>, either of which may be a heap or direct buffer.
+	 *
+	 * <p>The remaining bytes of <code>input</code> are consumed and the result is written at the position of <code>output</code>; both
+	 * positions are advanced.
+	 *
+	 * @param key The key for encryption.
+	 * @param input The data to encrypt.
+	 * @param output The buffer receiving the encrypted data.
+	 * @param padding When true, PKCS5 Padding will be used.  This is most likely not desirable.
+	 * @return The number of bytes written to <code>output</code>.
+	 * @throws Exception
+	 */
+	public static int encryptAes192(byte[] key, ByteBuffer input, ByteBuffer output, boolean padding) throws Exception {
+		byte[] _key = padByteArrayWithArray(key, key, 24);
+		return encryptAes(_key, input, output, padding);
+	}
+
+	/**
+	 * <p>Performs Single AES Encryption with a 192 bit key (24 bytes) from <code>input</code> into <code>output</code> without padding.
+	 *
+	 * @param key The key for encryption.
+	 * @param input The data to encrypt.
+	 * @param output The buffer receiving the encrypted data.
+	 * @return The number of bytes written to <code>output</code>.
+	 * @throws Exception
+	 */
+	public static int encryptAes192(byte[] key, ByteBuffer input, ByteBuffer output) throws Exception {
+		return encryptAes192(key, input, output, false);
+	}
+
+	/**
+	 * <p>Performs Single AES Decryption with a 192 bit key (24 bytes) from <code>input</code> into <code>output</code>, either of which may be a heap or direct buffer.
+	 *
+	 * <p>The remaining bytes of <code>input</code> are consumed and the result is written at the position of <code>output</code>; both
+	 * positions are advanced.  If the padding is invalid, anything already
+	 * written to <code>output</code> is zeroed and neither position changes.
+	 *
+	 * @param key The key for decryption.
+	 * @param input The data to decrypt.
+	 * @param output The buffer receiving the decrypted data.
+	 * @param padding When true, PKCS5 Padding will be assumed.  This is most likely not desirable.
+	 * @return The number of bytes written to <code>output</code>.
+	 * @throws Exception
+	 */
+	public static int decryptAes192(byte[] key, ByteBuffer input, ByteBuffer output, boolean padding) throws Exception {
+		byte[] _key = padByteArrayWithArray(key, key, 24);
+		return decryptAes(_key, input, output, padding);
+	}
+
+	/**
+	 * <p>Performs Single AES Decryption with a 192 bit key (24 bytes) from <code>input</code> into <code>output</code> assuming no padding was used.
+	 *
+	 * @param key The key for decryption.
+	 * @param input The data to decrypt.
+	 * @param output The buffer receiving the decrypted data.
+	 * @return The number of bytes written to <code>output</code>.
+	 * @throws Exception
+	 */
+	public static int decryptAes192(byte[] key, ByteBuffer input, ByteBuffer output) throws Exception {
+		return decryptAes192(key, input, output, false);
+	}
+
+	/**
+	 * <p>Performs Single AES Encryption with a 256 bit key (32 bytes) from <code>input</code> into <code>output</code>, either of which may be a heap or direct buffer.
+	 *
+	 * <p>The remaining bytes of <code>input</code> are consumed and the result is written at the position of <code>output</code>; both
+	 * positions are advanced.
+	 *
+	 * @param key The key for encryption.
+	 * @param input The data to encrypt.
+	 * @param output The buffer receiving the encrypted data.
+	 * @param padding When true, PKCS5 Padding will be used.  This is most likely not desirable.
+	 * @return The number of bytes written to <code>output</code>.
+	 * @throws Exception
+	 */
+	public static int encryptAes256(byte[] key, ByteBuffer input, ByteBuffer output, boolean padding) throws Exception {
+		byte[] _key = padByteArrayWithArray(key, key, 32);
+		return encryptAes(_key, input, output, padding);
+	}
+
+	/**
+	 * <p>Performs Single AES Encryption with a 256 bit key (32 bytes) from <code>input</code> into <code>output</code> without padding.
+	 *
+	 * @param key The key for encryption.
+	 * @param input The data to encrypt.
+	 * @param output The buffer receiving the encrypted data.
+	 * @return The number of bytes written to <code>output</code>.
+	 * @throws Exception
+	 */
+	public static int encryptAes256(byte[] key, ByteBuffer input, ByteBuffer output) throws Exception {
+		return encryptAes256(key, input, output, false);
+	}
+
+	/**
+	 * <p>Performs Single AES Decryption with a 256 bit key (32 bytes) from <code>input</code> into <code>output</code>, either of which may be a heap or direct buffer.
+	 *
+	 * <p>The remaining bytes of <code>input</code> are consumed and the result is written at the position of <code>output</code>; both
+	 * positions are advanced.
+	 *
+	 * @param key The key for decryption.
+	 * @param input The data to decrypt.
+	 * @param output The buffer receiving the decrypted data.
+	 * @param padding When true, PKCS5 Padding will be assumed.  This is most likely not desirable.
+	 * @return The number of bytes written to <code>output</code>.
+	 * @throws Exception
+	 */
+	public static int decryptAes256(byte[] key, ByteBuffer input, ByteBuffer output, boolean padding) throws Exception {
+		byte[] _key = padByteArrayWithArray(key, key, 32);
+		return decryptAes(_key, input, output, padding);
+	}
+
+	/**
+	 * <p>Performs Single AES Decryption with a 256 bit key (32 bytes) from <code>input</code> into <code>output</code> assuming no padding was used.
+	 *
+	 * @param key The key for decryption.
+	 * @param input The data to decrypt.
+	 * @param output The buffer receiving the decrypted data.
+	 * @return The number of bytes written to <code>output</code>.
+	 * @throws Exception
+	 */
+	public static int decryptAes256(byte[] key, ByteBuffer input, ByteBuffer output) throws Exception {
+		return decryptAes256(key, input, output, false);
+	}
+
+	/**
+	 * <p>Performs Single DES Encryption with a key held off-heap.
+	 *
+	 * <p>The JCE only accepts keys as arrays, so the key is copied into a
+	 * per-thread buffer that is obliviated before this method returns; the
+	 * JCE key object built from it holds its own copy until it is collected.
+	 *
+	 * @see #encryptDes(byte[], byte[], boolean)
+	 * @param key The key for encryption.
+	 * @param data The data to encrypt.
+	 * @param padding When true, PKCS5 Padding will be used.  This is most likely not desirable.
+	 * @return The encrypted data.
+	 * @throws Exception
+	 */
+	public static byte[] encryptDes(DukptKey key, byte[] data, boolean padding) throws Exception {
+		return encryptDes(toDesKey(key), data, padding);
+	}
+
+	/**
+	 * <p>Performs Single DES Decryption with a key held off-heap.
+	 *
+	 * @see #decryptDes(byte[], byte[], boolean)
+	 * @param key The key for decryption.
+	 * @param data The data to decrypt.
+	 * @param padding When true, PKCS5 Padding will be assumed.  This is most likely not desirable.
+	 * @return The decrypted data.
+	 * @throws Exception
+	 */
+	public static byte[] decryptDes(DukptKey key, byte[] data, boolean padding) throws Exception {
+		return decryptDes(toDesKey(key), data, padding);
+	}
+
+	/**
+	 * <p>Performs Triple DES Encryption with a key held off-heap.
+	 *
+	 * @see #encryptTripleDes(byte[], byte[], boolean)
+	 * @param key The key for encryption.
+	 * @param data The data to encrypt.
+	 * @param padding When true, PKCS5 Padding will be used.  This is most likely not desirable.
+	 * @return The encrypted data.
+	 * @throws Exception
+	 */
+	public static byte[] encryptTripleDes(DukptKey key, byte[] data, boolean padding) throws Exception {
+		return encryptTripleDes(toTripleDesKey(key), data, padding);
+	}
+
+	/**
+	 * <p>Performs Triple DES Decryption with a key held off-heap.
+	 *
+	 * @see #decryptTripleDes(byte[], byte[], boolean)
+	 * @param key The key for decryption.
+	 * @param data The data to decrypt.
+	 * @param padding When true, PKCS5 Padding will be assumed.  This is most likely not desirable.
+	 * @return The decrypted data.
+	 * @throws Exception
+	 */
+	public static byte[] decryptTripleDes(DukptKey key, byte[] data, boolean padding) throws Exception {
+		return decryptTripleDes(toTripleDesKey(key), data, padding);
+	}
+
+	/**
+	 * <p>Performs Single AES Encryption with a key held off-heap; a 16,
+	 * 24 or 32 byte key selects AES-128, AES-192 or AES-256.
+	 *
+	 * <p>The JCE only accepts keys as arrays, so the key is copied into a
+	 * per-thread buffer that is obliviated before this method returns; the
+	 * JCE key object built from it holds its own copy until it is collected.
+	 *
+	 * @see #encryptAes(byte[], byte[], boolean)
+	 * @param key The key for encryption.
+	 * @param data The data to encrypt.
+	 * @param padding When true, PKCS5 Padding will be used.  This is most likely not desirable.
+	 * @return The encrypted data.
+	 * @throws Exception
+	 */
+	public static byte[] encryptAes(DukptKey key, byte[] data, boolean padding) throws Exception {
+		return encryptAes(toAesKey(key), data, padding);
+	}
+
+	/**
+	 * <p>Performs Single AES Decryption with a key held off-heap; a 16,
+	 * 24 or 32 byte key selects AES-128, AES-192 or AES-256.
+	 *
+	 * @see #encryptAes(DukptKey, byte[], boolean)
+	 * @param key The key for decryption.
+	 * @param data The data to decrypt.
+	 * @param padding When true, PKCS5 Padding will be assumed.  This is most likely not desirable.
+	 * @return The decrypted data.
+	 * @throws Exception
+	 */
+	public static byte[] decryptAes(DukptKey key, byte[] data, boolean padding) throws Exception {
+		return decryptAes(toAesKey(key), data, padding);
+	}
+
+	/**
+	 * <p>Performs Single DES Encryption from <code>input</code> into <code>output</code> with a key held off-heap.
+	 *
+	 * @see #encryptDes(byte[], ByteBuffer, ByteBuffer, boolean)
+	 * @param key The key for encryption.
+	 * @param input The data to encrypt.
+	 * @param output The buffer receiving the encrypted data.
+	 * @param padding When true, PKCS5 Padding will be used.  This is most likely not desirable.
+	 * @return The number of bytes written to <code>output</code>.
+	 * @throws Exception
+	 */
+	public static int encryptDes(DukptKey key, ByteBuffer input, ByteBuffer output, boolean padding) throws Exception {
+		return encryptDes(toDesKey(key), input, output, padding);
+	}
+
+	/**
+	 * <p>Performs Single DES Decryption from <code>input</code> into <code>output</code> with a key held off-heap.
+	 *
+	 * @see #decryptDes(byte[], ByteBuffer, ByteBuffer, boolean)
+	 * @param key The key for decryption.
+	 * @param input The data to decrypt.
+	 * @param output The buffer receiving the decrypted data.
+	 * @param padding When true, PKCS5 Padding will be assumed.  This is most likely not desirable.
+	 * @return The number of bytes written to <code>output</code>.
+	 * @throws Exception
+	 */
+	public static int decryptDes(DukptKey key, ByteBuffer input, ByteBuffer output, boolean padding) throws Exception {
+		return decryptDes(toDesKey(key), input, output, padding);
+	}
+
+	/**
+	 * <p>Performs Triple DES Encryption from <code>input</code> into <code>output</code> with a key held off-heap.
+	 *
+	 * @see #encryptTripleDes(byte[], ByteBuffer, ByteBuffer, boolean)
+	 * @param key The key for encryption.
+	 * @param input The data to encrypt.
+	 * @param output The buffer receiving the encrypted data.
+	 * @param padding When true, PKCS5 Padding will be used.  This is most likely not desirable.
+	 * @return The number of bytes written to <code>output</code>.
+	 * @throws Exception
+	 */
+	public static int encryptTripleDes(DukptKey key, ByteBuffer input, ByteBuffer output, boolean padding) throws Exception {
+		return encryptTripleDes(toTripleDesKey(key), input, output, padding);
+	}
+
+	/**
+	 * <p>Performs Triple DES Decryption from <code>input</code> into <code>output</code> with a key held off-heap.
+	 *
+	 * @see #decryptTripleDes(byte[], ByteBuffer, ByteBuffer, boolean)
+	 * @param key The key for decryption.
+	 * @param input The data to decrypt.
+	 * @param output The buffer receiving the decrypted data.
+	 * @param padding When true, PKCS5 Padding will be assumed.  This is most likely not desirable.
+	 * @return The number of bytes written to <code>output</code>.
+	 * @throws Exception
+	 */
+	public static int decryptTripleDes(DukptKey key, ByteBuffer input, ByteBuffer output, boolean padding) throws Exception {
+		return decryptTripleDes(toTripleDesKey(key), input, output, padding);
+	}
+
+	/**
+	 * <p>Performs Single AES Encryption from <code>input</code> into <code>output</code> with a key held off-heap.
+	 *
+	 * @see #encryptAes(DukptKey, byte[], boolean)
+	 * @param key The key for encryption.
+	 * @param input The data to encrypt.
+	 * @param output The buffer receiving the encrypted data.
+	 * @param padding When true, PKCS5 Padding will be used.  This is most likely not desirable.
+	 * @return The number of bytes written to <code>output</code>.
+	 * @throws Exception
+	 */
+	public static int encryptAes(DukptKey key, ByteBuffer input, ByteBuffer output, boolean padding) throws Exception {
+		return encryptAes(toAesKey(key), input, output, padding);
+	}
+
+	/**
+	 * <p>Performs Single AES Decryption from <code>input</code> into <code>output</code> with a key held off-heap.
+	 *
+	 * @see #encryptAes(DukptKey, byte[], boolean)
+	 * @param key The key for decryption.
+	 * @param input The data to decrypt.
+	 * @param output The buffer receiving the decrypted data.
+	 * @param padding When true, PKCS5 Padding will be assumed.  This is most likely not desirable.
+	 * @return The number of bytes written to <code>output</code>.
+	 * @throws Exception
+	 */
+	public static int decryptAes(DukptKey key, ByteBuffer input, ByteBuffer output, boolean padding) throws Exception {
+		return decryptAes(toAesKey(key), input, output, padding);
+	}
+
+	/**
+	 * <p>Converts a byte into an extended BitSet.
+	 */
+	public static BitSet toBitSet(byte b) {
+		BitSet bs = new BitSet(8);
+		for (int i = 0; i < 8; i++) {
+			if ((b & (1L << i)) > 0) {
+				bs.set(7 - i);
+			}
+		}
+		return bs;
+	}
+
+	/**
+	 * <p>Converts a byte array to an extended BitSet.
+	 */
+	public static BitSet toBitSet(byte[] b) {
+		BitSet bs = new BitSet(8 * b.length);
+		for (int i = 0; i < b.length; i++) {
+			for (int j = 0; j < 8; j++) {
+				if ((b[i] & (1L << j)) > 0) {
+					bs.set(8 * i + (7 - j));
+				}
+			}
+		}
+		return bs;
+	}
+
+	/**
+	 * <p>Converts an extended BitSet into a byte.
 	 *
 	 * <p>Requires that the BitSet be exactly 8 bits long.
 	 */
@@ -850,25 +1622,22 @@ public final class Dukpt {
 	/**
 	 * <p>Converts a hexadecimal String into a byte array (Big-Endian).
 	 *
+	 * @see HexCodec#decode(CharSequence)
 	 * @param s A representation of a hexadecimal number without any leading qualifiers such as "0x" or "x".
+	 * @throws IllegalArgumentException If s has an odd length or contains a character that is not a hex digit.
 	 */
 	public static byte[] toByteArray(String s) {
-		int len = s.length();
-		byte[] data = new byte[len / 2];
-		for (int i = 0; i < len; i += 2) {
-			data[i / 2] = (byte) ((Character.digit(s.charAt(i), 16) << 4) + Character.digit(s.charAt(i + 1), 16));
-		}
-		return data;
+		return HexCodec.decode(s);
 	}
 
 	/**
 	 * <p>Converts a byte array into a hexadecimal string (Big-Endian).
 	 *
+	 * @see HexCodec#encode(byte[])
 	 * @return A representation of a hexadecimal number without any leading qualifiers such as "0x" or "x".
 	 */
 	public static String toHex(byte[] bytes) {
-		BigInteger bi = new BigInteger(1, bytes);
-		return String.format("%0" + (bytes.length << 1) + "X", bi);
+		return HexCodec.encode(bytes);
 	}
 
 	/**
@@ -887,43 +1656,193 @@ public final class Dukpt {
 		return c;
 	}
 	/**
-	 * <p>Overwrites the extended BitSet NUM_OVERWRITES times with random data for security purposes.
+	 * <p>Sets the policy used by the obliviate methods and by every internal wipe of key material.  Takes effect
+	 * immediately for all threads.
+	 */
+	public static void setObliviationPolicy(ObliviationPolicy policy) {
+		if (policy == null) {
+			throw new IllegalArgumentException("Invalid obliviation policy provided: null");
+		}
+		obliviationPolicy = policy;
+	}
+
+	/**
+	 * <p>Returns the current obliviation policy; {@link StandardObliviationPolicy#ZERO_FILL} unless changed.
+	 */
+	public static ObliviationPolicy getObliviationPolicy() {
+		return obliviationPolicy;
+	}
+
+	/**
+	 * <p>Installs the listener notified of derivations, cipher operations and obliviations by every thread;
+	 * {@link DukptMetrics#NONE} (the default) disables timing entirely.
+	 *
+	 * @see DukptMetricsRecorder
+	 */
+	public static void setMetrics(DukptMetrics dukptMetrics) {
+		if (dukptMetrics == null) {
+			throw new IllegalArgumentException("Invalid metrics provided: null");
+		}
+		metrics = dukptMetrics;
+	}
+
+	/**
+	 * <p>Returns the installed metrics listener; {@link DukptMetrics#NONE} unless changed.
+	 */
+	public static DukptMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * <p>Overwrites the whole extended BitSet as directed by the current {@link ObliviationPolicy}.
 	 */
 	public static void obliviate(BitSet b) {
-		obliviate(b, NUM_OVERWRITES);
+		obliviationPolicy.obliviate(b);
+		metrics.onObliviation(b.length());
 	}
 
 	/**
-	 * <p>Overwrites the byte array NUM_OVERWRITES times with random data for security purposes.
+	 * <p>Overwrites the whole byte array as directed by the current {@link ObliviationPolicy}.
 	 */
 	public static void obliviate(byte[] b) {
-		obliviate(b, NUM_OVERWRITES);
+		obliviationPolicy.obliviate(b);
+		metrics.onObliviation(b.length);
 	}
 
 	/**
-	 * <p>Overwrites the extended BitSet with random data for security purposes.
+	 * <p>Overwrites the whole extended BitSet with random data n times for security purposes.
 	 */
 	public static void obliviate(BitSet b, int n) {
-		java.security.SecureRandom r = new java.security.SecureRandom();
-		for (int i=0; i<NUM_OVERWRITES; i++) {
-			for (int j=0; j<b.length(); j++) {
-				b.set(j, r.nextBoolean());
+		StandardObliviationPolicy.fillRandom(b, n);
+		metrics.onObliviation(b.length());
+	}
+
+	/**
+	 * <p>Overwrites the whole byte array with random data n times for security purposes.
+	 */
+	public static void obliviate(byte[] b, int n) {
+		StandardObliviationPolicy.fillRandom(b, n);
+		metrics.onObliviation(b.length);
+	}
+
+	/**
+	 * <p>Creates a JCE Single DES key from the first 8 bytes of <code>key</code>.
+	 */
+	private static SecretKey toDesKey(byte[] key) throws Exception {
+		return Ciphers.getSecretKeyFactory("DES").generateSecret(new DESKeySpec(key));
+	}
+
+	/**
+	 * <p>Creates a JCE DES key from the first 8 bytes of an off-heap key,
+	 * copying them through this thread's key buffer.
+	 */
+	private static SecretKey toDesKey(DukptKey key) throws Exception {
+		if (key.getLength() < 8) {
+			throw new InvalidKeyException("Wrong key size");
+		}
+		byte[] keyBuffer = Ciphers.getKeyBuffer();
+		try {
+			key.copyTo(keyBuffer, 0);
+			return Ciphers.getSecretKeyFactory("DES").generateSecret(new DESKeySpec(keyBuffer));
+		}
+		finally {
+			// secure memory
+			obliviate(keyBuffer);
+		}
+	}
+
+	/**
+	 * <p>Creates a JCE Triple DES key from an 8, 16 or 24 byte key; the
+	 * shorter keys are expanded to K1K1K1 and K1K2K1 in this thread's key
+	 * buffer rather than in a padded copy.
+	 */
+	private static SecretKey toTripleDesKey(byte[] key) throws Exception {
+		checkTripleDesKeyLength(key.length);
+		byte[] keyBuffer = Ciphers.getKeyBuffer();
+		System.arraycopy(key, 0, keyBuffer, 0, key.length);
+		return toTripleDesKey(keyBuffer, key.length);
+	}
+
+	/**
+	 * <p>Creates a JCE Triple DES key from an off-heap key of 8, 16 or 24
+	 * bytes, copying it through this thread's key buffer.
+	 */
+	private static SecretKey toTripleDesKey(DukptKey key) throws Exception {
+		int keyLength = key.getLength();
+		checkTripleDesKeyLength(keyLength);
+		byte[] keyBuffer = Ciphers.getKeyBuffer();
+		key.copyTo(keyBuffer, 0);
+		return toTripleDesKey(keyBuffer, keyLength);
+	}
+
+	/**
+	 * <p>Expands the first <code>keyLength</code> bytes of <code>keyBuffer</code>
+	 * to a 24 byte K1K2K3 key, creates the JCE key from it and obliviates
+	 * the buffer.
+	 */
+	private static SecretKey toTripleDesKey(byte[] keyBuffer, int keyLength) throws Exception {
+		try {
+			for (int i = keyLength; i < 24; i++) {
+				keyBuffer[i] = keyBuffer[i - keyLength];
 			}
+			return Ciphers.getSecretKeyFactory("DESede").generateSecret(new DESedeKeySpec(keyBuffer));
+		}
+		finally {
+			// secure memory
+			obliviate(keyBuffer);
+		}
+	}
+
+	private static void checkTripleDesKeyLength(int keyLength) {
+		if (keyLength != 8 && keyLength != 16 && keyLength != 24) {
+			throw new InvalidParameterException("Key is not 8/16/24 bytes long.");
 		}
 	}
 
 	/**
-	 * <p>Overwrites the byte array with random data for security purposes.
+	 * <p>Creates a JCE AES key from an off-heap key, copying it through
+	 * this thread's key buffer.
 	 */
-	public static void obliviate(byte[] b, int n) {
-		for (int i=0; i<n; i++) {
-			b[i] = 0x00;
-			b[i] = 0x01;
+	private static SecretKey toAesKey(DukptKey key) throws Exception {
+		int keyLength = key.getLength();
+		byte[] keyBuffer = Ciphers.getKeyBuffer();
+		try {
+			key.copyTo(keyBuffer, 0);
+			return new SecretKeySpec(keyBuffer, 0, keyLength, "AES");
+		}
+		finally {
+			// secure memory
+			obliviate(keyBuffer);
 		}
+	}
+
+	/**
+	 * <p>Finishes a decryption from <code>input</code> into <code>output</code>.
+	 * If the padding turns out to be invalid, whatever plaintext the cipher
+	 * has already written to <code>output</code> is zeroed and the positions
+	 * of both buffers are restored before the exception is rethrown.
+	 */
+	private static int doFinal(Cipher decryptor, ByteBuffer input, ByteBuffer output) throws Exception {
+		int inputPosition = input.position();
+		int outputPosition = output.position();
+		int outputEnd = (int) Math.min((long) outputPosition + input.remaining(), output.limit());
+		try {
+			return decryptor.doFinal(input, output);
+		}
+		catch (BadPaddingException exception) {
+			// secure memory
+			for (int i = outputPosition; i < outputEnd; i++) {
+				output.put(i, (byte) 0);
+			}
+			input.position(inputPosition);
+			output.position(outputPosition);
+			throw exception;
+		}
+	}
 
-		java.security.SecureRandom r = new java.security.SecureRandom();
-		for (int i=0; i<n; i++) {
-			r.nextBytes(b);
+	private static void recordOperation(DukptMetrics metrics, DukptOperation operation, long startTime) {
+		if (metrics != DukptMetrics.NONE) {
+			metrics.onOperation(operation, null, (System.nanoTime() - startTime));
 		}
 	}
 
@@ -0,0 +1,148 @@
+package com.softwareverde.security.dukpt;
+
+/**
+ * <p>Receiver-side derivation state for a single device (i.e. a single Initial Key Serial Number).
+ *
+ * <p>The key for a transaction counter is reached from the IPEK by one non-reversible key generation step per set
+ * counter bit, taken from the most significant bit down.  The context remembers every intermediate key on the path
+ * of the last derivation; the next derivation restarts from the deepest intermediate key whose counter prefix it
+ * shares.  Since devices increment their counters (roughly) sequentially, consecutive transactions usually share
+ * all but their lowest set bit, and cost a single step instead of up to ten.
+ *
+ * <p>Contexts are created with {@link Dukpt#createDeviceContext(byte[], byte[])} and
+ * {@link Dukpt#createDeviceContextFromIpek(byte[], byte[])} (or the {@link DukptVariant} equivalents), and only accept
+ * Key Serial Numbers from the device they were created for.  The methods are synchronized, so a context may be shared
+ * by the threads handling one device; call {@link #clear()} to zero the retained keys once it is no longer needed.
+ */
+public class DukptDeviceContext {
+    /**
+     * <p>The transaction counter is 21 bits wide; a valid counter has at most 10 bits set, but every bit is supported.
+     */
+    static final int MAX_DEPTH = 21;
+
+    private final DukptEngine _engine;
+    private final long _initialKeySerialNumber;
+
+    /**
+     * <p>The keys on the current path; level 0 is the IPEK, level <code>n</code> is at <code>_keys[2n]</code>.
+     */
+    private final long[] _keys = new long[2 * (MAX_DEPTH + 1)];
+
+    /**
+     * <p>The right-most 64 bits of the KSN used to derive each level; <code>_data[n]</code> produced level
+     * <code>n + 1</code>.
+     */
+    private final long[] _data = new long[MAX_DEPTH];
+    private int _depth = 0;
+    private boolean _isCleared = false;
+
+    private long _nonReversibleStepCount = 0L;
+
+    DukptDeviceContext(final DukptEngine engine, final long[] initialPinEncryptionKey, final byte[] keySerialNumber) {
+        DukptEngine.checkLength("key serial number", keySerialNumber, DukptEngine.KEY_SERIAL_NUMBER_LENGTH);
+
+        _engine = engine;
+        _initialKeySerialNumber = (Bytes.toLong(keySerialNumber, 0) & ~DukptEngine.INITIAL_KSN_BITMASK);
+        _keys[0] = initialPinEncryptionKey[0];
+        _keys[1] = initialPinEncryptionKey[1];
+    }
+
+    /**
+     * <p>Computes the DUKPT (Derived Unique Key-Per-Transaction) for <code>keySerialNumber</code>, reusing the
+     * intermediate keys shared with the previous derivation.
+     *
+     * @see Dukpt#computeKey(byte[], byte[])
+     * @param keySerialNumber A Key Serial Number from this context's device.
+     * @return A unique key for this set of data.
+     * @throws IllegalArgumentException If the KSN belongs to a different device.
+     * @throws IllegalStateException If the context has been cleared.
+     */
+    public synchronized byte[] computeKey(final byte[] keySerialNumber) {
+        final long[] register = new long[2];
+        loadKey(keySerialNumber, register);
+        _engine.applyVariant(register);
+
+        final byte[] key = DukptEngine.toByteArray(register);
+
+        // secure memory
+        DukptEngine.wipe(register);
+
+        return key;
+    }
+
+    /**
+     * <p>Returns true if <code>keySerialNumber</code> belongs to this context's device.
+     */
+    public boolean isSameDevice(final byte[] keySerialNumber) {
+        DukptEngine.checkLength("key serial number", keySerialNumber, DukptEngine.KEY_SERIAL_NUMBER_LENGTH);
+        return ((Bytes.toLong(keySerialNumber, 0) & ~DukptEngine.INITIAL_KSN_BITMASK) == _initialKeySerialNumber);
+    }
+
+    /**
+     * <p>Zeroes the IPEK and every retained intermediate key; the context can no longer be used.
+     */
+    public synchronized void clear() {
+        DukptEngine.wipe(_keys);
+        DukptEngine.wipe(_data);
+        _depth = 0;
+        _isCleared = true;
+    }
+
+    /**
+     * <p>Loads the (pre-variant) key for <code>keySerialNumber</code> into <code>register</code>, reporting the
+     * derivation with the number of steps actually run to the installed {@link DukptMetrics}.
+     */
+    synchronized void loadKey(final byte[] keySerialNumber, final long[] register) {
+        if (_isCleared) {
+            throw new IllegalStateException("Device context has been cleared.");
+        }
+        if (! isSameDevice(keySerialNumber)) {
+            throw new IllegalArgumentException("Key serial number belongs to a different device.");
+        }
+
+        final long keySerialNumberRight = Bytes.toLong(keySerialNumber, 2);
+
+        // Find the deepest level of the current path that is a prefix of the new counter.
+        int level = 0;
+        long data = (keySerialNumberRight & ~DukptEngine.COUNTER_BITMASK);
+        long bit = (1L << 20);
+        while (bit != 0L) {
+            if ((keySerialNumberRight & bit) != 0L) {
+                if ( (level >= _depth) || (_data[level] != (data | bit)) ) { break; }
+                data |= bit;
+                level += 1;
+            }
+            bit >>>= 1;
+        }
+
+        // Derive the remaining levels, replacing the old path below the shared prefix.
+        int stepCount = 0;
+        while (bit != 0L) {
+            if ((keySerialNumberRight & bit) != 0L) {
+                data |= bit;
+                _data[level] = data;
+                _engine.nonReversibleKeyGenerationProcess(_keys, (2 * level), _keys, (2 * (level + 1)), data);
+                stepCount += 1;
+                level += 1;
+            }
+            bit >>>= 1;
+        }
+        _depth = level;
+        _nonReversibleStepCount += stepCount;
+
+        register[0] = _keys[2 * level];
+        register[1] = _keys[(2 * level) + 1];
+
+        final DukptMetrics metrics = Dukpt.getMetrics();
+        if (metrics != DukptMetrics.NONE) {
+            metrics.onKeyDerived(_engine.getVariantName(), keySerialNumber, stepCount);
+        }
+    }
+
+    /**
+     * <p>Returns the number of non-reversible key generation steps this context has run.
+     */
+    synchronized long getNonReversibleStepCount() {
+        return _nonReversibleStepCount;
+    }
+}
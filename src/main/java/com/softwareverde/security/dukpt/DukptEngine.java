@@ -0,0 +1,774 @@
+package com.softwareverde.security.dukpt;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * <p>Register-level implementation of the TDES DUKPT derivation described in Annex A of ANSI X9.24-1:2009.
+ *
+ * <p>The 128-bit key register is held as two longs (left and right halves), the crypto registers and the right-most
+ * 64 bits of the Key Serial Number as single longs, and the key register and variant bitmasks are parsed into longs
+ * once at construction.  Bit <code>i</code> of the standard (and of the {@link BitSet} based API on {@link Dukpt}) is
+ * bit <code>63 - (i % 64)</code> of the corresponding long, so the transaction counter (bits 59 through 79 of the KSN)
+ * is simply the low 21 bits of the right-most KSN word.
+ *
+ * <p>Register arrays passed to the package-private methods are <code>long[2]</code> of <code>{ left, right }</code>
+ * and are updated in place.
+ *
+ * @see Dukpt
+ * @see DukptVariant
+ */
+final class DukptEngine {
+    static final int KEY_LENGTH = 16;
+    static final int KEY_SERIAL_NUMBER_LENGTH = 10;
+
+    /**
+     * <p>The transaction counter bits (59 through 79) within the right-most 64 bits of the KSN.
+     */
+    static final long COUNTER_BITMASK = 0x1FFFFFL;
+
+    /**
+     * <p>The bits cleared from the left-most 64 bits of the KSN when computing the IPEK (bits 59 through 63).
+     */
+    static final long INITIAL_KSN_BITMASK = 0x1FL;
+
+    /**
+     * <p>Scratch space for the two key schedules of {@link #toDataKey(long[])}; obliviated after each use.
+     */
+    private static final ThreadLocal<int[]> DATA_KEY_SCHEDULES = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[2 * Des.SCHEDULE_LENGTH];
+        }
+    };
+
+    private final long _keyRegisterBitmaskLeft;
+    private final long _keyRegisterBitmaskRight;
+    private final long _variantBitmaskLeft;
+    private final long _variantBitmaskRight;
+    private final String _variantName;
+
+    DukptEngine(final byte[] keyRegisterBitmask, final byte[] dataVariantBitmask) {
+        checkLength("key register bitmask", keyRegisterBitmask, KEY_LENGTH);
+        checkLength("data variant bitmask", dataVariantBitmask, KEY_LENGTH);
+
+        _keyRegisterBitmaskLeft = Bytes.toLong(keyRegisterBitmask, 0);
+        _keyRegisterBitmaskRight = Bytes.toLong(keyRegisterBitmask, 8);
+        _variantBitmaskLeft = Bytes.toLong(dataVariantBitmask, 0);
+        _variantBitmaskRight = Bytes.toLong(dataVariantBitmask, 8);
+        _variantName = _getVariantName(Dukpt.toHex(dataVariantBitmask));
+    }
+
+    private static String _getVariantName(final String variantBitmaskHex) {
+        if (variantBitmaskHex.equals(Dukpt.PIN_VARIANT_BITMASK)) { return "PIN"; }
+        if (variantBitmaskHex.equals(Dukpt.DATA_VARIANT_BITMASK)) { return "DATA"; }
+        if (variantBitmaskHex.equals(Dukpt.MAC_VARIANT_BITMASK)) { return "MAC"; }
+        return variantBitmaskHex;
+    }
+
+    DukptEngine(final BitSet keyRegisterBitmask, final BitSet dataVariantBitmask) {
+        this(Dukpt.toByteArray(keyRegisterBitmask), Dukpt.toByteArray(dataVariantBitmask));
+    }
+
+    /**
+     * <p>Returns "PIN", "DATA" or "MAC" for the standard variant bitmasks, otherwise the bitmask in hex.
+     */
+    String getVariantName() {
+        return _variantName;
+    }
+
+    long getKeyRegisterBitmaskLeft() {
+        return _keyRegisterBitmaskLeft;
+    }
+
+    long getKeyRegisterBitmaskRight() {
+        return _keyRegisterBitmaskRight;
+    }
+
+    /**
+     * @see Dukpt#computeKey(byte[], byte[])
+     */
+    byte[] computeKey(final byte[] baseDerivationKey, final byte[] keySerialNumber) {
+        return computeKey(baseDerivationKey, keySerialNumber, null);
+    }
+
+    /**
+     * @see Dukpt#computeKey(byte[], byte[], IpekCache)
+     * @param ipekCache The cache to load the IPEK through, or null to always compute it.
+     */
+    byte[] computeKey(final byte[] baseDerivationKey, final byte[] keySerialNumber, final IpekCache ipekCache) {
+        checkLength("key serial number", keySerialNumber, KEY_SERIAL_NUMBER_LENGTH);
+
+        final DukptMetrics metrics = Dukpt.getMetrics();
+        final long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+
+        final long[] register = new long[2];
+        if (ipekCache != null) {
+            ipekCache.loadIpek(this, baseDerivationKey, Bytes.toLong(keySerialNumber, 0), register);
+        }
+        else {
+            computeIpek(baseDerivationKey, Bytes.toLong(keySerialNumber, 0), register);
+        }
+        return _finishKey(register, keySerialNumber, metrics, startTime);
+    }
+
+    /**
+     * @see Dukpt#computeKey(BaseDerivationKey, byte[])
+     */
+    byte[] computeKey(final BaseDerivationKey baseDerivationKey, final byte[] keySerialNumber) {
+        checkLength("key serial number", keySerialNumber, KEY_SERIAL_NUMBER_LENGTH);
+
+        final DukptMetrics metrics = Dukpt.getMetrics();
+        final long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+
+        final long[] register = new long[2];
+        computeIpek(baseDerivationKey, Bytes.toLong(keySerialNumber, 0), register);
+        return _finishKey(register, keySerialNumber, metrics, startTime);
+    }
+
+    /**
+     * @see Dukpt#computeKey(DukptKey, byte[])
+     */
+    DukptKey computeKey(final DukptKey baseDerivationKey, final byte[] keySerialNumber) {
+        checkLength("key serial number", keySerialNumber, KEY_SERIAL_NUMBER_LENGTH);
+
+        final DukptMetrics metrics = Dukpt.getMetrics();
+        final long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+
+        final long[] register = new long[2];
+        computeIpek(baseDerivationKey, Bytes.toLong(keySerialNumber, 0), register);
+        _deriveKey(register, keySerialNumber);
+
+        final DukptKey key = DukptKey.fromRegister(register);
+
+        // secure memory
+        wipe(register);
+
+        _recordKeyDerived(DukptOperation.COMPUTE_KEY, keySerialNumber, metrics, startTime);
+        return key;
+    }
+
+    /**
+     * @see Dukpt#computeDataKey(byte[], byte[])
+     */
+    byte[] computeDataKey(final byte[] baseDerivationKey, final byte[] keySerialNumber) {
+        checkLength("key serial number", keySerialNumber, KEY_SERIAL_NUMBER_LENGTH);
+
+        final DukptMetrics metrics = Dukpt.getMetrics();
+        final long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+
+        final long[] register = new long[2];
+        computeIpek(baseDerivationKey, Bytes.toLong(keySerialNumber, 0), register);
+        return _finishDataKey(register, keySerialNumber, DukptOperation.COMPUTE_DATA_KEY, metrics, startTime);
+    }
+
+    /**
+     * @see Dukpt#computeDataKey(BaseDerivationKey, byte[])
+     */
+    byte[] computeDataKey(final BaseDerivationKey baseDerivationKey, final byte[] keySerialNumber) {
+        checkLength("key serial number", keySerialNumber, KEY_SERIAL_NUMBER_LENGTH);
+
+        final DukptMetrics metrics = Dukpt.getMetrics();
+        final long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+
+        final long[] register = new long[2];
+        computeIpek(baseDerivationKey, Bytes.toLong(keySerialNumber, 0), register);
+        return _finishDataKey(register, keySerialNumber, DukptOperation.COMPUTE_DATA_KEY, metrics, startTime);
+    }
+
+    /**
+     * @see Dukpt#computeDataKeyFromIpek(byte[], byte[])
+     */
+    byte[] computeDataKeyFromIpek(final byte[] initialPinEncryptionKey, final byte[] keySerialNumber) {
+        checkLength("IPEK", initialPinEncryptionKey, KEY_LENGTH);
+        checkLength("key serial number", keySerialNumber, KEY_SERIAL_NUMBER_LENGTH);
+
+        final DukptMetrics metrics = Dukpt.getMetrics();
+        final long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+
+        final long[] register = new long[] { Bytes.toLong(initialPinEncryptionKey, 0), Bytes.toLong(initialPinEncryptionKey, 8) };
+        return _finishDataKey(register, keySerialNumber, DukptOperation.COMPUTE_DATA_KEY_FROM_IPEK, metrics, startTime);
+    }
+
+    /**
+     * <p>Derives the key for <code>keySerialNumber</code> from the IPEK in <code>register</code>, applies the variant,
+     * converts it to a data key, wipes the register and records <code>operation</code>.
+     */
+    private byte[] _finishDataKey(final long[] register, final byte[] keySerialNumber, final DukptOperation operation, final DukptMetrics metrics, final long startTime) {
+        _deriveKey(register, keySerialNumber);
+        toDataKey(register);
+
+        final byte[] dataKey = toByteArray(register);
+
+        // secure memory
+        wipe(register);
+
+        _recordKeyDerived(operation, keySerialNumber, metrics, startTime);
+        return dataKey;
+    }
+
+    /**
+     * <p>Derives the key for <code>keySerialNumber</code> from the IPEK in <code>register</code>, applies the variant,
+     * wipes the register and records the {@link DukptOperation#COMPUTE_KEY} operation.
+     */
+    private byte[] _finishKey(final long[] register, final byte[] keySerialNumber, final DukptMetrics metrics, final long startTime) {
+        _deriveKey(register, keySerialNumber);
+
+        final byte[] key = toByteArray(register);
+
+        // secure memory
+        wipe(register);
+
+        _recordKeyDerived(DukptOperation.COMPUTE_KEY, keySerialNumber, metrics, startTime);
+        return key;
+    }
+
+    /**
+     * <p>Derives the key for <code>keySerialNumber</code> from the IPEK in <code>register</code> and applies the variant.
+     */
+    private void _deriveKey(final long[] register, final byte[] keySerialNumber) {
+        deriveKey(register, Bytes.toLong(keySerialNumber, 2));
+        applyVariant(register);
+    }
+
+    private void _recordKeyDerived(final DukptOperation operation, final byte[] keySerialNumber, final DukptMetrics metrics, final long startTime) {
+        if (metrics != DukptMetrics.NONE) {
+            metrics.onOperation(operation, _variantName, (System.nanoTime() - startTime));
+            metrics.onKeyDerived(_variantName, keySerialNumber, Long.bitCount(Bytes.toLong(keySerialNumber, 2) & COUNTER_BITMASK));
+        }
+    }
+
+    /**
+     * @see Dukpt#computeKeyFromIpek(byte[], byte[])
+     */
+    byte[] computeKeyFromIpek(final byte[] initialPinEncryptionKey, final byte[] keySerialNumber) {
+        checkLength("IPEK", initialPinEncryptionKey, KEY_LENGTH);
+        checkLength("key serial number", keySerialNumber, KEY_SERIAL_NUMBER_LENGTH);
+
+        final DukptMetrics metrics = Dukpt.getMetrics();
+        final long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+
+        final long[] register = new long[] { Bytes.toLong(initialPinEncryptionKey, 0), Bytes.toLong(initialPinEncryptionKey, 8) };
+        _deriveKey(register, keySerialNumber);
+
+        final byte[] key = toByteArray(register);
+
+        // secure memory
+        wipe(register);
+
+        _recordKeyDerived(DukptOperation.COMPUTE_KEY_FROM_IPEK, keySerialNumber, metrics, startTime);
+        return key;
+    }
+
+    /**
+     * @see Dukpt#computeKeyFromIpek(DukptKey, byte[])
+     */
+    DukptKey computeKeyFromIpek(final DukptKey initialPinEncryptionKey, final byte[] keySerialNumber) {
+        checkLength("IPEK", initialPinEncryptionKey, KEY_LENGTH);
+        checkLength("key serial number", keySerialNumber, KEY_SERIAL_NUMBER_LENGTH);
+
+        final DukptMetrics metrics = Dukpt.getMetrics();
+        final long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+
+        final long[] register = new long[] { initialPinEncryptionKey.getLong(0), initialPinEncryptionKey.getLong(8) };
+        _deriveKey(register, keySerialNumber);
+
+        final DukptKey key = DukptKey.fromRegister(register);
+
+        // secure memory
+        wipe(register);
+
+        _recordKeyDerived(DukptOperation.COMPUTE_KEY_FROM_IPEK, keySerialNumber, metrics, startTime);
+        return key;
+    }
+
+    /**
+     * @see Dukpt#getIpek(BitSet, BitSet)
+     */
+    byte[] getIpek(final byte[] baseDerivationKey, final byte[] keySerialNumber) {
+        checkLength("key serial number", keySerialNumber, KEY_SERIAL_NUMBER_LENGTH);
+
+        final DukptMetrics metrics = Dukpt.getMetrics();
+        final long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+
+        final long[] register = new long[2];
+        computeIpek(baseDerivationKey, Bytes.toLong(keySerialNumber, 0), register);
+        return _finishIpek(register, metrics, startTime);
+    }
+
+    /**
+     * @see Dukpt#getIpek(BaseDerivationKey, byte[])
+     */
+    byte[] getIpek(final BaseDerivationKey baseDerivationKey, final byte[] keySerialNumber) {
+        checkLength("key serial number", keySerialNumber, KEY_SERIAL_NUMBER_LENGTH);
+
+        final DukptMetrics metrics = Dukpt.getMetrics();
+        final long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+
+        final long[] register = new long[2];
+        computeIpek(baseDerivationKey, Bytes.toLong(keySerialNumber, 0), register);
+        return _finishIpek(register, metrics, startTime);
+    }
+
+    /**
+     * @see Dukpt#getIpek(DukptKey, byte[])
+     */
+    DukptKey getIpek(final DukptKey baseDerivationKey, final byte[] keySerialNumber) {
+        checkLength("key serial number", keySerialNumber, KEY_SERIAL_NUMBER_LENGTH);
+
+        final DukptMetrics metrics = Dukpt.getMetrics();
+        final long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+
+        final long[] register = new long[2];
+        computeIpek(baseDerivationKey, Bytes.toLong(keySerialNumber, 0), register);
+        final DukptKey ipek = DukptKey.fromRegister(register);
+
+        // secure memory
+        wipe(register);
+
+        if (metrics != DukptMetrics.NONE) {
+            metrics.onOperation(DukptOperation.GET_IPEK, _variantName, (System.nanoTime() - startTime));
+        }
+
+        return ipek;
+    }
+
+    private byte[] _finishIpek(final long[] register, final DukptMetrics metrics, final long startTime) {
+        final byte[] ipek = toByteArray(register);
+
+        // secure memory
+        wipe(register);
+
+        if (metrics != DukptMetrics.NONE) {
+            metrics.onOperation(DukptOperation.GET_IPEK, _variantName, (System.nanoTime() - startTime));
+        }
+
+        return ipek;
+    }
+
+    /**
+     * @see Dukpt#computeKeySet(byte[], byte[], DukptKeyVariant...)
+     */
+    DukptKeySet computeKeySet(final byte[] baseDerivationKey, final byte[] keySerialNumber, final DukptKeyVariant[] keyVariants) {
+        checkLength("key serial number", keySerialNumber, KEY_SERIAL_NUMBER_LENGTH);
+        _checkKeyVariants(keyVariants);
+
+        final DukptMetrics metrics = Dukpt.getMetrics();
+        final long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+
+        final long[] register = new long[2];
+        computeIpek(baseDerivationKey, Bytes.toLong(keySerialNumber, 0), register);
+        return _finishKeySet(register, keySerialNumber, keyVariants, metrics, startTime);
+    }
+
+    /**
+     * @see Dukpt#computeKeySet(BaseDerivationKey, byte[], DukptKeyVariant...)
+     */
+    DukptKeySet computeKeySet(final BaseDerivationKey baseDerivationKey, final byte[] keySerialNumber, final DukptKeyVariant[] keyVariants) {
+        checkLength("key serial number", keySerialNumber, KEY_SERIAL_NUMBER_LENGTH);
+        _checkKeyVariants(keyVariants);
+
+        final DukptMetrics metrics = Dukpt.getMetrics();
+        final long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+
+        final long[] register = new long[2];
+        computeIpek(baseDerivationKey, Bytes.toLong(keySerialNumber, 0), register);
+        return _finishKeySet(register, keySerialNumber, keyVariants, metrics, startTime);
+    }
+
+    /**
+     * @see Dukpt#computeKeySetFromIpek(byte[], byte[], DukptKeyVariant...)
+     */
+    DukptKeySet computeKeySetFromIpek(final byte[] initialPinEncryptionKey, final byte[] keySerialNumber, final DukptKeyVariant[] keyVariants) {
+        checkLength("IPEK", initialPinEncryptionKey, KEY_LENGTH);
+        checkLength("key serial number", keySerialNumber, KEY_SERIAL_NUMBER_LENGTH);
+        _checkKeyVariants(keyVariants);
+
+        final DukptMetrics metrics = Dukpt.getMetrics();
+        final long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+
+        final long[] register = new long[] { Bytes.toLong(initialPinEncryptionKey, 0), Bytes.toLong(initialPinEncryptionKey, 8) };
+        return _finishKeySet(register, keySerialNumber, keyVariants, metrics, startTime);
+    }
+
+    private static void _checkKeyVariants(final DukptKeyVariant[] keyVariants) {
+        if (keyVariants == null || keyVariants.length == 0) {
+            throw new IllegalArgumentException("Invalid key variants provided: none");
+        }
+    }
+
+    /**
+     * <p>Derives the (pre-variant) key for <code>keySerialNumber</code> from the IPEK in <code>register</code> once,
+     * then applies each of <code>keyVariants</code> to a copy of it; the data key conversion is done in the register
+     * by {@link #toDataKey(long[])}.  Wipes the register and records the
+     * {@link DukptOperation#COMPUTE_KEY_SET} operation.
+     */
+    private DukptKeySet _finishKeySet(final long[] register, final byte[] keySerialNumber, final DukptKeyVariant[] keyVariants, final DukptMetrics metrics, final long startTime) {
+        final long keySerialNumberRight = Bytes.toLong(keySerialNumber, 2);
+        deriveKey(register, keySerialNumberRight);
+
+        final DukptKeySet keySet = DukptKeySet.create(keySerialNumber);
+        final long[] variantRegister = new long[2];
+        for (final DukptKeyVariant keyVariant : keyVariants) {
+            if (keySet.hasKey(keyVariant)) { continue; }
+
+            variantRegister[0] = (register[0] ^ keyVariant.getVariantBitmaskLeft());
+            variantRegister[1] = (register[1] ^ keyVariant.getVariantBitmaskRight());
+            if (keyVariant == DukptKeyVariant.DATA_KEY) {
+                toDataKey(variantRegister);
+            }
+            keySet.putKey(keyVariant, toByteArray(variantRegister));
+        }
+
+        // secure memory
+        wipe(register);
+        wipe(variantRegister);
+
+        if (metrics != DukptMetrics.NONE) {
+            final StringBuilder variantNames = new StringBuilder();
+            for (final DukptKeyVariant keyVariant : keyVariants) {
+                variantNames.append(variantNames.length() > 0 ? "+" : "").append(keyVariant.name());
+            }
+            final String variantName = variantNames.toString();
+            metrics.onOperation(DukptOperation.COMPUTE_KEY_SET, variantName, (System.nanoTime() - startTime));
+            metrics.onKeyDerived(variantName, keySerialNumber, Long.bitCount(keySerialNumberRight & COUNTER_BITMASK));
+        }
+
+        return keySet;
+    }
+
+    /**
+     * <p>Computes the keys for many Key Serial Numbers under one BDK, returning them in the iteration order of
+     * <code>keySerialNumbers</code>.
+     *
+     * <p>The KSNs are grouped by device and, within a device, ordered by transaction counter.  Ascending counter order
+     * is a depth-first walk of the trie of counter-bit derivation paths: every KSN that shares an intermediate key is
+     * adjacent to the others that share it, so a {@link DukptDeviceContext} walking them in that order computes each
+     * IPEK and each shared intermediate key exactly once.
+     *
+     * @see Dukpt#computeKeys(byte[], Collection)
+     */
+    List<byte[]> computeKeys(final byte[] baseDerivationKey, final Collection<byte[]> keySerialNumbers) {
+        final byte[][] ksns = keySerialNumbers.toArray(new byte[keySerialNumbers.size()][]);
+        final int count = ksns.length;
+
+        final long[] initialKeySerialNumbers = new long[count];
+        final long[] counters = new long[count];
+        final Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            checkLength("key serial number", ksns[i], KEY_SERIAL_NUMBER_LENGTH);
+            initialKeySerialNumbers[i] = (Bytes.toLong(ksns[i], 0) & ~INITIAL_KSN_BITMASK);
+            counters[i] = (Bytes.toLong(ksns[i], 2) & COUNTER_BITMASK);
+            order[i] = i;
+        }
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer index0, final Integer index1) {
+                final int deviceComparison = Long.compare(initialKeySerialNumbers[index0], initialKeySerialNumbers[index1]);
+                if (deviceComparison != 0) { return deviceComparison; }
+                return Long.compare(counters[index0], counters[index1]);
+            }
+        });
+
+        final byte[][] keys = new byte[count][];
+        final long[] register = new long[2];
+        DukptDeviceContext deviceContext = null;
+        try {
+            for (int i = 0; i < count; i++) {
+                final int index = order[i];
+                if ( (deviceContext == null) || (initialKeySerialNumbers[index] != initialKeySerialNumbers[order[i - 1]]) ) {
+                    if (deviceContext != null) {
+                        deviceContext.clear();
+                    }
+                    computeIpek(baseDerivationKey, initialKeySerialNumbers[index], register);
+                    deviceContext = new DukptDeviceContext(this, register, ksns[index]);
+                }
+
+                deviceContext.loadKey(ksns[index], register);
+                applyVariant(register);
+                keys[index] = toByteArray(register);
+            }
+        }
+        finally {
+            // secure memory
+            if (deviceContext != null) {
+                deviceContext.clear();
+            }
+            wipe(register);
+        }
+
+        return new ArrayList<byte[]>(Arrays.asList(keys));
+    }
+
+    /**
+     * @see Dukpt#createDeviceContext(byte[], byte[])
+     */
+    DukptDeviceContext createDeviceContext(final byte[] baseDerivationKey, final byte[] keySerialNumber) {
+        checkLength("key serial number", keySerialNumber, KEY_SERIAL_NUMBER_LENGTH);
+
+        final long[] register = new long[2];
+        computeIpek(baseDerivationKey, Bytes.toLong(keySerialNumber, 0), register);
+        final DukptDeviceContext deviceContext = new DukptDeviceContext(this, register, keySerialNumber);
+
+        // secure memory
+        wipe(register);
+
+        return deviceContext;
+    }
+
+    /**
+     * @see Dukpt#createDeviceContext(BaseDerivationKey, byte[])
+     */
+    DukptDeviceContext createDeviceContext(final BaseDerivationKey baseDerivationKey, final byte[] keySerialNumber) {
+        checkLength("key serial number", keySerialNumber, KEY_SERIAL_NUMBER_LENGTH);
+
+        final long[] register = new long[2];
+        computeIpek(baseDerivationKey, Bytes.toLong(keySerialNumber, 0), register);
+        final DukptDeviceContext deviceContext = new DukptDeviceContext(this, register, keySerialNumber);
+
+        // secure memory
+        wipe(register);
+
+        return deviceContext;
+    }
+
+    /**
+     * @see Dukpt#enumerateKeys(byte[], byte[], int, int)
+     */
+    DukptKeyEnumerator enumerateKeys(final byte[] baseDerivationKey, final byte[] keySerialNumber, final int firstCounter, final int lastCounter) {
+        DukptKeyEnumerator.checkCounterRange(firstCounter, lastCounter);
+        return new DukptKeyEnumerator(this, createDeviceContext(baseDerivationKey, keySerialNumber), keySerialNumber, firstCounter, lastCounter);
+    }
+
+    /**
+     * @see Dukpt#enumerateKeys(BaseDerivationKey, byte[], int, int)
+     */
+    DukptKeyEnumerator enumerateKeys(final BaseDerivationKey baseDerivationKey, final byte[] keySerialNumber, final int firstCounter, final int lastCounter) {
+        DukptKeyEnumerator.checkCounterRange(firstCounter, lastCounter);
+        return new DukptKeyEnumerator(this, createDeviceContext(baseDerivationKey, keySerialNumber), keySerialNumber, firstCounter, lastCounter);
+    }
+
+    /**
+     * @see Dukpt#createDeviceContextFromIpek(byte[], byte[])
+     */
+    DukptDeviceContext createDeviceContextFromIpek(final byte[] initialPinEncryptionKey, final byte[] keySerialNumber) {
+        checkLength("IPEK", initialPinEncryptionKey, KEY_LENGTH);
+
+        final long[] register = new long[] { Bytes.toLong(initialPinEncryptionKey, 0), Bytes.toLong(initialPinEncryptionKey, 8) };
+        final DukptDeviceContext deviceContext = new DukptDeviceContext(this, register, keySerialNumber);
+
+        // secure memory
+        wipe(register);
+
+        return deviceContext;
+    }
+
+    /**
+     * <p>Computes the Initial PIN Encryption Key into <code>register</code>.
+     *
+     * <p>The BDK may be single, double or triple length; only its first 128 bits are XORed with the key register
+     * bitmask, matching the behavior of the original BitSet implementation.  Both halves are computed with the
+     * built-in {@link Des} primitive rather than through the JCE.
+     *
+     * @param baseDerivationKey The Base Derivation Key.
+     * @param keySerialNumberLeft The left-most 64 bits of the Key Serial Number; bits 59 through 63 are ignored.
+     * @param register Receives the IPEK.
+     */
+    void computeIpek(final byte[] baseDerivationKey, final long keySerialNumberLeft, final long[] register) {
+        final int length = baseDerivationKey.length;
+        _checkBaseDerivationKeyLength(length);
+        _computeIpek(length, Bytes.toLong(baseDerivationKey, 0), (length > 8 ? Bytes.toLong(baseDerivationKey, 8) : 0L), (length > 16 ? Bytes.toLong(baseDerivationKey, 16) : 0L), keySerialNumberLeft, register);
+    }
+
+    /**
+     * <p>Computes the Initial PIN Encryption Key into <code>register</code>, reading the Base Derivation Key directly
+     * from its handle.
+     *
+     * @see #computeIpek(byte[], long, long[])
+     */
+    void computeIpek(final DukptKey baseDerivationKey, final long keySerialNumberLeft, final long[] register) {
+        final int length = baseDerivationKey.getLength();
+        _checkBaseDerivationKeyLength(length);
+        _computeIpek(length, baseDerivationKey.getLong(0), (length > 8 ? baseDerivationKey.getLong(8) : 0L), (length > 16 ? baseDerivationKey.getLong(16) : 0L), keySerialNumberLeft, register);
+    }
+
+    private static void _checkBaseDerivationKeyLength(final int length) {
+        if ( (length != 8) && (length != 16) && (length != 24) ) {
+            throw new InvalidParameterException("Key is not 8/16/24 bytes long.");
+        }
+    }
+
+    /**
+     * @param length The length of the Base Derivation Key: 8, 16 or 24 bytes.
+     * @param first The first 64 bits of the Base Derivation Key.
+     * @param second The second 64 bits of a double or triple length Base Derivation Key; otherwise ignored.
+     * @param third The third 64 bits of a triple length Base Derivation Key; otherwise ignored.
+     */
+    private void _computeIpek(final int length, final long first, final long second, final long third, final long keySerialNumberLeft, final long[] register) {
+        final long data = (keySerialNumberLeft & ~INITIAL_KSN_BITMASK);
+
+        // single length: K1K1K1, double length: K1K2K1, triple length: K1K2K3
+        final long key1 = first;
+        final long key2 = (length > 8 ? second : key1);
+        final long key3 = (length > 16 ? third : key1);
+
+        register[0] = Des.encryptTripleDes(key1, key2, key3, data);
+
+        // Only the first 128 bits of the key register are masked; for a single length key, only the left half.
+        final long maskedKey1 = (key1 ^ _keyRegisterBitmaskLeft);
+        final long maskedKey2 = (length == 8 ? maskedKey1 : (key2 ^ _keyRegisterBitmaskRight));
+        final long maskedKey3 = (length == 24 ? key3 : maskedKey1);
+        register[1] = Des.encryptTripleDes(maskedKey1, maskedKey2, maskedKey3, data);
+    }
+
+    /**
+     * <p>Computes the Initial PIN Encryption Key into <code>register</code> with the key schedules prepared by
+     * <code>baseDerivationKey</code>, or, if they were prepared for a different key register bitmask, from its key.
+     *
+     * @see #computeIpek(byte[], long, long[])
+     */
+    void computeIpek(final BaseDerivationKey baseDerivationKey, final long keySerialNumberLeft, final long[] register) {
+        if (baseDerivationKey.isExpandedFor(_keyRegisterBitmaskLeft, _keyRegisterBitmaskRight)) {
+            baseDerivationKey.computeIpek((keySerialNumberLeft & ~INITIAL_KSN_BITMASK), register);
+        }
+        else {
+            baseDerivationKey.computeIpek(this, keySerialNumberLeft, register);
+        }
+    }
+
+    /**
+     * <p>Walks the transaction counter from bit 59 to bit 79, running the non-reversible key generation process for
+     * each set bit, transforming the IPEK held in <code>register</code> into the (pre-variant) current key.
+     *
+     * <p>This algorithm was found in Annex A, section 3 on pages 50-54 of the ANSI X9.24-1:2009 document.
+     *
+     * @param register The IPEK on entry; the derived key on exit.
+     * @param keySerialNumberRight The right-most 64 bits of the Key Serial Number.
+     */
+    void deriveKey(final long[] register, final long keySerialNumberRight) {
+        long counter = (keySerialNumberRight & ~COUNTER_BITMASK);
+        for (long bit = (1L << 20); bit != 0L; bit >>>= 1) {
+            if ((keySerialNumberRight & bit) != 0L) {
+                counter |= bit;
+                nonReversibleKeyGenerationProcess(register, counter);
+            }
+        }
+    }
+
+    /**
+     * <p>XORs the data variant bitmask (e.g. To PIN) into <code>register</code>.
+     */
+    void applyVariant(final long[] register) {
+        register[0] ^= _variantBitmaskLeft;
+        register[1] ^= _variantBitmaskRight;
+    }
+
+    /**
+     * <p>Replaces the key in <code>register</code> with a key that cannot be traced back to it, using the right 64
+     * bits of the Key Serial Number for the desired transaction.
+     *
+     * <p>This algorithm was found in Annex A, section 2 on page 50 of the ANSI X9.24-1:2009 document.
+     *
+     * @param register The previous key on entry; the new key on exit.
+     * @param data The data to encrypt it with, usually the right 64 bits of the transaction counter.
+     */
+    void nonReversibleKeyGenerationProcess(final long[] register, final long data) {
+        nonReversibleKeyGenerationProcess(register, 0, register, 0, data);
+    }
+
+    /**
+     * <p>Derives the key following <code>source[sourceOffset]</code>, <code>source[sourceOffset + 1]</code> into
+     * <code>destination[destinationOffset]</code>, <code>destination[destinationOffset + 1]</code>.  The source and
+     * destination may be the same.
+     *
+     * @see #nonReversibleKeyGenerationProcess(long[], long)
+     */
+    void nonReversibleKeyGenerationProcess(final long[] source, final int sourceOffset, final long[] destination, final int destinationOffset, final long data) {
+        long keyLeft = source[sourceOffset];
+        long keyRight = source[sourceOffset + 1];
+
+        // steps 1-3: Crypto Register-1 XORed with the right half of the Key Register, DEA-encrypted using the left
+        //  half of the Key Register, and XORed with the right half of the Key Register again, goes to Crypto Register-2.
+        final long cryptoRegister2 = encryptDes(keyLeft, data ^ keyRight) ^ keyRight;
+
+        // step 4: XOR the Key Register with hexadecimal C0C0 C0C0 0000 0000 C0C0 C0C0 0000 0000
+        keyLeft ^= _keyRegisterBitmaskLeft;
+        keyRight ^= _keyRegisterBitmaskRight;
+
+        // steps 5-7: the same as steps 1-3, using the masked Key Register, goes to Crypto Register-1.
+        final long cryptoRegister1 = encryptDes(keyLeft, data ^ keyRight) ^ keyRight;
+
+        destination[destinationOffset] = cryptoRegister1;
+        destination[destinationOffset + 1] = cryptoRegister2;
+    }
+
+    /**
+     * <p>Replaces the derived key in <code>register</code> with its data key: each half, Triple DES encrypted under the
+     * EDE3 expansion (K1K2K1) of the key.  The K1 encryption and K2 decryption schedules are expanded once and shared
+     * by both halves (and by the first and third EDE steps), rather than the six per-block expansions of two
+     * independent Triple DES operations.
+     *
+     * @see Dukpt#toDataKey(byte[])
+     */
+    static void toDataKey(final long[] register) {
+        final int[] schedules = DATA_KEY_SCHEDULES.get();
+        try {
+            Des.expandKey(register[0], true, schedules, 0);
+            Des.expandKey(register[1], false, schedules, Des.SCHEDULE_LENGTH);
+
+            final long left = Des.cipher(schedules, 0, Des.cipher(schedules, Des.SCHEDULE_LENGTH, Des.cipher(schedules, 0, register[0])));
+            final long right = Des.cipher(schedules, 0, Des.cipher(schedules, Des.SCHEDULE_LENGTH, Des.cipher(schedules, 0, register[1])));
+            register[0] = left;
+            register[1] = right;
+        }
+        finally {
+            // secure memory
+            Dukpt.getObliviationPolicy().obliviate(schedules);
+            Dukpt.getMetrics().onObliviation(schedules.length);
+        }
+    }
+
+    /**
+     * <p>Performs a single-block DES encryption of <code>data</code> under <code>key</code>.
+     *
+     * @see Des#encrypt(long, long)
+     */
+    static long encryptDes(final long key, final long data) {
+        return Des.encrypt(key, data);
+    }
+
+    /**
+     * <p>Converts a <code>{ left, right }</code> register into a 16-byte key.
+     */
+    static byte[] toByteArray(final long[] register) {
+        final byte[] bytes = new byte[KEY_LENGTH];
+        Bytes.putLong(register[0], bytes, 0);
+        Bytes.putLong(register[1], bytes, 8);
+        return bytes;
+    }
+
+    /**
+     * <p>Clears a register.
+     */
+    static void wipe(final long[] register) {
+        Dukpt.getObliviationPolicy().obliviate(register);
+        Dukpt.getMetrics().onObliviation(register.length);
+    }
+
+    static void checkLength(final String name, final DukptKey value, final int expectedLength) {
+        if (value == null || value.getLength() != expectedLength) {
+            throw new IllegalArgumentException("Invalid " + name + " provided: " + (value == null ? "null" : "length " + value.getLength()));
+        }
+    }
+
+    static void checkLength(final String name, final byte[] value, final int expectedLength) {
+        if (value == null || value.length != expectedLength) {
+            throw new IllegalArgumentException("Invalid " + name + " provided: " + (value == null ? "null" : "length " + value.length));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.softwareverde.security.dukpt;
+
+/**
+ * <p>The reactive stream interfaces used by {@link DecryptionProcessor}.
+ *
+ * <p>These have the same methods and contracts as the nested interfaces of <code>java.util.concurrent.Flow</code> (and
+ * of Reactive Streams), which are not available to this library's Java 7 target; an adapter to either is one method
+ * call per signal.
+ */
+public final class DukptFlow {
+    private DukptFlow() { }
+
+    /**
+     * @see <code>java.util.concurrent.Flow.Publisher</code>
+     */
+    public interface Publisher<T> {
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * @see <code>java.util.concurrent.Flow.Subscriber</code>
+     */
+    public interface Subscriber<T> {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    /**
+     * @see <code>java.util.concurrent.Flow.Subscription</code>
+     */
+    public interface Subscription {
+        void request(long n);
+
+        void cancel();
+    }
+
+    /**
+     * @see <code>java.util.concurrent.Flow.Processor</code>
+     */
+    public interface Processor<T, R> extends Subscriber<T>, Publisher<R> { }
+}
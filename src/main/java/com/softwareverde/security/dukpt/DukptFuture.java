@@ -0,0 +1,110 @@
+package com.softwareverde.security.dukpt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * <p>The pending result of a {@link DukptService} request.
+ *
+ * <p>In addition to the blocking <code>Future</code> methods, callbacks may be registered to be notified, without
+ * blocking a thread, when the request completes; they run on the thread that completes the request (or on the
+ * registering thread if it has already completed), so they should be brief.
+ */
+public class DukptFuture<T> extends FutureTask<T> {
+    /**
+     * <p>Receives the outcome of a {@link DukptFuture}.
+     */
+    public interface Callback<T> {
+        void onSuccess(T result);
+
+        /**
+         * @param throwable The failure of the request; a <code>CancellationException</code> if it was cancelled, or a
+         *                  <code>RejectedExecutionException</code> if it was never admitted.
+         */
+        void onFailure(Throwable throwable);
+    }
+
+    /**
+     * <p>Returns a future that has already failed with <code>throwable</code>.
+     */
+    static <T> DukptFuture<T> failed(final Throwable throwable) {
+        final DukptFuture<T> future = new DukptFuture<T>(new Callable<T>() {
+            @Override
+            public T call() {
+                throw new IllegalStateException("Failed future was run.");
+            }
+        });
+        future.fail(throwable);
+        return future;
+    }
+
+    /**
+     * <p>The callbacks registered before completion; emptied by {@link #done()}.
+     */
+    private final List<Callback<? super T>> _callbacks = new ArrayList<Callback<? super T>>(1);
+
+    DukptFuture(final Callable<T> callable) {
+        super(callable);
+    }
+
+    private void _notify(final Callback<? super T> callback) {
+        final T result;
+        try {
+            result = get();
+        }
+        catch (final CancellationException exception) {
+            callback.onFailure(exception);
+            return;
+        }
+        catch (final ExecutionException exception) {
+            callback.onFailure(exception.getCause());
+            return;
+        }
+        catch (final InterruptedException exception) {
+            // Unreachable: the future is complete.
+            Thread.currentThread().interrupt();
+            callback.onFailure(exception);
+            return;
+        }
+        callback.onSuccess(result);
+    }
+
+    /**
+     * <p>Completes the future with <code>throwable</code>, unless it has already completed.
+     */
+    void fail(final Throwable throwable) {
+        setException(throwable);
+    }
+
+    @Override
+    protected void done() {
+        final List<Callback<? super T>> callbacks;
+        synchronized (_callbacks) {
+            callbacks = new ArrayList<Callback<? super T>>(_callbacks);
+            _callbacks.clear();
+        }
+
+        for (final Callback<? super T> callback : callbacks) {
+            _notify(callback);
+        }
+    }
+
+    /**
+     * <p>Registers <code>callback</code> to be notified once the request completes; if it already has, the callback is
+     * notified immediately on the calling thread.
+     */
+    public void addCallback(final Callback<? super T> callback) {
+        synchronized (_callbacks) {
+            // The result is available (and waiters released) slightly before done() runs.
+            if (! isDone()) {
+                _callbacks.add(callback);
+                return;
+            }
+        }
+        _notify(callback);
+    }
+}
@@ -0,0 +1,165 @@
+package com.softwareverde.security.dukpt;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * <p>A key (BDK, IPEK, derived key or data key) held in direct memory rather than on the heap.
+ *
+ * <p>The key occupies a fixed slot of a shared, slab-allocated direct buffer, so the garbage collector never copies it
+ * and creating a handle allocates no array.  {@link #close()} obliviates the slot immediately, as directed by the
+ * current {@link ObliviationPolicy}, and returns it for reuse; a key that is never closed is not obliviated, and its
+ * slot is not reused, so handles should be used with try-with-resources.  A closed handle throws <code>IllegalStateException</code> when used.
+ *
+ * <p>Handles are created with {@link #copyOf(byte[])} or returned by the <code>DukptKey</code> overloads on
+ * {@link Dukpt} and {@link DukptVariant}, which read and write key material directly in the slot; only the
+ * <code>encrypt*</code>/<code>decrypt*</code> overloads, which hand the key to the JCE, copy it onto the heap for the
+ * duration of the call.  The key may be read from several threads at once, but must not be closed while it is in use.
+ */
+public final class DukptKey implements Closeable {
+    /**
+     * <p>The longest key a handle holds, in bytes.
+     */
+    public static final int MAX_LENGTH = DukptKeySlab.SLOT_LENGTH;
+
+    private static final AtomicIntegerFieldUpdater<DukptKey> IS_CLOSED = AtomicIntegerFieldUpdater.newUpdater(DukptKey.class, "_isClosed");
+
+    /**
+     * <p>Copies <code>key</code> into a new handle; the caller remains responsible for obliviating <code>key</code>.
+     */
+    public static DukptKey copyOf(final byte[] key) {
+        return copyOf(key, 0, (key == null ? 0 : key.length));
+    }
+
+    /**
+     * <p>Copies <code>length</code> bytes of <code>key</code>, starting at <code>offset</code>, into a new handle.
+     */
+    public static DukptKey copyOf(final byte[] key, final int offset, final int length) {
+        if (key == null || length < 1 || length > MAX_LENGTH) {
+            throw new IllegalArgumentException("Invalid key provided: " + (key == null ? "null" : "length " + length));
+        }
+        if (offset < 0 || offset > key.length - length) {
+            throw new IndexOutOfBoundsException("Invalid offset provided: " + offset);
+        }
+
+        final DukptKey dukptKey = allocate(length);
+        for (int i = 0; i < length; i++) {
+            dukptKey._buffer.put((dukptKey._offset + i), key[offset + i]);
+        }
+        return dukptKey;
+    }
+
+    /**
+     * <p>Returns a handle of <code>length</code> bytes; the caller must write all of them.
+     */
+    static DukptKey allocate(final int length) {
+        final int[] slot = new int[1];
+        final DukptKeySlab slab = DukptKeySlab.allocate(slot);
+        return new DukptKey(slab, slot[0], length);
+    }
+
+    /**
+     * <p>Returns a 16-byte handle holding the <code>{ left, right }</code> register.
+     */
+    static DukptKey fromRegister(final long[] register) {
+        final DukptKey dukptKey = allocate(DukptEngine.KEY_LENGTH);
+        dukptKey.putLong(0, register[0]);
+        dukptKey.putLong(8, register[1]);
+        return dukptKey;
+    }
+
+    private final DukptKeySlab _slab;
+    private final ByteBuffer _buffer;
+    private final int _slot;
+    private final int _offset;
+    private final int _length;
+    private volatile int _isClosed = 0;
+
+    private DukptKey(final DukptKeySlab slab, final int slot, final int length) {
+        _slab = slab;
+        _buffer = slab.getBuffer();
+        _slot = slot;
+        _offset = (slot * DukptKeySlab.SLOT_LENGTH);
+        _length = length;
+    }
+
+    private void _checkOpen() {
+        if (_isClosed != 0) {
+            throw new IllegalStateException("Key has been closed.");
+        }
+    }
+
+    /**
+     * <p>Returns the length of the key, in bytes.
+     */
+    public int getLength() {
+        _checkOpen();
+        return _length;
+    }
+
+    public boolean isClosed() {
+        return (_isClosed != 0);
+    }
+
+    /**
+     * <p>Copies the key onto the heap; the caller should obliviate the returned array once it has been used.
+     */
+    public byte[] toByteArray() {
+        final byte[] bytes = new byte[_length];
+        copyTo(bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * <p>Copies the key into <code>destination</code>, starting at <code>destinationOffset</code>.
+     */
+    public void copyTo(final byte[] destination, final int destinationOffset) {
+        _checkOpen();
+        if (destinationOffset < 0 || destinationOffset > destination.length - _length) {
+            throw new IndexOutOfBoundsException("Invalid destination offset provided: " + destinationOffset);
+        }
+        for (int i = 0; i < _length; i++) {
+            destination[destinationOffset + i] = _buffer.get(_offset + i);
+        }
+    }
+
+    DukptKeySlab getSlab() {
+        return _slab;
+    }
+
+    /**
+     * <p>Returns the offset of the key within its slab's buffer.
+     */
+    int getOffset() {
+        return _offset;
+    }
+
+    /**
+     * <p>Reads the 8 bytes at <code>index</code> as a big-endian long.
+     */
+    long getLong(final int index) {
+        _checkOpen();
+        return _buffer.getLong(_offset + index);
+    }
+
+    /**
+     * <p>Writes <code>value</code> as 8 big-endian bytes at <code>index</code>.
+     */
+    void putLong(final int index, final long value) {
+        _checkOpen();
+        _buffer.putLong((_offset + index), value);
+    }
+
+    /**
+     * <p>Obliviates the key and releases its memory.  Closing a closed key has no effect.
+     */
+    @Override
+    public void close() {
+        if (! IS_CLOSED.compareAndSet(this, 0, 1)) { return; }
+
+        // secure memory
+        _slab.release(_slot);
+        Dukpt.getMetrics().onObliviation(DukptKeySlab.SLOT_LENGTH);
+    }
+}
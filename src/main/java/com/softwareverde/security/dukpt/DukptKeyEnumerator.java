@@ -0,0 +1,158 @@
+package com.softwareverde.security.dukpt;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>Iterates over the keys of one device for a range of transaction counters, in ascending counter order.
+ *
+ * <p>Only valid counters (those with at most {@link #MAX_COUNTER_BITS} bits set) are returned.  Ascending order walks
+ * the derivation tree depth-first, so the parent of every key (the key of its counter without the lowest set bit) has
+ * already been computed and retained by the underlying {@link DukptDeviceContext}; each key costs one non-reversible
+ * key generation step instead of up to ten.
+ *
+ * <p>Enumerators are created with {@link Dukpt#enumerateKeys(byte[], byte[], int, int)} (or the
+ * {@link DukptVariant} equivalent).  They are not thread-safe; call {@link #clear()} to zero the retained keys if the
+ * enumeration is abandoned before its end.
+ */
+public class DukptKeyEnumerator implements Iterator<DukptKeyEnumerator.Entry> {
+    /**
+     * <p>The largest transaction counter.
+     */
+    public static final int MAX_COUNTER = (int) DukptEngine.COUNTER_BITMASK;
+
+    /**
+     * <p>The maximum number of bits set in a valid transaction counter.
+     */
+    public static final int MAX_COUNTER_BITS = 10;
+
+    /**
+     * <p>A key and the Key Serial Number it belongs to.
+     */
+    public static class Entry {
+        private final byte[] _keySerialNumber;
+        private final int _transactionCounter;
+        private final byte[] _key;
+
+        protected Entry(final byte[] keySerialNumber, final int transactionCounter, final byte[] key) {
+            _keySerialNumber = keySerialNumber;
+            _transactionCounter = transactionCounter;
+            _key = key;
+        }
+
+        public byte[] getKeySerialNumber() {
+            return _keySerialNumber.clone();
+        }
+
+        public int getTransactionCounter() {
+            return _transactionCounter;
+        }
+
+        /**
+         * <p>Returns the key itself (not a copy); the caller should obliviate it once it has been used.
+         */
+        public byte[] getKey() {
+            return _key;
+        }
+    }
+
+    /**
+     * <p>Returns true if <code>counter</code> is a transaction counter a device may use.
+     */
+    public static boolean isValidCounter(final int counter) {
+        return ( (counter >= 0) && (counter <= MAX_COUNTER) && (Integer.bitCount(counter) <= MAX_COUNTER_BITS) );
+    }
+
+    /**
+     * <p>Returns the smallest valid counter not less than <code>counter</code>, which may be greater than
+     * {@link #MAX_COUNTER} if there is none.
+     */
+    static int nextValidCounter(final int counter) {
+        // Every counter between c and c + lowestOneBit(c) has all of c's bits set, and so at least as many.
+        int nextCounter = counter;
+        while (Integer.bitCount(nextCounter) > MAX_COUNTER_BITS) {
+            nextCounter += Integer.lowestOneBit(nextCounter);
+        }
+        return nextCounter;
+    }
+
+    /**
+     * <p>Writes <code>counter</code> into the transaction counter bits of <code>keySerialNumber</code>.
+     */
+    static void setCounter(final byte[] keySerialNumber, final int counter) {
+        keySerialNumber[7] = (byte) ((keySerialNumber[7] & 0xE0) | ((counter >>> 16) & 0x1F));
+        keySerialNumber[8] = (byte) (counter >>> 8);
+        keySerialNumber[9] = (byte) counter;
+    }
+
+    static void checkCounterRange(final int firstCounter, final int lastCounter) {
+        if ( (firstCounter < 0) || (firstCounter > MAX_COUNTER) ) {
+            throw new IllegalArgumentException("Invalid first counter provided: " + firstCounter);
+        }
+        if ( (lastCounter < firstCounter) || (lastCounter > MAX_COUNTER) ) {
+            throw new IllegalArgumentException("Invalid last counter provided: " + lastCounter);
+        }
+    }
+
+    private final DukptEngine _engine;
+    private final DukptDeviceContext _deviceContext;
+    private final byte[] _keySerialNumber;
+    private final int _lastCounter;
+    private final long[] _register = new long[2];
+    private int _nextCounter;
+
+    /**
+     * @param deviceContext The context of the device; it is cleared when the enumeration ends.
+     */
+    DukptKeyEnumerator(final DukptEngine engine, final DukptDeviceContext deviceContext, final byte[] keySerialNumber, final int firstCounter, final int lastCounter) {
+        checkCounterRange(firstCounter, lastCounter);
+
+        _engine = engine;
+        _deviceContext = deviceContext;
+        _keySerialNumber = keySerialNumber.clone();
+        _lastCounter = lastCounter;
+        _nextCounter = nextValidCounter(firstCounter);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return (_nextCounter <= _lastCounter);
+    }
+
+    @Override
+    public Entry next() {
+        if (! hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        final int counter = _nextCounter;
+        setCounter(_keySerialNumber, counter);
+
+        _deviceContext.loadKey(_keySerialNumber, _register);
+        _engine.applyVariant(_register);
+        final byte[] key = DukptEngine.toByteArray(_register);
+
+        // secure memory
+        DukptEngine.wipe(_register);
+
+        _nextCounter = nextValidCounter(counter + 1);
+        if (! hasNext()) {
+            _deviceContext.clear();
+        }
+
+        return new Entry(_keySerialNumber.clone(), counter, key);
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * <p>Zeroes the retained intermediate keys; the enumerator can no longer be used.
+     */
+    public void clear() {
+        _nextCounter = (_lastCounter + 1);
+        _deviceContext.clear();
+    }
+}
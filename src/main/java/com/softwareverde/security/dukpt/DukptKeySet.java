@@ -0,0 +1,78 @@
+package com.softwareverde.security.dukpt;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * <p>The variant keys of one transaction, derived together by
+ * {@link Dukpt#computeKeySet(byte[], byte[], DukptKeyVariant...)}.
+ *
+ * <p>The keys are held by reference; call {@link #clear()} to obliviate them once they have been used.
+ */
+public class DukptKeySet {
+    private final byte[] _keySerialNumber;
+    private final Map<DukptKeyVariant, byte[]> _keys;
+
+    protected DukptKeySet(final byte[] keySerialNumber, final Map<DukptKeyVariant, byte[]> keys) {
+        _keySerialNumber = keySerialNumber;
+        _keys = keys;
+    }
+
+    public byte[] getKeySerialNumber() {
+        return _keySerialNumber.clone();
+    }
+
+    /**
+     * <p>Returns true if the set includes the key for <code>keyVariant</code>.
+     */
+    public boolean hasKey(final DukptKeyVariant keyVariant) {
+        return _keys.containsKey(keyVariant);
+    }
+
+    /**
+     * <p>Returns the key for <code>keyVariant</code> itself (not a copy).
+     *
+     * @throws IllegalArgumentException If the variant was not requested.
+     */
+    public byte[] getKey(final DukptKeyVariant keyVariant) {
+        final byte[] key = _keys.get(keyVariant);
+        if (key == null) {
+            throw new IllegalArgumentException("Invalid key variant provided: " + keyVariant + " was not derived");
+        }
+        return key;
+    }
+
+    public byte[] getPinKey() {
+        return getKey(DukptKeyVariant.PIN);
+    }
+
+    public byte[] getMacKey() {
+        return getKey(DukptKeyVariant.MAC);
+    }
+
+    /**
+     * <p>Returns the {@link DukptKeyVariant#DATA_KEY} key, i.e. the data variant after
+     * {@link Dukpt#toDataKey(byte[])}.
+     */
+    public byte[] getDataKey() {
+        return getKey(DukptKeyVariant.DATA_KEY);
+    }
+
+    /**
+     * <p>Obliviates every key of the set.  The set cannot be used afterwards.
+     */
+    public void clear() {
+        for (final byte[] key : _keys.values()) {
+            Dukpt.obliviate(key);
+        }
+        _keys.clear();
+    }
+
+    static DukptKeySet create(final byte[] keySerialNumber) {
+        return new DukptKeySet(keySerialNumber.clone(), new EnumMap<DukptKeyVariant, byte[]>(DukptKeyVariant.class));
+    }
+
+    void putKey(final DukptKeyVariant keyVariant, final byte[] key) {
+        _keys.put(keyVariant, key);
+    }
+}
@@ -0,0 +1,141 @@
+package com.softwareverde.security.dukpt;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Fixed-size slots of direct (off-heap) memory for {@link DukptKey}s.
+ *
+ * <p>Each slab is one direct <code>ByteBuffer</code> of {@link #SLOT_COUNT} slots of {@link #SLOT_LENGTH} bytes,
+ * with a lock-free stack of free slots (its head is tagged with a version, so a slot released and reallocated
+ * between a reader's load and its compare-and-set cannot corrupt the stack).  Slabs are created on demand and never
+ * released, so a steady-state workload allocates no memory at all; released slots are obliviated, as directed by the
+ * current {@link ObliviationPolicy}, before they are reused.
+ */
+final class DukptKeySlab {
+    /**
+     * <p>The largest key a slot holds: an AES-256 key.
+     */
+    static final int SLOT_LENGTH = 32;
+    static final int SLOT_COUNT = 1024;
+
+    private static final Object CREATE_LOCK = new Object();
+
+    /**
+     * <p>Receives the policy's overwrite of a slot, which is then copied into the slot; the policy only accepts arrays.
+     */
+    private static final ThreadLocal<long[]> SCRATCH = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[SLOT_LENGTH / 8];
+        }
+    };
+    private static volatile DukptKeySlab[] slabs = new DukptKeySlab[] { new DukptKeySlab() };
+
+    /**
+     * <p>The slab that most recently had a free slot; allocation starts there.
+     */
+    private static final AtomicInteger CURRENT_SLAB = new AtomicInteger(0);
+
+    /**
+     * <p>Takes a free slot, creating a new slab if every slab is full.  The slot's previous contents have been
+     * obliviated; the caller must overwrite the bytes it uses.
+     *
+     * @param slotIndex Receives the index of the slot within the returned slab.
+     */
+    static DukptKeySlab allocate(final int[] slotIndex) {
+        while (true) {
+            final DukptKeySlab[] currentSlabs = slabs;
+            final int start = CURRENT_SLAB.get();
+            for (int i = 0; i < currentSlabs.length; i++) {
+                final int slabIndex = ((start + i) % currentSlabs.length);
+                final DukptKeySlab slab = currentSlabs[slabIndex];
+                final int slot = slab._pop();
+                if (slot >= 0) {
+                    if (slabIndex != start) {
+                        CURRENT_SLAB.set(slabIndex);
+                    }
+                    slotIndex[0] = slot;
+                    return slab;
+                }
+            }
+
+            synchronized (CREATE_LOCK) {
+                if (slabs == currentSlabs) {
+                    final DukptKeySlab[] newSlabs = new DukptKeySlab[currentSlabs.length + 1];
+                    System.arraycopy(currentSlabs, 0, newSlabs, 0, currentSlabs.length);
+                    newSlabs[currentSlabs.length] = new DukptKeySlab();
+                    slabs = newSlabs;
+                    CURRENT_SLAB.set(currentSlabs.length);
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>Returns the number of slabs created so far.
+     */
+    static int getSlabCount() {
+        return slabs.length;
+    }
+
+    private final ByteBuffer _buffer = ByteBuffer.allocateDirect(SLOT_COUNT * SLOT_LENGTH);
+
+    /**
+     * <p>The version (high 32 bits) and the index plus one of the top free slot (low 32 bits; 0 when empty).
+     */
+    private final AtomicLong _head;
+
+    /**
+     * <p>The index plus one of the free slot below each free slot (0 at the bottom).
+     */
+    private final AtomicIntegerArray _next = new AtomicIntegerArray(SLOT_COUNT);
+
+    private DukptKeySlab() {
+        for (int i = 0; i < (SLOT_COUNT - 1); i++) {
+            _next.set(i, (i + 2));
+        }
+        _head = new AtomicLong(1L);
+    }
+
+    private int _pop() {
+        while (true) {
+            final long head = _head.get();
+            final int top = (int) head;
+            if (top == 0) { return -1; }
+
+            final long newHead = ((((head >>> 32) + 1L) << 32) | (_next.get(top - 1) & 0xFFFFFFFFL));
+            if (_head.compareAndSet(head, newHead)) {
+                return (top - 1);
+            }
+        }
+    }
+
+    /**
+     * <p>Obliviates <code>slot</code> with the current {@link ObliviationPolicy} and returns it to the free slots.
+     */
+    void release(final int slot) {
+        final long[] scratch = SCRATCH.get();
+        Dukpt.getObliviationPolicy().obliviate(scratch);
+
+        final int offset = (slot * SLOT_LENGTH);
+        for (int i = 0; i < scratch.length; i++) {
+            _buffer.putLong((offset + (8 * i)), scratch[i]);
+        }
+
+        while (true) {
+            final long head = _head.get();
+            _next.set(slot, (int) head);
+            final long newHead = ((((head >>> 32) + 1L) << 32) | (slot + 1L));
+            if (_head.compareAndSet(head, newHead)) {
+                return;
+            }
+        }
+    }
+
+    ByteBuffer getBuffer() {
+        return _buffer;
+    }
+}
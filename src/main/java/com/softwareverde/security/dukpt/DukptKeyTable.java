@@ -0,0 +1,314 @@
+package com.softwareverde.security.dukpt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+
+/**
+ * <p>A memory-mapped file holding the keys of one device for a range of transaction counters, for constant-time
+ * lookup by Key Serial Number.
+ *
+ * <p>The file is written once with {@link #write(Path, BaseDerivationKey, DukptVariant, byte[], int, int, byte[])},
+ * which derives every key of the range with a {@link DukptKeyEnumerator}, and read any number of times with
+ * {@link #open(Path, byte[])}.  Passing the device's current counter and {@link DukptKeyEnumerator#MAX_COUNTER} stores
+ * every future key of the device; about one million keys, or 16 MiB.
+ *
+ * <p>The entries are stored densely: the entry of a valid counter is at its rank among the valid counters of the
+ * range, which is computed from a table of binomial coefficients in at most 22 steps.  Each entry is the key
+ * encrypted with {@link Dukpt#encryptTripleDes(byte[], byte[])} under a table key supplied by the caller, so the file
+ * never holds a key in the clear; the table key's check value is stored in the header to detect the wrong key.
+ *
+ * <p>Layout (big-endian): the magic <code>DUKPTKT1</code>, the 10-byte KSN of the device with its counter cleared, two
+ * reserved bytes, the first counter, the last counter and the entry count as ints, the 4-byte check value of the table
+ * key, four reserved bytes, then 16 bytes per entry.
+ *
+ * <p>Open tables may be shared between threads; {@link #close()} zeroes the table key schedules.
+ */
+public class DukptKeyTable implements Closeable {
+    static final int HEADER_LENGTH = 40;
+    static final int ENTRY_LENGTH = DukptEngine.KEY_LENGTH;
+
+    private static final byte[] MAGIC = { 'D', 'U', 'K', 'P', 'T', 'K', 'T', '1' };
+    private static final int TRIPLE_DES_SCHEDULE_LENGTH = (3 * Des.SCHEDULE_LENGTH);
+
+    /**
+     * <p><code>CUMULATIVE_BINOMIALS[n][k]</code> is the number of <code>n</code>-bit values with at most
+     * <code>k</code> bits set.
+     */
+    private static final long[][] CUMULATIVE_BINOMIALS = new long[22][DukptKeyEnumerator.MAX_COUNTER_BITS + 1];
+
+    static {
+        final long[][] binomials = new long[22][22];
+        for (int n = 0; n < binomials.length; n++) {
+            binomials[n][0] = 1L;
+            for (int k = 1; k <= n; k++) {
+                binomials[n][k] = (binomials[n - 1][k - 1] + binomials[n - 1][k]);
+            }
+        }
+        for (int n = 0; n < CUMULATIVE_BINOMIALS.length; n++) {
+            long sum = 0L;
+            for (int k = 0; k <= DukptKeyEnumerator.MAX_COUNTER_BITS; k++) {
+                sum += binomials[n][k];
+                CUMULATIVE_BINOMIALS[n][k] = sum;
+            }
+        }
+    }
+
+    /**
+     * <p>Returns the number of valid counters less than <code>counter</code> (which may be up to
+     * <code>MAX_COUNTER + 1</code>).
+     */
+    static long rank(final int counter) {
+        long rank = 0L;
+        int bitCount = 0;
+        for (int bit = 21; bit >= 0; bit--) {
+            if (((counter >>> bit) & 1) != 0) {
+                // Every counter with the same higher bits and this bit clear, if it can still be valid.
+                if (bitCount <= DukptKeyEnumerator.MAX_COUNTER_BITS) {
+                    rank += CUMULATIVE_BINOMIALS[bit][DukptKeyEnumerator.MAX_COUNTER_BITS - bitCount];
+                }
+                bitCount += 1;
+            }
+        }
+        return rank;
+    }
+
+    private static long _getInitialKeySerialNumber(final byte[] keySerialNumber) {
+        return (Bytes.toLong(keySerialNumber, 0) & ~DukptEngine.INITIAL_KSN_BITMASK);
+    }
+
+    /**
+     * <p>Expands the encryption schedules, then the decryption schedules, of a Triple DES key.
+     */
+    private static int[] _expandTableKey(final byte[] tableKey) {
+        if ( (tableKey == null) || ((tableKey.length != 8) && (tableKey.length != 16) && (tableKey.length != 24)) ) {
+            throw new InvalidParameterException("Key is not 8/16/24 bytes long.");
+        }
+
+        final long key1 = Bytes.toLong(tableKey, 0);
+        final long key2 = Bytes.toLong(tableKey, (tableKey.length > 8 ? 8 : 0));
+        final long key3 = Bytes.toLong(tableKey, (tableKey.length > 16 ? 16 : 0));
+
+        final int[] schedules = new int[2 * TRIPLE_DES_SCHEDULE_LENGTH];
+        Des.expandKey(key1, true, schedules, 0);
+        Des.expandKey(key2, false, schedules, Des.SCHEDULE_LENGTH);
+        Des.expandKey(key3, true, schedules, (2 * Des.SCHEDULE_LENGTH));
+        Des.expandKey(key3, false, schedules, TRIPLE_DES_SCHEDULE_LENGTH);
+        Des.expandKey(key2, true, schedules, (TRIPLE_DES_SCHEDULE_LENGTH + Des.SCHEDULE_LENGTH));
+        Des.expandKey(key1, false, schedules, (TRIPLE_DES_SCHEDULE_LENGTH + (2 * Des.SCHEDULE_LENGTH)));
+        return schedules;
+    }
+
+    private static long _cipherTripleDes(final int[] schedules, final int offset, final long block) {
+        return Des.cipher(schedules, (offset + (2 * Des.SCHEDULE_LENGTH)), Des.cipher(schedules, (offset + Des.SCHEDULE_LENGTH), Des.cipher(schedules, offset, block)));
+    }
+
+    private static int _getCheckValue(final int[] schedules) {
+        return (int) (_cipherTripleDes(schedules, 0, 0L) >>> 32);
+    }
+
+    /**
+     * <p>Derives the keys of the device that sent <code>keySerialNumber</code> for every valid counter from
+     * <code>firstCounter</code> to <code>lastCounter</code> (inclusive) and writes them, encrypted under
+     * <code>tableKey</code>, to <code>file</code>, which is created or truncated.
+     *
+     * @param tableKey An 8, 16 or 24 byte Triple DES key.
+     * @return The number of keys written.
+     */
+    public static long write(final Path file, final BaseDerivationKey baseDerivationKey, final DukptVariant dukptVariant, final byte[] keySerialNumber, final int firstCounter, final int lastCounter, final byte[] tableKey) throws Exception {
+        final int[] schedules = _expandTableKey(tableKey);
+        final DukptKeyEnumerator keyEnumerator = dukptVariant.enumerateKeys(baseDerivationKey, keySerialNumber, firstCounter, lastCounter);
+        try {
+            return _write(file, keyEnumerator, keySerialNumber, firstCounter, lastCounter, schedules);
+        }
+        finally {
+            // secure memory
+            keyEnumerator.clear();
+            Dukpt.getObliviationPolicy().obliviate(schedules);
+        }
+    }
+
+    /**
+     * @see #write(Path, BaseDerivationKey, DukptVariant, byte[], int, int, byte[])
+     */
+    public static long write(final Path file, final byte[] baseDerivationKey, final DukptVariant dukptVariant, final byte[] keySerialNumber, final int firstCounter, final int lastCounter, final byte[] tableKey) throws Exception {
+        final BaseDerivationKey preparedBaseDerivationKey = new BaseDerivationKey(baseDerivationKey, dukptVariant);
+        try {
+            return write(file, preparedBaseDerivationKey, dukptVariant, keySerialNumber, firstCounter, lastCounter, tableKey);
+        }
+        finally {
+            preparedBaseDerivationKey.clear();
+        }
+    }
+
+    private static long _write(final Path file, final DukptKeyEnumerator keyEnumerator, final byte[] keySerialNumber, final int firstCounter, final int lastCounter, final int[] schedules) throws IOException {
+        final long entryCount = (rank(lastCounter + 1) - rank(firstCounter));
+        final long fileLength = (HEADER_LENGTH + (entryCount * ENTRY_LENGTH));
+
+        try (final FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final MappedByteBuffer mappedByteBuffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0L, fileLength);
+
+            final byte[] initialKeySerialNumber = keySerialNumber.clone();
+            DukptKeyEnumerator.setCounter(initialKeySerialNumber, 0);
+            mappedByteBuffer.put(MAGIC);
+            mappedByteBuffer.put(initialKeySerialNumber);
+            mappedByteBuffer.putShort((short) 0);
+            mappedByteBuffer.putInt(firstCounter);
+            mappedByteBuffer.putInt(lastCounter);
+            mappedByteBuffer.putInt((int) entryCount);
+            mappedByteBuffer.putInt(_getCheckValue(schedules));
+            mappedByteBuffer.putInt(0);
+
+            int index = HEADER_LENGTH;
+            while (keyEnumerator.hasNext()) {
+                final byte[] key = keyEnumerator.next().getKey();
+
+                // Triple DES CBC with a zero IV, as Dukpt.encryptTripleDes.
+                final long block0 = _cipherTripleDes(schedules, 0, Bytes.toLong(key, 0));
+                final long block1 = _cipherTripleDes(schedules, 0, (Bytes.toLong(key, 8) ^ block0));
+                mappedByteBuffer.putLong(index, block0);
+                mappedByteBuffer.putLong((index + 8), block1);
+                index += ENTRY_LENGTH;
+
+                // secure memory
+                Dukpt.obliviate(key);
+            }
+
+            mappedByteBuffer.force();
+            return entryCount;
+        }
+    }
+
+    /**
+     * <p>Opens a table written by {@link #write(Path, BaseDerivationKey, DukptVariant, byte[], int, int, byte[])}.
+     *
+     * @param tableKey The key the table was written with.
+     * @throws IOException If the file is not a key table, or is truncated.
+     * @throws IllegalArgumentException If <code>tableKey</code> is not the key the table was written with.
+     */
+    public static DukptKeyTable open(final Path file, final byte[] tableKey) throws IOException {
+        final int[] schedules = _expandTableKey(tableKey);
+        try (final FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long fileLength = fileChannel.size();
+            if (fileLength < HEADER_LENGTH) {
+                throw new IOException("Invalid key table: truncated header.");
+            }
+
+            final MappedByteBuffer mappedByteBuffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0L, fileLength);
+            final byte[] magic = new byte[MAGIC.length];
+            mappedByteBuffer.get(magic);
+            if (! Arrays.equals(MAGIC, magic)) {
+                throw new IOException("Invalid key table: unrecognized header.");
+            }
+
+            final byte[] keySerialNumber = new byte[DukptEngine.KEY_SERIAL_NUMBER_LENGTH];
+            mappedByteBuffer.get(keySerialNumber);
+            mappedByteBuffer.getShort();
+            final int firstCounter = mappedByteBuffer.getInt();
+            final int lastCounter = mappedByteBuffer.getInt();
+            final int entryCount = mappedByteBuffer.getInt();
+            final int checkValue = mappedByteBuffer.getInt();
+
+            if ( (firstCounter < 0) || (lastCounter < firstCounter) || (lastCounter > DukptKeyEnumerator.MAX_COUNTER) || (entryCount != (rank(lastCounter + 1) - rank(firstCounter))) ) {
+                throw new IOException("Invalid key table: inconsistent header.");
+            }
+            if (fileLength < (HEADER_LENGTH + ((long) entryCount * ENTRY_LENGTH))) {
+                throw new IOException("Invalid key table: truncated entries.");
+            }
+            if (checkValue != _getCheckValue(schedules)) {
+                throw new IllegalArgumentException("Invalid table key provided: check value mismatch");
+            }
+
+            return new DukptKeyTable(mappedByteBuffer, keySerialNumber, firstCounter, lastCounter, entryCount, schedules);
+        }
+        catch (final IOException | RuntimeException exception) {
+            Dukpt.getObliviationPolicy().obliviate(schedules);
+            throw exception;
+        }
+    }
+
+    private final ByteBuffer _entries;
+    private final long _initialKeySerialNumber;
+    private final int _firstCounter;
+    private final int _lastCounter;
+    private final int _entryCount;
+    private final long _firstRank;
+    private final int[] _schedules;
+    private volatile boolean _isClosed = false;
+
+    protected DukptKeyTable(final ByteBuffer entries, final byte[] keySerialNumber, final int firstCounter, final int lastCounter, final int entryCount, final int[] schedules) {
+        _entries = entries;
+        _initialKeySerialNumber = _getInitialKeySerialNumber(keySerialNumber);
+        _firstCounter = firstCounter;
+        _lastCounter = lastCounter;
+        _entryCount = entryCount;
+        _firstRank = rank(firstCounter);
+        _schedules = schedules;
+    }
+
+    public int getFirstCounter() {
+        return _firstCounter;
+    }
+
+    public int getLastCounter() {
+        return _lastCounter;
+    }
+
+    public int getEntryCount() {
+        return _entryCount;
+    }
+
+    /**
+     * <p>Returns true if the table holds the key for <code>keySerialNumber</code>: it belongs to the table's device,
+     * and its counter is valid and within the table's range.
+     */
+    public boolean contains(final byte[] keySerialNumber) {
+        DukptEngine.checkLength("key serial number", keySerialNumber, DukptEngine.KEY_SERIAL_NUMBER_LENGTH);
+        if (_getInitialKeySerialNumber(keySerialNumber) != _initialKeySerialNumber) { return false; }
+
+        final int counter = (int) (Bytes.toLong(keySerialNumber, 2) & DukptEngine.COUNTER_BITMASK);
+        return ( (counter >= _firstCounter) && (counter <= _lastCounter) && DukptKeyEnumerator.isValidCounter(counter) );
+    }
+
+    /**
+     * <p>Returns the key for <code>keySerialNumber</code>, as computed by the variant the table was written with.  The
+     * caller should obliviate it once it has been used.
+     *
+     * @throws IllegalArgumentException If the table does not hold the key; see {@link #contains(byte[])}.
+     * @throws IllegalStateException If the table has been closed.
+     */
+    public byte[] getKey(final byte[] keySerialNumber) {
+        if (_isClosed) {
+            throw new IllegalStateException("Key table has been closed.");
+        }
+        if (! contains(keySerialNumber)) {
+            throw new IllegalArgumentException("Invalid key serial number provided: not in key table");
+        }
+
+        final int counter = (int) (Bytes.toLong(keySerialNumber, 2) & DukptEngine.COUNTER_BITMASK);
+        final int index = (int) (HEADER_LENGTH + ((rank(counter) - _firstRank) * ENTRY_LENGTH));
+
+        final long block0 = _entries.getLong(index);
+        final long block1 = _entries.getLong(index + 8);
+        final byte[] key = new byte[ENTRY_LENGTH];
+        Bytes.putLong(_cipherTripleDes(_schedules, TRIPLE_DES_SCHEDULE_LENGTH, block0), key, 0);
+        Bytes.putLong((_cipherTripleDes(_schedules, TRIPLE_DES_SCHEDULE_LENGTH, block1) ^ block0), key, 8);
+        return key;
+    }
+
+    /**
+     * <p>Zeroes the table key schedules; the table can no longer be used.  The mapping is released once the table is
+     * garbage collected.
+     */
+    @Override
+    public void close() {
+        _isClosed = true;
+        Dukpt.getObliviationPolicy().obliviate(_schedules);
+    }
+}
@@ -0,0 +1,53 @@
+package com.softwareverde.security.dukpt;
+
+/**
+ * <p>The final forms a TDES DUKPT key may take, for deriving several of them at once with
+ * {@link Dukpt#computeKeySet(byte[], byte[], DukptKeyVariant...)}.
+ */
+public enum DukptKeyVariant {
+    /**
+     * <p>The derived key XORed with {@link Dukpt#PIN_VARIANT_BITMASK}.
+     */
+    PIN(Dukpt.PIN_VARIANT_BITMASK),
+
+    /**
+     * <p>The derived key XORed with {@link Dukpt#MAC_VARIANT_BITMASK}.
+     */
+    MAC(Dukpt.MAC_VARIANT_BITMASK),
+
+    /**
+     * <p>The derived key XORed with {@link Dukpt#DATA_VARIANT_BITMASK}.
+     */
+    DATA(Dukpt.DATA_VARIANT_BITMASK),
+
+    /**
+     * <p>The {@link #DATA} variant passed through {@link Dukpt#toDataKey(byte[])}.
+     */
+    DATA_KEY(Dukpt.DATA_VARIANT_BITMASK);
+
+    private final String _variantBitmask;
+    private final long _variantBitmaskLeft;
+    private final long _variantBitmaskRight;
+
+    DukptKeyVariant(final String variantBitmask) {
+        final byte[] bitmask = HexCodec.decode(variantBitmask);
+        _variantBitmask = variantBitmask;
+        _variantBitmaskLeft = Bytes.toLong(bitmask, 0);
+        _variantBitmaskRight = Bytes.toLong(bitmask, 8);
+    }
+
+    /**
+     * <p>Returns the variant bitmask, in hex.
+     */
+    public String getVariantBitmask() {
+        return _variantBitmask;
+    }
+
+    long getVariantBitmaskLeft() {
+        return _variantBitmaskLeft;
+    }
+
+    long getVariantBitmaskRight() {
+        return _variantBitmaskRight;
+    }
+}
@@ -0,0 +1,55 @@
+package com.softwareverde.security.dukpt;
+
+/**
+ * <p>Receives measurements from the library's hot paths once installed with
+ * {@link Dukpt#setMetrics(DukptMetrics)}.
+ *
+ * <p>Implementations are called synchronously on the calling thread, possibly from many threads at once, so they must
+ * be thread-safe and should not block.  While {@link #NONE} is installed (the default), operations are not timed at
+ * all.
+ *
+ * @see DukptMetricsRecorder
+ */
+public interface DukptMetrics {
+    /**
+     * <p>Discards everything; installing it disables timing.
+     */
+    DukptMetrics NONE = new DukptMetrics() {
+        @Override
+        public void onOperation(final DukptOperation operation, final String variantName, final long elapsedNanoseconds) { }
+
+        @Override
+        public void onKeyDerived(final String variantName, final byte[] keySerialNumber, final int nonReversibleStepCount) { }
+
+        @Override
+        public void onObliviation(final int length) { }
+    };
+
+    /**
+     * <p>Called when an operation completes successfully.  Fused operations are reported once, e.g.
+     * {@link DukptOperation#COMPUTE_DATA_KEY} is not also reported as a {@link DukptOperation#COMPUTE_KEY} and a
+     * {@link DukptOperation#TO_DATA_KEY}.
+     *
+     * @param variantName The derivation variant (see {@link DukptVariant#getVariantName()}), or null for cipher
+     *                    operations, which are not variant-specific.
+     */
+    void onOperation(DukptOperation operation, String variantName, long elapsedNanoseconds);
+
+    /**
+     * <p>Called for each key derived from a BDK or IPEK.
+     *
+     * @param keySerialNumber The Key Serial Number the key was derived for; it must not be modified or retained.
+     * @param nonReversibleStepCount The number of non-reversible key generation steps the derivation ran: the number
+     *                               of bits set in the KSN's transaction counter, or fewer when a
+     *                               {@link DukptDeviceContext} (directly or through a batch operation) reused
+     *                               intermediate keys from an earlier derivation.
+     */
+    void onKeyDerived(String variantName, byte[] keySerialNumber, int nonReversibleStepCount);
+
+    /**
+     * <p>Called each time a buffer of key material is obliviated.
+     *
+     * @param length The number of elements (bytes, ints, longs or bits) overwritten.
+     */
+    void onObliviation(int length);
+}
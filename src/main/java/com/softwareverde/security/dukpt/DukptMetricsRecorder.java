@@ -0,0 +1,235 @@
+package com.softwareverde.security.dukpt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>A lock-free {@link DukptMetrics} that keeps, per operation and per variant, a count, the total and maximum
+ * latency, and a latency histogram with power-of-two buckets; per variant, a histogram of the non-reversible key
+ * generation steps per derived key; and the number of obliviations.
+ *
+ * <p>Recording only uses atomic increments (and, for a new operation/variant pair, one
+ * <code>putIfAbsent</code>), so it is safe and cheap from any number of threads.  Statistics are read as snapshots
+ * that are consistent per counter but not across counters.
+ */
+public class DukptMetricsRecorder implements DukptMetrics {
+    /**
+     * <p>Bucket <code>i</code> holds latencies in <code>[2^(i-1), 2^i)</code> nanoseconds; bucket 0 holds zero.
+     */
+    static final int BUCKET_COUNT = 65;
+
+    /**
+     * <p>The key used for operations that have no variant.
+     */
+    private static final String NO_VARIANT = "";
+
+    /**
+     * <p>A snapshot of one operation's latencies.
+     */
+    public static class OperationStatistics {
+        private final long _count;
+        private final long _totalNanoseconds;
+        private final long _maxNanoseconds;
+        private final long[] _buckets;
+
+        protected OperationStatistics(final long count, final long totalNanoseconds, final long maxNanoseconds, final long[] buckets) {
+            _count = count;
+            _totalNanoseconds = totalNanoseconds;
+            _maxNanoseconds = maxNanoseconds;
+            _buckets = buckets;
+        }
+
+        public long getCount() {
+            return _count;
+        }
+
+        public long getTotalNanoseconds() {
+            return _totalNanoseconds;
+        }
+
+        public long getMaxNanoseconds() {
+            return _maxNanoseconds;
+        }
+
+        public double getMeanNanoseconds() {
+            return (_count > 0L ? ((double) _totalNanoseconds / _count) : 0D);
+        }
+
+        /**
+         * <p>Returns an upper bound for the latency at <code>percentile</code> (0 through 100): the top of the bucket
+         * that contains it, capped at the maximum recorded latency.
+         */
+        public long getPercentileNanoseconds(final double percentile) {
+            if ( (percentile < 0D) || (percentile > 100D) ) {
+                throw new IllegalArgumentException("Invalid percentile provided: " + percentile);
+            }
+
+            long total = 0L;
+            for (final long bucket : _buckets) {
+                total += bucket;
+            }
+            if (total == 0L) { return 0L; }
+
+            final long rank = Math.max(1L, (long) Math.ceil((percentile / 100D) * total));
+            long seen = 0L;
+            for (int i = 0; i < _buckets.length; i++) {
+                seen += _buckets[i];
+                if (seen >= rank) {
+                    final long upperBound = (i == 0 ? 0L : (i >= 63 ? Long.MAX_VALUE : ((1L << i) - 1L)));
+                    return Math.min(upperBound, _maxNanoseconds);
+                }
+            }
+            return _maxNanoseconds;
+        }
+
+        /**
+         * <p>Returns a copy of the histogram; see {@link DukptMetricsRecorder#BUCKET_COUNT}.
+         */
+        public long[] getBuckets() {
+            return _buckets.clone();
+        }
+    }
+
+    private static class Histogram {
+        public final AtomicLong count = new AtomicLong();
+        public final AtomicLong totalNanoseconds = new AtomicLong();
+        public final AtomicLong maxNanoseconds = new AtomicLong();
+        public final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+        public void record(final long elapsedNanoseconds) {
+            final long nanoseconds = Math.max(0L, elapsedNanoseconds);
+            count.incrementAndGet();
+            totalNanoseconds.addAndGet(nanoseconds);
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanoseconds));
+
+            long max = maxNanoseconds.get();
+            while ( (nanoseconds > max) && (! maxNanoseconds.compareAndSet(max, nanoseconds)) ) {
+                max = maxNanoseconds.get();
+            }
+        }
+
+        public OperationStatistics snapshot() {
+            final long[] bucketCounts = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                bucketCounts[i] = buckets.get(i);
+            }
+            return new OperationStatistics(count.get(), totalNanoseconds.get(), maxNanoseconds.get(), bucketCounts);
+        }
+    }
+
+    /**
+     * <p>Indexed by {@link DukptOperation#ordinal()}, then keyed by variant name.
+     */
+    private final List<ConcurrentMap<String, Histogram>> _histograms;
+    private final ConcurrentMap<String, AtomicLongArray> _stepHistograms = new ConcurrentHashMap<String, AtomicLongArray>();
+    private final AtomicLong _obliviationCount = new AtomicLong();
+
+    public DukptMetricsRecorder() {
+        final int operationCount = DukptOperation.values().length;
+        _histograms = new ArrayList<ConcurrentMap<String, Histogram>>(operationCount);
+        for (int i = 0; i < operationCount; i++) {
+            _histograms.add(new ConcurrentHashMap<String, Histogram>());
+        }
+    }
+
+    @Override
+    public void onOperation(final DukptOperation operation, final String variantName, final long elapsedNanoseconds) {
+        final ConcurrentMap<String, Histogram> histograms = _histograms.get(operation.ordinal());
+        final String key = (variantName != null ? variantName : NO_VARIANT);
+
+        Histogram histogram = histograms.get(key);
+        if (histogram == null) {
+            final Histogram newHistogram = new Histogram();
+            histogram = histograms.putIfAbsent(key, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        histogram.record(elapsedNanoseconds);
+    }
+
+    @Override
+    public void onKeyDerived(final String variantName, final byte[] keySerialNumber, final int nonReversibleStepCount) {
+        final String key = (variantName != null ? variantName : NO_VARIANT);
+
+        AtomicLongArray stepHistogram = _stepHistograms.get(key);
+        if (stepHistogram == null) {
+            final AtomicLongArray newStepHistogram = new AtomicLongArray(DukptDeviceContext.MAX_DEPTH + 1);
+            stepHistogram = _stepHistograms.putIfAbsent(key, newStepHistogram);
+            if (stepHistogram == null) {
+                stepHistogram = newStepHistogram;
+            }
+        }
+        stepHistogram.incrementAndGet(Math.min(Math.max(nonReversibleStepCount, 0), DukptDeviceContext.MAX_DEPTH));
+    }
+
+    @Override
+    public void onObliviation(final int length) {
+        _obliviationCount.incrementAndGet();
+    }
+
+    /**
+     * <p>Returns the statistics for <code>operation</code> under <code>variantName</code> (null for cipher
+     * operations); all zero if it has not been recorded.
+     */
+    public OperationStatistics getStatistics(final DukptOperation operation, final String variantName) {
+        final Histogram histogram = _histograms.get(operation.ordinal()).get(variantName != null ? variantName : NO_VARIANT);
+        if (histogram == null) {
+            return new OperationStatistics(0L, 0L, 0L, new long[BUCKET_COUNT]);
+        }
+        return histogram.snapshot();
+    }
+
+    /**
+     * <p>Returns every recorded operation's statistics, keyed by operation name, followed by the variant name in
+     * brackets where there is one (e.g. <code>COMPUTE_KEY[PIN]</code>).
+     */
+    public Map<String, OperationStatistics> getStatistics() {
+        final Map<String, OperationStatistics> statistics = new TreeMap<String, OperationStatistics>();
+        for (final DukptOperation operation : DukptOperation.values()) {
+            for (final Map.Entry<String, Histogram> entry : _histograms.get(operation.ordinal()).entrySet()) {
+                final String variantName = entry.getKey();
+                final String name = (variantName.isEmpty() ? operation.name() : (operation.name() + "[" + variantName + "]"));
+                statistics.put(name, entry.getValue().snapshot());
+            }
+        }
+        return Collections.unmodifiableMap(statistics);
+    }
+
+    /**
+     * <p>Returns, for <code>variantName</code>, the number of derived keys by non-reversible step count (index 0
+     * through {@link DukptDeviceContext#MAX_DEPTH}).
+     */
+    public long[] getNonReversibleStepHistogram(final String variantName) {
+        final long[] counts = new long[DukptDeviceContext.MAX_DEPTH + 1];
+        final AtomicLongArray stepHistogram = _stepHistograms.get(variantName != null ? variantName : NO_VARIANT);
+        if (stepHistogram != null) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = stepHistogram.get(i);
+            }
+        }
+        return counts;
+    }
+
+    public long getObliviationCount() {
+        return _obliviationCount.get();
+    }
+
+    /**
+     * <p>Discards everything recorded so far.  Measurements recorded concurrently with a reset may be lost.
+     */
+    public void reset() {
+        for (final ConcurrentMap<String, Histogram> histograms : _histograms) {
+            histograms.clear();
+        }
+        _stepHistograms.clear();
+        _obliviationCount.set(0L);
+    }
+}
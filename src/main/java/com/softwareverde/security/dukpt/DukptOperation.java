@@ -0,0 +1,22 @@
+package com.softwareverde.security.dukpt;
+
+/**
+ * <p>The operations reported to {@link DukptMetrics}.
+ */
+public enum DukptOperation {
+    COMPUTE_KEY,
+    COMPUTE_KEY_FROM_IPEK,
+    GET_IPEK,
+    TO_DATA_KEY,
+    ENCRYPT_DES,
+    DECRYPT_DES,
+    ENCRYPT_TRIPLE_DES,
+    DECRYPT_TRIPLE_DES,
+    ENCRYPT_AES,
+    DECRYPT_AES,
+    COMPUTE_KEY_SET,
+    COMPUTE_DATA_KEY,
+    COMPUTE_DATA_KEY_FROM_IPEK,
+    COMPUTE_MAC,
+    TRANSLATE_PIN_BLOCK
+}
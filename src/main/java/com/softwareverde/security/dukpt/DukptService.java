@@ -0,0 +1,260 @@
+package com.softwareverde.security.dukpt;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>An asynchronous facade over key derivation and Triple DES encryption under one BDK, for non-blocking callers
+ * (e.g. request handlers of an asynchronous gateway).
+ *
+ * <p>Each request is run on the configured <code>Executor</code> and returns a {@link DukptFuture} immediately.  By
+ * default the service runs requests on a fixed pool of one daemon thread per processor: requests are pure CPU work,
+ * and long-lived threads keep the per-thread cipher instances, key schedule scratch and random number generators
+ * warm between requests.
+ *
+ * <p>At most <code>maxPendingRequests</code> requests may be queued or running at once; further requests are not
+ * queued but fail immediately with a <code>RejectedExecutionException</code>, so a burst sheds load instead of
+ * exhausting threads or memory.  A request's permit is returned as soon as it completes or is cancelled.
+ *
+ * <p>Keys are derived as by {@link ParallelDecryptionEngine}: with the configured {@link DukptVariant}, optionally
+ * converted with {@link Dukpt#toDataKey(byte[])}, and used with Triple DES CBC without padding.
+ */
+public class DukptService {
+    public static final int DEFAULT_MAX_PENDING_REQUESTS = 4096;
+
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = _findVirtualThreadExecutorFactory();
+
+    private static Method _findVirtualThreadExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        }
+        catch (final NoSuchMethodException exception) {
+            return null;
+        }
+    }
+
+    /**
+     * <p>Returns true if this JVM can create virtual threads.
+     */
+    public static boolean isVirtualThreadSupported() {
+        if (NEW_VIRTUAL_THREAD_EXECUTOR == null) { return false; }
+
+        try {
+            newVirtualThreadExecutor().shutdown();
+            return true;
+        }
+        catch (final UnsupportedOperationException exception) {
+            // e.g. a preview API without --enable-preview
+            return false;
+        }
+    }
+
+    /**
+     * <p>Returns an executor that starts a new virtual thread for each task, for callers that opt in explicitly.
+     *
+     * <p>Each request then runs on a fresh thread, so the per-thread caches used by key derivation and the ciphers
+     * (JCE <code>Cipher</code> and <code>SecretKeyFactory</code> instances, key schedule scratch, and the
+     * <code>SecureRandom</code> of the random obliviation policies) are rebuilt for every request; the default
+     * executor is usually faster.
+     *
+     * @throws UnsupportedOperationException If this JVM cannot create virtual threads.
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        if (NEW_VIRTUAL_THREAD_EXECUTOR == null) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM.");
+        }
+
+        try {
+            return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+        }
+        catch (final InvocationTargetException exception) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM.", exception.getCause());
+        }
+        catch (final IllegalAccessException exception) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM.", exception);
+        }
+    }
+
+    /**
+     * <p>Returns a fixed pool of one daemon thread per processor.
+     */
+    public static ExecutorService newDefaultExecutor() {
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "dukpt-service-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * <p>Returns each completed request's admission permit.
+     */
+    private final DukptFuture.Callback<Object> _releasePermit = new DukptFuture.Callback<Object>() {
+        @Override
+        public void onSuccess(final Object result) {
+            _permits.release();
+        }
+
+        @Override
+        public void onFailure(final Throwable throwable) {
+            _permits.release();
+        }
+    };
+
+    private final DukptEngine _engine;
+    private final BaseDerivationKey _baseDerivationKey;
+    private final boolean _shouldConvertToDataKey;
+    private final Executor _executor;
+    private final boolean _isExecutorOwned;
+    private final int _maxPendingRequests;
+    private final Semaphore _permits;
+
+    protected DukptService(final byte[] baseDerivationKey, final DukptVariant dukptVariant, final boolean shouldConvertToDataKey, final Executor executor, final boolean isExecutorOwned, final int maxPendingRequests) {
+        if (maxPendingRequests < 1) {
+            throw new IllegalArgumentException("Invalid max pending requests provided: " + maxPendingRequests);
+        }
+
+        _engine = dukptVariant.getEngine();
+        _baseDerivationKey = new BaseDerivationKey(baseDerivationKey, dukptVariant);
+        _shouldConvertToDataKey = shouldConvertToDataKey;
+        _executor = executor;
+        _isExecutorOwned = isExecutorOwned;
+        _maxPendingRequests = maxPendingRequests;
+        _permits = new Semaphore(maxPendingRequests);
+    }
+
+    /**
+     * <p>Creates a service deriving keys from <code>baseDerivationKey</code> with the data variant, converted to data
+     * keys, as is typical for P2PE card data, on the default executor.
+     */
+    public DukptService(final byte[] baseDerivationKey) {
+        this(baseDerivationKey, new DukptVariant(Dukpt.KEY_REGISTER_BITMASK, Dukpt.DATA_VARIANT_BITMASK), true, newDefaultExecutor(), true, DEFAULT_MAX_PENDING_REQUESTS);
+    }
+
+    /**
+     * <p>Creates a service deriving keys from <code>baseDerivationKey</code> with <code>dukptVariant</code>.
+     *
+     * @param shouldConvertToDataKey When true, each derived key is passed through {@link Dukpt#toDataKey(byte[])}.
+     * @param executor The executor requests are run on; it is not shut down by {@link #clear()}.
+     * @param maxPendingRequests The maximum number of requests queued or running at once.
+     */
+    public DukptService(final byte[] baseDerivationKey, final DukptVariant dukptVariant, final boolean shouldConvertToDataKey, final Executor executor, final int maxPendingRequests) {
+        this(baseDerivationKey, dukptVariant, shouldConvertToDataKey, executor, false, maxPendingRequests);
+    }
+
+    private <T> DukptFuture<T> _submit(final Callable<T> callable) {
+        if (! _permits.tryAcquire()) {
+            return DukptFuture.failed(new RejectedExecutionException("Too many pending requests: " + _maxPendingRequests));
+        }
+
+        final DukptFuture<T> future = new DukptFuture<T>(callable);
+        future.addCallback(_releasePermit);
+        try {
+            _executor.execute(future);
+        }
+        catch (final RejectedExecutionException exception) {
+            future.fail(exception);
+        }
+        return future;
+    }
+
+    /**
+     * <p>Returns the key for <code>keySerialNumber</code>; the caller should obliviate it once it has been used.
+     */
+    private byte[] _computeKey(final byte[] keySerialNumber) throws Exception {
+        if (_shouldConvertToDataKey) {
+            return _engine.computeDataKey(_baseDerivationKey, keySerialNumber);
+        }
+        return _engine.computeKey(_baseDerivationKey, keySerialNumber);
+    }
+
+    /**
+     * <p>Derives the key for <code>keySerialNumber</code> (converted to a data key if so configured).  The caller
+     * should obliviate the key once it has been used.
+     */
+    public DukptFuture<byte[]> computeKey(final byte[] keySerialNumber) {
+        final byte[] ksn = keySerialNumber.clone();
+        return _submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                return _computeKey(ksn);
+            }
+        });
+    }
+
+    /**
+     * <p>Derives the key for <code>keySerialNumber</code> and decrypts <code>ciphertext</code> with it.  The
+     * ciphertext must not be modified until the request completes.
+     */
+    public DukptFuture<byte[]> decrypt(final byte[] keySerialNumber, final byte[] ciphertext) {
+        final byte[] ksn = keySerialNumber.clone();
+        return _submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                final byte[] key = _computeKey(ksn);
+                try {
+                    return Dukpt.decryptTripleDes(key, ciphertext);
+                }
+                finally {
+                    // secure memory
+                    Dukpt.obliviate(key);
+                }
+            }
+        });
+    }
+
+    /**
+     * <p>Derives the key for <code>keySerialNumber</code> and encrypts <code>plaintext</code> with it.  The
+     * plaintext must not be modified until the request completes.
+     */
+    public DukptFuture<byte[]> encrypt(final byte[] keySerialNumber, final byte[] plaintext) {
+        final byte[] ksn = keySerialNumber.clone();
+        return _submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                final byte[] key = _computeKey(ksn);
+                try {
+                    return Dukpt.encryptTripleDes(key, plaintext);
+                }
+                finally {
+                    // secure memory
+                    Dukpt.obliviate(key);
+                }
+            }
+        });
+    }
+
+    public int getMaxPendingRequests() {
+        return _maxPendingRequests;
+    }
+
+    /**
+     * <p>Returns the number of requests currently queued or running.
+     */
+    public int getPendingRequestCount() {
+        return (_maxPendingRequests - _permits.availablePermits());
+    }
+
+    /**
+     * <p>Zeroes this service's copy of the BDK and, if the service created its own executor, shuts it down.  Pending
+     * requests, including any computing their IPEK at that moment, fail; the service cannot be used afterwards.
+     */
+    public void clear() {
+        _baseDerivationKey.clear();
+        if (_isExecutorOwned) {
+            ((ExecutorService) _executor).shutdown();
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package com.softwareverde.security.dukpt;
 
+import java.util.Collection;
+import java.util.List;
+
 /**
  * <p>Provides a more object-oriented method for derived DUKPT keys, mimicking the public interface of {@link Dukpt} and
  * allowing the internal masks to be specific within the object.
@@ -11,8 +14,7 @@ package com.softwareverde.security.dukpt;
  * @see Dukpt
  */
 public class DukptVariant {
-    private BitSet _keyRegisterBitmask;
-    private BitSet _dataVariantBitmask;
+    private final DukptEngine _engine;
 
     /**
      * <p>Creates a standard DUKPT variant object with the PIN variant bitmask.
@@ -29,7 +31,7 @@ public class DukptVariant {
      * @param dataVariantBitmaskHex
      */
     public DukptVariant(final String keyRegisterBitmaskHex, final String dataVariantBitmaskHex) {
-        this(Dukpt.toByteArray(keyRegisterBitmaskHex), Dukpt.toByteArray(dataVariantBitmaskHex));
+        this(HexCodec.decode(keyRegisterBitmaskHex), HexCodec.decode(dataVariantBitmaskHex));
     }
 
     /**
@@ -40,7 +42,7 @@ public class DukptVariant {
      * @param dataVariantBitmask
      */
     public DukptVariant(final byte[] keyRegisterBitmask, final byte[] dataVariantBitmask) {
-        this(Dukpt.toBitSet(keyRegisterBitmask), Dukpt.toBitSet(dataVariantBitmask));
+        this._engine = new DukptEngine(keyRegisterBitmask, dataVariantBitmask);
     }
 
     /**
@@ -51,8 +53,19 @@ public class DukptVariant {
      * @param dataVariantBitmask
      */
     public DukptVariant(final BitSet keyRegisterBitmask, final BitSet dataVariantBitmask) {
-        this._keyRegisterBitmask = keyRegisterBitmask;
-        this._dataVariantBitmask = dataVariantBitmask;
+        this._engine = new DukptEngine(keyRegisterBitmask, dataVariantBitmask);
+    }
+
+    DukptEngine getEngine() {
+        return _engine;
+    }
+
+    /**
+     * <p>Returns the name this variant is reported under to {@link DukptMetrics}: "PIN", "DATA" or "MAC" for the
+     * standard variant bitmasks, otherwise the variant bitmask in hex.
+     */
+    public String getVariantName() {
+        return _engine.getVariantName();
     }
 
     /**
@@ -65,7 +78,34 @@ public class DukptVariant {
      * @throws Exception
      */
     public byte[] computeKey(byte[] baseDerivationKey, byte[] keySerialNumber) throws Exception {
-        return Dukpt.computeKey(baseDerivationKey, keySerialNumber, _keyRegisterBitmask, _dataVariantBitmask);
+        return Dukpt.computeKey(baseDerivationKey, keySerialNumber, _engine);
+    }
+
+    /**
+     * <p>Computes a DUKPT (Derived Unique Key-Per-Transaction), loading the IPEK through the provided cache.
+     *
+     * @see Dukpt#computeKey(byte[], byte[], IpekCache)
+     * @param baseDerivationKey
+     * @param keySerialNumber
+     * @param ipekCache
+     * @return
+     * @throws Exception
+     */
+    public byte[] computeKey(byte[] baseDerivationKey, byte[] keySerialNumber, IpekCache ipekCache) throws Exception {
+        return _engine.computeKey(baseDerivationKey, keySerialNumber, ipekCache);
+    }
+
+    /**
+     * <p>Computes a DUKPT (Derived Unique Key-Per-Transaction) from a prepared Base Derivation Key.
+     *
+     * @see Dukpt#computeKey(BaseDerivationKey, byte[])
+     * @param baseDerivationKey
+     * @param keySerialNumber
+     * @return
+     * @throws Exception
+     */
+    public byte[] computeKey(BaseDerivationKey baseDerivationKey, byte[] keySerialNumber) throws Exception {
+        return _engine.computeKey(baseDerivationKey, keySerialNumber);
     }
 
     /**
@@ -78,7 +118,91 @@ public class DukptVariant {
      * @throws Exception
      */
     public byte[] computeKeyFromIpek(byte[] initialPinEncryptionKey, byte[] keySerialNumber) throws Exception {
-        return Dukpt.computeKeyFromIpek(initialPinEncryptionKey, keySerialNumber, _keyRegisterBitmask, _dataVariantBitmask);
+        return Dukpt.computeKeyFromIpek(initialPinEncryptionKey, keySerialNumber, _engine);
+    }
+
+    /**
+     * <p>Computes a DUKPT (Derived Unique Key-Per-Transaction) for each of the provided Key Serial Numbers.
+     *
+     * @see Dukpt#computeKeys(byte[], Collection)
+     * @param baseDerivationKey
+     * @param keySerialNumbers
+     * @return
+     * @throws Exception
+     */
+    public List<byte[]> computeKeys(byte[] baseDerivationKey, Collection<byte[]> keySerialNumbers) throws Exception {
+        return _engine.computeKeys(baseDerivationKey, keySerialNumbers);
+    }
+
+    /**
+     * <p>Creates a receiver-side context for the device that sent the provided Key Serial Number.
+     *
+     * @see Dukpt#createDeviceContext(byte[], byte[])
+     * @param baseDerivationKey
+     * @param keySerialNumber
+     * @return
+     * @throws Exception
+     */
+    public DukptDeviceContext createDeviceContext(byte[] baseDerivationKey, byte[] keySerialNumber) throws Exception {
+        return _engine.createDeviceContext(baseDerivationKey, keySerialNumber);
+    }
+
+    /**
+     * <p>Creates a receiver-side context for the device that sent the provided Key Serial Number, from a prepared Base
+     * Derivation Key.
+     *
+     * @see Dukpt#createDeviceContext(BaseDerivationKey, byte[])
+     * @param baseDerivationKey
+     * @param keySerialNumber
+     * @return
+     * @throws Exception
+     */
+    public DukptDeviceContext createDeviceContext(BaseDerivationKey baseDerivationKey, byte[] keySerialNumber) throws Exception {
+        return _engine.createDeviceContext(baseDerivationKey, keySerialNumber);
+    }
+
+    /**
+     * <p>Creates a receiver-side context for the device with the provided Initial PIN Encryption Key.
+     *
+     * @see Dukpt#createDeviceContextFromIpek(byte[], byte[])
+     * @param initialPinEncryptionKey
+     * @param keySerialNumber
+     * @return
+     * @throws Exception
+     */
+    public DukptDeviceContext createDeviceContextFromIpek(byte[] initialPinEncryptionKey, byte[] keySerialNumber) throws Exception {
+        return _engine.createDeviceContextFromIpek(initialPinEncryptionKey, keySerialNumber);
+    }
+
+    /**
+     * <p>Enumerates the keys of the device that sent the provided Key Serial Number for a range of counters.
+     *
+     * @see Dukpt#enumerateKeys(byte[], byte[], int, int)
+     * @param baseDerivationKey
+     * @param keySerialNumber
+     * @param firstCounter
+     * @param lastCounter
+     * @return
+     * @throws Exception
+     */
+    public DukptKeyEnumerator enumerateKeys(byte[] baseDerivationKey, byte[] keySerialNumber, int firstCounter, int lastCounter) throws Exception {
+        return _engine.enumerateKeys(baseDerivationKey, keySerialNumber, firstCounter, lastCounter);
+    }
+
+    /**
+     * <p>Enumerates the keys of the device that sent the provided Key Serial Number for a range of counters, from a
+     * prepared Base Derivation Key.
+     *
+     * @see Dukpt#enumerateKeys(BaseDerivationKey, byte[], int, int)
+     * @param baseDerivationKey
+     * @param keySerialNumber
+     * @param firstCounter
+     * @param lastCounter
+     * @return
+     * @throws Exception
+     */
+    public DukptKeyEnumerator enumerateKeys(BaseDerivationKey baseDerivationKey, byte[] keySerialNumber, int firstCounter, int lastCounter) throws Exception {
+        return _engine.enumerateKeys(baseDerivationKey, keySerialNumber, firstCounter, lastCounter);
     }
 
     /**
@@ -92,7 +216,20 @@ public class DukptVariant {
      * @throws Exception
      */
     public BitSet getIpek(BitSet key, BitSet ksn) throws Exception {
-        return Dukpt.getIpek(key, ksn, _keyRegisterBitmask);
+        return Dukpt.getIpek(key, ksn, _engine);
+    }
+
+    /**
+     * <p>Computes the Initial PIN Encryption Key from a prepared Base Derivation Key.
+     *
+     * @see Dukpt#getIpek(BaseDerivationKey, byte[])
+     * @param baseDerivationKey
+     * @param keySerialNumber
+     * @return
+     * @throws Exception
+     */
+    public byte[] getIpek(BaseDerivationKey baseDerivationKey, byte[] keySerialNumber) throws Exception {
+        return _engine.getIpek(baseDerivationKey, keySerialNumber);
     }
 
     /**
@@ -106,4 +243,96 @@ public class DukptVariant {
     public byte[] toDataKey(byte[] derivedKey) throws Exception {
         return Dukpt.toDataKey(derivedKey);
     }
+
+    /**
+     * <p>Computes the DUKPT (Derived Unique Key-Per-Transaction) with this variant, converted into a "data key".</p>
+     *
+     * @see Dukpt#computeDataKey(byte[], byte[])
+     * @param baseDerivationKey
+     * @param keySerialNumber
+     * @return
+     * @throws Exception
+     */
+    public byte[] computeDataKey(byte[] baseDerivationKey, byte[] keySerialNumber) throws Exception {
+        return _engine.computeDataKey(baseDerivationKey, keySerialNumber);
+    }
+
+    /**
+     * <p>Computes the DUKPT (Derived Unique Key-Per-Transaction) with this variant from a prepared Base Derivation
+     * Key, converted into a "data key".</p>
+     *
+     * @see Dukpt#computeDataKey(BaseDerivationKey, byte[])
+     * @param baseDerivationKey
+     * @param keySerialNumber
+     * @return
+     * @throws Exception
+     */
+    public byte[] computeDataKey(BaseDerivationKey baseDerivationKey, byte[] keySerialNumber) throws Exception {
+        return _engine.computeDataKey(baseDerivationKey, keySerialNumber);
+    }
+
+    /**
+     * <p>Computes the DUKPT (Derived Unique Key-Per-Transaction) with this variant from the Initial PIN Encryption
+     * Key, converted into a "data key".</p>
+     *
+     * @see Dukpt#computeDataKeyFromIpek(byte[], byte[])
+     * @param initialPinEncryptionKey
+     * @param keySerialNumber
+     * @return
+     * @throws Exception
+     */
+    public byte[] computeDataKeyFromIpek(byte[] initialPinEncryptionKey, byte[] keySerialNumber) throws Exception {
+        return _engine.computeDataKeyFromIpek(initialPinEncryptionKey, keySerialNumber);
+    }
+
+    /**
+     * <p>Computes a DUKPT (Derived Unique Key-Per-Transaction) from a Base Derivation Key held off-heap.
+     *
+     * @see Dukpt#computeKey(DukptKey, byte[])
+     * @param baseDerivationKey
+     * @param keySerialNumber
+     * @return
+     * @throws Exception
+     */
+    public DukptKey computeKey(DukptKey baseDerivationKey, byte[] keySerialNumber) throws Exception {
+        return _engine.computeKey(baseDerivationKey, keySerialNumber);
+    }
+
+    /**
+     * <p>Computes a DUKPT (Derived Unique Key-Per-Transaction) from an Initial PIN Encryption Key held off-heap.
+     *
+     * @see Dukpt#computeKeyFromIpek(DukptKey, byte[])
+     * @param initialPinEncryptionKey
+     * @param keySerialNumber
+     * @return
+     * @throws Exception
+     */
+    public DukptKey computeKeyFromIpek(DukptKey initialPinEncryptionKey, byte[] keySerialNumber) throws Exception {
+        return _engine.computeKeyFromIpek(initialPinEncryptionKey, keySerialNumber);
+    }
+
+    /**
+     * <p>Computes the Initial PIN Encryption Key from a Base Derivation Key held off-heap.
+     *
+     * @see Dukpt#getIpek(DukptKey, byte[])
+     * @param baseDerivationKey
+     * @param keySerialNumber
+     * @return
+     * @throws Exception
+     */
+    public DukptKey getIpek(DukptKey baseDerivationKey, byte[] keySerialNumber) throws Exception {
+        return _engine.getIpek(baseDerivationKey, keySerialNumber);
+    }
+
+    /**
+     * <p>Converts the provided derived key, held off-heap, into a "data key".</p>
+     *
+     * @see Dukpt#toDataKey(DukptKey)
+     * @param derivedKey
+     * @return
+     * @throws Exception
+     */
+    public DukptKey toDataKey(DukptKey derivedKey) throws Exception {
+        return Dukpt.toDataKey(derivedKey);
+    }
 }
@@ -0,0 +1,33 @@
+package com.softwareverde.security.dukpt;
+
+/**
+ * <p>A Key Serial Number, the PIN block its device encrypted under the corresponding DUKPT key, and the primary
+ * account number the PIN was entered for.
+ */
+public class EncryptedPinBlock {
+    private final byte[] _keySerialNumber;
+    private final byte[] _pinBlock;
+    private final String _primaryAccountNumber;
+
+    /**
+     * @param primaryAccountNumber The PAN digits; may be null if neither the PIN block nor the target format is bound
+     *                             to the PAN.
+     */
+    public EncryptedPinBlock(final byte[] keySerialNumber, final byte[] pinBlock, final String primaryAccountNumber) {
+        _keySerialNumber = keySerialNumber;
+        _pinBlock = pinBlock;
+        _primaryAccountNumber = primaryAccountNumber;
+    }
+
+    public byte[] getKeySerialNumber() {
+        return _keySerialNumber;
+    }
+
+    public byte[] getPinBlock() {
+        return _pinBlock;
+    }
+
+    public String getPrimaryAccountNumber() {
+        return _primaryAccountNumber;
+    }
+}
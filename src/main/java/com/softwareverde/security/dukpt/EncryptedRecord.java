@@ -0,0 +1,22 @@
+package com.softwareverde.security.dukpt;
+
+/**
+ * <p>A Key Serial Number and the data its device encrypted under the corresponding DUKPT key.
+ */
+public class EncryptedRecord {
+    private final byte[] _keySerialNumber;
+    private final byte[] _ciphertext;
+
+    public EncryptedRecord(final byte[] keySerialNumber, final byte[] ciphertext) {
+        _keySerialNumber = keySerialNumber;
+        _ciphertext = ciphertext;
+    }
+
+    public byte[] getKeySerialNumber() {
+        return _keySerialNumber;
+    }
+
+    public byte[] getCiphertext() {
+        return _ciphertext;
+    }
+}
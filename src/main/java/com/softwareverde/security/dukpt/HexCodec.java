@@ -0,0 +1,212 @@
+package com.softwareverde.security.dukpt;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>Table-driven conversion between bytes and (big-endian) hexadecimal text.
+ *
+ * <p>Encoding produces upper-case digits.  Decoding accepts upper- and lower-case digits and nothing else: no
+ * leading qualifiers such as "0x", no whitespace, and an even number of digits; anything else fails with an
+ * <code>IllegalArgumentException</code> naming the offending character and its index.
+ *
+ * <p>The overloads read from and write to <code>CharSequence</code>s, <code>char[]</code>s,
+ * <code>StringBuilder</code>s and <code>ByteBuffer</code>s directly, so KSNs and payloads can be logged and parsed
+ * without intermediate Strings.
+ *
+ * @see Dukpt#toHex(byte[])
+ * @see Dukpt#toByteArray(String)
+ */
+public final class HexCodec {
+    /**
+     * <p>The two upper-case digits of each byte value, at <code>2 * (value & 0xFF)</code>.
+     */
+    private static final char[] DIGITS = new char[2 * 256];
+
+    /**
+     * <p>The value of each ASCII character as a hex digit, or -1.
+     */
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        final char[] digits = "0123456789ABCDEF".toCharArray();
+        for (int i = 0; i < 256; i++) {
+            DIGITS[2 * i] = digits[i >>> 4];
+            DIGITS[(2 * i) + 1] = digits[i & 0x0F];
+        }
+
+        Arrays.fill(VALUES, (byte) -1);
+        for (int i = 0; i < 16; i++) {
+            VALUES[digits[i]] = (byte) i;
+            VALUES[Character.toLowerCase(digits[i])] = (byte) i;
+        }
+    }
+
+    private HexCodec() { }
+
+    private static void _checkRange(final String name, final int arrayLength, final int offset, final int length) {
+        if ( (offset < 0) || (length < 0) || (offset > arrayLength - length) ) {
+            throw new IndexOutOfBoundsException("Invalid " + name + " range provided: offset " + offset + ", length " + length + ", capacity " + arrayLength);
+        }
+    }
+
+    private static void _checkDigitCount(final int digitCount) {
+        if ((digitCount & 1) != 0) {
+            throw new IllegalArgumentException("Invalid hex string provided: odd length " + digitCount);
+        }
+    }
+
+    private static int _valueOf(final char character, final int index) {
+        final int value = (character < 128 ? VALUES[character] : -1);
+        if (value < 0) {
+            throw new IllegalArgumentException("Invalid hex character provided: '" + character + "' at index " + index);
+        }
+        return value;
+    }
+
+    /**
+     * <p>Returns the upper-case hex representation of <code>bytes</code>.
+     */
+    public static String encode(final byte[] bytes) {
+        return encode(bytes, 0, bytes.length);
+    }
+
+    /**
+     * <p>Returns the upper-case hex representation of <code>length</code> bytes of <code>bytes</code>, starting at
+     * <code>offset</code>.
+     */
+    public static String encode(final byte[] bytes, final int offset, final int length) {
+        final char[] characters = new char[2 * length];
+        encode(bytes, offset, length, characters, 0);
+        return new String(characters);
+    }
+
+    /**
+     * <p>Returns the upper-case hex representation of the remaining bytes of <code>byteBuffer</code>, without changing
+     * its position.
+     */
+    public static String encode(final ByteBuffer byteBuffer) {
+        final int position = byteBuffer.position();
+        final int length = byteBuffer.remaining();
+        final char[] characters = new char[2 * length];
+        for (int i = 0; i < length; i++) {
+            final int index = (2 * (byteBuffer.get(position + i) & 0xFF));
+            characters[2 * i] = DIGITS[index];
+            characters[(2 * i) + 1] = DIGITS[index + 1];
+        }
+        return new String(characters);
+    }
+
+    /**
+     * <p>Writes the <code>2 * length</code> upper-case hex digits of <code>length</code> bytes of <code>bytes</code>,
+     * starting at <code>offset</code>, into <code>destination</code> at <code>destinationOffset</code>.
+     */
+    public static void encode(final byte[] bytes, final int offset, final int length, final char[] destination, final int destinationOffset) {
+        _checkRange("source", bytes.length, offset, length);
+        _checkRange("destination", destination.length, destinationOffset, (2 * length));
+
+        for (int i = 0; i < length; i++) {
+            final int index = (2 * (bytes[offset + i] & 0xFF));
+            destination[destinationOffset + (2 * i)] = DIGITS[index];
+            destination[destinationOffset + (2 * i) + 1] = DIGITS[index + 1];
+        }
+    }
+
+    /**
+     * <p>Appends the upper-case hex representation of <code>bytes</code> to <code>stringBuilder</code>.
+     *
+     * @return <code>stringBuilder</code>
+     */
+    public static StringBuilder append(final StringBuilder stringBuilder, final byte[] bytes) {
+        stringBuilder.ensureCapacity(stringBuilder.length() + (2 * bytes.length));
+        for (final byte value : bytes) {
+            final int index = (2 * (value & 0xFF));
+            stringBuilder.append(DIGITS[index]);
+            stringBuilder.append(DIGITS[index + 1]);
+        }
+        return stringBuilder;
+    }
+
+    /**
+     * <p>Decodes <code>hex</code>, which must consist of an even number of hex digits.
+     */
+    public static byte[] decode(final CharSequence hex) {
+        if (hex == null) {
+            throw new IllegalArgumentException("Invalid hex string provided: null");
+        }
+        return decode(hex, 0, hex.length());
+    }
+
+    /**
+     * <p>Decodes the characters of <code>hex</code> from <code>start</code> (inclusive) to <code>end</code>
+     * (exclusive).
+     */
+    public static byte[] decode(final CharSequence hex, final int start, final int end) {
+        _checkRange("source", hex.length(), start, (end - start));
+        _checkDigitCount(end - start);
+
+        final byte[] bytes = new byte[(end - start) / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            final int index = (start + (2 * i));
+            bytes[i] = (byte) ((_valueOf(hex.charAt(index), index) << 4) | _valueOf(hex.charAt(index + 1), (index + 1)));
+        }
+        return bytes;
+    }
+
+    /**
+     * <p>Decodes <code>length</code> characters of <code>hex</code>, starting at <code>offset</code>.
+     */
+    public static byte[] decode(final char[] hex, final int offset, final int length) {
+        _checkRange("source", hex.length, offset, length);
+        _checkDigitCount(length);
+
+        final byte[] bytes = new byte[length / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            final int index = (offset + (2 * i));
+            bytes[i] = (byte) ((_valueOf(hex[index], index) << 4) | _valueOf(hex[index + 1], (index + 1)));
+        }
+        return bytes;
+    }
+
+    /**
+     * <p>Decodes <code>hex</code> into <code>destination</code> at <code>destinationOffset</code>.  Nothing is written
+     * if <code>hex</code> is invalid.
+     *
+     * @return The number of bytes written.
+     */
+    public static int decode(final CharSequence hex, final byte[] destination, final int destinationOffset) {
+        final int digitCount = hex.length();
+        _checkDigitCount(digitCount);
+        _checkRange("destination", destination.length, destinationOffset, (digitCount / 2));
+
+        for (int i = 0; i < digitCount; i++) {
+            _valueOf(hex.charAt(i), i);
+        }
+        for (int i = 0; i < digitCount; i += 2) {
+            destination[destinationOffset + (i / 2)] = (byte) ((VALUES[hex.charAt(i)] << 4) | VALUES[hex.charAt(i + 1)]);
+        }
+        return (digitCount / 2);
+    }
+
+    /**
+     * <p>Decodes <code>hex</code> into <code>byteBuffer</code> at its position, advancing it.  Nothing is written if
+     * <code>hex</code> is invalid or does not fit.
+     *
+     * @return The number of bytes written.
+     */
+    public static int decode(final CharSequence hex, final ByteBuffer byteBuffer) {
+        final int digitCount = hex.length();
+        _checkDigitCount(digitCount);
+        if (byteBuffer.remaining() < (digitCount / 2)) {
+            throw new IllegalArgumentException("Invalid byte buffer provided: " + byteBuffer.remaining() + " bytes remaining, " + (digitCount / 2) + " bytes needed");
+        }
+
+        for (int i = 0; i < digitCount; i++) {
+            _valueOf(hex.charAt(i), i);
+        }
+        for (int i = 0; i < digitCount; i += 2) {
+            byteBuffer.put((byte) ((VALUES[hex.charAt(i)] << 4) | VALUES[hex.charAt(i + 1)]));
+        }
+        return (digitCount / 2);
+    }
+}
@@ -0,0 +1,332 @@
+package com.softwareverde.security.dukpt;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>An opt-in, bounded cache of Initial PIN Encryption Keys for use with
+ * {@link Dukpt#computeKey(byte[], byte[], IpekCache)} and {@link DukptVariant#computeKey(byte[], byte[], IpekCache)}.
+ *
+ * <p>The IPEK depends only on the Base Derivation Key, the key register bitmask and the Key Serial Number with its
+ * transaction counter (bits 59 through 79) cleared, so every transaction from the same device can share one entry.
+ * Entries are keyed on exactly those values; the BDK is compared by content, not by array identity.
+ *
+ * <p>Entries are evicted oldest-first once the cache holds more than <code>maximumSize</code> entries, and expire
+ * <code>timeToLive</code> after they were computed.  Evicted, expired and cleared IPEKs are zeroed.  Concurrent requests
+ * for an IPEK that is not yet cached are single-flight: one thread computes it while the others wait for its result.
+ *
+ * <p>Note that the cache retains a copy of each distinct BDK it has seen until {@link #clear()} is called.
+ *
+ * @see Dukpt#getIpek(BitSet, BitSet)
+ */
+public class IpekCache {
+    public static final int DEFAULT_MAXIMUM_SIZE = 10000;
+    public static final long DEFAULT_TIME_TO_LIVE_MINUTES = 60L;
+
+    private static class BdkIdentity {
+        public final byte[] baseDerivationKey;
+        public final long keyRegisterBitmaskLeft;
+        public final long keyRegisterBitmaskRight;
+        private final int _hashCode;
+
+        public BdkIdentity(final byte[] baseDerivationKey, final long keyRegisterBitmaskLeft, final long keyRegisterBitmaskRight) {
+            this.baseDerivationKey = baseDerivationKey;
+            this.keyRegisterBitmaskLeft = keyRegisterBitmaskLeft;
+            this.keyRegisterBitmaskRight = keyRegisterBitmaskRight;
+            _hashCode = (31 * Arrays.hashCode(baseDerivationKey)) + (int) (keyRegisterBitmaskLeft ^ keyRegisterBitmaskRight);
+        }
+
+        @Override
+        public boolean equals(final Object object) {
+            if (! (object instanceof BdkIdentity)) { return false; }
+            final BdkIdentity bdkIdentity = (BdkIdentity) object;
+            return (keyRegisterBitmaskLeft == bdkIdentity.keyRegisterBitmaskLeft)
+                && (keyRegisterBitmaskRight == bdkIdentity.keyRegisterBitmaskRight)
+                && Arrays.equals(baseDerivationKey, bdkIdentity.baseDerivationKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hashCode;
+        }
+    }
+
+    private static class EntryKey {
+        public final BdkIdentity bdkIdentity;
+        public final long initialKeySerialNumber;
+
+        public EntryKey(final BdkIdentity bdkIdentity, final long initialKeySerialNumber) {
+            this.bdkIdentity = bdkIdentity;
+            this.initialKeySerialNumber = initialKeySerialNumber;
+        }
+
+        @Override
+        public boolean equals(final Object object) {
+            if (! (object instanceof EntryKey)) { return false; }
+            final EntryKey entryKey = (EntryKey) object;
+            return (initialKeySerialNumber == entryKey.initialKeySerialNumber) && (bdkIdentity == entryKey.bdkIdentity);
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * bdkIdentity.hashCode()) + (int) (initialKeySerialNumber ^ (initialKeySerialNumber >>> 32));
+        }
+    }
+
+    private static class Entry {
+        private static final int PENDING = 0;
+        private static final int READY = 1;
+        private static final int FAILED = 2;
+        private static final int WIPED = 3;
+
+        public final EntryKey key;
+        public final long expiresAt;
+        private final long[] _ipek = new long[2];
+        private int _state = PENDING;
+        private RuntimeException _failure;
+
+        public Entry(final EntryKey key, final long expiresAt) {
+            this.key = key;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * <p>Called only by the thread that inserted the entry.  The IPEK is computed outside the lock and published
+         * only if the entry has not been wiped in the meantime, so an evicted or cleared entry never holds key material.
+         */
+        public void compute(final DukptEngine engine, final byte[] baseDerivationKey) {
+            final long[] ipek = new long[2];
+            try {
+                engine.computeIpek(baseDerivationKey, this.key.initialKeySerialNumber, ipek);
+                synchronized (this) {
+                    if (_state == PENDING) {
+                        _ipek[0] = ipek[0];
+                        _ipek[1] = ipek[1];
+                        _state = READY;
+                    }
+                    this.notifyAll();
+                }
+            }
+            catch (final RuntimeException exception) {
+                synchronized (this) {
+                    if (_state == PENDING) {
+                        _failure = exception;
+                        _state = FAILED;
+                    }
+                    this.notifyAll();
+                }
+                throw exception;
+            }
+            finally {
+                // secure memory
+                DukptEngine.wipe(ipek);
+            }
+        }
+
+        /**
+         * <p>Waits for the IPEK and copies it into <code>register</code>.  Returns false if the entry was wiped before
+         * it could be read, in which case the caller should look it up again.
+         */
+        public synchronized boolean copyTo(final long[] register) {
+            boolean wasInterrupted = false;
+            while (_state == PENDING) {
+                try {
+                    this.wait();
+                }
+                catch (final InterruptedException exception) {
+                    wasInterrupted = true;
+                }
+            }
+            if (wasInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (_state == FAILED) { throw _failure; }
+            if (_state == WIPED) { return false; }
+
+            register[0] = _ipek[0];
+            register[1] = _ipek[1];
+            return true;
+        }
+
+        public synchronized void wipe() {
+            DukptEngine.wipe(_ipek);
+            if (_state != FAILED) {
+                _state = WIPED;
+            }
+            this.notifyAll();
+        }
+    }
+
+    private final int _maximumSize;
+    private final long _timeToLiveNanoseconds;
+
+    private final ConcurrentHashMap<BdkIdentity, BdkIdentity> _bdkIdentities = new ConcurrentHashMap<BdkIdentity, BdkIdentity>();
+    private final ConcurrentHashMap<EntryKey, Entry> _entries = new ConcurrentHashMap<EntryKey, Entry>();
+    private final ConcurrentLinkedQueue<Entry> _insertionOrder = new ConcurrentLinkedQueue<Entry>();
+    private final AtomicInteger _size = new AtomicInteger(0);
+    private final ReentrantLock _evictionLock = new ReentrantLock();
+
+    /**
+     * <p>Creates a cache holding at most {@link #DEFAULT_MAXIMUM_SIZE} IPEKs for at most
+     * {@link #DEFAULT_TIME_TO_LIVE_MINUTES} minutes each.
+     */
+    public IpekCache() {
+        this(DEFAULT_MAXIMUM_SIZE, DEFAULT_TIME_TO_LIVE_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * <p>Creates a cache holding at most <code>maximumSize</code> IPEKs, each for at most <code>timeToLive</code>.
+     *
+     * @param maximumSize The maximum number of cached IPEKs; must be positive.
+     * @param timeToLive How long an IPEK may be served from the cache after it was computed; must be positive.
+     * @param timeUnit The unit of <code>timeToLive</code>.
+     */
+    public IpekCache(final int maximumSize, final long timeToLive, final TimeUnit timeUnit) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Invalid maximum size provided: " + maximumSize);
+        }
+        if (timeToLive < 1) {
+            throw new IllegalArgumentException("Invalid time to live provided: " + timeToLive);
+        }
+
+        _maximumSize = maximumSize;
+        _timeToLiveNanoseconds = timeUnit.toNanos(timeToLive);
+    }
+
+    /**
+     * <p>Returns the number of IPEKs currently cached (including any still being computed).
+     */
+    public int getSize() {
+        return _size.get();
+    }
+
+    /**
+     * <p>Removes and zeroes every cached IPEK and every retained BDK.
+     *
+     * <p>The BDKs are retired before the entries are swept: a request that inserts an entry under a BDK retired by a
+     * concurrent <code>clear()</code> either inserted it before the sweep began, or notices the retirement itself and
+     * removes the entry, so no IPEK outlives the call.
+     */
+    public void clear() {
+        for (final BdkIdentity bdkIdentity : _bdkIdentities.keySet()) {
+            if (_bdkIdentities.remove(bdkIdentity) != null) {
+                Dukpt.obliviate(bdkIdentity.baseDerivationKey);
+            }
+        }
+
+        for (final Entry entry : _entries.values()) {
+            _remove(entry);
+        }
+
+        // entries inserted since the sweep keep their place in the eviction order
+        final Iterator<Entry> iterator = _insertionOrder.iterator();
+        while (iterator.hasNext()) {
+            final Entry entry = iterator.next();
+            if (_entries.get(entry.key) != entry) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * <p>Loads the IPEK for <code>baseDerivationKey</code> and the left-most 64 bits of the Key Serial Number into
+     * <code>register</code>, computing it with <code>engine</code> if it is not cached.
+     */
+    void loadIpek(final DukptEngine engine, final byte[] baseDerivationKey, final long keySerialNumberLeft, final long[] register) {
+        final long initialKeySerialNumber = (keySerialNumberLeft & ~DukptEngine.INITIAL_KSN_BITMASK);
+        EntryKey key = new EntryKey(_getBdkIdentity(engine, baseDerivationKey), initialKeySerialNumber);
+
+        while (true) {
+            final long now = System.nanoTime();
+
+            Entry entry = _entries.get(key);
+            if (entry == null) {
+                final Entry newEntry = new Entry(key, now + _timeToLiveNanoseconds);
+                entry = _entries.putIfAbsent(key, newEntry);
+                if (entry == null) {
+                    _size.incrementAndGet();
+                    _insertionOrder.add(newEntry);
+
+                    if (_bdkIdentities.get(key.bdkIdentity) != key.bdkIdentity) {
+                        // a concurrent clear() retired the BDK and may have swept the entries before this one was inserted
+                        _remove(newEntry);
+                        key = new EntryKey(_getBdkIdentity(engine, baseDerivationKey), initialKeySerialNumber);
+                        continue;
+                    }
+
+                    try {
+                        newEntry.compute(engine, baseDerivationKey);
+                    }
+                    catch (final RuntimeException exception) {
+                        _remove(newEntry);
+                        throw exception;
+                    }
+
+                    _evict(now);
+                    entry = newEntry;
+                }
+            }
+            else if (now - entry.expiresAt > 0L) {
+                _remove(entry);
+                continue;
+            }
+
+            if (entry.copyTo(register)) {
+                return;
+            }
+        }
+    }
+
+    private BdkIdentity _getBdkIdentity(final DukptEngine engine, final byte[] baseDerivationKey) {
+        final BdkIdentity probe = new BdkIdentity(baseDerivationKey, engine.getKeyRegisterBitmaskLeft(), engine.getKeyRegisterBitmaskRight());
+        final BdkIdentity bdkIdentity = _bdkIdentities.get(probe);
+        if (bdkIdentity != null) {
+            return bdkIdentity;
+        }
+
+        final BdkIdentity newBdkIdentity = new BdkIdentity(baseDerivationKey.clone(), probe.keyRegisterBitmaskLeft, probe.keyRegisterBitmaskRight);
+        final BdkIdentity existingBdkIdentity = _bdkIdentities.putIfAbsent(newBdkIdentity, newBdkIdentity);
+        if (existingBdkIdentity != null) {
+            Dukpt.obliviate(newBdkIdentity.baseDerivationKey);
+            return existingBdkIdentity;
+        }
+        return newBdkIdentity;
+    }
+
+    /**
+     * <p>Drops entries from the head of the insertion queue while the cache is over capacity or the head has expired.
+     * Only one thread evicts at a time; others skip eviction rather than wait.
+     */
+    private void _evict(final long now) {
+        if (! _evictionLock.tryLock()) { return; }
+        try {
+            while (true) {
+                final Entry entry = _insertionOrder.peek();
+                if (entry == null) { break; }
+
+                final boolean isStale = (_entries.get(entry.key) != entry);
+                final boolean isExpired = (now - entry.expiresAt > 0L);
+                if ( (! isStale) && (! isExpired) && (_size.get() <= _maximumSize) ) { break; }
+
+                _insertionOrder.poll();
+                _remove(entry);
+            }
+        }
+        finally {
+            _evictionLock.unlock();
+        }
+    }
+
+    private void _remove(final Entry entry) {
+        if (_entries.remove(entry.key, entry)) {
+            _size.decrementAndGet();
+            entry.wipe();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.softwareverde.security.dukpt;
+
+/**
+ * <p>Supplies the Initial PIN Encryption Key of a device, for receivers that are given per-device IPEKs instead of the
+ * Base Derivation Key.
+ *
+ * @see Dukpt#computeKeyFromIpek(byte[], byte[])
+ */
+public interface IpekSource {
+    /**
+     * <p>Returns the IPEK of the device that sent <code>keySerialNumber</code>.  Only the device portion of the KSN
+     * (bits 0 through 58) is significant.  The returned array may be zeroed by the caller once it has been used.
+     *
+     * @throws Exception If the device is unknown or its IPEK cannot be loaded.
+     */
+    byte[] getIpek(byte[] keySerialNumber) throws Exception;
+}
@@ -0,0 +1,299 @@
+package com.softwareverde.security.dukpt;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Rejects Key Serial Numbers whose transaction counter has already been used by their device, before any key is
+ * derived for them.
+ *
+ * <p>Devices are identified by the left-most 59 bits of the KSN (everything above the transaction counter).  For each
+ * device the detector keeps the highest counter accepted and a bitmap of the {@link #WINDOW_SIZE} counter values
+ * below it, packed into a single long that is updated with compare-and-set; so transactions delivered slightly out of
+ * order are still accepted once, while counters older than the window are rejected as {@link Result#TOO_OLD}.
+ *
+ * <p>The devices are held in open-addressing tables of two longs per slot, split into segments: checking a known
+ * device takes no lock, and only adding a device (or growing its segment's table) locks that segment.  A million
+ * devices occupy roughly 32 MB.
+ */
+public class KsnReplayDetector {
+    /**
+     * <p>The number of counter values below a device's highest accepted counter that may still be accepted.
+     */
+    public static final int WINDOW_SIZE = 42;
+
+    public enum Result {
+        /**
+         * <p>The counter had not been used by the device; it is now recorded as used.
+         */
+        ACCEPTED,
+
+        /**
+         * <p>The counter has already been used by the device.
+         */
+        REPLAYED,
+
+        /**
+         * <p>The counter is more than {@link #WINDOW_SIZE} below the highest counter accepted from the device, so
+         * whether it was used is no longer known.
+         */
+        TOO_OLD
+    }
+
+    private static final int SEGMENT_COUNT = 64;
+    private static final int SEGMENT_SHIFT = 58; // the top 6 bits of the hash select the segment
+    private static final int MINIMUM_SEGMENT_CAPACITY = 16;
+
+    private static final long WINDOW_BITMASK = ((1L << WINDOW_SIZE) - 1L);
+
+    /**
+     * <p>The state of a slot whose table has been replaced; its device must be looked up again in the new table.
+     */
+    private static final long MOVED = Long.MIN_VALUE;
+
+    /**
+     * <p>Device keys have their low (counter) bits cleared; setting the lowest distinguishes every key from an empty
+     * slot.
+     */
+    private static final long KEY_FLAG = 1L;
+
+    private static long _getDeviceKey(final byte[] keySerialNumber) {
+        return ((Bytes.toLong(keySerialNumber, 0) & ~DukptEngine.INITIAL_KSN_BITMASK) | KEY_FLAG);
+    }
+
+    private static long _hash(final long deviceKey) {
+        final long hash = (deviceKey * 0x9E3779B97F4A7C15L);
+        return (hash ^ (hash >>> 32));
+    }
+
+    /**
+     * <p>Packs the highest accepted counter (bits 42 through 62) and the window (bits 0 through 41; bit <code>i</code>
+     * is set if counter <code>highestCounter - 1 - i</code> was accepted).
+     */
+    private static long _toState(final long highestCounter, final long window) {
+        return ((highestCounter << WINDOW_SIZE) | (window & WINDOW_BITMASK));
+    }
+
+    private static final class Table {
+        final AtomicLongArray keys;
+        final AtomicLongArray states;
+        final int mask;
+
+        Table(final int capacity) {
+            keys = new AtomicLongArray(capacity);
+            states = new AtomicLongArray(capacity);
+            mask = (capacity - 1);
+        }
+    }
+
+    private static final class Segment {
+        volatile Table table;
+        int deviceCount; // guarded by this
+
+        Segment(final int capacity) {
+            table = new Table(capacity);
+        }
+    }
+
+    private final Segment[] _segments = new Segment[SEGMENT_COUNT];
+
+    /**
+     * @param expectedDeviceCount The number of devices to size the tables for; they grow as needed.
+     */
+    public KsnReplayDetector(final int expectedDeviceCount) {
+        if (expectedDeviceCount < 0) {
+            throw new IllegalArgumentException("Invalid expected device count provided: " + expectedDeviceCount);
+        }
+
+        final int segmentDeviceCount = (int) Math.min((1L << 29), ((expectedDeviceCount / SEGMENT_COUNT) * 4L / 3L) + 1L);
+        final int capacity = Math.max(MINIMUM_SEGMENT_CAPACITY, Integer.highestOneBit(segmentDeviceCount - 1) << 1);
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            _segments[i] = new Segment(capacity);
+        }
+    }
+
+    public KsnReplayDetector() {
+        this(0);
+    }
+
+    /**
+     * <p>Records the transaction counter of <code>keySerialNumber</code> as used by its device, unless it already was
+     * (or is too old to tell).
+     */
+    public Result check(final byte[] keySerialNumber) {
+        DukptEngine.checkLength("key serial number", keySerialNumber, DukptEngine.KEY_SERIAL_NUMBER_LENGTH);
+
+        final long deviceKey = _getDeviceKey(keySerialNumber);
+        final long counter = (Bytes.toLong(keySerialNumber, 2) & DukptEngine.COUNTER_BITMASK);
+        final long hash = _hash(deviceKey);
+        final Segment segment = _segments[(int) (hash >>> SEGMENT_SHIFT)];
+
+        while (true) {
+            final Table table = segment.table;
+            final int slot = _find(table, deviceKey, (int) hash);
+            if (slot < 0) {
+                if (_insert(segment, table, deviceKey, (int) hash, counter)) {
+                    return Result.ACCEPTED;
+                }
+                continue; // the device was added (or the table replaced) concurrently
+            }
+
+            final Result result = _update(table, slot, counter);
+            if (result != null) {
+                return result;
+            }
+
+            // The table is being replaced; wait for the new one.
+            synchronized (segment) { }
+        }
+    }
+
+    /**
+     * <p>Returns true if <code>keySerialNumber</code> would be rejected by {@link #check(byte[])}, without recording it.
+     */
+    public boolean isReplay(final byte[] keySerialNumber) {
+        DukptEngine.checkLength("key serial number", keySerialNumber, DukptEngine.KEY_SERIAL_NUMBER_LENGTH);
+
+        final long deviceKey = _getDeviceKey(keySerialNumber);
+        final long counter = (Bytes.toLong(keySerialNumber, 2) & DukptEngine.COUNTER_BITMASK);
+        final long hash = _hash(deviceKey);
+        final Segment segment = _segments[(int) (hash >>> SEGMENT_SHIFT)];
+
+        while (true) {
+            final Table table = segment.table;
+            final int slot = _find(table, deviceKey, (int) hash);
+            if (slot < 0) { return false; }
+
+            final long state = table.states.get(slot);
+            if (state != MOVED) {
+                return (_apply(state, counter) < 0L);
+            }
+
+            synchronized (segment) { }
+        }
+    }
+
+    /**
+     * <p>Returns the number of devices seen.
+     */
+    public int getDeviceCount() {
+        int deviceCount = 0;
+        for (final Segment segment : _segments) {
+            synchronized (segment) {
+                deviceCount += segment.deviceCount;
+            }
+        }
+        return deviceCount;
+    }
+
+    /**
+     * <p>Returns the slot of <code>deviceKey</code>, or -1 if it is not in <code>table</code>.
+     */
+    private static int _find(final Table table, final long deviceKey, final int hash) {
+        int slot = (hash & table.mask);
+        while (true) {
+            final long key = table.keys.get(slot);
+            if (key == deviceKey) { return slot; }
+            if (key == 0L) { return -1; }
+            slot = ((slot + 1) & table.mask);
+        }
+    }
+
+    /**
+     * <p>Returns the state after accepting <code>counter</code>, or, if it must be rejected, a negative value: the
+     * bitwise complement of the ordinal of the {@link Result}.
+     */
+    private static long _apply(final long state, final long counter) {
+        final long highestCounter = (state >>> WINDOW_SIZE);
+        final long window = (state & WINDOW_BITMASK);
+
+        if (counter > highestCounter) {
+            final long shift = (counter - highestCounter);
+            final long newWindow = (shift > WINDOW_SIZE ? 0L : ((window << shift) | (1L << (shift - 1L))));
+            return _toState(counter, newWindow);
+        }
+        if (counter == highestCounter) {
+            return ~Result.REPLAYED.ordinal();
+        }
+
+        final long distance = (highestCounter - counter);
+        if (distance > WINDOW_SIZE) {
+            return ~Result.TOO_OLD.ordinal();
+        }
+
+        final long bit = (1L << (distance - 1L));
+        if ((window & bit) != 0L) {
+            return ~Result.REPLAYED.ordinal();
+        }
+        return _toState(highestCounter, (window | bit));
+    }
+
+    /**
+     * @return The result, or null if the slot has been moved to a new table.
+     */
+    private static Result _update(final Table table, final int slot, final long counter) {
+        while (true) {
+            final long state = table.states.get(slot);
+            if (state == MOVED) { return null; }
+
+            final long newState = _apply(state, counter);
+            if (newState < 0L) {
+                return Result.values()[(int) ~newState];
+            }
+            if (table.states.compareAndSet(slot, state, newState)) {
+                return Result.ACCEPTED;
+            }
+        }
+    }
+
+    /**
+     * <p>Adds the device with <code>counter</code> as its first accepted counter.
+     *
+     * @return False if the device was found after all, or the table had been replaced; the caller should retry.
+     */
+    private static boolean _insert(final Segment segment, final Table table, final long deviceKey, final int hash, final long counter) {
+        synchronized (segment) {
+            if ( (segment.table != table) || (_find(table, deviceKey, hash) >= 0) ) {
+                return false;
+            }
+
+            Table currentTable = table;
+            if ((segment.deviceCount + 1) > ((currentTable.mask + 1) / 4 * 3)) {
+                currentTable = _grow(currentTable);
+            }
+
+            _put(currentTable, deviceKey, hash, _toState(counter, 0L));
+            segment.deviceCount += 1;
+            segment.table = currentTable;
+            return true;
+        }
+    }
+
+    /**
+     * <p>Copies <code>table</code> into one twice its size, marking each slot as moved as it is copied so that
+     * concurrent updates are retried against the new table.
+     */
+    private static Table _grow(final Table table) {
+        final Table newTable = new Table((table.mask + 1) * 2);
+        for (int slot = 0; slot <= table.mask; slot++) {
+            final long key = table.keys.get(slot);
+            if (key != 0L) {
+                final long state = table.states.getAndSet(slot, MOVED);
+                _put(newTable, key, (int) _hash(key), state);
+            }
+        }
+        return newTable;
+    }
+
+    /**
+     * <p>Stores a device not yet in <code>table</code>; its state is written before its key, so that a reader finding
+     * the key also finds the state.
+     */
+    private static void _put(final Table table, final long deviceKey, final int hash, final long state) {
+        int slot = (hash & table.mask);
+        while (table.keys.get(slot) != 0L) {
+            slot = ((slot + 1) & table.mask);
+        }
+        table.states.set(slot, state);
+        table.keys.set(slot, deviceKey);
+    }
+}
@@ -0,0 +1,24 @@
+package com.softwareverde.security.dukpt;
+
+/**
+ * <p>Decides how key material is overwritten once it is no longer needed.
+ *
+ * <p>Every wipe performed by this library, public ({@link Dukpt#obliviate(byte[])}) or internal (key registers,
+ * retained intermediate keys, cipher key schedules), goes through the policy set with
+ * {@link Dukpt#setObliviationPolicy(ObliviationPolicy)}.  An implementation must overwrite every element of the
+ * supplied buffer, must be thread-safe, and should be cheap: one key derivation wipes several buffers.
+ *
+ * @see StandardObliviationPolicy
+ */
+public interface ObliviationPolicy {
+    void obliviate(byte[] bytes);
+
+    void obliviate(int[] values);
+
+    void obliviate(long[] values);
+
+    /**
+     * <p>Overwrites all {@link BitSet#length()} bits of <code>bitSet</code>.
+     */
+    void obliviate(BitSet bitSet);
+}
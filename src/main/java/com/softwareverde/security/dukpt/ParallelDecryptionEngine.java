@@ -0,0 +1,261 @@
+package com.softwareverde.security.dukpt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>Decrypts large batches of {@link EncryptedRecord}s (e.g. a settlement file) on a <code>ForkJoinPool</code>.
+ *
+ * <p>Records are grouped by device and ordered by transaction counter, then cut into partitions of at most
+ * <code>partitionSize</code> records that never span two devices.  Partitions are split across the pool with
+ * fork/join; within a partition, records are decrypted in order by a single worker that keeps a
+ * {@link DukptDeviceContext}, so intermediate keys are reused between consecutive transactions of a device.
+ *
+ * <p>Each record's key is derived with the configured {@link DukptVariant}, optionally converted with
+ * {@link Dukpt#toDataKey(byte[])}, and used with {@link Dukpt#decryptTripleDes(byte[], byte[])}.
+ */
+public class ParallelDecryptionEngine {
+    public static final int DEFAULT_PARTITION_SIZE = 1024;
+
+    /**
+     * <p>The decrypted records of one batch, in input order, and the throughput achieved on it.
+     */
+    public static class BatchResult {
+        private final List<byte[]> _plaintexts;
+        private final long _byteCount;
+        private final int _partitionCount;
+        private final long _elapsedNanoseconds;
+
+        protected BatchResult(final List<byte[]> plaintexts, final long byteCount, final int partitionCount, final long elapsedNanoseconds) {
+            _plaintexts = plaintexts;
+            _byteCount = byteCount;
+            _partitionCount = partitionCount;
+            _elapsedNanoseconds = elapsedNanoseconds;
+        }
+
+        public List<byte[]> getPlaintexts() {
+            return _plaintexts;
+        }
+
+        public int getRecordCount() {
+            return _plaintexts.size();
+        }
+
+        public long getByteCount() {
+            return _byteCount;
+        }
+
+        public int getPartitionCount() {
+            return _partitionCount;
+        }
+
+        public long getElapsedNanoseconds() {
+            return _elapsedNanoseconds;
+        }
+
+        public double getRecordsPerSecond() {
+            return (_elapsedNanoseconds > 0L ? (_plaintexts.size() * 1000000000D / _elapsedNanoseconds) : 0D);
+        }
+
+        public double getBytesPerSecond() {
+            return (_elapsedNanoseconds > 0L ? (_byteCount * 1000000000D / _elapsedNanoseconds) : 0D);
+        }
+    }
+
+    private class PartitionTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final EncryptedRecord[] _records;
+        private final Integer[] _order;
+        private final int[] _partitionStarts;
+        private final int _firstPartition;
+        private final int _lastPartition;
+        private final byte[][] _plaintexts;
+
+        public PartitionTask(final EncryptedRecord[] records, final Integer[] order, final int[] partitionStarts, final int firstPartition, final int lastPartition, final byte[][] plaintexts) {
+            _records = records;
+            _order = order;
+            _partitionStarts = partitionStarts;
+            _firstPartition = firstPartition;
+            _lastPartition = lastPartition;
+            _plaintexts = plaintexts;
+        }
+
+        @Override
+        protected void compute() {
+            if (_lastPartition - _firstPartition > 1) {
+                final int middlePartition = (_firstPartition + _lastPartition) >>> 1;
+                RecursiveAction.invokeAll(
+                    new PartitionTask(_records, _order, _partitionStarts, _firstPartition, middlePartition, _plaintexts),
+                    new PartitionTask(_records, _order, _partitionStarts, middlePartition, _lastPartition, _plaintexts)
+                );
+                return;
+            }
+
+            final DeviceDecryptor deviceDecryptor = new DeviceDecryptor(_engine, _baseDerivationKey, _ipekSource, _shouldConvertToDataKey);
+            try {
+                for (int i = _partitionStarts[_firstPartition]; i < _partitionStarts[_lastPartition]; i++) {
+                    final int index = _order[i];
+                    final EncryptedRecord record = _records[index];
+                    _plaintexts[index] = deviceDecryptor.decrypt(record.getKeySerialNumber(), record.getCiphertext());
+                }
+            }
+            catch (final RuntimeException exception) {
+                throw exception;
+            }
+            catch (final Exception exception) {
+                throw new DecryptionException(exception);
+            }
+            finally {
+                deviceDecryptor.clear();
+            }
+        }
+    }
+
+    /**
+     * <p>Carries checked exceptions out of the pool's workers.
+     */
+    private static class DecryptionException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public DecryptionException(final Exception cause) {
+            super(cause);
+        }
+    }
+
+    private final DukptEngine _engine;
+    private final BaseDerivationKey _baseDerivationKey;
+    private final IpekSource _ipekSource;
+    private final boolean _shouldConvertToDataKey;
+    private final ForkJoinPool _forkJoinPool;
+    private final int _partitionSize;
+
+    protected ParallelDecryptionEngine(final byte[] baseDerivationKey, final IpekSource ipekSource, final DukptVariant dukptVariant, final boolean shouldConvertToDataKey, final ForkJoinPool forkJoinPool, final int partitionSize) {
+        if (partitionSize < 1) {
+            throw new IllegalArgumentException("Invalid partition size provided: " + partitionSize);
+        }
+
+        _engine = dukptVariant.getEngine();
+        _baseDerivationKey = (baseDerivationKey != null ? new BaseDerivationKey(baseDerivationKey, dukptVariant) : null);
+        _ipekSource = ipekSource;
+        _shouldConvertToDataKey = shouldConvertToDataKey;
+        _forkJoinPool = forkJoinPool;
+        _partitionSize = partitionSize;
+    }
+
+    /**
+     * <p>Creates an engine deriving keys from <code>baseDerivationKey</code> with the data variant, converted to data
+     * keys, as is typical for P2PE card data.
+     */
+    public ParallelDecryptionEngine(final byte[] baseDerivationKey, final ForkJoinPool forkJoinPool) {
+        this(baseDerivationKey, null, new DukptVariant(Dukpt.KEY_REGISTER_BITMASK, Dukpt.DATA_VARIANT_BITMASK), true, forkJoinPool, DEFAULT_PARTITION_SIZE);
+    }
+
+    /**
+     * <p>Creates an engine deriving keys from <code>baseDerivationKey</code> with <code>dukptVariant</code>.
+     *
+     * @param shouldConvertToDataKey When true, each derived key is passed through {@link Dukpt#toDataKey(byte[])}.
+     * @param partitionSize The maximum number of records decrypted sequentially by one worker.
+     */
+    public ParallelDecryptionEngine(final byte[] baseDerivationKey, final DukptVariant dukptVariant, final boolean shouldConvertToDataKey, final ForkJoinPool forkJoinPool, final int partitionSize) {
+        this(baseDerivationKey, null, dukptVariant, shouldConvertToDataKey, forkJoinPool, partitionSize);
+    }
+
+    /**
+     * <p>Creates an engine deriving keys from the per-device IPEKs supplied by <code>ipekSource</code> with
+     * <code>dukptVariant</code>.  The source is called once per partition per device, possibly concurrently.
+     *
+     * @param shouldConvertToDataKey When true, each derived key is passed through {@link Dukpt#toDataKey(byte[])}.
+     * @param partitionSize The maximum number of records decrypted sequentially by one worker.
+     */
+    public ParallelDecryptionEngine(final IpekSource ipekSource, final DukptVariant dukptVariant, final boolean shouldConvertToDataKey, final ForkJoinPool forkJoinPool, final int partitionSize) {
+        this(null, ipekSource, dukptVariant, shouldConvertToDataKey, forkJoinPool, partitionSize);
+    }
+
+    /**
+     * <p>Decrypts <code>records</code>, returning the plaintexts in input order.
+     *
+     * @throws Exception The first failure of any record; the batch is abandoned.
+     */
+    public BatchResult decrypt(final List<EncryptedRecord> records) throws Exception {
+        final long startTime = System.nanoTime();
+
+        final EncryptedRecord[] recordArray = records.toArray(new EncryptedRecord[records.size()]);
+        final int count = recordArray.length;
+
+        final long[] initialKeySerialNumbers = new long[count];
+        final long[] counters = new long[count];
+        final Integer[] order = new Integer[count];
+        long byteCount = 0L;
+        for (int i = 0; i < count; i++) {
+            final byte[] keySerialNumber = recordArray[i].getKeySerialNumber();
+            DukptEngine.checkLength("key serial number", keySerialNumber, DukptEngine.KEY_SERIAL_NUMBER_LENGTH);
+            initialKeySerialNumbers[i] = (Bytes.toLong(keySerialNumber, 0) & ~DukptEngine.INITIAL_KSN_BITMASK);
+            counters[i] = (Bytes.toLong(keySerialNumber, 2) & DukptEngine.COUNTER_BITMASK);
+            order[i] = i;
+            byteCount += recordArray[i].getCiphertext().length;
+        }
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer index0, final Integer index1) {
+                final int deviceComparison = Long.compare(initialKeySerialNumbers[index0], initialKeySerialNumbers[index1]);
+                if (deviceComparison != 0) { return deviceComparison; }
+                return Long.compare(counters[index0], counters[index1]);
+            }
+        });
+
+        // Partition boundaries: a new partition starts at each device change and every partitionSize records.
+        final List<Integer> partitionStartList = new ArrayList<Integer>();
+        int partitionStart = 0;
+        for (int i = 0; i < count; i++) {
+            final boolean isNewDevice = (i > 0) && (initialKeySerialNumbers[order[i]] != initialKeySerialNumbers[order[i - 1]]);
+            if ( (i == 0) || isNewDevice || (i - partitionStart >= _partitionSize) ) {
+                partitionStart = i;
+                partitionStartList.add(i);
+            }
+        }
+        partitionStartList.add(count);
+
+        final int[] partitionStarts = new int[partitionStartList.size()];
+        for (int i = 0; i < partitionStarts.length; i++) {
+            partitionStarts[i] = partitionStartList.get(i);
+        }
+        final int partitionCount = (partitionStarts.length - 1);
+
+        final byte[][] plaintexts = new byte[count][];
+        if (partitionCount > 0) {
+            try {
+                _forkJoinPool.invoke(new PartitionTask(recordArray, order, partitionStarts, 0, partitionCount, plaintexts));
+            }
+            catch (final RuntimeException exception) {
+                // The pool may rethrow a copy of the worker's exception that wraps the original.
+                Throwable cause = exception;
+                while ( (cause != null) && (! (cause instanceof DecryptionException)) ) {
+                    cause = cause.getCause();
+                }
+                if (cause != null) {
+                    throw (Exception) cause.getCause();
+                }
+                throw exception;
+            }
+        }
+
+        final long elapsedNanoseconds = (System.nanoTime() - startTime);
+        return new BatchResult(Collections.unmodifiableList(Arrays.asList(plaintexts)), byteCount, partitionCount, elapsedNanoseconds);
+    }
+
+    /**
+     * <p>Zeroes this engine's copy of the BDK.  The engine cannot be used afterwards.
+     */
+    public void clear() {
+        if (_baseDerivationKey != null) {
+            _baseDerivationKey.clear();
+        }
+    }
+}
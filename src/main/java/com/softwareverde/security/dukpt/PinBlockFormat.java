@@ -0,0 +1,58 @@
+package com.softwareverde.security.dukpt;
+
+/**
+ * <p>The ISO 9564-1 PIN block formats understood by {@link PinBlockTranslator}.
+ *
+ * <p>Each block starts with the control field (the format number) and the PIN length, followed by the PIN digits and
+ * fill nibbles.  Formats 0 and 3 are XORed with the PAN field: four zero nibbles followed by the right-most twelve
+ * digits of the primary account number, excluding the check digit.
+ */
+public enum PinBlockFormat {
+    /**
+     * <p>Format 0 (ANSI X9.8): fill nibbles of F, XORed with the PAN field.
+     */
+    ISO_0(0),
+
+    /**
+     * <p>Format 1: random fill nibbles, not bound to a PAN.
+     */
+    ISO_1(1),
+
+    /**
+     * <p>Format 3: random fill nibbles of A through F, XORed with the PAN field.
+     */
+    ISO_3(3);
+
+    private final int _controlField;
+
+    PinBlockFormat(final int controlField) {
+        _controlField = controlField;
+    }
+
+    /**
+     * <p>Returns the value of the block's first nibble.
+     */
+    public int getControlField() {
+        return _controlField;
+    }
+
+    /**
+     * <p>Returns true if the block is XORed with the PAN field.
+     */
+    public boolean isPanBound() {
+        return (this != ISO_1);
+    }
+
+    /**
+     * <p>Returns the format with the provided control field, or null if it is not supported (e.g. format 2, which is
+     * only used offline between a card and its terminal).
+     */
+    static PinBlockFormat fromControlField(final int controlField) {
+        for (final PinBlockFormat pinBlockFormat : PinBlockFormat.values()) {
+            if (pinBlockFormat._controlField == controlField) {
+                return pinBlockFormat;
+            }
+        }
+        return null;
+    }
+}
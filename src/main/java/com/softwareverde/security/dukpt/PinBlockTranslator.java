@@ -0,0 +1,332 @@
+package com.softwareverde.security.dukpt;
+
+import java.security.InvalidParameterException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * <p>Translates batches of DUKPT-encrypted ISO 9564 PIN blocks to a target key (e.g. the zone PIN key shared with the
+ * upstream network), as done on the authorization path.
+ *
+ * <p>For each {@link EncryptedPinBlock}, the PIN block is decrypted with the key derived for its KSN (by default with
+ * the PIN variant), checked to be a well-formed format 0, 1 or 3 block, re-formatted to the target
+ * {@link PinBlockFormat} and Triple DES encrypted under the target key.  The whole translation of a block is done on
+ * longs, so the clear PIN never exists in an array.
+ *
+ * <p>As required by ISO 9564-1, a PIN block bound to the PAN (format 0 or 3) is never translated to format 1, which
+ * is not; such entries are rejected like malformed ones.
+ *
+ * <p>Entries are processed grouped by device and ordered by transaction counter, with one {@link DukptDeviceContext}
+ * at a time, so intermediate keys are reused between transactions of a device.  The target key's schedules are
+ * expanded once, when the translator is created.
+ *
+ * <p>Thread-safe: each call to {@link #translate(List)} keeps its own device context.
+ */
+public class PinBlockTranslator {
+    public static final int PIN_BLOCK_LENGTH = 8;
+
+    private static final int MINIMUM_PIN_LENGTH = 4;
+    private static final int MAXIMUM_PIN_LENGTH = 12;
+    private static final int TRIPLE_DES_SCHEDULE_LENGTH = (3 * Des.SCHEDULE_LENGTH);
+
+    /**
+     * <p>Returns the PAN field: four zero nibbles followed by the right-most twelve digits of the PAN, excluding the
+     * check digit (left-padded with zeros for shorter PANs).
+     */
+    private static long _toPanField(final String primaryAccountNumber) {
+        if ( (primaryAccountNumber == null) || (primaryAccountNumber.length() < 2) ) {
+            throw new IllegalArgumentException("Invalid primary account number provided: " + (primaryAccountNumber == null ? "null" : "length " + primaryAccountNumber.length()));
+        }
+
+        for (int i = 0; i < primaryAccountNumber.length(); i++) {
+            final char digit = primaryAccountNumber.charAt(i);
+            if ( (digit < '0') || (digit > '9') ) {
+                throw new IllegalArgumentException("Invalid primary account number provided: non-digit at index " + i);
+            }
+        }
+
+        final int checkDigitIndex = (primaryAccountNumber.length() - 1);
+        long panField = 0L;
+        for (int i = Math.max(0, (checkDigitIndex - 12)); i < checkDigitIndex; i++) {
+            panField = ((panField << 4) | (primaryAccountNumber.charAt(i) - '0'));
+        }
+        return panField;
+    }
+
+    /**
+     * <p>Returns the mask of the fill nibbles of a PIN field holding a PIN of <code>pinLength</code> digits.
+     */
+    private static long _getFillBitmask(final int pinLength) {
+        return ((1L << (56 - (4 * pinLength))) - 1L);
+    }
+
+    /**
+     * <p>Returns the PIN field (the control field, PIN length, PIN digits and fill) of a decrypted PIN block, or -1 if
+     * the block is not a well-formed format 0, 1 or 3 block for <code>panField</code>.  No valid PIN field is negative,
+     * as the control field is at most 3.
+     */
+    private static long _decodePinField(final long clearPinBlock, final PanField panField) {
+        final PinBlockFormat pinBlockFormat = PinBlockFormat.fromControlField((int) (clearPinBlock >>> 60));
+        if (pinBlockFormat == null) { return -1L; }
+
+        // The PAN field's first four nibbles are zero, so the control field and PIN length are unaffected.
+        final long pinField = (pinBlockFormat.isPanBound() ? (clearPinBlock ^ panField.getValue()) : clearPinBlock);
+
+        final int pinLength = (int) ((pinField >>> 56) & 0x0FL);
+        if ( (pinLength < MINIMUM_PIN_LENGTH) || (pinLength > MAXIMUM_PIN_LENGTH) ) { return -1L; }
+
+        for (int i = 0; i < 14; i++) {
+            final int nibble = (int) ((pinField >>> (52 - (4 * i))) & 0x0FL);
+            if (i < pinLength) {
+                if (nibble > 9) { return -1L; }
+            }
+            else if (pinBlockFormat == PinBlockFormat.ISO_0) {
+                if (nibble != 0x0F) { return -1L; }
+            }
+            else if (pinBlockFormat == PinBlockFormat.ISO_3) {
+                if (nibble < 0x0A) { return -1L; }
+            }
+        }
+        return pinField;
+    }
+
+    /**
+     * <p>The PAN field of one entry, parsed only if a format bound to the PAN is involved.
+     */
+    private static class PanField {
+        private final String _primaryAccountNumber;
+        private boolean _isParsed = false;
+        private long _value;
+
+        public PanField(final String primaryAccountNumber) {
+            _primaryAccountNumber = primaryAccountNumber;
+        }
+
+        public long getValue() {
+            if (! _isParsed) {
+                _value = _toPanField(_primaryAccountNumber);
+                _isParsed = true;
+            }
+            return _value;
+        }
+    }
+
+    private final DukptEngine _engine;
+    private final BaseDerivationKey _baseDerivationKey;
+    private final IpekSource _ipekSource;
+    private final PinBlockFormat _targetPinBlockFormat;
+    private final SecureRandom _secureRandom = new SecureRandom();
+    private volatile boolean _isCleared = false;
+
+    /**
+     * <p>The encryption schedules of the target key's three parts.
+     */
+    private final int[] _targetSchedules = new int[TRIPLE_DES_SCHEDULE_LENGTH];
+
+    protected PinBlockTranslator(final byte[] baseDerivationKey, final IpekSource ipekSource, final DukptVariant dukptVariant, final byte[] targetKey, final PinBlockFormat targetPinBlockFormat) {
+        if ( (targetKey == null) || ((targetKey.length != 8) && (targetKey.length != 16) && (targetKey.length != 24)) ) {
+            throw new InvalidParameterException("Key is not 8/16/24 bytes long.");
+        }
+        if (targetPinBlockFormat == null) {
+            throw new IllegalArgumentException("Invalid target PIN block format provided: null");
+        }
+
+        final long key1 = Bytes.toLong(targetKey, 0);
+        final long key2 = (targetKey.length > 8 ? Bytes.toLong(targetKey, 8) : key1);
+        final long key3 = (targetKey.length > 16 ? Bytes.toLong(targetKey, 16) : key1);
+        Des.expandKey(key1, true, _targetSchedules, 0);
+        Des.expandKey(key2, false, _targetSchedules, Des.SCHEDULE_LENGTH);
+        Des.expandKey(key3, true, _targetSchedules, (2 * Des.SCHEDULE_LENGTH));
+
+        _engine = dukptVariant.getEngine();
+        _baseDerivationKey = (baseDerivationKey != null ? new BaseDerivationKey(baseDerivationKey, dukptVariant) : null);
+        _ipekSource = ipekSource;
+        _targetPinBlockFormat = targetPinBlockFormat;
+    }
+
+    /**
+     * <p>Creates a translator deriving keys from <code>baseDerivationKey</code> with the PIN variant, producing format
+     * 0 PIN blocks under <code>targetKey</code>.
+     *
+     * @param targetKey The 8, 16 or 24-byte Triple DES key to translate to; it is not retained.
+     */
+    public PinBlockTranslator(final byte[] baseDerivationKey, final byte[] targetKey) {
+        this(baseDerivationKey, null, new DukptVariant(), targetKey, PinBlockFormat.ISO_0);
+    }
+
+    /**
+     * <p>Creates a translator deriving keys from <code>baseDerivationKey</code> with <code>dukptVariant</code>.
+     *
+     * @param targetKey The 8, 16 or 24-byte Triple DES key to translate to; it is not retained.
+     * @param targetPinBlockFormat The format of the translated PIN blocks.
+     */
+    public PinBlockTranslator(final byte[] baseDerivationKey, final DukptVariant dukptVariant, final byte[] targetKey, final PinBlockFormat targetPinBlockFormat) {
+        this(baseDerivationKey, null, dukptVariant, targetKey, targetPinBlockFormat);
+    }
+
+    /**
+     * <p>Creates a translator deriving keys from the per-device IPEKs supplied by <code>ipekSource</code> with
+     * <code>dukptVariant</code>.  The source is called once per device per batch.
+     *
+     * @param targetKey The 8, 16 or 24-byte Triple DES key to translate to; it is not retained.
+     * @param targetPinBlockFormat The format of the translated PIN blocks.
+     */
+    public PinBlockTranslator(final IpekSource ipekSource, final DukptVariant dukptVariant, final byte[] targetKey, final PinBlockFormat targetPinBlockFormat) {
+        this(null, ipekSource, dukptVariant, targetKey, targetPinBlockFormat);
+    }
+
+    public PinBlockFormat getTargetPinBlockFormat() {
+        return _targetPinBlockFormat;
+    }
+
+    /**
+     * <p>Translates <code>encryptedPinBlocks</code>, returning the translated PIN blocks in input order.  Entries whose
+     * PIN block does not decrypt to a well-formed format 0, 1 or 3 block (e.g. a wrong PAN or a corrupted block), or
+     * whose PIN block is bound to the PAN while the target format is not, are translated to null.
+     *
+     * @throws IllegalArgumentException If an entry's KSN or PIN block has the wrong length, or its PAN is missing or
+     *                                  malformed while needed; the batch is abandoned.
+     * @throws Exception If the IPEK source fails; the batch is abandoned.
+     * @throws IllegalStateException If the translator has been cleared.
+     */
+    public List<byte[]> translate(final List<EncryptedPinBlock> encryptedPinBlocks) throws Exception {
+        if (_isCleared) {
+            throw new IllegalStateException("PIN block translator has been cleared.");
+        }
+
+        final EncryptedPinBlock[] entries = encryptedPinBlocks.toArray(new EncryptedPinBlock[encryptedPinBlocks.size()]);
+        final int count = entries.length;
+
+        final long[] initialKeySerialNumbers = new long[count];
+        final long[] counters = new long[count];
+        final Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            final byte[] keySerialNumber = entries[i].getKeySerialNumber();
+            DukptEngine.checkLength("key serial number", keySerialNumber, DukptEngine.KEY_SERIAL_NUMBER_LENGTH);
+            DukptEngine.checkLength("PIN block", entries[i].getPinBlock(), PIN_BLOCK_LENGTH);
+            initialKeySerialNumbers[i] = (Bytes.toLong(keySerialNumber, 0) & ~DukptEngine.INITIAL_KSN_BITMASK);
+            counters[i] = (Bytes.toLong(keySerialNumber, 2) & DukptEngine.COUNTER_BITMASK);
+            order[i] = i;
+        }
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer index0, final Integer index1) {
+                final int deviceComparison = Long.compare(initialKeySerialNumbers[index0], initialKeySerialNumbers[index1]);
+                if (deviceComparison != 0) { return deviceComparison; }
+                return Long.compare(counters[index0], counters[index1]);
+            }
+        });
+
+        final byte[][] translatedPinBlocks = new byte[count][];
+        final DeviceDecryptor deviceDecryptor = new DeviceDecryptor(_engine, _baseDerivationKey, _ipekSource, false);
+        final long[] register = new long[2];
+        try {
+            for (int i = 0; i < count; i++) {
+                final int index = order[i];
+                translatedPinBlocks[index] = _translate(deviceDecryptor, register, entries[index]);
+            }
+        }
+        finally {
+            // secure memory
+            DukptEngine.wipe(register);
+            deviceDecryptor.clear();
+        }
+
+        return Collections.unmodifiableList(Arrays.asList(translatedPinBlocks));
+    }
+
+    /**
+     * <p>Translates a single PIN block.
+     *
+     * @return The translated PIN block, or null if the PIN block is not well-formed or may not be translated to the
+     *         target format.
+     * @see #translate(List)
+     */
+    public byte[] translate(final EncryptedPinBlock encryptedPinBlock) throws Exception {
+        return translate(Collections.singletonList(encryptedPinBlock)).get(0);
+    }
+
+    /**
+     * <p>Zeroes this translator's copy of the BDK and the target key's schedules.  The translator cannot be used
+     * afterwards, and must not be cleared while a translation is in progress.
+     */
+    public void clear() {
+        _isCleared = true;
+
+        if (_baseDerivationKey != null) {
+            _baseDerivationKey.clear();
+        }
+
+        // secure memory
+        Dukpt.getObliviationPolicy().obliviate(_targetSchedules);
+        Dukpt.getMetrics().onObliviation(_targetSchedules.length);
+    }
+
+    private byte[] _translate(final DeviceDecryptor deviceDecryptor, final long[] register, final EncryptedPinBlock encryptedPinBlock) throws Exception {
+        final DukptMetrics metrics = Dukpt.getMetrics();
+        final long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+
+        final PanField panField = new PanField(encryptedPinBlock.getPrimaryAccountNumber());
+
+        deviceDecryptor.loadKey(encryptedPinBlock.getKeySerialNumber(), register);
+        final long clearPinBlock = Des.decryptTripleDes(register[0], register[1], register[0], Bytes.toLong(encryptedPinBlock.getPinBlock(), 0));
+
+        // secure memory
+        register[0] = 0L;
+        register[1] = 0L;
+
+        final long pinField = _decodePinField(clearPinBlock, panField);
+        if (pinField < 0L) {
+            return null;
+        }
+
+        // ISO 9564-1 forbids removing the PAN binding, i.e. translating format 0 or 3 to format 1.
+        final PinBlockFormat pinBlockFormat = PinBlockFormat.fromControlField((int) (pinField >>> 60));
+        if (pinBlockFormat.isPanBound() && (! _targetPinBlockFormat.isPanBound())) {
+            return null;
+        }
+
+        final int pinLength = (int) ((pinField >>> 56) & 0x0FL);
+        final long fillBitmask = _getFillBitmask(pinLength);
+        final long targetPinField = (((long) _targetPinBlockFormat.getControlField()) << 60)
+                                  | (pinField & 0x0FFFFFFFFFFFFFFFL & ~fillBitmask)
+                                  | (_createFill() & fillBitmask);
+        final long targetPinBlock = (_targetPinBlockFormat.isPanBound() ? (targetPinField ^ panField.getValue()) : targetPinField);
+
+        final long encryptedTargetPinBlock = Des.cipher(_targetSchedules, (2 * Des.SCHEDULE_LENGTH), Des.cipher(_targetSchedules, Des.SCHEDULE_LENGTH, Des.cipher(_targetSchedules, 0, targetPinBlock)));
+
+        final byte[] translatedPinBlock = new byte[PIN_BLOCK_LENGTH];
+        Bytes.putLong(encryptedTargetPinBlock, translatedPinBlock, 0);
+
+        if (metrics != DukptMetrics.NONE) {
+            metrics.onOperation(DukptOperation.TRANSLATE_PIN_BLOCK, _engine.getVariantName(), (System.nanoTime() - startTime));
+        }
+        return translatedPinBlock;
+    }
+
+    /**
+     * <p>Returns fill nibbles for the target format: all F for format 0, random for format 1, and random A through F
+     * for format 3.
+     */
+    private long _createFill() {
+        if (_targetPinBlockFormat == PinBlockFormat.ISO_0) {
+            return -1L;
+        }
+
+        final long random = _secureRandom.nextLong();
+        if (_targetPinBlockFormat == PinBlockFormat.ISO_1) {
+            return random;
+        }
+
+        long fill = 0L;
+        for (int i = 0; i < 16; i++) {
+            final long nibble = (0x0AL + (((random >>> (4 * i)) & 0x0FL) % 6L));
+            fill |= (nibble << (4 * i));
+        }
+        return fill;
+    }
+}
@@ -0,0 +1,240 @@
+package com.softwareverde.security.dukpt;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * <p>Computes ANSI X9.19 (ISO/IEC 9797-1 MAC algorithm 3) retail MACs incrementally, typically keyed with the MAC
+ * variant key of a transaction; see {@link Dukpt#createMac(byte[], byte[])}.
+ *
+ * <p>The message is processed with single DES CBC under the left half of the key, and the final chaining value is
+ * decrypted under the right half and encrypted under the left half again.  Incomplete final blocks are padded with
+ * zeros (padding method 1); the empty message is MACed as a single zero block.
+ *
+ * <p>The two key schedules are expanded once, when the MAC is created, and the chaining value and any partial block
+ * are held in longs, so {@link #update(byte[], int, int)} and {@link #update(ByteBuffer)} do not allocate; messages
+ * can be MACed as they are read, without being buffered in full.  After {@link #doFinal()} or {@link #verify(byte[])}
+ * the MAC is reset and can be used for another message under the same key.
+ *
+ * <p>Not thread-safe.  Call {@link #clear()} to obliviate the key schedules once the MAC is no longer needed.
+ */
+public final class RetailMac {
+    /**
+     * <p>The length of a full MAC; {@link #verify(byte[])} also accepts MACs truncated to their left-most bytes.
+     */
+    public static final int MAC_LENGTH = 8;
+
+    /**
+     * <p>The shortest truncated MAC accepted by {@link #verify(byte[])}.
+     */
+    public static final int MINIMUM_MAC_LENGTH = 4;
+
+    private static final int BLOCK_LENGTH = 8;
+
+    /**
+     * <p>The encryption schedule of the left key half, followed by the decryption schedule of the right key half.
+     */
+    private final int[] _schedules = new int[2 * Des.SCHEDULE_LENGTH];
+
+    private long _chain = 0L;
+    private long _partialBlock = 0L;
+    private int _partialBlockLength = 0;
+    private boolean _hasData = false;
+    private boolean _isCleared = false;
+    private long _elapsedNanoseconds = 0L;
+
+    /**
+     * @param macKey The 16-byte (double-length) MAC key; it is not retained.
+     */
+    public RetailMac(final byte[] macKey) {
+        DukptEngine.checkLength("MAC key", macKey, DukptEngine.KEY_LENGTH);
+
+        Des.expandKey(Bytes.toLong(macKey, 0), true, _schedules, 0);
+        Des.expandKey(Bytes.toLong(macKey, 8), false, _schedules, Des.SCHEDULE_LENGTH);
+    }
+
+    public void update(final byte[] data) {
+        update(data, 0, data.length);
+    }
+
+    public void update(final byte[] data, final int offset, final int length) {
+        if ( (offset < 0) || (length < 0) || (offset > (data.length - length)) ) {
+            throw new IndexOutOfBoundsException("Invalid range provided: offset " + offset + ", length " + length + ", array length " + data.length);
+        }
+
+        _checkNotCleared();
+
+        final DukptMetrics metrics = Dukpt.getMetrics();
+        final long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+
+        int position = offset;
+        final int limit = (offset + length);
+        if (position < limit) {
+            _hasData = true;
+        }
+
+        // complete a partial block left by the previous update
+        while ( (_partialBlockLength > 0) && (position < limit) ) {
+            _appendByte(data[position]);
+            position += 1;
+        }
+
+        // whole blocks, read straight from the array
+        while ((limit - position) >= BLOCK_LENGTH) {
+            _processBlock(Bytes.toLong(data, position));
+            position += BLOCK_LENGTH;
+        }
+
+        while (position < limit) {
+            _appendByte(data[position]);
+            position += 1;
+        }
+
+        if (metrics != DukptMetrics.NONE) {
+            _elapsedNanoseconds += (System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * <p>Adds the remaining bytes of <code>data</code> to the message, advancing its position to its limit.
+     */
+    public void update(final ByteBuffer data) {
+        _checkNotCleared();
+
+        final DukptMetrics metrics = Dukpt.getMetrics();
+        final long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+
+        int position = data.position();
+        final int limit = data.limit();
+        if (position < limit) {
+            _hasData = true;
+        }
+
+        // complete a partial block left by the previous update
+        while ( (_partialBlockLength > 0) && (position < limit) ) {
+            _appendByte(data.get(position));
+            position += 1;
+        }
+
+        // whole blocks, read straight from the buffer
+        final boolean isBigEndian = (data.order() == ByteOrder.BIG_ENDIAN);
+        while ((limit - position) >= BLOCK_LENGTH) {
+            final long block = data.getLong(position);
+            _processBlock(isBigEndian ? block : Long.reverseBytes(block));
+            position += BLOCK_LENGTH;
+        }
+
+        while (position < limit) {
+            _appendByte(data.get(position));
+            position += 1;
+        }
+        data.position(limit);
+
+        if (metrics != DukptMetrics.NONE) {
+            _elapsedNanoseconds += (System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * <p>Returns the 8-byte MAC of the message and resets the MAC for the next message.
+     */
+    public byte[] doFinal() {
+        _checkNotCleared();
+
+        final DukptMetrics metrics = Dukpt.getMetrics();
+        final long startTime = (metrics != DukptMetrics.NONE ? System.nanoTime() : 0L);
+
+        final byte[] mac = new byte[MAC_LENGTH];
+        Bytes.putLong(_finish(), mac, 0);
+
+        if (metrics != DukptMetrics.NONE) {
+            metrics.onOperation(DukptOperation.COMPUTE_MAC, null, (_elapsedNanoseconds + (System.nanoTime() - startTime)));
+        }
+        _elapsedNanoseconds = 0L;
+
+        return mac;
+    }
+
+    /**
+     * <p>Returns true if <code>expectedMac</code> is the MAC of the message, or its left-most bytes, and resets the MAC
+     * for the next message.  The comparison takes the same time wherever the MACs differ.
+     *
+     * @param expectedMac The MAC received with the message; {@link #MINIMUM_MAC_LENGTH} to {@link #MAC_LENGTH} bytes.
+     */
+    public boolean verify(final byte[] expectedMac) {
+        if ( (expectedMac == null) || (expectedMac.length < MINIMUM_MAC_LENGTH) || (expectedMac.length > MAC_LENGTH) ) {
+            throw new IllegalArgumentException("Invalid MAC provided: " + (expectedMac == null ? "null" : "length " + expectedMac.length));
+        }
+
+        final byte[] mac = doFinal();
+        int difference = 0;
+        for (int i = 0; i < expectedMac.length; i++) {
+            difference |= (mac[i] ^ expectedMac[i]);
+        }
+
+        // secure memory
+        Dukpt.obliviate(mac);
+
+        return (difference == 0);
+    }
+
+    /**
+     * <p>Discards the message processed so far.
+     */
+    public void reset() {
+        _chain = 0L;
+        _partialBlock = 0L;
+        _partialBlockLength = 0;
+        _hasData = false;
+        _elapsedNanoseconds = 0L;
+    }
+
+    /**
+     * <p>Obliviates the key schedules and any message state.  The MAC cannot be used afterwards.
+     */
+    public void clear() {
+        reset();
+        if (! _isCleared) {
+            _isCleared = true;
+
+            // secure memory
+            Dukpt.getObliviationPolicy().obliviate(_schedules);
+            Dukpt.getMetrics().onObliviation(_schedules.length);
+        }
+    }
+
+    private void _checkNotCleared() {
+        if (_isCleared) {
+            throw new IllegalStateException("MAC has been cleared.");
+        }
+    }
+
+    private void _appendByte(final byte value) {
+        _partialBlock |= ((value & 0xFFL) << (56 - (8 * _partialBlockLength)));
+        _partialBlockLength += 1;
+        if (_partialBlockLength == BLOCK_LENGTH) {
+            _processBlock(_partialBlock);
+            _partialBlock = 0L;
+            _partialBlockLength = 0;
+        }
+    }
+
+    private void _processBlock(final long block) {
+        _chain = Des.cipher(_schedules, 0, (_chain ^ block));
+    }
+
+    /**
+     * <p>Pads and processes the final block, applies the output transformation and resets the MAC.
+     */
+    private long _finish() {
+        if ( (_partialBlockLength > 0) || (! _hasData) ) {
+            _processBlock(_partialBlock); // the unused bytes are already zero
+        }
+
+        // output transformation: decrypt under the right half, encrypt under the left half
+        final long mac = Des.cipher(_schedules, 0, Des.cipher(_schedules, Des.SCHEDULE_LENGTH, _chain));
+
+        reset();
+        return mac;
+    }
+}
@@ -0,0 +1,151 @@
+package com.softwareverde.security.dukpt;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * <p>The built-in {@link ObliviationPolicy}s.
+ *
+ * <p>The random policies draw from a per-thread <code>SecureRandom</code> that is created and seeded once per thread,
+ * so wiping never creates or seeds a generator and never contends on a shared one.
+ */
+public enum StandardObliviationPolicy implements ObliviationPolicy {
+    /**
+     * <p>Overwrites with zeroes.  The cheapest policy, and the default.
+     */
+    ZERO_FILL {
+        @Override
+        public void obliviate(final byte[] bytes) {
+            Arrays.fill(bytes, (byte) 0x00);
+        }
+
+        @Override
+        public void obliviate(final int[] values) {
+            Arrays.fill(values, 0);
+        }
+
+        @Override
+        public void obliviate(final long[] values) {
+            Arrays.fill(values, 0L);
+        }
+
+        @Override
+        public void obliviate(final BitSet bitSet) {
+            bitSet.clear(0, bitSet.length());
+        }
+    },
+
+    /**
+     * <p>Overwrites with a single pass of random data.
+     */
+    RANDOM {
+        @Override
+        public void obliviate(final byte[] bytes) {
+            fillRandom(bytes, 1);
+        }
+
+        @Override
+        public void obliviate(final int[] values) {
+            fillRandom(values, 1);
+        }
+
+        @Override
+        public void obliviate(final long[] values) {
+            fillRandom(values, 1);
+        }
+
+        @Override
+        public void obliviate(final BitSet bitSet) {
+            fillRandom(bitSet, 1);
+        }
+    },
+
+    /**
+     * <p>The historical behavior: a pass of zeroes, a pass of ones, then {@link Dukpt#NUM_OVERWRITES} passes of random
+     * data.
+     */
+    MULTI_PASS_RANDOM {
+        @Override
+        public void obliviate(final byte[] bytes) {
+            Arrays.fill(bytes, (byte) 0x00);
+            Arrays.fill(bytes, (byte) 0x01);
+            fillRandom(bytes, Dukpt.NUM_OVERWRITES);
+        }
+
+        @Override
+        public void obliviate(final int[] values) {
+            Arrays.fill(values, 0);
+            Arrays.fill(values, 1);
+            fillRandom(values, Dukpt.NUM_OVERWRITES);
+        }
+
+        @Override
+        public void obliviate(final long[] values) {
+            Arrays.fill(values, 0L);
+            Arrays.fill(values, 1L);
+            fillRandom(values, Dukpt.NUM_OVERWRITES);
+        }
+
+        @Override
+        public void obliviate(final BitSet bitSet) {
+            bitSet.clear(0, bitSet.length());
+            bitSet.set(0, bitSet.length());
+            fillRandom(bitSet, Dukpt.NUM_OVERWRITES);
+        }
+    };
+
+    private static final ThreadLocal<SecureRandom> SECURE_RANDOM = new ThreadLocal<SecureRandom>() {
+        @Override
+        protected SecureRandom initialValue() {
+            SecureRandom secureRandom;
+            try {
+                // A pure-Java generator; the platform default may serialize every call on one native source.
+                secureRandom = SecureRandom.getInstance("SHA1PRNG");
+            }
+            catch (final NoSuchAlgorithmException exception) {
+                secureRandom = new SecureRandom();
+            }
+            secureRandom.nextBytes(new byte[1]); // seed now rather than on the first wipe
+            return secureRandom;
+        }
+    };
+
+    /**
+     * <p>Overwrites every byte of <code>bytes</code> with random data <code>passCount</code> times.
+     */
+    static void fillRandom(final byte[] bytes, final int passCount) {
+        final SecureRandom secureRandom = SECURE_RANDOM.get();
+        for (int i = 0; i < passCount; i++) {
+            secureRandom.nextBytes(bytes);
+        }
+    }
+
+    static void fillRandom(final int[] values, final int passCount) {
+        final SecureRandom secureRandom = SECURE_RANDOM.get();
+        for (int i = 0; i < passCount; i++) {
+            for (int j = 0; j < values.length; j++) {
+                values[j] = secureRandom.nextInt();
+            }
+        }
+    }
+
+    static void fillRandom(final long[] values, final int passCount) {
+        final SecureRandom secureRandom = SECURE_RANDOM.get();
+        for (int i = 0; i < passCount; i++) {
+            for (int j = 0; j < values.length; j++) {
+                values[j] = secureRandom.nextLong();
+            }
+        }
+    }
+
+    static void fillRandom(final BitSet bitSet, final int passCount) {
+        final SecureRandom secureRandom = SECURE_RANDOM.get();
+        final int length = bitSet.length();
+        for (int i = 0; i < passCount; i++) {
+            for (int j = 0; j < length; j++) {
+                bitSet.set(j, secureRandom.nextBoolean());
+            }
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.softwareverde.security.dukpt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>Decrypts files of (KSN, ciphertext) records in constant memory, regardless of the size of the file.
+ *
+ * <p>The input is read through read-only memory-mapped windows of the input <code>FileChannel</code>; a window is
+ * remapped whenever the next record does not fit in the current one.  Each record's key is derived (reusing
+ * intermediate keys between consecutive records from the same device), optionally converted with
+ * {@link Dukpt#toDataKey(byte[])}, and used with {@link Dukpt#decryptTripleDes(byte[], ByteBuffer, ByteBuffer)} to
+ * decrypt straight from the mapped window into one direct output buffer, which is written to the output channel
+ * whenever it fills.
+ *
+ * <p>Each output record has the same layout as its input record, with the ciphertext replaced by the plaintext (which
+ * has the same length).  Records are processed in file order, so files grouped by device (and ordered by transaction
+ * counter) decrypt fastest.
+ *
+ * <p>Instances are not thread-safe.  The output buffer is zeroed once each file has been decrypted; call
+ * {@link #clear()} to zero the decryptor's copy of the BDK once it is no longer needed.
+ *
+ * @see ParallelDecryptionEngine
+ */
+public class StreamingFileDecryptor {
+    public static final int DEFAULT_WINDOW_SIZE = (64 * 1024 * 1024);
+    public static final int DEFAULT_OUTPUT_BUFFER_SIZE = (64 * 1024);
+
+    /**
+     * <p>The layout of a record: the 10-byte KSN, then either a fixed-length ciphertext or a big-endian unsigned length
+     * prefix followed by that many bytes of ciphertext.
+     */
+    public static class RecordFormat {
+        /**
+         * <p>Records of a 10-byte KSN followed by exactly <code>ciphertextLength</code> bytes of ciphertext.
+         */
+        public static RecordFormat fixedLength(final int ciphertextLength) {
+            if (ciphertextLength < 0) {
+                throw new IllegalArgumentException("Invalid ciphertext length provided: " + ciphertextLength);
+            }
+            return new RecordFormat(ciphertextLength, 0);
+        }
+
+        /**
+         * <p>Records of a 10-byte KSN, a big-endian unsigned ciphertext length of <code>prefixLength</code> (1, 2 or 4)
+         * bytes, and the ciphertext.
+         */
+        public static RecordFormat lengthPrefixed(final int prefixLength) {
+            if (prefixLength != 1 && prefixLength != 2 && prefixLength != 4) {
+                throw new IllegalArgumentException("Invalid prefix length provided: " + prefixLength);
+            }
+            return new RecordFormat(-1, prefixLength);
+        }
+
+        private final int _ciphertextLength;
+        private final int _prefixLength;
+
+        protected RecordFormat(final int ciphertextLength, final int prefixLength) {
+            _ciphertextLength = ciphertextLength;
+            _prefixLength = prefixLength;
+        }
+
+        public boolean isLengthPrefixed() {
+            return (_prefixLength > 0);
+        }
+
+        public int getHeaderLength() {
+            return (DukptEngine.KEY_SERIAL_NUMBER_LENGTH + _prefixLength);
+        }
+
+        /**
+         * <p>Reads the ciphertext length from a header positioned after the KSN.
+         */
+        protected int readCiphertextLength(final ByteBuffer byteBuffer) {
+            switch (_prefixLength) {
+                case 1: { return (byteBuffer.get() & 0xFF); }
+                case 2: { return (byteBuffer.getShort() & 0xFFFF); }
+                case 4: {
+                    final int length = byteBuffer.getInt();
+                    if (length < 0) {
+                        throw new IllegalArgumentException("Unsupported ciphertext length: " + (length & 0xFFFFFFFFL));
+                    }
+                    return length;
+                }
+                default: { return _ciphertextLength; }
+            }
+        }
+
+        protected void writeCiphertextLength(final int length, final ByteBuffer byteBuffer) {
+            switch (_prefixLength) {
+                case 1: { byteBuffer.put((byte) length); } break;
+                case 2: { byteBuffer.putShort((short) length); } break;
+                case 4: { byteBuffer.putInt(length); } break;
+            }
+        }
+    }
+
+    private final BaseDerivationKey _baseDerivationKey;
+    private final DeviceDecryptor _deviceDecryptor;
+    private final RecordFormat _recordFormat;
+    private final int _windowSize;
+    private final ByteBuffer _outputBuffer;
+    private final byte[] _keySerialNumber = new byte[DukptEngine.KEY_SERIAL_NUMBER_LENGTH];
+
+    private MappedByteBuffer _window;
+    private long _windowStart;
+
+    protected StreamingFileDecryptor(final byte[] baseDerivationKey, final IpekSource ipekSource, final DukptVariant dukptVariant, final boolean shouldConvertToDataKey, final RecordFormat recordFormat, final int windowSize, final int outputBufferSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Invalid window size provided: " + windowSize);
+        }
+        if (outputBufferSize < 1) {
+            throw new IllegalArgumentException("Invalid output buffer size provided: " + outputBufferSize);
+        }
+
+        _baseDerivationKey = (baseDerivationKey != null ? new BaseDerivationKey(baseDerivationKey, dukptVariant) : null);
+        _deviceDecryptor = new DeviceDecryptor(dukptVariant.getEngine(), _baseDerivationKey, ipekSource, shouldConvertToDataKey);
+        _recordFormat = recordFormat;
+        _windowSize = windowSize;
+        _outputBuffer = ByteBuffer.allocateDirect(outputBufferSize);
+    }
+
+    /**
+     * <p>Creates a decryptor deriving keys from <code>baseDerivationKey</code> with <code>dukptVariant</code>.
+     *
+     * @param shouldConvertToDataKey When true, each derived key is passed through {@link Dukpt#toDataKey(byte[])}.
+     */
+    public StreamingFileDecryptor(final byte[] baseDerivationKey, final DukptVariant dukptVariant, final boolean shouldConvertToDataKey, final RecordFormat recordFormat) {
+        this(baseDerivationKey, null, dukptVariant, shouldConvertToDataKey, recordFormat, DEFAULT_WINDOW_SIZE, DEFAULT_OUTPUT_BUFFER_SIZE);
+    }
+
+    /**
+     * <p>Creates a decryptor deriving keys from <code>baseDerivationKey</code> with <code>dukptVariant</code>, mapping
+     * at most <code>windowSize</code> bytes of input (or one record, if larger) at a time.
+     */
+    public StreamingFileDecryptor(final byte[] baseDerivationKey, final DukptVariant dukptVariant, final boolean shouldConvertToDataKey, final RecordFormat recordFormat, final int windowSize, final int outputBufferSize) {
+        this(baseDerivationKey, null, dukptVariant, shouldConvertToDataKey, recordFormat, windowSize, outputBufferSize);
+    }
+
+    /**
+     * <p>Creates a decryptor deriving keys from the per-device IPEKs supplied by <code>ipekSource</code> with
+     * <code>dukptVariant</code>.  The source is called whenever the device changes from one record to the next.
+     */
+    public StreamingFileDecryptor(final IpekSource ipekSource, final DukptVariant dukptVariant, final boolean shouldConvertToDataKey, final RecordFormat recordFormat, final int windowSize, final int outputBufferSize) {
+        this(null, ipekSource, dukptVariant, shouldConvertToDataKey, recordFormat, windowSize, outputBufferSize);
+    }
+
+    /**
+     * <p>Decrypts every record of <code>inputFile</code> into <code>outputFile</code>, which is created or truncated.
+     *
+     * @return The number of records decrypted.
+     */
+    public long decrypt(final Path inputFile, final Path outputFile) throws Exception {
+        try (
+            final FileChannel inputChannel = FileChannel.open(inputFile, StandardOpenOption.READ);
+            final FileChannel outputChannel = FileChannel.open(outputFile, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)
+        ) {
+            return decrypt(inputChannel, outputChannel);
+        }
+    }
+
+    /**
+     * <p>Decrypts every record from the current position of <code>inputChannel</code> to its end, writing the output
+     * records to <code>outputChannel</code>.  Neither channel is closed.
+     *
+     * @return The number of records decrypted.
+     */
+    public long decrypt(final FileChannel inputChannel, final WritableByteChannel outputChannel) throws Exception {
+        final long size = inputChannel.size();
+        final int headerLength = _recordFormat.getHeaderLength();
+
+        long position = inputChannel.position();
+        long recordCount = 0L;
+
+        _window = null;
+        _outputBuffer.clear();
+        try {
+            while (position < size) {
+                final ByteBuffer header = _map(inputChannel, position, headerLength, size);
+                header.get(_keySerialNumber);
+                final int ciphertextLength = _recordFormat.readCiphertextLength(header);
+
+                final ByteBuffer record = _map(inputChannel, position, (headerLength + ciphertextLength), size);
+                final int ciphertextStart = (record.position() + headerLength);
+                record.limit(ciphertextStart + ciphertextLength);
+                record.position(ciphertextStart);
+                try {
+                    _decryptRecord(record, ciphertextLength, outputChannel);
+                }
+                finally {
+                    record.limit(record.capacity());
+                }
+
+                position += (headerLength + ciphertextLength);
+                recordCount += 1L;
+            }
+
+            _flush(outputChannel);
+        }
+        finally {
+            _window = null;
+            _deviceDecryptor.clear();
+
+            // secure memory
+            _wipeOutputBuffer();
+        }
+
+        inputChannel.position(position);
+        return recordCount;
+    }
+
+    /**
+     * <p>Returns the current window, positioned at <code>position</code>, remapping it if it does not contain
+     * <code>length</code> bytes from there.
+     */
+    private ByteBuffer _map(final FileChannel inputChannel, final long position, final int length, final long size) throws IOException {
+        if (position + length > size) {
+            throw new IOException("Truncated record at offset " + position + ".");
+        }
+
+        if ( (_window == null) || (position < _windowStart) || (position + length > _windowStart + _window.limit()) ) {
+            final long mappedLength = Math.min(Math.max(_windowSize, length), (size - position));
+            _window = inputChannel.map(FileChannel.MapMode.READ_ONLY, position, mappedLength);
+            _windowStart = position;
+        }
+
+        _window.position((int) (position - _windowStart));
+        return _window;
+    }
+
+    /**
+     * <p>Decrypts the remaining bytes of <code>ciphertext</code> straight into the output buffer, behind the record's
+     * header.
+     */
+    private void _decryptRecord(final ByteBuffer ciphertext, final int ciphertextLength, final WritableByteChannel outputChannel) throws Exception {
+        final int recordLength = (_recordFormat.getHeaderLength() + ciphertextLength);
+        if (_outputBuffer.remaining() < recordLength) {
+            _flush(outputChannel);
+        }
+
+        if (_outputBuffer.remaining() < recordLength) {
+            // Larger than the whole output buffer; write it through on its own.
+            final byte[] bytes = new byte[recordLength];
+            final ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+            try {
+                _putRecord(ciphertext, ciphertextLength, byteBuffer);
+                byteBuffer.flip();
+                while (byteBuffer.hasRemaining()) {
+                    outputChannel.write(byteBuffer);
+                }
+            }
+            finally {
+                // secure memory
+                Dukpt.obliviate(bytes);
+            }
+            return;
+        }
+
+        _putRecord(ciphertext, ciphertextLength, _outputBuffer);
+    }
+
+    private void _putRecord(final ByteBuffer ciphertext, final int ciphertextLength, final ByteBuffer byteBuffer) throws Exception {
+        byteBuffer.put(_keySerialNumber);
+        _recordFormat.writeCiphertextLength(ciphertextLength, byteBuffer);
+        _deviceDecryptor.decrypt(_keySerialNumber, ciphertext, byteBuffer);
+    }
+
+    /**
+     * <p>Zeroes the whole output buffer, which may still hold decrypted records, and clears it.
+     */
+    private void _wipeOutputBuffer() {
+        _outputBuffer.clear();
+        while (_outputBuffer.remaining() >= 8) {
+            _outputBuffer.putLong(0L);
+        }
+        while (_outputBuffer.hasRemaining()) {
+            _outputBuffer.put((byte) 0);
+        }
+        _outputBuffer.clear();
+    }
+
+    private void _flush(final WritableByteChannel outputChannel) throws IOException {
+        _outputBuffer.flip();
+        while (_outputBuffer.hasRemaining()) {
+            outputChannel.write(_outputBuffer);
+        }
+        _outputBuffer.clear();
+    }
+
+    /**
+     * <p>Zeroes this decryptor's copy of the BDK.  The decryptor cannot be used afterwards.
+     */
+    public void clear() {
+        if (_baseDerivationKey != null) {
+            _baseDerivationKey.clear();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.softwareverde.security.dukpt;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class AesDukptTests {
+    @Test
+    public void testComputeKeyMatchesTestVectors() throws Exception {
+        // Setup
+        byte[] bdk = Dukpt.toByteArray("FEDCBA9876543210F1F1F1F1F1F1F1F1"); // X9.24-3-2017 AES-128 Test Key
+        byte[] ksn = Dukpt.toByteArray("123456789012345600000001");
+        AesDukpt aesDukpt = new AesDukpt(AesDukptKeyUsage.PIN_ENCRYPTION, AesDukptKeyType.AES_128);
+
+        // Action
+        byte[] initialKey = aesDukpt.getInitialKey(bdk, ksn);
+        byte[] key = aesDukpt.computeKey(bdk, ksn);
+
+        // Assert
+        Assert.assertEquals("1273671EA26AC29AFA4D1084127652A1", Dukpt.toHex(initialKey));
+        Assert.assertEquals("AF8CB133A78F8DC2D1359F18527593FB", Dukpt.toHex(key));
+        Assert.assertEquals("AES-PIN", aesDukpt.getVariantName());
+    }
+
+    @Test
+    public void testDeviceContextMatchesComputeKey() throws Exception {
+        // Setup
+        String[] bdkHexStrings = {
+            "FEDCBA9876543210F1F1F1F1F1F1F1F1",
+            "FEDCBA9876543210F1F1F1F1F1F1F1F10123456789ABCDEF",
+            "FEDCBA9876543210F1F1F1F1F1F1F1F10123456789ABCDEFFEDCBA9876543210"
+        };
+        AesDukptKeyType[] keyTypes = { AesDukptKeyType.AES_128, AesDukptKeyType.TDEA_3KEY, AesDukptKeyType.AES_256 };
+        Random random = new Random(1L);
+
+        for (int i = 0; i < bdkHexStrings.length; i++) {
+            byte[] bdk = Dukpt.toByteArray(bdkHexStrings[i]);
+            byte[] ksn = Dukpt.toByteArray("123456789012345600000000");
+            AesDukpt aesDukpt = new AesDukpt(AesDukptKeyUsage.DATA_ENCRYPTION_DECRYPT, keyTypes[i]);
+
+            AesDukptDeviceContext deviceContext = aesDukpt.createDeviceContext(bdk, ksn);
+            AesDukptDeviceContext initialKeyDeviceContext = aesDukpt.createDeviceContextFromInitialKey(aesDukpt.getInitialKey(bdk, ksn), ksn);
+
+            int counter = 0;
+            for (int j = 0; j < 50; j++) {
+                counter = (j < 25 ? (counter + 1) : random.nextInt());
+                Bytes.putLong((0x1234567890123456L << 32) | (counter & 0xFFFFFFFFL), ksn, 4);
+
+                // Action
+                byte[] key = deviceContext.computeKey(ksn);
+                byte[] initialKeyKey = initialKeyDeviceContext.computeKey(ksn);
+
+                // Assert
+                byte[] expectedKey = aesDukpt.computeKey(bdk, ksn);
+                Assert.assertEquals(keyTypes[i].getKeyLength(), key.length);
+                Assert.assertEquals(Dukpt.toHex(expectedKey), Dukpt.toHex(key));
+                Assert.assertEquals(Dukpt.toHex(expectedKey), Dukpt.toHex(initialKeyKey));
+                Assert.assertEquals(Dukpt.toHex(expectedKey), Dukpt.toHex(aesDukpt.computeKeyFromInitialKey(aesDukpt.getInitialKey(bdk, ksn), ksn)));
+                if (j == 24) {
+                    // Each sequential counter only adds its own intermediate key to the previous path.
+                    Assert.assertEquals(25L * 2L, deviceContext.getDerivationCount());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDeviceContextRejectsOtherDevicesAndClearedUse() throws Exception {
+        // Setup
+        byte[] bdk = Dukpt.toByteArray("FEDCBA9876543210F1F1F1F1F1F1F1F1");
+        AesDukpt aesDukpt = new AesDukpt();
+        AesDukptDeviceContext deviceContext = aesDukpt.createDeviceContext(bdk, Dukpt.toByteArray("123456789012345600000001"));
+
+        // Action
+        try {
+            deviceContext.computeKey(Dukpt.toByteArray("123456789012345700000001"));
+            Assert.fail();
+        }
+        catch (IllegalArgumentException exception) { }
+
+        deviceContext.clear();
+        try {
+            deviceContext.computeKey(Dukpt.toByteArray("123456789012345600000001"));
+            Assert.fail();
+        }
+        catch (IllegalStateException exception) { }
+    }
+}
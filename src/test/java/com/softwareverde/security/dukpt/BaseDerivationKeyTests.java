@@ -0,0 +1,72 @@
+package com.softwareverde.security.dukpt;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BaseDerivationKeyTests {
+    @Test
+    public void testPreparedKeyMatchesByteArrayKey() throws Exception {
+        // Setup
+        String[] bdkHexStrings = {
+            "0123456789ABCDEF",
+            "0123456789ABCDEFFEDCBA9876543210", // ANSI Test Key
+            "0123456789ABCDEFFEDCBA98765432100011223344556677"
+        };
+        String[] ksnHexStrings = { "FFFF9876543210E00000", "FFFF9876543210E00008", "629949012C0000000003", "FFFF9876543210EFF800" };
+        final DukptVariant dukptVariant = new DukptVariant(Dukpt.KEY_REGISTER_BITMASK, Dukpt.DATA_VARIANT_BITMASK);
+
+        for (String bdkHexString : bdkHexStrings) {
+            byte[] bdk = Dukpt.toByteArray(bdkHexString);
+            BaseDerivationKey baseDerivationKey = new BaseDerivationKey(bdk);
+
+            for (String ksnHexString : ksnHexStrings) {
+                byte[] ksn = Dukpt.toByteArray(ksnHexString);
+
+                // Action
+                byte[] ipek = Dukpt.getIpek(baseDerivationKey, ksn);
+                byte[] key = Dukpt.computeKey(baseDerivationKey, ksn);
+                byte[] dataKey = dukptVariant.computeKey(baseDerivationKey, ksn);
+                byte[] contextKey = Dukpt.createDeviceContext(baseDerivationKey, ksn).computeKey(ksn);
+
+                // Assert
+                Assert.assertEquals(Dukpt.toHex(Dukpt.toByteArray(Dukpt.getIpek(Dukpt.toBitSet(bdk), Dukpt.toBitSet(ksn)))), Dukpt.toHex(ipek));
+                Assert.assertEquals(Dukpt.toHex(Dukpt.computeKey(bdk, ksn)), Dukpt.toHex(key));
+                Assert.assertEquals(Dukpt.toHex(dukptVariant.computeKey(bdk, ksn)), Dukpt.toHex(dataKey));
+                Assert.assertEquals(Dukpt.toHex(key), Dukpt.toHex(contextKey));
+            }
+        }
+    }
+
+    @Test
+    public void testVariantWithOtherKeyRegisterBitmaskAcceptsPreparedKey() throws Exception {
+        // Setup
+        byte[] bdk = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"); // ANSI Test Key
+        byte[] ksn = Dukpt.toByteArray("FFFF9876543210E00008");
+        final DukptVariant dukptVariant = new DukptVariant("F0F0F0F000000000F0F0F0F000000000", Dukpt.PIN_VARIANT_BITMASK);
+
+        BaseDerivationKey standardKey = new BaseDerivationKey(bdk);
+        BaseDerivationKey variantKey = new BaseDerivationKey(bdk, dukptVariant);
+
+        // Action
+        byte[] key = dukptVariant.computeKey(standardKey, ksn);
+        byte[] ipek = dukptVariant.getIpek(variantKey, ksn);
+
+        // Assert
+        Assert.assertEquals(Dukpt.toHex(dukptVariant.computeKey(bdk, ksn)), Dukpt.toHex(key));
+        Assert.assertEquals(Dukpt.toHex(Dukpt.toByteArray(dukptVariant.getIpek(Dukpt.toBitSet(bdk), Dukpt.toBitSet(ksn)))), Dukpt.toHex(ipek));
+    }
+
+    @Test
+    public void testClearedKeyCannotBeUsed() throws Exception {
+        // Setup
+        BaseDerivationKey baseDerivationKey = new BaseDerivationKey(Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"));
+        baseDerivationKey.clear();
+
+        // Action
+        try {
+            Dukpt.computeKey(baseDerivationKey, Dukpt.toByteArray("FFFF9876543210E00008"));
+            Assert.fail();
+        }
+        catch (IllegalStateException exception) { }
+    }
+}
@@ -0,0 +1,38 @@
+package com.softwareverde.security.dukpt;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BytesTests {
+    @Test
+    public void testLongsAreReadAndWrittenBigEndianAtAnyOffset() {
+        // Setup
+        byte[] bytes = Dukpt.toByteArray("00FFFF9876543210E0000800");
+        byte[] written = new byte[12];
+
+        // Action
+        long value = Bytes.toLong(bytes, 3);
+        Bytes.putLong(value, written, 1);
+        Bytes.putLong(0x8000000000000001L, written, 4);
+
+        // Assert
+        Assert.assertEquals(0x9876543210E00008L, value);
+        Assert.assertEquals("009876548000000000000001", Dukpt.toHex(written));
+        Assert.assertEquals(0x8000000000000001L, Bytes.toLong(written, 4));
+    }
+
+    @Test
+    public void testOutOfRangeOffsetIsRejected() {
+        // Setup
+        byte[] bytes = new byte[10];
+
+        // Action
+        try {
+            Bytes.toLong(bytes, 3);
+            Assert.fail();
+        }
+        catch (IndexOutOfBoundsException exception) {
+            // Assert
+        }
+    }
+}
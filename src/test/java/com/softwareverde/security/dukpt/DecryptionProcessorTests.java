@@ -0,0 +1,188 @@
+package com.softwareverde.security.dukpt;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class DecryptionProcessorTests {
+    /**
+     * <p>Publishes a list, honoring demand, and counts the records handed out.
+     */
+    private static class ListPublisher implements DukptFlow.Publisher<EncryptedRecord> {
+        private final List<EncryptedRecord> _records;
+        private final AtomicInteger _publishedCount = new AtomicInteger(0);
+        private volatile boolean _isCancelled = false;
+
+        public ListPublisher(List<EncryptedRecord> records) {
+            _records = records;
+        }
+
+        @Override
+        public void subscribe(final DukptFlow.Subscriber<? super EncryptedRecord> subscriber) {
+            subscriber.onSubscribe(new DukptFlow.Subscription() {
+                private long _requested = 0L;
+                private int _index = 0;
+                private boolean _isEmitting = false;
+
+                @Override
+                public synchronized void request(long n) {
+                    _requested += n;
+                    if (_isEmitting) { return; }
+
+                    _isEmitting = true;
+                    while (_requested > 0L && _index < _records.size() && ! _isCancelled) {
+                        _requested -= 1L;
+                        _publishedCount.incrementAndGet();
+                        subscriber.onNext(_records.get(_index++));
+                    }
+                    if (_index == _records.size() && ! _isCancelled) {
+                        _index += 1;
+                        subscriber.onComplete();
+                    }
+                    _isEmitting = false;
+                }
+
+                @Override
+                public void cancel() {
+                    _isCancelled = true;
+                }
+            });
+        }
+    }
+
+    /**
+     * <p>Requests results a few at a time, recording the largest number of records in flight.
+     */
+    private static class SlowSubscriber implements DukptFlow.Subscriber<DecryptedRecord> {
+        private final ListPublisher _publisher;
+        private final List<DecryptedRecord> _records = new ArrayList<DecryptedRecord>();
+        private final CountDownLatch _latch = new CountDownLatch(1);
+        private final AtomicReference<Throwable> _error = new AtomicReference<Throwable>();
+        private DukptFlow.Subscription _subscription;
+        private int _maxInFlightCount = 0;
+
+        public SlowSubscriber(ListPublisher publisher) {
+            _publisher = publisher;
+        }
+
+        @Override
+        public void onSubscribe(DukptFlow.Subscription subscription) {
+            _subscription = subscription;
+            subscription.request(3L);
+        }
+
+        @Override
+        public void onNext(DecryptedRecord record) {
+            _records.add(record);
+            _maxInFlightCount = Math.max(_maxInFlightCount, _publisher._publishedCount.get() - _records.size());
+            if (_records.size() % 3 == 0) {
+                _subscription.request(3L);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            _error.set(throwable);
+            _latch.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            _latch.countDown();
+        }
+    }
+
+    @Test
+    public void testDecryptsStreamInDeviceOrderWithBoundedDemand() throws Exception {
+        // Setup
+        byte[] bdk = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"); // ANSI Test Key
+        DukptVariant dataVariant = new DukptVariant(Dukpt.KEY_REGISTER_BITMASK, Dukpt.DATA_VARIANT_BITMASK);
+
+        List<EncryptedRecord> records = new ArrayList<EncryptedRecord>();
+        Map<String, String> expectedPlaintexts = new HashMap<String, String>();
+        for (int counter = 1; counter <= 40; counter++) {
+            for (int device = 0; device < 5; device++) {
+                byte[] ksn = Dukpt.toByteArray(String.format("FFFF98765432%02XE0%04X", device, counter));
+                byte[] plaintext = Dukpt.toByteArray(String.format("%016X", (device * 1000L) + counter));
+                byte[] dataKey = Dukpt.toDataKey(dataVariant.computeKey(bdk, ksn));
+                records.add(new EncryptedRecord(ksn, Dukpt.encryptTripleDes(dataKey, plaintext)));
+                expectedPlaintexts.put(Dukpt.toHex(ksn), Dukpt.toHex(plaintext));
+            }
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(3);
+        DecryptionProcessor decryptionProcessor = new DecryptionProcessor(bdk, dataVariant, true, executorService, 3, 4);
+        ListPublisher publisher = new ListPublisher(records);
+        SlowSubscriber subscriber = new SlowSubscriber(publisher);
+
+        try {
+            // Action
+            decryptionProcessor.subscribe(subscriber);
+            publisher.subscribe(decryptionProcessor);
+
+            // Assert
+            Assert.assertTrue(subscriber._latch.await(30, TimeUnit.SECONDS));
+            Assert.assertNull(subscriber._error.get());
+            Assert.assertEquals(records.size(), subscriber._records.size());
+            Assert.assertTrue(subscriber._maxInFlightCount <= (2 * 3 * 4));
+
+            Map<String, Integer> lastCounters = new HashMap<String, Integer>();
+            for (DecryptedRecord record : subscriber._records) {
+                String ksnHex = Dukpt.toHex(record.getKeySerialNumber());
+                Assert.assertEquals(expectedPlaintexts.get(ksnHex), Dukpt.toHex(record.getPlaintext()));
+
+                String device = ksnHex.substring(0, 14);
+                int counter = Integer.parseInt(ksnHex.substring(16), 16);
+                Integer lastCounter = lastCounters.put(device, counter);
+                Assert.assertTrue(lastCounter == null || lastCounter < counter);
+            }
+        }
+        finally {
+            decryptionProcessor.clear();
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void testInvalidRecordFailsStreamAndCancelsUpstream() throws Exception {
+        // Setup
+        byte[] bdk = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"); // ANSI Test Key
+        List<EncryptedRecord> records = new ArrayList<EncryptedRecord>();
+        records.add(new EncryptedRecord(Dukpt.toByteArray("FFFF9876543210E00001"), new byte[8]));
+        records.add(new EncryptedRecord(Dukpt.toByteArray("FFFF9876543210E00002"), new byte[5]));
+        for (int i = 0; i < 100; i++) {
+            records.add(new EncryptedRecord(Dukpt.toByteArray("FFFF9876543210E00003"), new byte[8]));
+        }
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        DecryptionProcessor decryptionProcessor = new DecryptionProcessor(bdk, new DukptVariant(), false, executorService, 1, 1);
+        ListPublisher publisher = new ListPublisher(records);
+        SlowSubscriber subscriber = new SlowSubscriber(publisher);
+
+        try {
+            // Action
+            decryptionProcessor.subscribe(subscriber);
+            publisher.subscribe(decryptionProcessor);
+
+            // Assert
+            Assert.assertTrue(subscriber._latch.await(30, TimeUnit.SECONDS));
+            Assert.assertTrue(subscriber._error.get() instanceof javax.crypto.IllegalBlockSizeException);
+            Assert.assertTrue(publisher._isCancelled);
+            Assert.assertTrue(publisher._publishedCount.get() < records.size());
+        }
+        finally {
+            decryptionProcessor.clear();
+            executorService.shutdown();
+        }
+    }
+}
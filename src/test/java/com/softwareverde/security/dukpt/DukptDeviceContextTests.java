@@ -0,0 +1,86 @@
+package com.softwareverde.security.dukpt;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class DukptDeviceContextTests {
+    private static byte[] _toKeySerialNumber(String deviceHexString, long counter) {
+        byte[] ksn = Dukpt.toByteArray(deviceHexString);
+        long keySerialNumberRight = (Bytes.toLong(ksn, 2) & ~DukptEngine.COUNTER_BITMASK) | counter;
+        Bytes.putLong(keySerialNumberRight, ksn, 2);
+        return ksn;
+    }
+
+    @Test
+    public void testSequentialCountersMatchComputeKey() throws Exception {
+        // Setup
+        byte[] bdk = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"); // ANSI Test Key
+        String deviceHexString = "FFFF9876543210E00000";
+        DukptDeviceContext deviceContext = Dukpt.createDeviceContext(bdk, Dukpt.toByteArray(deviceHexString));
+
+        long expectedStepCount = 0L;
+        for (long counter = 1L; counter <= 512L; counter++) {
+            byte[] ksn = _toKeySerialNumber(deviceHexString, counter);
+            expectedStepCount += Long.bitCount(counter);
+
+            // Action
+            byte[] key = deviceContext.computeKey(ksn);
+
+            // Assert
+            Assert.assertEquals(Dukpt.toHex(Dukpt.computeKey(bdk, ksn)), Dukpt.toHex(key));
+        }
+
+        // Each sequential counter reuses its predecessor's path; only the changed low bits are derived.
+        Assert.assertTrue(deviceContext.getNonReversibleStepCount() < (expectedStepCount / 2L));
+    }
+
+    @Test
+    public void testRandomCountersMatchComputeKey() throws Exception {
+        // Setup
+        byte[] ipek = Dukpt.toByteArray("6AC292FAA1315B4D858AB3A3D7D5933A");
+        String deviceHexString = "FFFF9876543210E00000";
+        final DukptVariant dukptVariant = new DukptVariant(Dukpt.KEY_REGISTER_BITMASK, Dukpt.DATA_VARIANT_BITMASK);
+        DukptDeviceContext deviceContext = dukptVariant.createDeviceContextFromIpek(ipek, Dukpt.toByteArray(deviceHexString));
+        Random random = new Random(1L);
+
+        for (int i = 0; i < 200; i++) {
+            byte[] ksn = _toKeySerialNumber(deviceHexString, (random.nextInt() & DukptEngine.COUNTER_BITMASK));
+
+            // Action
+            byte[] key = deviceContext.computeKey(ksn);
+
+            // Assert
+            Assert.assertEquals(Dukpt.toHex(dukptVariant.computeKeyFromIpek(ipek, ksn)), Dukpt.toHex(key));
+        }
+    }
+
+    @Test
+    public void testContextRejectsOtherDevicesAndClearedUse() throws Exception {
+        // Setup
+        byte[] bdk = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"); // ANSI Test Key
+        DukptDeviceContext deviceContext = Dukpt.createDeviceContext(bdk, Dukpt.toByteArray("FFFF9876543210E00008"));
+
+        // Action
+        boolean isSameDevice = deviceContext.isSameDevice(Dukpt.toByteArray("FFFF9876543210E00010"));
+        boolean isOtherDevice = ! deviceContext.isSameDevice(Dukpt.toByteArray("FFFF9876543211E00010"));
+
+        // Assert
+        Assert.assertTrue(isSameDevice);
+        Assert.assertTrue(isOtherDevice);
+
+        try {
+            deviceContext.computeKey(Dukpt.toByteArray("FFFF9876543211E00010"));
+            Assert.fail();
+        }
+        catch (IllegalArgumentException exception) { }
+
+        deviceContext.clear();
+        try {
+            deviceContext.computeKey(Dukpt.toByteArray("FFFF9876543210E00010"));
+            Assert.fail();
+        }
+        catch (IllegalStateException exception) { }
+    }
+}
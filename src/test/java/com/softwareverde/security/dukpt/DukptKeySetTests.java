@@ -0,0 +1,60 @@
+package com.softwareverde.security.dukpt;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DukptKeySetTests {
+    @Test
+    public void testKeySetMatchesSingleVariantDerivation() throws Exception {
+        // Setup
+        byte[] bdk = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"); // ANSI Test Key
+        byte[] ksn = Dukpt.toByteArray("FFFF9876543210E00008");
+        byte[] expectedPinKey = new DukptVariant(Dukpt.KEY_REGISTER_BITMASK, Dukpt.PIN_VARIANT_BITMASK).computeKey(bdk, ksn);
+        byte[] expectedMacKey = new DukptVariant(Dukpt.KEY_REGISTER_BITMASK, Dukpt.MAC_VARIANT_BITMASK).computeKey(bdk, ksn);
+        byte[] expectedDataVariantKey = new DukptVariant(Dukpt.KEY_REGISTER_BITMASK, Dukpt.DATA_VARIANT_BITMASK).computeKey(bdk, ksn);
+        byte[] expectedDataKey = Dukpt.toDataKey(expectedDataVariantKey);
+
+        // Action
+        DukptKeySet keySet = Dukpt.computeKeySet(bdk, ksn, DukptKeyVariant.PIN, DukptKeyVariant.MAC, DukptKeyVariant.DATA, DukptKeyVariant.DATA_KEY);
+        BaseDerivationKey baseDerivationKey = new BaseDerivationKey(bdk);
+        DukptKeySet ipekKeySet = Dukpt.computeKeySetFromIpek(Dukpt.getIpek(baseDerivationKey, ksn), ksn, DukptKeyVariant.PIN, DukptKeyVariant.DATA_KEY);
+        DukptKeySet preparedKeySet = Dukpt.computeKeySet(baseDerivationKey, ksn, DukptKeyVariant.MAC);
+
+        // Assert
+        Assert.assertArrayEquals(ksn, keySet.getKeySerialNumber());
+        Assert.assertArrayEquals(expectedPinKey, keySet.getPinKey());
+        Assert.assertArrayEquals(expectedMacKey, keySet.getMacKey());
+        Assert.assertArrayEquals(expectedDataVariantKey, keySet.getKey(DukptKeyVariant.DATA));
+        Assert.assertArrayEquals(expectedDataKey, keySet.getDataKey());
+
+        Assert.assertArrayEquals(expectedPinKey, ipekKeySet.getPinKey());
+        Assert.assertArrayEquals(expectedDataKey, ipekKeySet.getDataKey());
+        Assert.assertFalse(ipekKeySet.hasKey(DukptKeyVariant.MAC));
+
+        Assert.assertArrayEquals(expectedMacKey, preparedKeySet.getMacKey());
+        baseDerivationKey.clear();
+    }
+
+    @Test
+    public void testClearedKeySetNoLongerHoldsKeys() throws Exception {
+        // Setup
+        byte[] bdk = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"); // ANSI Test Key
+        byte[] ksn = Dukpt.toByteArray("FFFF9876543210E00008");
+        DukptKeySet keySet = Dukpt.computeKeySet(bdk, ksn, DukptKeyVariant.PIN);
+        byte[] pinKey = keySet.getPinKey();
+
+        // Action
+        keySet.clear();
+
+        // Assert
+        Assert.assertArrayEquals(new byte[16], pinKey);
+        Assert.assertFalse(keySet.hasKey(DukptKeyVariant.PIN));
+        try {
+            keySet.getPinKey();
+            Assert.fail();
+        }
+        catch (IllegalArgumentException exception) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.softwareverde.security.dukpt;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class DukptKeyTableTests {
+    @Test
+    public void testEnumerateKeysMatchesComputeKey() throws Exception {
+        // Setup
+        byte[] bdk = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"); // ANSI Test Key
+        byte[] ksn = Dukpt.toByteArray("FFFF9876543210E00000");
+        final DukptVariant dukptVariant = new DukptVariant(Dukpt.KEY_REGISTER_BITMASK, Dukpt.DATA_VARIANT_BITMASK);
+
+        // Action
+        DukptKeyEnumerator keyEnumerator = dukptVariant.enumerateKeys(bdk, ksn, 0x0FFC00, 0x100100);
+
+        // Assert
+        int expectedCounter = 0x0FFC00;
+        int count = 0;
+        while (keyEnumerator.hasNext()) {
+            DukptKeyEnumerator.Entry entry = keyEnumerator.next();
+            while (Integer.bitCount(expectedCounter) > DukptKeyEnumerator.MAX_COUNTER_BITS) {
+                expectedCounter += 1;
+            }
+
+            Assert.assertEquals(expectedCounter, entry.getTransactionCounter());
+            Assert.assertEquals(Dukpt.toHex(dukptVariant.computeKey(bdk, entry.getKeySerialNumber())), Dukpt.toHex(entry.getKey()));
+            expectedCounter += 1;
+            count += 1;
+        }
+        while (Integer.bitCount(expectedCounter) > DukptKeyEnumerator.MAX_COUNTER_BITS) {
+            expectedCounter += 1;
+        }
+        Assert.assertTrue(expectedCounter > 0x100100);
+        Assert.assertEquals(DukptKeyTable.rank(0x100101) - DukptKeyTable.rank(0x0FFC00), count);
+    }
+
+    @Test
+    public void testRankCountsValidCounters() {
+        // Setup
+        long expectedRank = 0L;
+
+        for (int counter = 0; counter <= DukptKeyEnumerator.MAX_COUNTER + 1; counter += 1) {
+            // Action
+            long rank = DukptKeyTable.rank(counter);
+
+            // Assert
+            if (rank != expectedRank) {
+                Assert.fail("rank(" + counter + ") = " + rank + ", expected " + expectedRank);
+            }
+            if (DukptKeyEnumerator.isValidCounter(counter)) {
+                expectedRank += 1L;
+            }
+        }
+    }
+
+    @Test
+    public void testKeyTableReturnsEnumeratedKeys() throws Exception {
+        // Setup
+        byte[] bdk = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"); // ANSI Test Key
+        byte[] ksn = Dukpt.toByteArray("FFFF9876543210E00005");
+        byte[] tableKey = Dukpt.toByteArray("00112233445566778899AABBCCDDEEFF");
+        DukptVariant dukptVariant = new DukptVariant();
+        Path file = Files.createTempFile("dukpt", ".keys");
+
+        try {
+            // Action
+            long entryCount = DukptKeyTable.write(file, bdk, dukptVariant, ksn, 5, 0x3000, tableKey);
+
+            // Assert
+            try (DukptKeyTable keyTable = DukptKeyTable.open(file, tableKey)) {
+                Assert.assertEquals(entryCount, keyTable.getEntryCount());
+                Assert.assertEquals(DukptKeyTable.HEADER_LENGTH + (entryCount * DukptKeyTable.ENTRY_LENGTH), Files.size(file));
+
+                for (int counter : new int[] { 5, 6, 0x03FF, 0x2000, 0x2FF0, 0x3000 }) {
+                    DukptKeyEnumerator.setCounter(ksn, counter);
+                    Assert.assertTrue(keyTable.contains(ksn));
+                    Assert.assertEquals(Dukpt.toHex(Dukpt.computeKey(bdk, ksn)), Dukpt.toHex(keyTable.getKey(ksn)));
+                }
+
+                DukptKeyEnumerator.setCounter(ksn, 4);
+                Assert.assertFalse(keyTable.contains(ksn));
+                DukptKeyEnumerator.setCounter(ksn, 0x0FFF); // 12 bits set
+                Assert.assertFalse(keyTable.contains(ksn));
+                Assert.assertFalse(keyTable.contains(Dukpt.toByteArray("FFFF9876543211E00005")));
+            }
+
+            try {
+                DukptKeyTable.open(file, Dukpt.toByteArray("FFEEDDCCBBAA99887766554433221100"));
+                Assert.fail();
+            }
+            catch (IllegalArgumentException exception) { }
+        }
+        finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
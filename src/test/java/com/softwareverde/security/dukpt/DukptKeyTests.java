@@ -0,0 +1,139 @@
+package com.softwareverde.security.dukpt;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class DukptKeyTests {
+    @Test
+    public void testKeyHandlesMatchByteArrayApi() throws Exception {
+        // Setup
+        byte[] bdk = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"); // ANSI Test Key
+        byte[] ksn = Dukpt.toByteArray("FFFF9876543210E00008");
+        byte[] data = Dukpt.toByteArray("0123456789ABCDEF0123456789ABCDEF");
+        DukptVariant dataVariant = new DukptVariant(Dukpt.KEY_REGISTER_BITMASK, Dukpt.DATA_VARIANT_BITMASK);
+
+        byte[] expectedKey = dataVariant.computeKey(bdk, ksn);
+        byte[] expectedDataKey = Dukpt.toDataKey(expectedKey);
+
+        try (DukptKey bdkHandle = DukptKey.copyOf(bdk);
+             DukptKey ipek = dataVariant.getIpek(bdkHandle, ksn);
+             DukptKey key = dataVariant.computeKey(bdkHandle, ksn);
+             DukptKey keyFromIpek = dataVariant.computeKeyFromIpek(ipek, ksn);
+             DukptKey dataKey = dataVariant.toDataKey(key)) {
+
+            // Action
+            byte[] encrypted = Dukpt.encryptTripleDes(dataKey, data, true);
+            byte[] aesEncrypted = Dukpt.encryptAes(dataKey, data, false);
+            ByteBuffer output = ByteBuffer.allocateDirect(data.length);
+            Dukpt.decryptTripleDes(dataKey, ByteBuffer.wrap(Dukpt.encryptTripleDes(expectedDataKey, data)), output, false);
+
+            // Assert
+            Assert.assertEquals(Dukpt.toHex(Dukpt.toByteArray(Dukpt.getIpek(Dukpt.toBitSet(bdk), Dukpt.toBitSet(ksn)))), Dukpt.toHex(ipek.toByteArray()));
+            Assert.assertEquals(Dukpt.toHex(expectedKey), Dukpt.toHex(key.toByteArray()));
+            Assert.assertEquals(Dukpt.toHex(expectedKey), Dukpt.toHex(keyFromIpek.toByteArray()));
+            Assert.assertEquals(Dukpt.toHex(expectedDataKey), Dukpt.toHex(dataKey.toByteArray()));
+            Assert.assertEquals(Dukpt.toHex(Dukpt.encryptTripleDes(expectedDataKey, data, true)), Dukpt.toHex(encrypted));
+            Assert.assertEquals(Dukpt.toHex(Dukpt.encryptAes(expectedDataKey, data, false)), Dukpt.toHex(aesEncrypted));
+            Assert.assertEquals(Dukpt.toHex(data), Dukpt.toHex(Dukpt.decryptTripleDes(dataKey, encrypted, true)));
+
+            output.flip();
+            byte[] decrypted = new byte[output.remaining()];
+            output.get(decrypted);
+            Assert.assertEquals(Dukpt.toHex(data), Dukpt.toHex(decrypted));
+        }
+    }
+
+    @Test
+    public void testCloseZeroesAndInvalidatesKey() {
+        // Setup
+        DukptKey key = DukptKey.copyOf(Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"));
+        ByteBuffer slab = key.getSlab().getBuffer();
+        int offset = key.getOffset();
+
+        // Action
+        key.close();
+        key.close();
+
+        // Assert
+        Assert.assertTrue(key.isClosed());
+        for (int i = 0; i < DukptKeySlab.SLOT_LENGTH; i++) {
+            Assert.assertEquals(0, slab.get(offset + i));
+        }
+        try {
+            key.toByteArray();
+            Assert.fail();
+        }
+        catch (IllegalStateException exception) { }
+    }
+
+    @Test
+    public void testCloseUsesObliviationPolicy() {
+        // Setup
+        DukptKey key = DukptKey.copyOf(Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"));
+        ByteBuffer slab = key.getSlab().getBuffer();
+        int offset = key.getOffset();
+
+        Dukpt.setObliviationPolicy(new ObliviationPolicy() {
+            @Override
+            public void obliviate(byte[] bytes) { Arrays.fill(bytes, (byte) 0x5A); }
+
+            @Override
+            public void obliviate(int[] values) { Arrays.fill(values, 0x5A5A5A5A); }
+
+            @Override
+            public void obliviate(long[] values) { Arrays.fill(values, 0x5A5A5A5A5A5A5A5AL); }
+
+            @Override
+            public void obliviate(BitSet bitSet) { StandardObliviationPolicy.ZERO_FILL.obliviate(bitSet); }
+        });
+
+        // Action
+        try {
+            key.close();
+        }
+        finally {
+            Dukpt.setObliviationPolicy(StandardObliviationPolicy.ZERO_FILL);
+        }
+
+        // Assert
+        for (int i = 0; i < DukptKeySlab.SLOT_LENGTH; i++) {
+            Assert.assertEquals((byte) 0x5A, slab.get(offset + i));
+        }
+    }
+
+    @Test
+    public void testSlabsGrowAndSlotsAreReused() {
+        // Setup
+        List<DukptKey> keys = new ArrayList<DukptKey>();
+        byte[] value = new byte[DukptKey.MAX_LENGTH];
+
+        // Action
+        for (int i = 0; i < (DukptKeySlab.SLOT_COUNT * 2); i++) {
+            value[0] = (byte) i;
+            value[DukptKey.MAX_LENGTH - 1] = (byte) (i >>> 8);
+            keys.add(DukptKey.copyOf(value));
+        }
+        int slabCount = DukptKeySlab.getSlabCount();
+
+        // Assert
+        Assert.assertTrue(slabCount >= 2);
+        for (int i = 0; i < keys.size(); i++) {
+            byte[] bytes = keys.get(i).toByteArray();
+            Assert.assertEquals((byte) i, bytes[0]);
+            Assert.assertEquals((byte) (i >>> 8), bytes[DukptKey.MAX_LENGTH - 1]);
+        }
+
+        for (DukptKey key : keys) {
+            key.close();
+        }
+        for (int i = 0; i < (DukptKeySlab.SLOT_COUNT * 2); i++) {
+            DukptKey.allocate(8).close();
+        }
+        Assert.assertEquals(slabCount, DukptKeySlab.getSlabCount());
+    }
+}
@@ -0,0 +1,100 @@
+package com.softwareverde.security.dukpt;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+
+public class DukptMetricsRecorderTests {
+    @Test
+    public void testRecordsDerivationsPerVariant() throws Exception {
+        // Setup
+        byte[] bdk = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"); // ANSI Test Key
+        DukptVariant dataVariant = new DukptVariant(Dukpt.KEY_REGISTER_BITMASK, Dukpt.DATA_VARIANT_BITMASK);
+        DukptMetricsRecorder recorder = new DukptMetricsRecorder();
+
+        Dukpt.setMetrics(recorder);
+        try {
+            // Action
+            Dukpt.computeKey(bdk, Dukpt.toByteArray("FFFF9876543210E00001")); // 1 bit
+            Dukpt.computeKey(bdk, Dukpt.toByteArray("FFFF9876543210E00003")); // 2 bits
+            byte[] key = dataVariant.computeKey(bdk, Dukpt.toByteArray("FFFF9876543210E7FE00")); // 10 bits
+            Dukpt.toDataKey(key);
+            Dukpt.computeDataKey(bdk, Dukpt.toByteArray("FFFF9876543210E7FE00")); // 10 bits
+        }
+        finally {
+            Dukpt.setMetrics(DukptMetrics.NONE);
+        }
+
+        // Assert
+        Assert.assertEquals("PIN", new DukptVariant().getVariantName());
+        Assert.assertEquals("DATA", dataVariant.getVariantName());
+
+        Assert.assertEquals(2L, recorder.getStatistics(DukptOperation.COMPUTE_KEY, "PIN").getCount());
+        Assert.assertEquals(1L, recorder.getStatistics(DukptOperation.COMPUTE_KEY, "DATA").getCount());
+        Assert.assertEquals(1L, recorder.getStatistics(DukptOperation.TO_DATA_KEY, null).getCount());
+        Assert.assertEquals(0L, recorder.getStatistics(DukptOperation.ENCRYPT_TRIPLE_DES, null).getCount());
+        Assert.assertEquals(1L, recorder.getStatistics(DukptOperation.COMPUTE_DATA_KEY, "DATA").getCount());
+        Assert.assertEquals(0L, recorder.getStatistics(DukptOperation.GET_IPEK, "PIN").getCount());
+
+        long[] pinSteps = recorder.getNonReversibleStepHistogram("PIN");
+        Assert.assertEquals(1L, pinSteps[1]);
+        Assert.assertEquals(1L, pinSteps[2]);
+        Assert.assertEquals(2L, recorder.getNonReversibleStepHistogram("DATA")[10]);
+        Assert.assertTrue(recorder.getObliviationCount() > 0L);
+
+        Map<String, DukptMetricsRecorder.OperationStatistics> statistics = recorder.getStatistics();
+        Assert.assertTrue(statistics.containsKey("COMPUTE_KEY[PIN]"));
+        Assert.assertTrue(statistics.containsKey("TO_DATA_KEY"));
+    }
+
+    @Test
+    public void testDeviceContextReportsStepsRun() throws Exception {
+        // Setup
+        byte[] bdk = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"); // ANSI Test Key
+        DukptMetricsRecorder recorder = new DukptMetricsRecorder();
+        DukptDeviceContext deviceContext = Dukpt.createDeviceContext(bdk, Dukpt.toByteArray("FFFF9876543210E00000"));
+
+        Dukpt.setMetrics(recorder);
+        try {
+            // Action
+            deviceContext.computeKey(Dukpt.toByteArray("FFFF9876543210E00002")); // 1 step
+            deviceContext.computeKey(Dukpt.toByteArray("FFFF9876543210E00003")); // 1 step; the first bit is reused
+            deviceContext.computeKey(Dukpt.toByteArray("FFFF9876543210E00003")); // 0 steps
+        }
+        finally {
+            Dukpt.setMetrics(DukptMetrics.NONE);
+            deviceContext.clear();
+        }
+
+        // Assert
+        long[] pinSteps = recorder.getNonReversibleStepHistogram("PIN");
+        Assert.assertEquals(1L, pinSteps[0]);
+        Assert.assertEquals(2L, pinSteps[1]);
+        Assert.assertEquals(0L, pinSteps[2]);
+    }
+
+    @Test
+    public void testPercentilesUseBucketUpperBounds() {
+        // Setup
+        DukptMetricsRecorder recorder = new DukptMetricsRecorder();
+
+        // Action
+        for (int i = 0; i < 99; i++) {
+            recorder.onOperation(DukptOperation.COMPUTE_KEY, "PIN", 1000L); // bucket [512, 1024)
+        }
+        recorder.onOperation(DukptOperation.COMPUTE_KEY, "PIN", 100000L);
+
+        // Assert
+        DukptMetricsRecorder.OperationStatistics operationStatistics = recorder.getStatistics(DukptOperation.COMPUTE_KEY, "PIN");
+        Assert.assertEquals(100L, operationStatistics.getCount());
+        Assert.assertEquals(100000L, operationStatistics.getMaxNanoseconds());
+        Assert.assertEquals(1990D, operationStatistics.getMeanNanoseconds(), 0.001D);
+        Assert.assertEquals(1023L, operationStatistics.getPercentileNanoseconds(50D));
+        Assert.assertEquals(1023L, operationStatistics.getPercentileNanoseconds(99D));
+        Assert.assertEquals(100000L, operationStatistics.getPercentileNanoseconds(100D));
+
+        recorder.reset();
+        Assert.assertEquals(0L, recorder.getStatistics(DukptOperation.COMPUTE_KEY, "PIN").getCount());
+    }
+}
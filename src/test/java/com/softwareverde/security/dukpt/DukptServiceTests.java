@@ -0,0 +1,154 @@
+package com.softwareverde.security.dukpt;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class DukptServiceTests {
+    @Test
+    public void testAsyncResultsMatchBlockingApi() throws Exception {
+        // Setup
+        byte[] bdk = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"); // ANSI Test Key
+        byte[] ksn = Dukpt.toByteArray("FFFF9876543210E00008");
+        byte[] plaintext = Dukpt.toByteArray("0123456789ABCDEF0123456789ABCDEF");
+        DukptVariant dataVariant = new DukptVariant(Dukpt.KEY_REGISTER_BITMASK, Dukpt.DATA_VARIANT_BITMASK);
+        byte[] expectedKey = Dukpt.toDataKey(dataVariant.computeKey(bdk, ksn));
+
+        DukptService dukptService = new DukptService(bdk);
+        try {
+            // Action
+            DukptFuture<byte[]> keyFuture = dukptService.computeKey(ksn);
+            DukptFuture<byte[]> ciphertextFuture = dukptService.encrypt(ksn, plaintext);
+            byte[] ciphertext = ciphertextFuture.get(10, TimeUnit.SECONDS);
+            DukptFuture<byte[]> plaintextFuture = dukptService.decrypt(ksn, ciphertext);
+
+            final CountDownLatch latch = new CountDownLatch(1);
+            final AtomicReference<byte[]> callbackResult = new AtomicReference<byte[]>();
+            plaintextFuture.addCallback(new DukptFuture.Callback<byte[]>() {
+                @Override
+                public void onSuccess(byte[] result) {
+                    callbackResult.set(result);
+                    latch.countDown();
+                }
+
+                @Override
+                public void onFailure(Throwable throwable) {
+                    latch.countDown();
+                }
+            });
+
+            // Assert
+            Assert.assertEquals(Dukpt.toHex(expectedKey), Dukpt.toHex(keyFuture.get(10, TimeUnit.SECONDS)));
+            Assert.assertEquals(Dukpt.toHex(Dukpt.encryptTripleDes(expectedKey, plaintext)), Dukpt.toHex(ciphertext));
+            Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals(Dukpt.toHex(plaintext), Dukpt.toHex(callbackResult.get()));
+        }
+        finally {
+            dukptService.clear();
+        }
+    }
+
+    @Test
+    public void testRequestsBeyondLimitAreRejected() throws Exception {
+        // Setup
+        byte[] bdk = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"); // ANSI Test Key
+        byte[] ksn = Dukpt.toByteArray("FFFF9876543210E00008");
+        final List<Runnable> queue = new ArrayList<Runnable>();
+        Executor queueingExecutor = new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                queue.add(runnable);
+            }
+        };
+        DukptService dukptService = new DukptService(bdk, new DukptVariant(), false, queueingExecutor, 2);
+
+        // Action
+        DukptFuture<byte[]> future0 = dukptService.computeKey(ksn);
+        DukptFuture<byte[]> future1 = dukptService.computeKey(ksn);
+        DukptFuture<byte[]> rejectedFuture = dukptService.computeKey(ksn);
+
+        // Assert
+        Assert.assertEquals(2, dukptService.getPendingRequestCount());
+        Assert.assertTrue(rejectedFuture.isDone());
+        try {
+            rejectedFuture.get();
+            Assert.fail();
+        }
+        catch (ExecutionException exception) {
+            Assert.assertTrue(exception.getCause() instanceof RejectedExecutionException);
+        }
+
+        future1.cancel(false);
+        Assert.assertEquals(1, dukptService.getPendingRequestCount());
+        for (Runnable runnable : queue) {
+            runnable.run();
+        }
+        Assert.assertEquals(Dukpt.toHex(Dukpt.computeKey(bdk, ksn)), Dukpt.toHex(future0.get()));
+        Assert.assertEquals(0, dukptService.getPendingRequestCount());
+        dukptService.clear();
+    }
+
+    @Test
+    public void testFailuresAreDeliveredToCallbacks() throws Exception {
+        // Setup
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        DukptService dukptService = new DukptService(Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"), new DukptVariant(), false, executorService, 16);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        try {
+            // Action
+            DukptFuture<byte[]> future = dukptService.decrypt(Dukpt.toByteArray("FFFF9876543210E00008"), new byte[5]);
+            try {
+                future.get(10, TimeUnit.SECONDS);
+                Assert.fail();
+            }
+            catch (ExecutionException exception) { }
+
+            future.addCallback(new DukptFuture.Callback<byte[]>() {
+                @Override
+                public void onSuccess(byte[] result) { }
+
+                @Override
+                public void onFailure(Throwable throwable) {
+                    failure.set(throwable);
+                }
+            });
+
+            // Assert
+            Assert.assertTrue(failure.get() instanceof javax.crypto.IllegalBlockSizeException);
+        }
+        finally {
+            dukptService.clear();
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void testVirtualThreadExecutorMatchesDetection() {
+        // Setup
+        boolean isVirtualThreadSupported = DukptService.isVirtualThreadSupported();
+
+        // Action
+        ExecutorService executorService = null;
+        try {
+            executorService = DukptService.newVirtualThreadExecutor();
+        }
+        catch (UnsupportedOperationException exception) { }
+
+        // Assert
+        Assert.assertEquals(isVirtualThreadSupported, (executorService != null));
+        if (executorService != null) {
+            executorService.shutdown();
+        }
+    }
+}
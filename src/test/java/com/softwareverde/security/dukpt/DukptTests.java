@@ -3,7 +3,19 @@ package com.softwareverde.security.dukpt;
 import org.junit.Assert;
 import org.junit.Test;
 
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DukptTests {
     @Test
@@ -51,6 +63,267 @@ public class DukptTests {
         Assert.assertEquals(payloadString, dataOutput);
     }
 
+    @Test
+    public void testComputeKeyForMultipleCounters() throws Exception {
+        // Setup
+        String bdkHexString = "0123456789ABCDEFFEDCBA9876543210"; // ANSI Test Key
+        String[] ksnHexStrings = { "FFFF9876543210E00001", "FFFF9876543210E00002", "FFFF9876543210E00003", "FFFF9876543210EFF800" };
+        String[] expectedValues = { "042666B49184CF5C68DE9628D0397B36", "C46551CEF9FD244FAA9AD834130D3B38", "0DF3D9422ACA561A47676D07AD6BAD05", "F9CDFEBF4F5B1D61B3EC12454527E189" };
+
+        byte[] bdk = Dukpt.toByteArray(bdkHexString);
+
+        for (int i = 0; i < ksnHexStrings.length; i++) {
+            byte[] ksn = Dukpt.toByteArray(ksnHexStrings[i]);
+
+            // Action
+            byte[] key = Dukpt.computeKey(bdk, ksn);
+
+            // Assert
+            Assert.assertEquals(expectedValues[i], Dukpt.toHex(key));
+        }
+    }
+
+    @Test
+    public void testComputeKeysMatchesComputeKey() throws Exception {
+        // Setup
+        String bdkHexString = "0123456789ABCDEFFEDCBA9876543210"; // ANSI Test Key
+        String[] deviceHexStrings = { "FFFF9876543210E00000", "FFFF9876543211E00000", "629949012C0000000000" };
+
+        byte[] bdk = Dukpt.toByteArray(bdkHexString);
+        final DukptVariant dukptVariant = new DukptVariant(Dukpt.KEY_REGISTER_BITMASK, Dukpt.DATA_VARIANT_BITMASK);
+        Random random = new Random(1L);
+
+        List<byte[]> ksns = new ArrayList<byte[]>();
+        for (int i = 0; i < 300; i++) {
+            byte[] ksn = Dukpt.toByteArray(deviceHexStrings[random.nextInt(deviceHexStrings.length)]);
+            ksn[9] = (byte) random.nextInt(4);
+            ksn[8] = (byte) random.nextInt(256);
+            ksns.add(ksn);
+        }
+
+        // Action
+        List<byte[]> keys = Dukpt.computeKeys(bdk, ksns);
+        List<byte[]> dataKeys = dukptVariant.computeKeys(bdk, ksns);
+
+        // Assert
+        Assert.assertEquals(ksns.size(), keys.size());
+        for (int i = 0; i < ksns.size(); i++) {
+            Assert.assertEquals(Dukpt.toHex(Dukpt.computeKey(bdk, ksns.get(i))), Dukpt.toHex(keys.get(i)));
+            Assert.assertEquals(Dukpt.toHex(dukptVariant.computeKey(bdk, ksns.get(i))), Dukpt.toHex(dataKeys.get(i)));
+        }
+    }
+
+    @Test
+    public void testBuiltInDesMatchesJce() throws Exception {
+        // Setup
+        byte[] key = Dukpt.toByteArray("133457799BBCDFF1");
+        byte[] data = Dukpt.toByteArray("0123456789ABCDEF");
+        byte[] tripleDesKey = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210");
+
+        // Action
+        long encrypted = Des.encrypt(Bytes.toLong(key, 0), Bytes.toLong(data, 0));
+        long tripleDesEncrypted = Des.encryptTripleDes(Bytes.toLong(tripleDesKey, 0), Bytes.toLong(tripleDesKey, 8), Bytes.toLong(tripleDesKey, 0), Bytes.toLong(data, 0));
+
+        // Assert
+        Assert.assertEquals("85E813540F0AB405", Dukpt.toHex(Dukpt.encryptDes(key, data)));
+        Assert.assertEquals(Bytes.toLong(Dukpt.encryptDes(key, data), 0), encrypted);
+        Assert.assertEquals(Bytes.toLong(data, 0), Des.decrypt(Bytes.toLong(key, 0), encrypted));
+        Assert.assertEquals(Bytes.toLong(Dukpt.encryptTripleDes(tripleDesKey, data), 0), tripleDesEncrypted);
+    }
+
+    @Test
+    public void testTripleDesMatchesJceCbc() throws Exception {
+        // Setup
+        Random random = new Random(1L);
+        Cipher paddedCipher = Cipher.getInstance("DESede/CBC/PKCS5Padding");
+        Cipher unpaddedCipher = Cipher.getInstance("DESede/CBC/NoPadding");
+
+        for (int i = 0; i < 200; i++) {
+            byte[] key = new byte[8 * (1 + random.nextInt(3))];
+            random.nextBytes(key);
+            byte[] jceKey = new byte[24];
+            System.arraycopy(key, 0, jceKey, 0, key.length);
+            System.arraycopy(key, 0, jceKey, key.length, Math.min(key.length, 24 - key.length));
+            if (key.length == 8) { System.arraycopy(key, 0, jceKey, 16, 8); }
+
+            byte[] data = new byte[random.nextInt(64)];
+            random.nextBytes(data);
+            byte[] blockData = Arrays.copyOf(data, data.length & ~7);
+
+            SecretKeySpec secretKey = new SecretKeySpec(jceKey, "DESede");
+            paddedCipher.init(Cipher.ENCRYPT_MODE, secretKey, new IvParameterSpec(new byte[8]));
+            byte[] expectedPadded = paddedCipher.doFinal(data);
+            unpaddedCipher.init(Cipher.ENCRYPT_MODE, secretKey, new IvParameterSpec(new byte[8]));
+            byte[] expectedUnpadded = unpaddedCipher.doFinal(blockData);
+
+            // Action
+            byte[] padded = Dukpt.encryptTripleDes(key, data, true);
+            byte[] unpadded = Dukpt.encryptTripleDes(key, blockData);
+
+            // Assert
+            Assert.assertArrayEquals(expectedPadded, padded);
+            Assert.assertArrayEquals(expectedUnpadded, unpadded);
+            Assert.assertArrayEquals(data, Dukpt.decryptTripleDes(key, padded, true));
+            Assert.assertArrayEquals(blockData, Dukpt.decryptTripleDes(key, unpadded));
+        }
+    }
+
+    @Test
+    public void testByteBufferOverloadsMatchByteArrays() throws Exception {
+        // Setup
+        byte[] key = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210");
+        byte[] data = "Mary had a little lamb.".getBytes(StandardCharsets.UTF_8);
+        byte[] expectedTripleDes = Dukpt.encryptTripleDes(key, data, true);
+        byte[] expectedAes = Dukpt.encryptAes(key, data, true);
+
+        ByteBuffer input = ByteBuffer.allocateDirect(data.length);
+        input.put(data);
+        input.flip();
+        ByteBuffer encrypted = ByteBuffer.allocateDirect(64).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer decrypted = ByteBuffer.allocate(64);
+
+        // Action
+        int encryptedLength = Dukpt.encryptTripleDes(key, input, encrypted, true);
+        encrypted.flip();
+        int decryptedLength = Dukpt.decryptTripleDes(key, encrypted.duplicate(), decrypted, true);
+
+        // Assert
+        Assert.assertEquals(expectedTripleDes.length, encryptedLength);
+        byte[] encryptedBytes = new byte[encryptedLength];
+        encrypted.get(encryptedBytes);
+        Assert.assertArrayEquals(expectedTripleDes, encryptedBytes);
+        Assert.assertEquals(data.length, decryptedLength);
+        Assert.assertArrayEquals(data, Arrays.copyOf(decrypted.array(), decryptedLength));
+        Assert.assertFalse(input.hasRemaining());
+
+        input.rewind();
+        ByteBuffer aesEncrypted = ByteBuffer.allocateDirect(64);
+        Assert.assertEquals(expectedAes.length, Dukpt.encryptAes(key, input, aesEncrypted, true));
+        aesEncrypted.flip();
+        byte[] aesEncryptedBytes = new byte[aesEncrypted.remaining()];
+        aesEncrypted.get(aesEncryptedBytes);
+        Assert.assertArrayEquals(expectedAes, aesEncryptedBytes);
+
+        try {
+            Dukpt.decryptTripleDes(key, ByteBuffer.wrap(encryptedBytes), ByteBuffer.allocate(8), true);
+            Assert.fail();
+        }
+        catch (ShortBufferException exception) { }
+    }
+
+    @Test
+    public void testBadPaddingLeavesNoPlaintext() throws Exception {
+        // Setup
+        byte[] key = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210");
+        byte[] data = new byte[8192]; // the final block decrypts to zeros, which is not valid PKCS5 padding
+        byte[] encrypted = Dukpt.encryptTripleDes(key, data);
+
+        ByteBuffer input = ByteBuffer.allocateDirect(encrypted.length);
+        input.put(encrypted);
+        input.flip();
+        ByteBuffer output = ByteBuffer.allocateDirect(encrypted.length);
+        for (int i = 0; i < output.capacity(); i++) {
+            output.put(i, (byte) 0x5A);
+        }
+
+        // Action
+        try {
+            Dukpt.decryptTripleDes(key, input, output, true);
+            Assert.fail();
+        }
+        catch (BadPaddingException exception) { }
+
+        // Assert
+        Assert.assertEquals(0, input.position());
+        Assert.assertEquals(0, output.position());
+        for (int i = 0; i < output.capacity(); i++) {
+            Assert.assertEquals(0, output.get(i));
+        }
+    }
+
+    @Test
+    public void testObliviationPoliciesOverwriteWholeBuffer() throws Exception {
+        // Setup
+        ObliviationPolicy defaultPolicy = Dukpt.getObliviationPolicy();
+        byte[] bdk = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"); // ANSI Test Key
+        byte[] ksn = Dukpt.toByteArray("FFFF9876543210E00008");
+        String expectedKey = Dukpt.toHex(Dukpt.computeKey(bdk, ksn));
+
+        try {
+            for (StandardObliviationPolicy policy : StandardObliviationPolicy.values()) {
+                Dukpt.setObliviationPolicy(policy);
+                byte[] bytes = new byte[64];
+                Arrays.fill(bytes, (byte) 0x5A);
+                byte[] shortCount = new byte[64];
+
+                // Action
+                Dukpt.obliviate(bytes);
+                Dukpt.obliviate(shortCount, 1);
+
+                // Assert
+                int unchangedCount = 0;
+                for (byte b : bytes) {
+                    if (b == (byte) 0x5A) { unchangedCount += 1; }
+                }
+                Assert.assertTrue(unchangedCount < 8);
+                if (policy == StandardObliviationPolicy.ZERO_FILL) {
+                    Assert.assertArrayEquals(new byte[64], bytes);
+                }
+                Assert.assertFalse(Arrays.equals(new byte[64], Arrays.copyOfRange(shortCount, 32, 64)));
+                Assert.assertEquals(expectedKey, Dukpt.toHex(Dukpt.computeKey(bdk, ksn)));
+            }
+        }
+        finally {
+            Dukpt.setObliviationPolicy(defaultPolicy);
+        }
+
+        Assert.assertEquals(StandardObliviationPolicy.ZERO_FILL, defaultPolicy);
+    }
+
+    @Test
+    public void testEncryptFromMultipleThreads() throws Exception {
+        // Setup
+        String bdkHexString = "0123456789ABCDEFFEDCBA9876543210"; // ANSI Test Key
+        String ksnHexString = "FFFF9876543210E00008";
+        final String payloadString = "Mary had a little lamb.";
+
+        final byte[] key = Dukpt.computeKey(Dukpt.toByteArray(bdkHexString), Dukpt.toByteArray(ksnHexString));
+        final byte[] expectedPayload = Dukpt.encryptTripleDes(key, payloadString.getBytes(StandardCharsets.UTF_8), true);
+        final AtomicInteger failureCount = new AtomicInteger(0);
+
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 250; j++) {
+                            byte[] encryptedPayload = Dukpt.encryptTripleDes(key, payloadString.getBytes(StandardCharsets.UTF_8), true);
+                            byte[] decryptedPayload = Dukpt.decryptTripleDes(key, encryptedPayload, true);
+                            if (! Arrays.equals(expectedPayload, encryptedPayload) || ! payloadString.equals(new String(decryptedPayload, StandardCharsets.UTF_8))) {
+                                failureCount.incrementAndGet();
+                            }
+                        }
+                    }
+                    catch (Exception exception) {
+                        failureCount.incrementAndGet();
+                    }
+                }
+            });
+        }
+
+        // Action
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Assert
+        Assert.assertEquals(0, failureCount.get());
+    }
+
     @Test
     public void testGetIpek() throws Exception {
         // Setup
@@ -86,6 +359,31 @@ public class DukptTests {
         Assert.assertEquals("C39B2778B058AC376FB18DC906F75CBA", Dukpt.toHex(dataKey));
     }
 
+    @Test
+    public void testComputeDataKey() throws Exception {
+        // Setup
+        String bdkHexString = "0123456789ABCDEFFEDCBA9876543210"; // ANSI Test Key
+        String ksnHexString = "FFFF9876543210E00008";
+
+        byte[] bdk = Dukpt.toByteArray(bdkHexString);
+        byte[] ksn = Dukpt.toByteArray(ksnHexString);
+        BaseDerivationKey baseDerivationKey = new BaseDerivationKey(bdk);
+        byte[] ipek = Dukpt.getIpek(baseDerivationKey, ksn);
+
+        // Action
+        byte[] dataKey = Dukpt.computeDataKey(bdk, ksn);
+        byte[] preparedDataKey = Dukpt.computeDataKey(baseDerivationKey, ksn);
+        byte[] ipekDataKey = Dukpt.computeDataKeyFromIpek(ipek, ksn);
+        byte[] pinVariantDataKey = new DukptVariant().computeDataKey(bdk, ksn);
+        baseDerivationKey.clear();
+
+        // Assert
+        Assert.assertEquals("C39B2778B058AC376FB18DC906F75CBA", Dukpt.toHex(dataKey));
+        Assert.assertEquals("C39B2778B058AC376FB18DC906F75CBA", Dukpt.toHex(preparedDataKey));
+        Assert.assertEquals("C39B2778B058AC376FB18DC906F75CBA", Dukpt.toHex(ipekDataKey));
+        Assert.assertArrayEquals(Dukpt.toDataKey(Dukpt.computeKey(bdk, ksn)), pinVariantDataKey);
+    }
+
     @Test
     public void testDecryptValidDataWithIpek() throws Exception {
         // Setup
@@ -0,0 +1,87 @@
+package com.softwareverde.security.dukpt;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public class HexCodecTests {
+    @Test
+    public void testEncodeMatchesBigIntegerFormat() {
+        // Setup
+        Random random = new Random(1L);
+
+        for (int length = 1; length < 40; length++) {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            String expectedValue = String.format("%0" + (length << 1) + "X", new BigInteger(1, bytes));
+
+            // Action
+            String hex = HexCodec.encode(bytes);
+            String bufferHex = HexCodec.encode(ByteBuffer.wrap(bytes));
+            String builderHex = HexCodec.append(new StringBuilder(), bytes).toString();
+
+            // Assert
+            Assert.assertEquals(expectedValue, hex);
+            Assert.assertEquals(expectedValue, bufferHex);
+            Assert.assertEquals(expectedValue, builderHex);
+            Assert.assertArrayEquals(bytes, HexCodec.decode(hex));
+            Assert.assertArrayEquals(bytes, HexCodec.decode(hex.toLowerCase()));
+        }
+    }
+
+    @Test
+    public void testDecodeOverloadsAgree() {
+        // Setup
+        String hex = "FFFF9876543210e00008";
+        byte[] expectedValue = { (byte) 0xFF, (byte) 0xFF, (byte) 0x98, (byte) 0x76, (byte) 0x54, (byte) 0x32, (byte) 0x10, (byte) 0xE0, (byte) 0x00, (byte) 0x08 };
+
+        byte[] destination = new byte[12];
+        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(12);
+        byteBuffer.position(1);
+
+        // Action
+        byte[] sequenceBytes = HexCodec.decode(new StringBuilder("KSN=").append(hex), 4, 24);
+        byte[] charArrayBytes = HexCodec.decode(("  " + hex).toCharArray(), 2, 20);
+        int arrayLength = HexCodec.decode(hex, destination, 2);
+        int bufferLength = HexCodec.decode(hex, byteBuffer);
+
+        // Assert
+        Assert.assertArrayEquals(expectedValue, sequenceBytes);
+        Assert.assertArrayEquals(expectedValue, charArrayBytes);
+        Assert.assertEquals(10, arrayLength);
+        Assert.assertEquals("0000" + hex.toUpperCase(), HexCodec.encode(destination));
+        Assert.assertEquals(10, bufferLength);
+        Assert.assertEquals(11, byteBuffer.position());
+        byteBuffer.position(1);
+        byteBuffer.limit(11);
+        Assert.assertEquals(hex.toUpperCase(), HexCodec.encode(byteBuffer));
+    }
+
+    @Test
+    public void testDecodeRejectsInvalidInput() {
+        // Setup
+        String[] invalidHexStrings = { "ABC", "0x12", "12 34", "GG", "\u0661\u0662" };
+        byte[] destination = new byte[] { 1, 2, 3 };
+
+        for (String invalidHexString : invalidHexStrings) {
+            // Action
+            try {
+                Dukpt.toByteArray(invalidHexString);
+                Assert.fail(invalidHexString);
+            }
+            catch (IllegalArgumentException exception) { }
+
+            try {
+                HexCodec.decode(invalidHexString, destination, 0);
+                Assert.fail(invalidHexString);
+            }
+            catch (IllegalArgumentException exception) { }
+
+            // Assert
+            Assert.assertArrayEquals(new byte[] { 1, 2, 3 }, destination);
+        }
+    }
+}
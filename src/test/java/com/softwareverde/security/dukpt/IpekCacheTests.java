@@ -0,0 +1,165 @@
+package com.softwareverde.security.dukpt;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class IpekCacheTests {
+    @Test
+    public void testComputeKeyWithCacheMatchesComputeKey() throws Exception {
+        // Setup
+        String bdkHexString = "0123456789ABCDEFFEDCBA9876543210"; // ANSI Test Key
+        String[] ksnHexStrings = { "FFFF9876543210E00001", "FFFF9876543210E00002", "FFFF9876543210E00008", "FFFF9876543210EFF800" };
+
+        byte[] bdk = Dukpt.toByteArray(bdkHexString);
+        IpekCache ipekCache = new IpekCache();
+        final DukptVariant dukptVariant = new DukptVariant(Dukpt.KEY_REGISTER_BITMASK, Dukpt.DATA_VARIANT_BITMASK);
+
+        for (String ksnHexString : ksnHexStrings) {
+            byte[] ksn = Dukpt.toByteArray(ksnHexString);
+
+            // Action
+            byte[] key = Dukpt.computeKey(bdk, ksn, ipekCache);
+            byte[] dataKey = dukptVariant.computeKey(bdk, ksn, ipekCache);
+
+            // Assert
+            Assert.assertEquals(Dukpt.toHex(Dukpt.computeKey(bdk, ksn)), Dukpt.toHex(key));
+            Assert.assertEquals(Dukpt.toHex(dukptVariant.computeKey(bdk, ksn)), Dukpt.toHex(dataKey));
+        }
+
+        // Every KSN shares one device, and both variants share one key register bitmask.
+        Assert.assertEquals(1, ipekCache.getSize());
+    }
+
+    @Test
+    public void testCacheKeysOnBdkContentAndDevice() throws Exception {
+        // Setup
+        byte[] bdk = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210");
+        byte[] otherBdk = Dukpt.toByteArray("FEDCBA98765432100123456789ABCDEF");
+        IpekCache ipekCache = new IpekCache();
+
+        // Action
+        Dukpt.computeKey(bdk, Dukpt.toByteArray("FFFF9876543210E00001"), ipekCache);
+        Dukpt.computeKey(bdk.clone(), Dukpt.toByteArray("FFFF9876543210E00002"), ipekCache);
+        Dukpt.computeKey(otherBdk, Dukpt.toByteArray("FFFF9876543210E00001"), ipekCache);
+        Dukpt.computeKey(bdk, Dukpt.toByteArray("FFFF9876543211E00001"), ipekCache);
+
+        // Assert
+        Assert.assertEquals(3, ipekCache.getSize());
+    }
+
+    @Test
+    public void testCacheEvictsBySizeAndTime() throws Exception {
+        // Setup
+        byte[] bdk = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210");
+        IpekCache sizeBoundedCache = new IpekCache(2, 1L, TimeUnit.HOURS);
+        IpekCache timeBoundedCache = new IpekCache(100, 1L, TimeUnit.MILLISECONDS);
+
+        // Action
+        for (int i = 0; i < 5; i++) {
+            byte[] ksn = Dukpt.toByteArray("FFFF98765432" + i + "0E00001");
+            Dukpt.computeKey(bdk, ksn, sizeBoundedCache);
+            Dukpt.computeKey(bdk, ksn, timeBoundedCache);
+            Thread.sleep(5L);
+        }
+
+        // Assert
+        Assert.assertEquals(2, sizeBoundedCache.getSize());
+        Assert.assertEquals(1, timeBoundedCache.getSize());
+
+        sizeBoundedCache.clear();
+        Assert.assertEquals(0, sizeBoundedCache.getSize());
+    }
+
+    @Test
+    public void testConcurrentRequestsShareOneEntry() throws Exception {
+        // Setup
+        final byte[] bdk = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210");
+        final byte[] ksn = Dukpt.toByteArray("FFFF9876543210E00008");
+        final String expectedKey = Dukpt.toHex(Dukpt.computeKey(bdk, ksn));
+        final IpekCache ipekCache = new IpekCache();
+        final AtomicInteger failureCount = new AtomicInteger(0);
+
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 100; j++) {
+                            if (! expectedKey.equals(Dukpt.toHex(Dukpt.computeKey(bdk, ksn, ipekCache)))) {
+                                failureCount.incrementAndGet();
+                            }
+                        }
+                    }
+                    catch (Exception exception) {
+                        failureCount.incrementAndGet();
+                    }
+                }
+            });
+        }
+
+        // Action
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Assert
+        Assert.assertEquals(0, failureCount.get());
+        Assert.assertEquals(1, ipekCache.getSize());
+    }
+
+    @Test
+    public void testClearDuringConcurrentRequests() throws Exception {
+        // Setup
+        final byte[] bdk = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210");
+        final byte[] ksn = Dukpt.toByteArray("FFFF9876543210E00008");
+        final String expectedKey = Dukpt.toHex(Dukpt.computeKey(bdk, ksn));
+        final IpekCache ipekCache = new IpekCache();
+        final AtomicInteger failureCount = new AtomicInteger(0);
+
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final boolean isClearing = (i == 0);
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 200; j++) {
+                            if (isClearing) {
+                                ipekCache.clear();
+                            }
+                            else if (! expectedKey.equals(Dukpt.toHex(Dukpt.computeKey(bdk, ksn, ipekCache)))) {
+                                failureCount.incrementAndGet();
+                            }
+                        }
+                    }
+                    catch (Exception exception) {
+                        failureCount.incrementAndGet();
+                    }
+                }
+            });
+        }
+
+        // Action
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Assert
+        Assert.assertEquals(0, failureCount.get());
+        Assert.assertTrue(ipekCache.getSize() <= 1);
+        Assert.assertEquals(expectedKey, Dukpt.toHex(Dukpt.computeKey(bdk, ksn, ipekCache)));
+
+        ipekCache.clear();
+        Assert.assertEquals(0, ipekCache.getSize());
+    }
+}
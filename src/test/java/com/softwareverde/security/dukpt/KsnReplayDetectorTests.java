@@ -0,0 +1,105 @@
+package com.softwareverde.security.dukpt;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class KsnReplayDetectorTests {
+    private static byte[] _ksn(long device, int counter) {
+        byte[] ksn = new byte[10];
+        Bytes.putLong((device << 5), ksn, 0);
+        DukptKeyEnumerator.setCounter(ksn, counter);
+        return ksn;
+    }
+
+    @Test
+    public void testReplaysAndOldCountersAreRejected() {
+        // Setup
+        KsnReplayDetector replayDetector = new KsnReplayDetector();
+        byte[] ksn = Dukpt.toByteArray("FFFF9876543210E00008");
+        byte[] otherDeviceKsn = Dukpt.toByteArray("FFFF9876543211E00008");
+
+        // Action
+        KsnReplayDetector.Result first = replayDetector.check(ksn);
+        KsnReplayDetector.Result replay = replayDetector.check(ksn);
+        KsnReplayDetector.Result otherDevice = replayDetector.check(otherDeviceKsn);
+
+        DukptKeyEnumerator.setCounter(ksn, 5);
+        KsnReplayDetector.Result outOfOrder = replayDetector.check(ksn);
+        KsnReplayDetector.Result outOfOrderReplay = replayDetector.check(ksn);
+
+        DukptKeyEnumerator.setCounter(ksn, 100);
+        KsnReplayDetector.Result jump = replayDetector.check(ksn);
+        DukptKeyEnumerator.setCounter(ksn, 100 - KsnReplayDetector.WINDOW_SIZE);
+        KsnReplayDetector.Result oldestInWindow = replayDetector.check(ksn);
+        DukptKeyEnumerator.setCounter(ksn, 99 - KsnReplayDetector.WINDOW_SIZE);
+        KsnReplayDetector.Result tooOld = replayDetector.check(ksn);
+
+        // Assert
+        Assert.assertEquals(KsnReplayDetector.Result.ACCEPTED, first);
+        Assert.assertEquals(KsnReplayDetector.Result.REPLAYED, replay);
+        Assert.assertEquals(KsnReplayDetector.Result.ACCEPTED, otherDevice);
+        Assert.assertEquals(KsnReplayDetector.Result.ACCEPTED, outOfOrder);
+        Assert.assertEquals(KsnReplayDetector.Result.REPLAYED, outOfOrderReplay);
+        Assert.assertEquals(KsnReplayDetector.Result.ACCEPTED, jump);
+        Assert.assertEquals(KsnReplayDetector.Result.ACCEPTED, oldestInWindow);
+        Assert.assertEquals(KsnReplayDetector.Result.TOO_OLD, tooOld);
+        Assert.assertTrue(replayDetector.isReplay(ksn));
+        DukptKeyEnumerator.setCounter(ksn, 101);
+        Assert.assertFalse(replayDetector.isReplay(ksn));
+        Assert.assertEquals(2, replayDetector.getDeviceCount());
+    }
+
+    @Test
+    public void testConcurrentChecksAcceptEachCounterOnce() throws Exception {
+        // Setup
+        final KsnReplayDetector replayDetector = new KsnReplayDetector();
+        final int deviceCount = 20000;
+        final int counterCount = 8;
+        final AtomicInteger acceptedCount = new AtomicInteger(0);
+        final AtomicInteger rejectedCount = new AtomicInteger(0);
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            final Random random = new Random(t);
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // Threads pick devices pseudo-randomly, so most devices are submitted by several threads at once.
+                    for (int i = 0; i < deviceCount; i++) {
+                        long device = (i * 7919L + random.nextInt(deviceCount)) % deviceCount;
+                        for (int counter = 1; counter <= counterCount; counter++) {
+                            KsnReplayDetector.Result result = replayDetector.check(_ksn(device, counter));
+                            (result == KsnReplayDetector.Result.ACCEPTED ? acceptedCount : rejectedCount).incrementAndGet();
+                        }
+                    }
+                }
+            }));
+        }
+
+        // Action
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Assert
+        int distinctDeviceCount = replayDetector.getDeviceCount();
+        Assert.assertTrue(distinctDeviceCount > deviceCount / 2);
+        Assert.assertEquals(distinctDeviceCount * counterCount, acceptedCount.get());
+        Assert.assertEquals((4 * deviceCount * counterCount) - acceptedCount.get(), rejectedCount.get());
+        int replayedDeviceCount = 0;
+        for (long device = 0; device < deviceCount; device++) {
+            if (replayDetector.check(_ksn(device, counterCount)) == KsnReplayDetector.Result.REPLAYED) {
+                replayedDeviceCount += 1;
+            }
+        }
+        Assert.assertEquals(distinctDeviceCount, replayedDeviceCount);
+    }
+}
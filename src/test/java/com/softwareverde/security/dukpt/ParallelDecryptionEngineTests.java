@@ -0,0 +1,103 @@
+package com.softwareverde.security.dukpt;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class ParallelDecryptionEngineTests {
+    @Test
+    public void testDecryptValidData() throws Exception {
+        // Setup
+        String bdkHexString = "0123456789ABCDEFFEDCBA9876543210"; // ANSI Test Key
+        String ksnHexString = "FFFF9876543210E00008";
+        String dataHexString = "C25C1D1197D31CAA87285D59A892047426D9182EC11353C051ADD6D0F072A6CB3436560B3071FC1FD11D9F7E74886742D9BEE0CFD1EA1064C213BB55278B2F12";
+        String expectedValue = "%B5452300551227189^HOGAN/PAUL      ^08043210000000725000000?\0\0\0\0";
+
+        byte[] bdk = Dukpt.toByteArray(bdkHexString);
+        List<EncryptedRecord> records = new ArrayList<EncryptedRecord>();
+        records.add(new EncryptedRecord(Dukpt.toByteArray(ksnHexString), Dukpt.toByteArray(dataHexString)));
+
+        ForkJoinPool forkJoinPool = new ForkJoinPool(2);
+        ParallelDecryptionEngine parallelDecryptionEngine = new ParallelDecryptionEngine(bdk, new DukptVariant(), false, forkJoinPool, ParallelDecryptionEngine.DEFAULT_PARTITION_SIZE);
+
+        // Action
+        ParallelDecryptionEngine.BatchResult batchResult = parallelDecryptionEngine.decrypt(records);
+
+        // Assert
+        Assert.assertEquals(1, batchResult.getRecordCount());
+        Assert.assertEquals(expectedValue, new String(batchResult.getPlaintexts().get(0), StandardCharsets.UTF_8));
+
+        forkJoinPool.shutdown();
+    }
+
+    @Test
+    public void testDecryptManyDevicesInInputOrder() throws Exception {
+        // Setup
+        final byte[] bdk = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"); // ANSI Test Key
+        String[] deviceHexStrings = { "FFFF9876543210E00000", "FFFF9876543211E00000", "629949012C0000000000" };
+        final DukptVariant dukptVariant = new DukptVariant(Dukpt.KEY_REGISTER_BITMASK, Dukpt.DATA_VARIANT_BITMASK);
+        Random random = new Random(1L);
+
+        List<EncryptedRecord> records = new ArrayList<EncryptedRecord>();
+        List<String> expectedValues = new ArrayList<String>();
+        for (int i = 0; i < 500; i++) {
+            byte[] ksn = Dukpt.toByteArray(deviceHexStrings[random.nextInt(deviceHexStrings.length)]);
+            ksn[9] = (byte) random.nextInt(256);
+            ksn[8] = (byte) random.nextInt(4);
+
+            String expectedValue = String.format("Record %9d", i); // two DES blocks
+            byte[] dataKey = dukptVariant.toDataKey(dukptVariant.computeKey(bdk, ksn));
+            records.add(new EncryptedRecord(ksn, Dukpt.encryptTripleDes(dataKey, expectedValue.getBytes(StandardCharsets.UTF_8))));
+            expectedValues.add(expectedValue);
+        }
+
+        ForkJoinPool forkJoinPool = new ForkJoinPool(4);
+        ParallelDecryptionEngine bdkEngine = new ParallelDecryptionEngine(bdk, forkJoinPool);
+        ParallelDecryptionEngine ipekEngine = new ParallelDecryptionEngine(new IpekSource() {
+            @Override
+            public byte[] getIpek(byte[] keySerialNumber) throws Exception {
+                return Dukpt.toByteArray(Dukpt.getIpek(Dukpt.toBitSet(bdk), Dukpt.toBitSet(keySerialNumber)));
+            }
+        }, dukptVariant, true, forkJoinPool, 16);
+
+        // Action
+        ParallelDecryptionEngine.BatchResult bdkBatchResult = bdkEngine.decrypt(records);
+        ParallelDecryptionEngine.BatchResult ipekBatchResult = ipekEngine.decrypt(records);
+
+        // Assert
+        Assert.assertEquals(3, bdkBatchResult.getPartitionCount());
+        Assert.assertTrue(ipekBatchResult.getPartitionCount() > 3);
+        Assert.assertEquals(500L * 16L, bdkBatchResult.getByteCount());
+        for (int i = 0; i < records.size(); i++) {
+            Assert.assertEquals(expectedValues.get(i), new String(bdkBatchResult.getPlaintexts().get(i), StandardCharsets.UTF_8));
+            Assert.assertEquals(expectedValues.get(i), new String(ipekBatchResult.getPlaintexts().get(i), StandardCharsets.UTF_8));
+        }
+
+        forkJoinPool.shutdown();
+    }
+
+    @Test
+    public void testDecryptFailureIsRethrown() throws Exception {
+        // Setup
+        byte[] bdk = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"); // ANSI Test Key
+        List<EncryptedRecord> records = new ArrayList<EncryptedRecord>();
+        records.add(new EncryptedRecord(Dukpt.toByteArray("FFFF9876543210E00008"), new byte[7]));
+
+        ForkJoinPool forkJoinPool = new ForkJoinPool(2);
+        ParallelDecryptionEngine parallelDecryptionEngine = new ParallelDecryptionEngine(bdk, forkJoinPool);
+
+        // Action
+        try {
+            parallelDecryptionEngine.decrypt(records);
+            Assert.fail();
+        }
+        catch (javax.crypto.IllegalBlockSizeException exception) { }
+
+        forkJoinPool.shutdown();
+    }
+}
@@ -0,0 +1,134 @@
+package com.softwareverde.security.dukpt;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class PinBlockTranslatorTests {
+    private static final String PRIMARY_ACCOUNT_NUMBER = "4012345678909";
+    private static final String PAN_FIELD = "0000401234567890";
+
+    private static long _toLong(byte[] bytes) {
+        return Bytes.toLong(bytes, 0);
+    }
+
+    @Test
+    public void testTranslatesAnsiTestPinBlocksToFormat0() throws Exception {
+        // Setup
+        byte[] bdk = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"); // ANSI Test Key
+        byte[] targetKey = Dukpt.toByteArray("00112233445566778899AABBCCDDEEFF");
+
+        // ANSI X9.24 test vectors: PIN 1234 for PAN 4012345678909, format 0, under the PIN variant keys.
+        List<EncryptedPinBlock> encryptedPinBlocks = new ArrayList<EncryptedPinBlock>();
+        encryptedPinBlocks.add(new EncryptedPinBlock(Dukpt.toByteArray("FFFF9876543210E00003"), Dukpt.toByteArray("18DC07B94797B466"), PRIMARY_ACCOUNT_NUMBER));
+        encryptedPinBlocks.add(new EncryptedPinBlock(Dukpt.toByteArray("FFFF9876543210E00001"), Dukpt.toByteArray("1B9C1845EB993A7A"), PRIMARY_ACCOUNT_NUMBER));
+        encryptedPinBlocks.add(new EncryptedPinBlock(Dukpt.toByteArray("FFFF9876543210E00002"), Dukpt.toByteArray("10A01C8D02C69107"), PRIMARY_ACCOUNT_NUMBER));
+        encryptedPinBlocks.add(new EncryptedPinBlock(Dukpt.toByteArray("FFFF9876543210E00001"), Dukpt.toByteArray("1B9C1845EB993A7A"), "4012345678901234")); // wrong PAN
+
+        PinBlockTranslator pinBlockTranslator = new PinBlockTranslator(bdk, targetKey);
+
+        // Action
+        List<byte[]> translatedPinBlocks = pinBlockTranslator.translate(encryptedPinBlocks);
+        pinBlockTranslator.clear();
+
+        // Assert
+        Assert.assertEquals(4, translatedPinBlocks.size());
+        for (int i = 0; i < 3; i++) {
+            byte[] clearPinBlock = Dukpt.decryptTripleDes(targetKey, translatedPinBlocks.get(i));
+            Assert.assertEquals("041234FFFFFFFFFF", String.format("%016X", _toLong(clearPinBlock) ^ _toLong(Dukpt.toByteArray(PAN_FIELD))));
+        }
+        Assert.assertNull(translatedPinBlocks.get(3));
+    }
+
+    @Test
+    public void testTranslatesToFormat1And3() throws Exception {
+        // Setup
+        byte[] bdk = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"); // ANSI Test Key
+        byte[] targetKey = Dukpt.toByteArray("00112233445566778899AABBCCDDEEFF0011223344556677");
+        byte[] ksn = Dukpt.toByteArray("FFFF9876543210E00001");
+        byte[] format1PinBlock = Dukpt.encryptTripleDes(Dukpt.computeKey(bdk, ksn), Dukpt.toByteArray("1412346D3F8A0C57"));
+        EncryptedPinBlock format0EncryptedPinBlock = new EncryptedPinBlock(ksn, Dukpt.toByteArray("1B9C1845EB993A7A"), PRIMARY_ACCOUNT_NUMBER);
+        EncryptedPinBlock format1EncryptedPinBlock = new EncryptedPinBlock(ksn, format1PinBlock, PRIMARY_ACCOUNT_NUMBER);
+
+        PinBlockTranslator format1Translator = new PinBlockTranslator(bdk, new DukptVariant(), targetKey, PinBlockFormat.ISO_1);
+        PinBlockTranslator format3Translator = new PinBlockTranslator(bdk, new DukptVariant(), targetKey, PinBlockFormat.ISO_3);
+
+        // Action
+        String translatedFormat1PinBlock = Dukpt.toHex(Dukpt.decryptTripleDes(targetKey, format1Translator.translate(format1EncryptedPinBlock)));
+        String format3PinField = String.format("%016X", _toLong(Dukpt.decryptTripleDes(targetKey, format3Translator.translate(format0EncryptedPinBlock))) ^ _toLong(Dukpt.toByteArray(PAN_FIELD)));
+        String format3PinFieldFromFormat1 = String.format("%016X", _toLong(Dukpt.decryptTripleDes(targetKey, format3Translator.translate(format1EncryptedPinBlock))) ^ _toLong(Dukpt.toByteArray(PAN_FIELD)));
+        format1Translator.clear();
+        format3Translator.clear();
+
+        // Assert
+        Assert.assertTrue(translatedFormat1PinBlock, translatedFormat1PinBlock.startsWith("141234"));
+        Assert.assertTrue(format3PinField, format3PinField.matches("341234[A-F]{10}"));
+        Assert.assertTrue(format3PinFieldFromFormat1, format3PinFieldFromFormat1.matches("341234[A-F]{10}"));
+    }
+
+    @Test
+    public void testPanBoundPinBlockIsNotTranslatedToFormat1() throws Exception {
+        // Setup
+        byte[] bdk = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"); // ANSI Test Key
+        byte[] targetKey = Dukpt.toByteArray("00112233445566778899AABBCCDDEEFF");
+        EncryptedPinBlock encryptedPinBlock = new EncryptedPinBlock(Dukpt.toByteArray("FFFF9876543210E00001"), Dukpt.toByteArray("1B9C1845EB993A7A"), PRIMARY_ACCOUNT_NUMBER); // format 0
+        PinBlockTranslator pinBlockTranslator = new PinBlockTranslator(bdk, new DukptVariant(), targetKey, PinBlockFormat.ISO_1);
+
+        // Action
+        byte[] translatedPinBlock = pinBlockTranslator.translate(encryptedPinBlock);
+        pinBlockTranslator.clear();
+
+        // Assert
+        Assert.assertNull(translatedPinBlock);
+    }
+
+    @Test
+    public void testMissingPanIsRejected() throws Exception {
+        // Setup
+        byte[] bdk = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"); // ANSI Test Key
+        PinBlockTranslator pinBlockTranslator = new PinBlockTranslator(bdk, new byte[16]);
+        EncryptedPinBlock encryptedPinBlock = new EncryptedPinBlock(Dukpt.toByteArray("FFFF9876543210E00001"), Dukpt.toByteArray("1B9C1845EB993A7A"), null);
+
+        // Action
+        try {
+            pinBlockTranslator.translate(encryptedPinBlock);
+            Assert.fail();
+        }
+        catch (IllegalArgumentException exception) {
+            // Assert
+            Assert.assertEquals("Invalid primary account number provided: null", exception.getMessage());
+        }
+        finally {
+            pinBlockTranslator.clear();
+        }
+    }
+
+    @Test
+    public void testClearedTranslatorIsRejected() throws Exception {
+        // Setup
+        final byte[] bdk = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"); // ANSI Test Key
+        final byte[] ipek = Dukpt.getIpek(new BaseDerivationKey(bdk), Dukpt.toByteArray("FFFF9876543210E00000"));
+        IpekSource ipekSource = new IpekSource() {
+            @Override
+            public byte[] getIpek(byte[] keySerialNumber) {
+                return ipek.clone();
+            }
+        };
+        PinBlockTranslator pinBlockTranslator = new PinBlockTranslator(ipekSource, new DukptVariant(), Dukpt.toByteArray("00112233445566778899AABBCCDDEEFF"), PinBlockFormat.ISO_0);
+        EncryptedPinBlock encryptedPinBlock = new EncryptedPinBlock(Dukpt.toByteArray("FFFF9876543210E00001"), Dukpt.toByteArray("1B9C1845EB993A7A"), PRIMARY_ACCOUNT_NUMBER);
+        Assert.assertNotNull(pinBlockTranslator.translate(encryptedPinBlock));
+
+        // Action
+        pinBlockTranslator.clear();
+        try {
+            pinBlockTranslator.translate(encryptedPinBlock);
+            Assert.fail();
+        }
+        catch (IllegalStateException exception) {
+            // Assert
+            Assert.assertEquals("PIN block translator has been cleared.", exception.getMessage());
+        }
+    }
+}
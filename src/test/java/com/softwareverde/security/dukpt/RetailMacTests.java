@@ -0,0 +1,112 @@
+package com.softwareverde.security.dukpt;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+public class RetailMacTests {
+    /**
+     * <p>Computes the X9.19 MAC with the JCE: DES CBC under the left key half over the zero-padded message, then
+     * decryption under the right half and encryption under the left half.
+     */
+    private static byte[] _computeExpectedMac(byte[] key, byte[] message) throws Exception {
+        int paddedLength = Math.max(8, ((message.length + 7) / 8) * 8);
+        byte[] paddedMessage = Arrays.copyOf(message, paddedLength);
+
+        SecretKeySpec leftKey = new SecretKeySpec(Arrays.copyOfRange(key, 0, 8), "DES");
+        SecretKeySpec rightKey = new SecretKeySpec(Arrays.copyOfRange(key, 8, 16), "DES");
+
+        Cipher cbc = Cipher.getInstance("DES/CBC/NoPadding");
+        cbc.init(Cipher.ENCRYPT_MODE, leftKey, new IvParameterSpec(new byte[8]));
+        byte[] chain = Arrays.copyOfRange(cbc.doFinal(paddedMessage), paddedLength - 8, paddedLength);
+
+        Cipher ecb = Cipher.getInstance("DES/ECB/NoPadding");
+        ecb.init(Cipher.DECRYPT_MODE, rightKey);
+        chain = ecb.doFinal(chain);
+        ecb.init(Cipher.ENCRYPT_MODE, leftKey);
+        return ecb.doFinal(chain);
+    }
+
+    @Test
+    public void testIncrementalMacMatchesWholeMessageMac() throws Exception {
+        // Setup
+        byte[] key = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210");
+        RetailMac retailMac = new RetailMac(key);
+
+        for (int length : new int[] { 0, 1, 7, 8, 9, 16, 100, 1027 }) {
+            byte[] message = new byte[length];
+            for (int i = 0; i < length; i++) {
+                message[i] = (byte) (i * 31);
+            }
+            byte[] expectedMac = _computeExpectedMac(key, message);
+
+            // Action
+            retailMac.update(message);
+            byte[] wholeMac = retailMac.doFinal();
+
+            for (int i = 0; i < length; i += 3) {
+                retailMac.update(message, i, Math.min(3, length - i));
+            }
+            byte[] byteArrayPiecesMac = retailMac.doFinal();
+
+            ByteBuffer byteBuffer = ByteBuffer.allocateDirect(length + 5).order(ByteOrder.LITTLE_ENDIAN);
+            byteBuffer.position(5);
+            byteBuffer.put(message);
+            byteBuffer.position(5);
+            byteBuffer.limit(5 + (length / 2));
+            retailMac.update(byteBuffer);
+            byteBuffer.limit(5 + length);
+            retailMac.update(byteBuffer);
+            byte[] byteBufferMac = retailMac.doFinal();
+
+            // Assert
+            Assert.assertArrayEquals(expectedMac, wholeMac);
+            Assert.assertArrayEquals(expectedMac, byteArrayPiecesMac);
+            Assert.assertArrayEquals(expectedMac, byteBufferMac);
+            Assert.assertFalse(byteBuffer.hasRemaining());
+        }
+
+        retailMac.clear();
+    }
+
+    @Test
+    public void testDukptMacVerifiesTruncatedMacs() throws Exception {
+        // Setup
+        byte[] bdk = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"); // ANSI Test Key
+        byte[] ksn = Dukpt.toByteArray("FFFF9876543210E00008");
+        byte[] message = "4012345678909D987".getBytes("US-ASCII");
+        byte[] macKey = new DukptVariant(Dukpt.KEY_REGISTER_BITMASK, Dukpt.MAC_VARIANT_BITMASK).computeKey(bdk, ksn);
+        byte[] expectedMac = _computeExpectedMac(macKey, message);
+        byte[] wrongMac = Arrays.copyOf(expectedMac, 4);
+        wrongMac[3] ^= 0x01;
+
+        RetailMac retailMac = Dukpt.createMac(bdk, ksn);
+
+        // Action
+        retailMac.update(message);
+        boolean isFullMacValid = retailMac.verify(expectedMac);
+        retailMac.update(message);
+        boolean isTruncatedMacValid = retailMac.verify(Arrays.copyOf(expectedMac, 4));
+        retailMac.update(message);
+        boolean isWrongMacValid = retailMac.verify(wrongMac);
+        retailMac.clear();
+
+        // Assert
+        Assert.assertTrue(isFullMacValid);
+        Assert.assertTrue(isTruncatedMacValid);
+        Assert.assertFalse(isWrongMacValid);
+        try {
+            retailMac.update(message);
+            Assert.fail();
+        }
+        catch (IllegalStateException exception) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.softwareverde.security.dukpt;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class StreamingFileDecryptorTests {
+    @Test
+    public void testDecryptFixedLengthRecords() throws Exception {
+        // Setup
+        byte[] bdk = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"); // ANSI Test Key
+        String[] deviceHexStrings = { "FFFF9876543210E00000", "FFFF9876543211E00000" };
+        DukptVariant dukptVariant = new DukptVariant(Dukpt.KEY_REGISTER_BITMASK, Dukpt.DATA_VARIANT_BITMASK);
+        Random random = new Random(1L);
+
+        ByteArrayOutputStream inputBytes = new ByteArrayOutputStream();
+        List<String> expectedValues = new ArrayList<String>();
+        for (int i = 0; i < 200; i++) {
+            byte[] ksn = Dukpt.toByteArray(deviceHexStrings[i / 100]);
+            ksn[9] = (byte) (i % 100 + 1);
+
+            String expectedValue = String.format("Record %9d", i); // two DES blocks
+            byte[] dataKey = dukptVariant.toDataKey(dukptVariant.computeKey(bdk, ksn));
+            inputBytes.write(ksn);
+            inputBytes.write(Dukpt.encryptTripleDes(dataKey, expectedValue.getBytes(StandardCharsets.UTF_8)));
+            expectedValues.add(expectedValue);
+        }
+
+        Path inputFile = Files.createTempFile("dukpt", ".in");
+        Path outputFile = Files.createTempFile("dukpt", ".out");
+        Files.write(inputFile, inputBytes.toByteArray());
+
+        // Small windows and buffers force records to straddle window boundaries and buffer flushes.
+        StreamingFileDecryptor streamingFileDecryptor = new StreamingFileDecryptor(bdk, dukptVariant, true, StreamingFileDecryptor.RecordFormat.fixedLength(16), 100, 64);
+
+        // Action
+        long recordCount = streamingFileDecryptor.decrypt(inputFile, outputFile);
+
+        // Assert
+        Assert.assertEquals(200L, recordCount);
+
+        ByteBuffer output = ByteBuffer.wrap(Files.readAllBytes(outputFile));
+        Assert.assertEquals(200 * 26, output.remaining());
+        for (int i = 0; i < 200; i++) {
+            byte[] ksn = new byte[10];
+            byte[] plaintext = new byte[16];
+            output.get(ksn);
+            output.get(plaintext);
+
+            Assert.assertEquals(deviceHexStrings[i / 100].substring(0, 18), Dukpt.toHex(ksn).substring(0, 18));
+            Assert.assertEquals(expectedValues.get(i), new String(plaintext, StandardCharsets.UTF_8));
+        }
+
+        streamingFileDecryptor.clear();
+        try {
+            streamingFileDecryptor.decrypt(inputFile, outputFile);
+            Assert.fail();
+        }
+        catch (IllegalStateException exception) { }
+
+        Files.delete(inputFile);
+        Files.delete(outputFile);
+    }
+
+    @Test
+    public void testDecryptLengthPrefixedRecords() throws Exception {
+        // Setup
+        String bdkHexString = "0123456789ABCDEFFEDCBA9876543210"; // ANSI Test Key
+        String ksnHexString = "FFFF9876543210E00008";
+        String dataHexString = "C25C1D1197D31CAA87285D59A892047426D9182EC11353C051ADD6D0F072A6CB3436560B3071FC1FD11D9F7E74886742D9BEE0CFD1EA1064C213BB55278B2F12";
+        String expectedValue = "%B5452300551227189^HOGAN/PAUL      ^08043210000000725000000?\0\0\0\0";
+
+        byte[] bdk = Dukpt.toByteArray(bdkHexString);
+        byte[] ciphertext = Dukpt.toByteArray(dataHexString);
+
+        ByteBuffer input = ByteBuffer.allocate(3 * (10 + 2 + ciphertext.length));
+        for (int i = 0; i < 3; i++) {
+            input.put(Dukpt.toByteArray(ksnHexString));
+            input.putShort((short) ciphertext.length);
+            input.put(ciphertext);
+        }
+
+        Path inputFile = Files.createTempFile("dukpt", ".in");
+        Path outputFile = Files.createTempFile("dukpt", ".out");
+        Files.write(inputFile, input.array());
+
+        StreamingFileDecryptor streamingFileDecryptor = new StreamingFileDecryptor(bdk, new DukptVariant(), false, StreamingFileDecryptor.RecordFormat.lengthPrefixed(2), 50, 16);
+
+        // Action
+        long recordCount = streamingFileDecryptor.decrypt(inputFile, outputFile);
+
+        // Assert
+        Assert.assertEquals(3L, recordCount);
+
+        ByteBuffer output = ByteBuffer.wrap(Files.readAllBytes(outputFile));
+        for (int i = 0; i < 3; i++) {
+            byte[] ksn = new byte[10];
+            output.get(ksn);
+            Assert.assertEquals(ksnHexString, Dukpt.toHex(ksn));
+            Assert.assertEquals(ciphertext.length, output.getShort());
+
+            byte[] plaintext = new byte[ciphertext.length];
+            output.get(plaintext);
+            Assert.assertEquals(expectedValue, new String(plaintext, StandardCharsets.UTF_8));
+        }
+        Assert.assertFalse(output.hasRemaining());
+
+        Files.delete(inputFile);
+        Files.delete(outputFile);
+    }
+
+    @Test
+    public void testTruncatedRecordIsRejected() throws Exception {
+        // Setup
+        byte[] bdk = Dukpt.toByteArray("0123456789ABCDEFFEDCBA9876543210"); // ANSI Test Key
+        Path inputFile = Files.createTempFile("dukpt", ".in");
+        Path outputFile = Files.createTempFile("dukpt", ".out");
+        Files.write(inputFile, new byte[10 + 8 + 5]);
+
+        StreamingFileDecryptor streamingFileDecryptor = new StreamingFileDecryptor(bdk, new DukptVariant(), false, StreamingFileDecryptor.RecordFormat.fixedLength(8));
+
+        // Action
+        try {
+            streamingFileDecryptor.decrypt(inputFile, outputFile);
+            Assert.fail();
+        }
+        catch (IOException exception) { }
+
+        // Assert
+        Files.delete(inputFile);
+        Files.delete(outputFile);
+    }
+}